@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm.benchmarks;
+
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.io.AbstractConnection;
+import org.eclipse.jetty.io.ByteArrayEndPoint;
+import org.eclipse.jetty.io.Connection;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.everit.jetty.server.ecm.internal.EndPointRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how a connection factory tracks the connections that many selector threads accept and
+ * close in parallel. Every benchmark thread plays a selector: it creates a connection, registers it
+ * the way the factory does and closes it. The {@link EndPointRegistry} is compared to the former
+ * tracking that put every endpoint into a {@link WeakHashMap} under the monitor of the factory.
+ * The number of selectors can be changed with the <code>-t</code> option of JMH.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Threads(16)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class EndPointRegistryBenchmark {
+
+  /**
+   * Connection that does nothing, so the benchmark measures the tracking only.
+   */
+  private static final class IdleConnection extends AbstractConnection {
+
+    IdleConnection(final EndPoint endPoint) {
+      super(endPoint, Runnable::run);
+    }
+
+    @Override
+    public void onFillable() {
+      // Nothing is read by the benchmark
+    }
+  }
+
+  private Connector connector;
+
+  private EndPointRegistry endPointRegistry;
+
+  private WeakHashMap<EndPoint, Boolean> referencedEndPoints;
+
+  /**
+   * Registers a connection in the lock-free registry and closes it, which removes it from the
+   * registry.
+   */
+  @Benchmark
+  public void endPointRegistry() {
+    Connection connection = new IdleConnection(new ByteArrayEndPoint());
+    this.endPointRegistry.register(this.connector, connection);
+    connection.onClose();
+  }
+
+  @Setup
+  public void setUp() {
+    this.connector = new ServerConnector(new Server());
+    this.endPointRegistry = new EndPointRegistry();
+    this.referencedEndPoints = new WeakHashMap<>();
+  }
+
+  /**
+   * Puts the endpoint of a connection into a {@link WeakHashMap} under a monitor, the way the
+   * connection factories did before the {@link EndPointRegistry}. The endpoint stays in the map
+   * until it is garbage collected.
+   */
+  @Benchmark
+  public void synchronizedWeakHashMap() {
+    Connection connection = new IdleConnection(new ByteArrayEndPoint());
+    synchronized (this) {
+      this.referencedEndPoints.put(connection.getEndPoint(), Boolean.TRUE);
+    }
+    connection.onClose();
+  }
+}
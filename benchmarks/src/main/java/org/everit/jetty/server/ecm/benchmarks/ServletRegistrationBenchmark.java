@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServlet;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlet.FilterMapping;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.servlet.ServletMapping;
+import org.everit.jetty.server.ecm.internal.CustomServletHandler;
+import org.everit.jetty.server.ecm.internal.servletcontext.AbstractServletContextElementManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how long it takes to register whiteboard servlets one by one in a started servlet
+ * context. Every registration goes through the element managers and the
+ * {@link CustomServletHandler} the way the servlet context component applies a new servlet
+ * reference: the managers reuse the holders and mappings of the unchanged keys and the handler
+ * manages only the added holder. The servlet names are used as keys, so the benchmark does not
+ * need the OSGi service references that the keys of the component wrap.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ServletRegistrationBenchmark {
+
+  /**
+   * Servlet that is never called, the benchmark only registers it.
+   */
+  private static final class IdleServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+  }
+
+  /**
+   * Creates a servlet holder for every servlet name.
+   */
+  private static final class ServletNameHolderManager
+      extends AbstractServletContextElementManager<String, ServletHolder> {
+
+    @Override
+    protected ServletHolder createNewElement(final String newKey) {
+      return new ServletHolder(newKey, new IdleServlet());
+    }
+
+    @Override
+    protected ServletHolder[] createNewElementArray(final int length) {
+      return new ServletHolder[length];
+    }
+  }
+
+  /**
+   * Maps every servlet name to its own path.
+   */
+  private static final class ServletNameMappingManager
+      extends AbstractServletContextElementManager<String, ServletMapping> {
+
+    @Override
+    protected ServletMapping createNewElement(final String newKey) {
+      ServletMapping servletMapping = new ServletMapping();
+      servletMapping.setServletName(newKey);
+      servletMapping.setPathSpecs(new String[] { "/" + newKey + "/*" });
+      return servletMapping;
+    }
+
+    @Override
+    protected ServletMapping[] createNewElementArray(final int length) {
+      return new ServletMapping[length];
+    }
+  }
+
+  private static final FilterHolder[] NO_FILTERS = new FilterHolder[0];
+
+  private static final FilterMapping[] NO_FILTER_MAPPINGS = new FilterMapping[0];
+
+  private Server server;
+
+  @Param("5000")
+  private int servletCount;
+
+  private CustomServletHandler servletHandler;
+
+  /**
+   * Registers the servlets one by one. Every registration passes all the keys to the managers,
+   * like the servlet context component does when a new servlet reference is bound.
+   *
+   * @return The number of the registered servlets.
+   */
+  @Benchmark
+  public int registerServletsOneByOne() {
+    ServletNameHolderManager servletHolderManager = new ServletNameHolderManager();
+    ServletNameMappingManager servletMappingManager = new ServletNameMappingManager();
+    String[] servletNames = new String[0];
+
+    for (int i = 0; i < this.servletCount; i++) {
+      String[] newServletNames = new String[servletNames.length + 1];
+      System.arraycopy(servletNames, 0, newServletNames, 0, servletNames.length);
+      newServletNames[servletNames.length] = "servlet" + i;
+      servletNames = newServletNames;
+
+      ServletHolder[] servletHolders = servletHolderManager
+          .generateUpgradedElementArray(servletNames, this.servletHandler.getServlets());
+      ServletMapping[] servletMappings = servletMappingManager
+          .generateUpgradedElementArray(servletNames, this.servletHandler.getServletMappings());
+      this.servletHandler.updateServletsAndFilters(servletHolders, servletMappings, NO_FILTERS,
+          NO_FILTER_MAPPINGS);
+
+      servletHolderManager.updatePrviousKeys(servletNames);
+      servletMappingManager.updatePrviousKeys(servletNames);
+    }
+    return this.servletHandler.getServlets().length;
+  }
+
+  /**
+   * Starts a server with an empty servlet context.
+   *
+   * @throws Exception
+   *           if the server cannot be started.
+   */
+  @Setup(Level.Iteration)
+  public void setUp() throws Exception {
+    this.server = new Server();
+    this.servletHandler = new CustomServletHandler();
+    ServletContextHandler servletContextHandler =
+        new ServletContextHandler(null, "/", null, null, null, null);
+    servletContextHandler.setServletHandler(this.servletHandler);
+    this.servletHandler.updateServletsAndFilters(new ServletHolder[0], new ServletMapping[0],
+        NO_FILTERS, NO_FILTER_MAPPINGS);
+    this.server.setHandler(servletContextHandler);
+    this.server.start();
+  }
+
+  /**
+   * Stops the server of the iteration.
+   *
+   * @throws Exception
+   *           if the server cannot be stopped.
+   */
+  @TearDown(Level.Iteration)
+  public void tearDown() throws Exception {
+    this.server.stop();
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm;
+
+/**
+ * Constants that help the usage of ArrayByteBufferPoolFactory component.
+ */
+public final class ArrayByteBufferPoolFactoryConstants {
+
+  public static final String ATTR_FACTOR = "factor";
+
+  public static final String ATTR_MAX_CAPACITY = "maxCapacity";
+
+  public static final String ATTR_MAX_DIRECT_MEMORY = "maxDirectMemory";
+
+  public static final String ATTR_MAX_HEAP_MEMORY = "maxHeapMemory";
+
+  public static final String ATTR_MAX_QUEUE_LENGTH = "maxQueueLength";
+
+  public static final String ATTR_MIN_CAPACITY = "minCapacity";
+
+  public static final int DEFAULT_FACTOR = 1024;
+
+  public static final int DEFAULT_MAX_CAPACITY = 64 * 1024;
+
+  public static final long DEFAULT_MAX_DIRECT_MEMORY = 0;
+
+  public static final long DEFAULT_MAX_HEAP_MEMORY = 0;
+
+  public static final int DEFAULT_MAX_QUEUE_LENGTH = -1;
+
+  public static final int DEFAULT_MIN_CAPACITY = 0;
+
+  public static final String SERVICE_FACTORY_PID =
+      "org.everit.jetty.server.ecm.ArrayByteBufferPoolFactory";
+
+  private ArrayByteBufferPoolFactoryConstants() {
+  }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.server.Server;
+
+/**
+ * Factory that provides the {@link ByteBufferPool} of a Jetty {@link Server}. The pool is
+ * registered as a bean of the server, so it is shared by all connectors of that server. A factory
+ * may return the same pool to several servers, so the servers share the pooled buffers, too.
+ */
+public interface ByteBufferPoolFactory {
+
+  /**
+   * Returns the {@link ByteBufferPool} that a server should use. Implementations may return the
+   * same instance on every call, so the pool is not bound to the lifecycle of the server.
+   *
+   * @return The buffer pool that is shared by the connectors of a server.
+   */
+  ByteBufferPool getByteBufferPool();
+}
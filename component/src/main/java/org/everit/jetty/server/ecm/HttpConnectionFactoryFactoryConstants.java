@@ -20,16 +20,40 @@ package org.everit.jetty.server.ecm;
  */
 public final class HttpConnectionFactoryFactoryConstants {
 
+  public static final String ATTR_CONNECTION_JITTER = "connectionJitter";
+
   public static final String ATTR_CUSTOMIZERS = "customizers";
 
   public static final String ATTR_DELAY_DISPATCH_UNTIL_CONTENT = "delayDispatchUntilContent";
 
+  public static final String ATTR_ENDPOINT_DRAIN_TIMEOUT = "endpointDrainTimeout";
+
+  public static final String ATTR_FLOW_CONTROL_STRATEGY = "flowControlStrategy";
+
+  public static final String ATTR_H2 = "h2";
+
   public static final String ATTR_H2C = "h2c";
 
+  public static final String ATTR_H2C_UPGRADE = "h2cUpgrade";
+
   public static final String ATTR_HEADER_CACHE_SIZE = "headerCacheSize";
 
+  public static final String ATTR_INITIAL_SESSION_RECV_WINDOW = "initialSessionRecvWindow";
+
+  public static final String ATTR_INITIAL_STREAM_RECV_WINDOW = "initialStreamRecvWindow";
+
   public static final String ATTR_INPUT_BUFFER_SIZE = "inputBufferSize";
 
+  public static final String ATTR_MAX_CONCURRENT_STREAMS = "maxConcurrentStreams";
+
+  public static final String ATTR_MAX_CONNECTION_AGE = "maxConnectionAge";
+
+  public static final String ATTR_MAX_DYNAMIC_TABLE_SIZE = "maxDynamicTableSize";
+
+  public static final String ATTR_MAX_FRAME_SIZE = "maxFrameSize";
+
+  public static final String ATTR_MAX_REQUESTS_PER_CONNECTION = "maxRequestsPerConnection";
+
   public static final String ATTR_OUTPUT_AGGREGATION_SIZE = "outputAggregationSize";
 
   public static final String ATTR_OUTPUT_BUFFER_SIZE = "outputBufferSize";
@@ -48,12 +72,36 @@ public final class HttpConnectionFactoryFactoryConstants {
 
   public static final String ATTR_SEND_X_POWERED_BY = "sendXPoweredBy";
 
+  public static final int DEFAULT_CONNECTION_JITTER = 10;
+
+  public static final long DEFAULT_ENDPOINT_DRAIN_TIMEOUT = 0;
+
+  public static final String DEFAULT_FLOW_CONTROL_STRATEGY = "buffering";
+
+  public static final boolean DEFAULT_H2 = false;
+
   public static final boolean DEFAULT_H2C = false;
 
+  public static final boolean DEFAULT_H2C_UPGRADE = false;
+
   public static final int DEFAULT_HEADER_CACHE_SIZE = 512;
 
+  public static final int DEFAULT_INITIAL_SESSION_RECV_WINDOW = 1024 * 1024;
+
+  public static final int DEFAULT_INITIAL_STREAM_RECV_WINDOW = 512 * 1024;
+
   public static final int DEFAULT_INPUT_BUFFER_SIZE = 8192;
 
+  public static final int DEFAULT_MAX_CONCURRENT_STREAMS = 128;
+
+  public static final long DEFAULT_MAX_CONNECTION_AGE = 0;
+
+  public static final int DEFAULT_MAX_DYNAMIC_TABLE_SIZE = 4096;
+
+  public static final int DEFAULT_MAX_FRAME_SIZE = 16 * 1024;
+
+  public static final int DEFAULT_MAX_REQUESTS_PER_CONNECTION = 0;
+
   public static final int DEFAULT_OUTPUT_BUFFER_SIZE = 32 * 1024;
 
   public static final int DEFAULT_REQUEST_HEADER_SIZE = 8 * 1024;
@@ -70,6 +118,10 @@ public final class HttpConnectionFactoryFactoryConstants {
 
   public static final boolean DEFAULT_SEND_X_POWERED_BY = false;
 
+  public static final String FLOW_CONTROL_STRATEGY_BUFFERING = "buffering";
+
+  public static final String FLOW_CONTROL_STRATEGY_SIMPLE = "simple";
+
   public static final String SERVICE_FACTORY_PID =
       "org.everit.jetty.server.ecm.HttpConnectionFactoryFactory";
 
@@ -20,17 +20,46 @@ package org.everit.jetty.server.ecm;
  */
 public final class JettyServerConstants {
 
+  public static final String ATTR_BYTE_BUFFER_POOL_FACTORY = "byteBufferPoolFactory";
+
+  public static final String ATTR_CONNECTOR_DRAIN_TIMEOUT = "connectorDrainTimeout";
+
+  public static final String ATTR_CONNECTOR_MAKE_BEFORE_BREAK = "connectorMakeBeforeBreak";
+
+  public static final String ATTR_LOW_RESOURCE_MONITOR_FACTORY = "lowResourceMonitorFactory";
+
   public static final String ATTR_NETWORK_CONNECTOR_FACTORIES = "networkConnectorFactories";
 
   public static final String ATTR_SERVLET_CONTEXT_HANDLER_FACTORIES =
       "servletContextHandlerFactories";
 
+  public static final String ATTR_THREAD_POOL_FACTORY = "threadPoolFactory";
+
+  public static final String ATTR_UNIX_SOCKET_CONNECTOR_FACTORIES =
+      "unixSocketConnectorFactories";
+
+  public static final String ATTR_UPDATE_MAX_DELAY = "updateMaxDelay";
+
+  public static final String ATTR_UPDATE_QUIET_PERIOD = "updateQuietPeriod";
+
   public static final String CONNECTOR_REF_CLAUSE_ATTR_HOST = "host";
 
+  public static final String CONNECTOR_REF_CLAUSE_ATTR_PATH = "path";
+
   public static final String CONNECTOR_REF_CLAUSE_ATTR_PORT = "port";
 
+  public static final String CONNECTOR_REF_CLAUSE_ATTR_SHARDS = "shards";
+
   public static final String CONTEXT_CLAUSE_ATTR_CONTEXTPATH = "contextPath";
 
+  public static final long DEFAULT_CONNECTOR_DRAIN_TIMEOUT = 0;
+
+  public static final boolean DEFAULT_CONNECTOR_MAKE_BEFORE_BREAK = false;
+
+  public static final long DEFAULT_UPDATE_MAX_DELAY = 1000;
+
+  public static final long DEFAULT_UPDATE_QUIET_PERIOD = 0;
+
   public static final String SERVICE_FACTORY_PID =
       "org.everit.jetty.server.ecm.JettyServer";
 
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm;
+
+import org.eclipse.jetty.server.LowResourceMonitor;
+import org.eclipse.jetty.server.Server;
+
+/**
+ * Factory that creates the {@link LowResourceMonitor} of a Jetty {@link Server}. The created
+ * monitor is registered as a bean of the server, so its lifecycle is bound to the server.
+ */
+public interface LowResourceMonitorFactory {
+
+  /**
+   * Creates a new, not yet started {@link LowResourceMonitor} instance.
+   *
+   * @param server
+   *          The server that is monitored.
+   * @return The monitor that watches the resources of the server.
+   */
+  LowResourceMonitor createLowResourceMonitor(Server server);
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm;
+
+/**
+ * Constants of ProxyConnectionFactoryFactory component.
+ */
+public final class ProxyConnectionFactoryFactoryConstants {
+
+  public static final String ATTR_MAX_PROXY_HEADER = "maxProxyHeader";
+
+  public static final int DEFAULT_MAX_PROXY_HEADER = 1024;
+
+  public static final String SERVICE_FACTORY_PID =
+      "org.everit.jetty.server.ecm.ProxyConnectionFactoryFactory";
+
+  private ProxyConnectionFactoryFactoryConstants() {
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm;
+
+/**
+ * Constants that help the usage of QueuedThreadPoolFactory component.
+ */
+public final class QueuedThreadPoolFactoryConstants {
+
+  public static final String ATTR_DAEMON = "daemon";
+
+  public static final String ATTR_IDLE_TIMEOUT = "idleTimeout";
+
+  public static final String ATTR_MAX_QUEUE_CAPACITY = "maxQueueCapacity";
+
+  public static final String ATTR_MAX_THREADS = "maxThreads";
+
+  public static final String ATTR_MAX_VIRTUAL_THREADS = "maxVirtualThreads";
+
+  public static final String ATTR_MIN_THREADS = "minThreads";
+
+  public static final String ATTR_RESERVED_THREADS = "reservedThreads";
+
+  public static final String ATTR_THREAD_NAME_PREFIX = "threadNamePrefix";
+
+  public static final String ATTR_VIRTUAL_THREADS = "virtualThreads";
+
+  public static final boolean DEFAULT_DAEMON = false;
+
+  public static final int DEFAULT_IDLE_TIMEOUT = 60000;
+
+  public static final int DEFAULT_MAX_THREADS = 200;
+
+  public static final int DEFAULT_MAX_VIRTUAL_THREADS = 10000;
+
+  public static final int DEFAULT_MIN_THREADS = 8;
+
+  public static final int DEFAULT_RESERVED_THREADS = -1;
+
+  public static final boolean DEFAULT_VIRTUAL_THREADS = false;
+
+  public static final String SERVICE_FACTORY_PID =
+      "org.everit.jetty.server.ecm.QueuedThreadPoolFactory";
+
+  private QueuedThreadPoolFactoryConstants() {
+  }
+}
@@ -22,25 +22,73 @@ public final class ServerConnectorFactoryConstants {
 
   public static final String ATTR_ACCEPT_QUEUE_SIZE = "acceptQueueSize";
 
+  public static final String ATTR_ACCEPT_RATE_PERIOD = "acceptRatePeriod";
+
+  public static final String ATTR_ACCEPTED_KEEP_ALIVE = "acceptedKeepAlive";
+
+  public static final String ATTR_ACCEPTED_RECEIVE_BUFFER_SIZE = "acceptedReceiveBufferSize";
+
+  public static final String ATTR_ACCEPTED_SEND_BUFFER_SIZE = "acceptedSendBufferSize";
+
+  public static final String ATTR_ACCEPTED_SO_LINGER = "acceptedSoLinger";
+
+  public static final String ATTR_ACCEPTED_TCP_NO_DELAY = "acceptedTcpNoDelay";
+
   public static final String ATTR_ACCEPTOR_PRIORITY_DELTA = "acceptorPriorityDelta";
 
+  public static final String ATTR_ACCEPTORS = "acceptors";
+
   public static final String ATTR_CONNECTION_FACTORY_FACTORIES =
       "connectionFactoryFactories";
 
+  public static final String ATTR_ENDPOINT_DRAIN_TIMEOUT = "endpointDrainTimeout";
+
   public static final String ATTR_IDLE_TIMEOUT = "idleTimeout";
 
   public static final String ATTR_INHERIT_CHANNEL = "inheritChannel";
 
+  public static final String ATTR_MAX_ACCEPT_RATE = "maxAcceptRate";
+
+  public static final String ATTR_MAX_CONNECTIONS = "maxConnections";
+
   public static final String ATTR_NAME = "name";
 
   public static final String ATTR_REUSE_ADDRESS = "reuseAddress";
 
+  public static final String ATTR_REUSE_PORT = "reusePort";
+
+  public static final String ATTR_SELECTORS = "selectors";
+
+  public static final long DEFAULT_ACCEPT_RATE_PERIOD = 1000;
+
+  public static final boolean DEFAULT_ACCEPTED_KEEP_ALIVE = false;
+
+  public static final int DEFAULT_ACCEPTED_RECEIVE_BUFFER_SIZE = -1;
+
+  public static final int DEFAULT_ACCEPTED_SEND_BUFFER_SIZE = -1;
+
+  public static final int DEFAULT_ACCEPTED_SO_LINGER = -1;
+
+  public static final boolean DEFAULT_ACCEPTED_TCP_NO_DELAY = true;
+
+  public static final int DEFAULT_ACCEPTORS = -1;
+
+  public static final long DEFAULT_ENDPOINT_DRAIN_TIMEOUT = 0;
+
   public static final long DEFAULT_IDLE_TIMEOUT = 30000;
 
   public static final boolean DEFAULT_INHERIT_CHANNEL = false;
 
+  public static final int DEFAULT_MAX_ACCEPT_RATE = 0;
+
+  public static final int DEFAULT_MAX_CONNECTIONS = 0;
+
   public static final boolean DEFAULT_REUSE_ADDRESS = true;
 
+  public static final boolean DEFAULT_REUSE_PORT = false;
+
+  public static final int DEFAULT_SELECTORS = -1;
+
   public static final String SERVICE_FACTORY_PID =
       "org.everit.jetty.server.ecm.ServerConnectorFactory";
 
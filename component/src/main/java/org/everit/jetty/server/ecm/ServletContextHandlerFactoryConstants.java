@@ -60,8 +60,16 @@ public final class ServletContextHandlerFactoryConstants {
 
   public static final String ATTR_SESSIONS = "sessions";
 
+  public static final String ATTR_UPDATE_MAX_DELAY = "updateMaxDelay";
+
+  public static final String ATTR_UPDATE_QUIET_PERIOD = "updateQuietPeriod";
+
   public static final String ATTR_VIRTUAL_HOSTS = "virtualHosts";
 
+  public static final long DEFAULT_UPDATE_MAX_DELAY = 1000;
+
+  public static final long DEFAULT_UPDATE_QUIET_PERIOD = 0;
+
   public static final String FILTER_CLAUSE_ATTR_DISPATCHER = "dispatcher";
 
   public static final String FILTER_CLAUSE_ATTR_SERVLET_NAME = "servlet-name";
@@ -22,6 +22,16 @@ public final class SslConnectionFactoryFactoryConstants {
 
   public static final String ATTR_CERT_ALIAS = "certAlias";
 
+  public static final String ATTR_EXCLUDE_CIPHER_SUITES = "excludeCipherSuites";
+
+  public static final String ATTR_EXCLUDE_PROTOCOLS = "excludeProtocols";
+
+  public static final String ATTR_HANDSHAKE_QUEUE_SIZE = "handshakeQueueSize";
+
+  public static final String ATTR_HANDSHAKE_THREADS = "handshakeThreads";
+
+  public static final String ATTR_INCLUDE_CIPHER_SUITES = "includeCipherSuites";
+
   public static final String ATTR_INCLUDE_PROTOCOLS = "includeProtocols";
 
   public static final String ATTR_KEY_MANAGER_PASSWORD = "keyManagerPassword";
@@ -30,8 +40,36 @@ public final class SslConnectionFactoryFactoryConstants {
 
   public static final String ATTR_KEYSTORE_PASSWORD = "keyStorePassword";
 
+  public static final String ATTR_RENEGOTIATION_ALLOWED = "renegotiationAllowed";
+
+  public static final String ATTR_RENEGOTIATION_LIMIT = "renegotiationLimit";
+
+  public static final String ATTR_SNI_REQUIRED = "sniRequired";
+
+  public static final String ATTR_SSL_SESSION_CACHE_SIZE = "sslSessionCacheSize";
+
+  public static final String ATTR_SSL_SESSION_TIMEOUT = "sslSessionTimeout";
+
+  public static final String ATTR_USE_CIPHER_SUITES_ORDER = "useCipherSuitesOrder";
+
+  public static final int DEFAULT_HANDSHAKE_QUEUE_SIZE = 1024;
+
+  public static final int DEFAULT_HANDSHAKE_THREADS = 0;
+
   public static final String DEFAULT_KEYSTORE_PASSWORD = "changeit";
 
+  public static final boolean DEFAULT_RENEGOTIATION_ALLOWED = true;
+
+  public static final int DEFAULT_RENEGOTIATION_LIMIT = 5;
+
+  public static final boolean DEFAULT_SNI_REQUIRED = false;
+
+  public static final int DEFAULT_SSL_SESSION_CACHE_SIZE = -1;
+
+  public static final int DEFAULT_SSL_SESSION_TIMEOUT = -1;
+
+  public static final boolean DEFAULT_USE_CIPHER_SUITES_ORDER = true;
+
   public static final String SERVICE_FACTORY_PID =
       "org.everit.jetty.server.ecm.SslConnectionFactoryFactory";
 
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+/**
+ * Factory that creates the {@link ThreadPool} of a Jetty {@link Server}. The lifecycle of the
+ * thread pool is bound to the server that uses it, so a new instance must be returned by every
+ * call.
+ */
+public interface ThreadPoolFactory {
+
+  /**
+   * Creates a new, not yet started {@link ThreadPool} instance.
+   *
+   * @return The thread pool that can be passed to the constructor of a {@link Server}.
+   */
+  ThreadPool createThreadPool();
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm;
+
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Server;
+
+/**
+ * Factory of connectors that listen on a Unix domain socket instead of a TCP port. The server
+ * component references these factories with the
+ * {@link JettyServerConstants#ATTR_UNIX_SOCKET_CONNECTOR_FACTORIES} clause and passes the
+ * {@link JettyServerConstants#CONNECTOR_REF_CLAUSE_ATTR_PATH} attribute of the clause.
+ */
+public interface UnixSocketConnectorFactory {
+
+  /**
+   * Creates a new, not yet started connector that listens on the specified Unix domain socket. The
+   * {@link Connector#shutdown()} method of the connector must close its socket, because the server
+   * binds the path again with a new connector while the connections of the old one are drained.
+   *
+   * @param server
+   *          The server that the connector belongs to.
+   * @param path
+   *          The file system path of the Unix domain socket.
+   * @return The connector.
+   */
+  Connector createUnixSocketConnector(Server server, String path);
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm.internal;
+
+import org.eclipse.jetty.alpn.server.ALPNServerConnectionFactory;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.everit.jetty.server.ConnectionFactoryFactory;
+import org.everit.jetty.server.ecm.AlpnConnectionFactoryFactoryConstants;
+import org.everit.osgi.ecm.annotation.Component;
+import org.everit.osgi.ecm.annotation.ConfigurationPolicy;
+import org.everit.osgi.ecm.annotation.Service;
+import org.everit.osgi.ecm.annotation.attribute.StringAttribute;
+import org.everit.osgi.ecm.annotation.attribute.StringAttributes;
+import org.everit.osgi.ecm.extender.ExtendComponent;
+import org.osgi.framework.Constants;
+
+/**
+ * Component that can create {@link ALPNServerConnectionFactory} instances. In the
+ * connectionFactoryFactories chain of a connector it should be placed after the SSL connection
+ * factory factory and before the factories of the negotiable protocols, e.g. an HTTP/2 (h2) and an
+ * HTTP/1.1 connection factory factory.
+ */
+@ExtendComponent
+@Component(componentId = AlpnConnectionFactoryFactoryConstants.SERVICE_FACTORY_PID,
+    configurationPolicy = ConfigurationPolicy.FACTORY,
+    label = "Everit Jetty ALPNServerConnectionFactory Factory",
+    description = "Component to create ALPNServerConnectionFactory instances that negotiate the "
+        + "application protocol during the TLS handshake.")
+@StringAttributes({
+    @StringAttribute(attributeId = Constants.SERVICE_DESCRIPTION, optional = true,
+        priority = AlpnConnectionFactoryFactoryAttributePriority.P01_SERVICE_DESCRIPTION,
+        label = "Service description",
+        description = "Optional description for the instantiated ALPNServerConnectionFactory "
+            + "Factory.") })
+@Service
+public class AlpnConnectionFactoryFactoryComponent implements ConnectionFactoryFactory {
+
+  private String defaultProtocol;
+
+  private String[] negotiatedProtocols;
+
+  /**
+   * Creates the ALPN connection factory. The next protocol is not used as the default protocol,
+   * because it is the most preferred one (typically h2) and not the one that clients without ALPN
+   * support can speak.
+   */
+  @Override
+  public ConnectionFactory createConnectionFactory(final String nextProtocol) {
+    String[] protocols = this.negotiatedProtocols;
+    if (protocols == null) {
+      protocols = new String[0];
+    }
+
+    ALPNServerConnectionFactory alpnConnectionFactory =
+        new CustomAlpnServerConnectionFactory(protocols);
+    alpnConnectionFactory.setDefaultProtocol(this.defaultProtocol);
+    return alpnConnectionFactory;
+  }
+
+  @StringAttribute(
+      attributeId = AlpnConnectionFactoryFactoryConstants.ATTR_DEFAULT_PROTOCOL,
+      defaultValue = AlpnConnectionFactoryFactoryConstants.DEFAULT_DEFAULT_PROTOCOL,
+      priority = AlpnConnectionFactoryFactoryAttributePriority.P03_DEFAULT_PROTOCOL,
+      label = "Default protocol",
+      description = "The protocol that is used if the client does not support ALPN.")
+  public void setDefaultProtocol(final String defaultProtocol) {
+    this.defaultProtocol = defaultProtocol;
+  }
+
+  @StringAttribute(
+      attributeId = AlpnConnectionFactoryFactoryConstants.ATTR_NEGOTIATED_PROTOCOLS,
+      optional = true,
+      priority = AlpnConnectionFactoryFactoryAttributePriority.P02_NEGOTIATED_PROTOCOLS,
+      label = "Negotiated protocols",
+      description = "The protocols that the server offers in preference order, e.g. h2 and "
+          + "http/1.1. If not specified, the protocols of the connection factories that follow "
+          + "this one on the connector are offered.")
+  public void setNegotiatedProtocols(final String[] negotiatedProtocols) {
+    this.negotiatedProtocols = negotiatedProtocols;
+  }
+}
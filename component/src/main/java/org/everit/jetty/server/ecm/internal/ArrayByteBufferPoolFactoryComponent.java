@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm.internal;
+
+import org.eclipse.jetty.io.ArrayByteBufferPool;
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.everit.jetty.server.ecm.ArrayByteBufferPoolFactoryConstants;
+import org.everit.jetty.server.ecm.ByteBufferPoolFactory;
+import org.everit.osgi.ecm.annotation.Activate;
+import org.everit.osgi.ecm.annotation.Component;
+import org.everit.osgi.ecm.annotation.ConfigurationPolicy;
+import org.everit.osgi.ecm.annotation.Service;
+import org.everit.osgi.ecm.annotation.attribute.IntegerAttribute;
+import org.everit.osgi.ecm.annotation.attribute.LongAttribute;
+import org.everit.osgi.ecm.annotation.attribute.StringAttribute;
+import org.everit.osgi.ecm.annotation.attribute.StringAttributes;
+import org.everit.osgi.ecm.component.ConfigurationException;
+import org.everit.osgi.ecm.extender.ExtendComponent;
+import org.osgi.framework.Constants;
+
+/**
+ * ECM based configurable component that registers one or more {@link ByteBufferPoolFactory} OSGi
+ * services that create {@link ArrayByteBufferPool} instances.
+ */
+@ExtendComponent
+@Component(componentId = ArrayByteBufferPoolFactoryConstants.SERVICE_FACTORY_PID,
+    configurationPolicy = ConfigurationPolicy.FACTORY,
+    label = "Everit Jetty ArrayByteBufferPool Factory",
+    description = "ECM based component that can register one or more ByteBufferPoolFactory "
+        + "instances. The bucketed pool of the factory holds both heap and direct buffers and is "
+        + "shared by all connectors of the servers that reference the factory.")
+@StringAttributes({
+    @StringAttribute(attributeId = Constants.SERVICE_DESCRIPTION, optional = true,
+        priority = ArrayByteBufferPoolFactoryAttributePriority.P01_SERVICE_DESCRIPTION,
+        label = "Service description",
+        description = "Optional description for ByteBufferPoolFactory service.") })
+@Service(ByteBufferPoolFactory.class)
+public class ArrayByteBufferPoolFactoryComponent implements ByteBufferPoolFactory {
+
+  private ByteBufferPool byteBufferPool;
+
+  private int factor;
+
+  private int maxCapacity;
+
+  private long maxDirectMemory;
+
+  private long maxHeapMemory;
+
+  private int maxQueueLength;
+
+  private int minCapacity;
+
+  /**
+   * Validates the configuration, so a misconfigured factory fails by itself instead of the
+   * servers that reference it, and creates the pool that is shared by the servers.
+   */
+  @Activate
+  public void activate() {
+    if (this.minCapacity > this.maxCapacity) {
+      throw new ConfigurationException("The value of '"
+          + ArrayByteBufferPoolFactoryConstants.ATTR_MIN_CAPACITY + "' (" + this.minCapacity
+          + ") must not be greater than the value of '"
+          + ArrayByteBufferPoolFactoryConstants.ATTR_MAX_CAPACITY + "' (" + this.maxCapacity
+          + ")");
+    }
+    if (this.factor <= 0 || this.factor >= this.maxCapacity
+        || this.maxCapacity % this.factor != 0) {
+      throw new ConfigurationException("The value of '"
+          + ArrayByteBufferPoolFactoryConstants.ATTR_FACTOR + "' (" + this.factor
+          + ") must be a positive divisor of the value of '"
+          + ArrayByteBufferPoolFactoryConstants.ATTR_MAX_CAPACITY + "' (" + this.maxCapacity
+          + ") that is less than it");
+    }
+    this.byteBufferPool = new ArrayByteBufferPool(this.minCapacity, this.factor,
+        this.maxCapacity, this.maxQueueLength, this.maxHeapMemory, this.maxDirectMemory);
+  }
+
+  @Override
+  public ByteBufferPool getByteBufferPool() {
+    return this.byteBufferPool;
+  }
+
+  @IntegerAttribute(attributeId = ArrayByteBufferPoolFactoryConstants.ATTR_FACTOR,
+      defaultValue = ArrayByteBufferPoolFactoryConstants.DEFAULT_FACTOR,
+      priority = ArrayByteBufferPoolFactoryAttributePriority.P03_FACTOR, label = "Factor",
+      description = "The capacity step between the buckets of the pool in bytes. A requested "
+          + "buffer is served from the bucket of the next multiple of this value. Must be a "
+          + "divisor of the max. capacity that is less than it.")
+  public void setFactor(final int factor) {
+    this.factor = factor;
+  }
+
+  @IntegerAttribute(attributeId = ArrayByteBufferPoolFactoryConstants.ATTR_MAX_CAPACITY,
+      defaultValue = ArrayByteBufferPoolFactoryConstants.DEFAULT_MAX_CAPACITY,
+      priority = ArrayByteBufferPoolFactoryAttributePriority.P04_MAX_CAPACITY,
+      label = "Max. capacity",
+      description = "The capacity of the largest pooled buffer in bytes. Larger buffers are "
+          + "allocated on demand and are not pooled.")
+  public void setMaxCapacity(final int maxCapacity) {
+    this.maxCapacity = maxCapacity;
+  }
+
+  @LongAttribute(attributeId = ArrayByteBufferPoolFactoryConstants.ATTR_MAX_DIRECT_MEMORY,
+      defaultValue = ArrayByteBufferPoolFactoryConstants.DEFAULT_MAX_DIRECT_MEMORY,
+      priority = ArrayByteBufferPoolFactoryAttributePriority.P07_MAX_DIRECT_MEMORY,
+      label = "Max. direct memory",
+      description = "The maximum amount of direct memory in bytes that is retained by the pool. "
+          + "0 means a heuristic, -1 means unlimited.")
+  public void setMaxDirectMemory(final long maxDirectMemory) {
+    this.maxDirectMemory = maxDirectMemory;
+  }
+
+  @LongAttribute(attributeId = ArrayByteBufferPoolFactoryConstants.ATTR_MAX_HEAP_MEMORY,
+      defaultValue = ArrayByteBufferPoolFactoryConstants.DEFAULT_MAX_HEAP_MEMORY,
+      priority = ArrayByteBufferPoolFactoryAttributePriority.P06_MAX_HEAP_MEMORY,
+      label = "Max. heap memory",
+      description = "The maximum amount of heap memory in bytes that is retained by the pool. "
+          + "0 means a heuristic, -1 means unlimited.")
+  public void setMaxHeapMemory(final long maxHeapMemory) {
+    this.maxHeapMemory = maxHeapMemory;
+  }
+
+  @IntegerAttribute(attributeId = ArrayByteBufferPoolFactoryConstants.ATTR_MAX_QUEUE_LENGTH,
+      defaultValue = ArrayByteBufferPoolFactoryConstants.DEFAULT_MAX_QUEUE_LENGTH,
+      priority = ArrayByteBufferPoolFactoryAttributePriority.P05_MAX_QUEUE_LENGTH,
+      label = "Max. queue length",
+      description = "The maximum number of buffers that are kept in one bucket. -1 means "
+          + "unbounded.")
+  public void setMaxQueueLength(final int maxQueueLength) {
+    this.maxQueueLength = maxQueueLength;
+  }
+
+  @IntegerAttribute(attributeId = ArrayByteBufferPoolFactoryConstants.ATTR_MIN_CAPACITY,
+      defaultValue = ArrayByteBufferPoolFactoryConstants.DEFAULT_MIN_CAPACITY,
+      priority = ArrayByteBufferPoolFactoryAttributePriority.P02_MIN_CAPACITY,
+      label = "Min. capacity",
+      description = "The capacity of the smallest pooled buffer in bytes.")
+  public void setMinCapacity(final int minCapacity) {
+    this.minCapacity = minCapacity;
+  }
+}
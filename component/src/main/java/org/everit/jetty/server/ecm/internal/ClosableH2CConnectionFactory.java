@@ -15,10 +15,7 @@
  */
 package org.everit.jetty.server.ecm.internal;
 
-import java.util.ConcurrentModificationException;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.WeakHashMap;
+import java.util.Collection;
 
 import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
 import org.eclipse.jetty.io.Connection;
@@ -31,42 +28,36 @@ import org.eclipse.jetty.server.HttpConfiguration;
  * referenced {@link EndPoint}s so they can be closed in case of a dynamic update.
  */
 public class ClosableH2CConnectionFactory extends HTTP2CServerConnectionFactory implements
-    CloseableHttpConfigurationProvider {
+    CloseableHttp2ConfigurationProvider {
 
-  private final WeakHashMap<EndPoint, Boolean> referencedEndpoints =
-      new WeakHashMap<>();
+  private final EndPointRegistry referencedEndPoints = new EndPointRegistry();
 
   public ClosableH2CConnectionFactory(final HttpConfiguration config) {
     super(config);
   }
 
-  private synchronized Set<EndPoint> cloneReferencedEndPoints() {
-    Set<EndPoint> result = null;
-    while (result == null) {
-      try {
-        result = new HashSet<>(this.referencedEndpoints.keySet());
-      } catch (ConcurrentModificationException e) {
-        // TODO probably some warn logging would be nice
-      }
-    }
-    return result;
-  }
-
   /**
    * Closes all endpoints that are referenced from anywhere.
    */
   @Override
   public void closeReferencedEndpoints() {
-    Set<EndPoint> endPoints = cloneReferencedEndPoints();
-    for (EndPoint endPoint : endPoints) {
-      endPoint.close();
-    }
+    this.referencedEndPoints.closeAll();
+  }
+
+  @Override
+  public void closeReferencedEndpointsGracefully(final long drainTimeout) {
+    this.referencedEndPoints.drainAll(drainTimeout);
+  }
+
+  @Override
+  public Collection<Connection> getReferencedConnections() {
+    return this.referencedEndPoints.getConnections();
   }
 
   @Override
-  public synchronized Connection newConnection(final Connector connector, final EndPoint endPoint) {
+  public Connection newConnection(final Connector connector, final EndPoint endPoint) {
     Connection result = super.newConnection(connector, endPoint);
-    this.referencedEndpoints.put(result.getEndPoint(), Boolean.TRUE);
+    this.referencedEndPoints.register(connector, result);
     return result;
   }
 
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm.internal;
+
+import java.util.Collection;
+
+import org.eclipse.jetty.http2.server.HTTP2ServerConnectionFactory;
+import org.eclipse.jetty.io.Connection;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.HttpConfiguration;
+
+/**
+ * A {@link HTTP2ServerConnectionFactory} for HTTP/2 over TLS (h2) that provides connections in the
+ * way that remembers all referenced {@link EndPoint}s so they can be closed in case of a dynamic
+ * update.
+ */
+public class ClosableH2ConnectionFactory extends HTTP2ServerConnectionFactory implements
+    CloseableHttp2ConfigurationProvider {
+
+  private final EndPointRegistry referencedEndPoints = new EndPointRegistry();
+
+  public ClosableH2ConnectionFactory(final HttpConfiguration config) {
+    super(config);
+  }
+
+  /**
+   * Closes all endpoints that are referenced from anywhere.
+   */
+  @Override
+  public void closeReferencedEndpoints() {
+    this.referencedEndPoints.closeAll();
+  }
+
+  @Override
+  public void closeReferencedEndpointsGracefully(final long drainTimeout) {
+    this.referencedEndPoints.drainAll(drainTimeout);
+  }
+
+  @Override
+  public Collection<Connection> getReferencedConnections() {
+    return this.referencedEndPoints.getConnections();
+  }
+
+  @Override
+  public Connection newConnection(final Connector connector, final EndPoint endPoint) {
+    Connection result = super.newConnection(connector, endPoint);
+    this.referencedEndPoints.register(connector, result);
+    return result;
+  }
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm.internal;
+
+import java.util.Collection;
+
+import org.eclipse.jetty.http2.FlowControlStrategy;
+import org.eclipse.jetty.io.Connection;
+
+/**
+ * Extension of {@link CloseableHttpConfigurationProvider} for the HTTP/2 connection factories that
+ * makes their HTTP/2 specific settings and open connections accessible for dynamic updates.
+ */
+public interface CloseableHttp2ConfigurationProvider extends CloseableHttpConfigurationProvider {
+
+  int getInitialSessionRecvWindow();
+
+  int getInitialStreamRecvWindow();
+
+  int getMaxConcurrentStreams();
+
+  int getMaxDynamicTableSize();
+
+  int getMaxFrameLength();
+
+  /**
+   * Returns the connections that were created by this factory and are still open.
+   */
+  Collection<Connection> getReferencedConnections();
+
+  void setFlowControlStrategyFactory(FlowControlStrategy.Factory flowControlStrategyFactory);
+
+  void setInitialSessionRecvWindow(int initialSessionRecvWindow);
+
+  void setInitialStreamRecvWindow(int initialStreamRecvWindow);
+
+  void setMaxConcurrentStreams(int maxConcurrentStreams);
+
+  void setMaxDynamicTableSize(int maxDynamicTableSize);
+
+  void setMaxFrameLength(int maxFrameLength);
+}
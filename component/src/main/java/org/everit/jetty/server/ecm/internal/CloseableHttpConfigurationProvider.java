@@ -24,7 +24,9 @@ import org.everit.jetty.server.ReferencedEndPointsCloseable;
  * necessary functionality.
  */
 public interface CloseableHttpConfigurationProvider
-    extends ReferencedEndPointsCloseable, ConnectionFactory {
+    extends GracefullyCloseableEndPoints, ConnectionFactory {
+
+  boolean addBean(Object o);
 
   HttpConfiguration getHttpConfiguration();
 
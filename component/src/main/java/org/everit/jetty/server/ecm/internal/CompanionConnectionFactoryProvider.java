@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm.internal;
+
+import java.util.Collection;
+
+import org.eclipse.jetty.server.ConnectionFactory;
+
+/**
+ * A {@link ConnectionFactory} that needs other connection factories on the same connector to work,
+ * e.g. an HTTP/1.1 connection factory that can upgrade its connections to h2c. The companions are
+ * added to the connector after the connection factories of the chain.
+ */
+public interface CompanionConnectionFactoryProvider extends ConnectionFactory {
+
+  /**
+   * Returns the connection factories that must be added to the connector next to this one.
+   */
+  Collection<ConnectionFactory> getCompanionConnectionFactories();
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm.internal;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread-safe set that holds its elements by weak references and compares them by identity. The
+ * elements that are garbage collected are removed from the set automatically. Iterating over the
+ * set does not need any lock and never throws {@link java.util.ConcurrentModificationException}.
+ *
+ * <p>
+ * The set is meant for objects that are handed out to other components without any event at the
+ * end of their use, like connectors, connection factories and servlet context handlers. The
+ * connections of a connection factory are tracked by {@link EndPointRegistry} instead, because
+ * they signal when they are closed.
+ *
+ * @param <E>
+ *          The type of the elements.
+ */
+public class ConcurrentWeakIdentitySet<E> {
+
+  /**
+   * Weak reference that uses the identity of the referent for equality.
+   */
+  private static final class IdentityWeakReference<E> extends WeakReference<E> {
+
+    private final int hash;
+
+    IdentityWeakReference(final E referent, final ReferenceQueue<? super E> queue) {
+      super(referent, queue);
+      this.hash = System.identityHashCode(referent);
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof IdentityWeakReference)) {
+        return false;
+      }
+      Object referent = get();
+      return referent != null && referent == ((IdentityWeakReference<?>) obj).get();
+    }
+
+    @Override
+    public int hashCode() {
+      return this.hash;
+    }
+  }
+
+  private final Set<IdentityWeakReference<E>> references = ConcurrentHashMap.newKeySet();
+
+  private final ReferenceQueue<E> referenceQueue = new ReferenceQueue<>();
+
+  /**
+   * Adds an element to the set.
+   *
+   * @param element
+   *          The element, not <code>null</code>.
+   */
+  public void add(final E element) {
+    expungeCollectedElements();
+    this.references.add(new IdentityWeakReference<>(element, this.referenceQueue));
+  }
+
+  private void expungeCollectedElements() {
+    Reference<? extends E> reference = this.referenceQueue.poll();
+    while (reference != null) {
+      this.references.remove(reference);
+      reference = this.referenceQueue.poll();
+    }
+  }
+
+  /**
+   * Removes an element from the set.
+   *
+   * @param element
+   *          The element.
+   */
+  public void remove(final E element) {
+    expungeCollectedElements();
+    this.references.remove(new IdentityWeakReference<>(element, null));
+  }
+
+  /**
+   * Returns a snapshot of the elements that are in the set at the time of the call.
+   *
+   * @return A modifiable set that compares the elements by identity.
+   */
+  public Set<E> snapshot() {
+    expungeCollectedElements();
+    Set<E> result = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (IdentityWeakReference<E> reference : this.references) {
+      E element = reference.get();
+      if (element != null) {
+        result.add(element);
+      }
+    }
+    return result;
+  }
+}
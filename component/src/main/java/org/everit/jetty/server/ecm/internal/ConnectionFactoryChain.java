@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.everit.jetty.server.ConnectionFactoryFactory;
+import org.everit.jetty.server.ReferencedEndPointsCloseable;
+
+/**
+ * Helper functions that build and close the {@link ConnectionFactory} chain of a connector based
+ * on the referenced {@link ConnectionFactoryFactory} services. Shared by the different
+ * NetworkConnectorFactory components.
+ */
+final class ConnectionFactoryChain {
+
+  /**
+   * Default implementation of ConnectionFactory for the simplest HTTP calls.
+   */
+  private static class DefaultConnectionFactoryFactory implements ConnectionFactoryFactory {
+
+    @Override
+    public ConnectionFactory createConnectionFactory(final String nextProtocol) {
+      return new CustomHttpConnectionFactory(new HttpConfiguration());
+    }
+
+  }
+
+  /**
+   * Closes the endpoints of the connection factories that support it. If the drain timeout is
+   * positive, the endpoints get the chance to finish their current exchanges.
+   */
+  public static void closeEndpoints(final Collection<ConnectionFactory> connectionFactories,
+      final long drainTimeout) {
+
+    for (ConnectionFactory connectionFactory : connectionFactories) {
+      if (drainTimeout > 0 && connectionFactory instanceof GracefullyCloseableEndPoints) {
+        ((GracefullyCloseableEndPoints) connectionFactory)
+            .closeReferencedEndpointsGracefully(drainTimeout);
+      } else if (connectionFactory instanceof ReferencedEndPointsCloseable) {
+        ((ReferencedEndPointsCloseable) connectionFactory).closeReferencedEndpoints();
+      }
+    }
+  }
+
+  /**
+   * Creates the connection factories in the order of the factory services. Each connection factory
+   * gets the protocol of the one that follows it as the next protocol. The companions of the
+   * created connection factories (see {@link CompanionConnectionFactoryProvider}) are appended to
+   * the end of the list.
+   */
+  public static Collection<ConnectionFactory> createConnectionFactories(
+      final ConnectionFactoryFactory[] connectionFactoryFactories) {
+
+    int n = connectionFactoryFactories.length;
+    ConnectionFactory[] chain = new ConnectionFactory[n];
+    String nextProtocol = null;
+    for (int i = n - 1; i >= 0; i--) {
+      ConnectionFactoryFactory connectionFactoryFactory = connectionFactoryFactories[i];
+
+      ConnectionFactory connectionFactory = connectionFactoryFactory
+          .createConnectionFactory(nextProtocol);
+
+      chain[i] = connectionFactory;
+      nextProtocol = connectionFactory.getProtocol();
+    }
+
+    List<ConnectionFactory> result = new ArrayList<>(Arrays.asList(chain));
+    for (ConnectionFactory connectionFactory : chain) {
+      if (connectionFactory instanceof CompanionConnectionFactoryProvider) {
+        result.addAll(((CompanionConnectionFactoryProvider) connectionFactory)
+            .getCompanionConnectionFactories());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns a copy of the referenced factories or the default HTTP connection factory factory if
+   * there is no reference.
+   */
+  public static ConnectionFactoryFactory[] resolveConnectionFactoryFactories(
+      final ConnectionFactoryFactory[] connectionFactoryFactories) {
+
+    if (connectionFactoryFactories == null || connectionFactoryFactories.length == 0) {
+      return new ConnectionFactoryFactory[] { new DefaultConnectionFactoryFactory() };
+    }
+    return connectionFactoryFactories.clone();
+  }
+
+  private ConnectionFactoryChain() {
+  }
+}
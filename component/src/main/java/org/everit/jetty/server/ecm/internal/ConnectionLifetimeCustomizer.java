@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm.internal;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.eclipse.jetty.http2.ErrorCode;
+import org.eclipse.jetty.http2.HTTP2Session;
+import org.eclipse.jetty.http2.api.Session;
+import org.eclipse.jetty.http2.api.Stream;
+import org.eclipse.jetty.http2.server.HttpTransportOverHTTP2;
+import org.eclipse.jetty.io.Connection;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.HttpChannel;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConfiguration.Customizer;
+import org.eclipse.jetty.server.HttpConnection;
+import org.eclipse.jetty.server.HttpTransport;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.util.Callback;
+
+/**
+ * Customizer that closes the connections gracefully when they served the maximum number of
+ * requests or reached the maximum age, so the clients reconnect and the load balancer can
+ * distribute the new connections among all nodes. HTTP/1 connections are closed after the current
+ * response with <code>Connection: close</code>, HTTP/2 sessions get a GOAWAY frame immediately
+ * and are closed when their streams are completed. The limits of each connection are lowered by
+ * a random jitter that is chosen when the connection is opened, so the connections that were
+ * opened at the same time do not reconnect at the same time. The customizer must be added as a
+ * bean to the connection factories to get notified about the opened connections.
+ */
+public class ConnectionLifetimeCustomizer implements Customizer, Connection.Listener {
+
+  private static final int JITTER_RESOLUTION = 1024;
+
+  private static final int PERCENT = 100;
+
+  private final ConcurrentHashMap<EndPoint, Integer> jitterPoints = new ConcurrentHashMap<>();
+
+  private volatile int jitterPercent;
+
+  private volatile long maxConnectionAge;
+
+  private volatile int maxRequests;
+
+  @Override
+  public void customize(final Connector connector, final HttpConfiguration channelConfig,
+      final Request request) {
+
+    int localMaxRequests = this.maxRequests;
+    long localMaxConnectionAge = this.maxConnectionAge;
+    if (localMaxRequests <= 0 && localMaxConnectionAge <= 0) {
+      return;
+    }
+
+    HttpChannel httpChannel = request.getHttpChannel();
+    HttpTransport httpTransport = httpChannel.getHttpTransport();
+    if (httpTransport instanceof HttpTransportOverHTTP2) {
+      Stream stream = ((HttpTransportOverHTTP2) httpTransport).getStream();
+      Session session = stream.getSession();
+      if (!(session instanceof HTTP2Session) || session.isClosed()) {
+        return;
+      }
+      EndPoint endPoint = ((HTTP2Session) session).getEndPoint();
+      // Streams opened by the client have odd, increasing identifiers
+      long requests = (stream.getId() + 1) / 2;
+      if (isLimitReached(endPoint, requests, localMaxRequests, localMaxConnectionAge)) {
+        // The session is closed by itself when the streams in progress are completed, the ones
+        // that get stuck are bounded by the idle timeout of the streams
+        ((HTTP2Session) session).close(ErrorCode.NO_ERROR.code, "connection lifetime",
+            Callback.NOOP);
+      }
+      return;
+    }
+
+    EndPoint endPoint = httpChannel.getEndPoint();
+    Connection connection = endPoint.getConnection();
+    if (connection instanceof HttpConnection) {
+      HttpConnection httpConnection = (HttpConnection) connection;
+      if (isLimitReached(endPoint, httpConnection.getMessagesIn(), localMaxRequests,
+          localMaxConnectionAge)) {
+        httpConnection.getGenerator().setPersistent(false);
+      }
+    }
+  }
+
+  private long applyJitter(final EndPoint endPoint, final long limit) {
+    long jitterRange = limit * this.jitterPercent / PERCENT;
+    if (jitterRange <= 0) {
+      return limit;
+    }
+    Integer jitterPoint = this.jitterPoints.get(endPoint);
+    if (jitterPoint == null) {
+      // The connection was not opened by a connection factory that the customizer listens to
+      return limit;
+    }
+    return limit - jitterRange * jitterPoint / JITTER_RESOLUTION;
+  }
+
+  private boolean isLimitReached(final EndPoint endPoint, final long requests,
+      final int localMaxRequests, final long localMaxConnectionAge) {
+
+    if (localMaxRequests > 0 && requests >= applyJitter(endPoint, localMaxRequests)) {
+      return true;
+    }
+    if (localMaxConnectionAge > 0) {
+      long age = System.currentTimeMillis() - endPoint.getCreatedTimeStamp();
+      return age >= applyJitter(endPoint, localMaxConnectionAge);
+    }
+    return false;
+  }
+
+  @Override
+  public void onClosed(final Connection connection) {
+    this.jitterPoints.remove(connection.getEndPoint());
+  }
+
+  @Override
+  public void onOpened(final Connection connection) {
+    this.jitterPoints.put(connection.getEndPoint(),
+        ThreadLocalRandom.current().nextInt(JITTER_RESOLUTION));
+  }
+
+  public void setJitterPercent(final int jitterPercent) {
+    this.jitterPercent = jitterPercent;
+  }
+
+  public void setMaxConnectionAge(final long maxConnectionAge) {
+    this.maxConnectionAge = maxConnectionAge;
+  }
+
+  public void setMaxRequests(final int maxRequests) {
+    this.maxRequests = maxRequests;
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm.internal;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Utility that tells the number of processors the JVM may use, taking the CPU quota of the
+ * cgroup of the process into account. Older JVMs report the processor count of the host even if
+ * the process runs in a container with a CPU limit.
+ */
+public final class ContainerCpuLimit {
+
+  private static final Path CGROUP_V1_CFS_PERIOD =
+      Paths.get("/sys/fs/cgroup/cpu/cpu.cfs_period_us");
+
+  private static final Path CGROUP_V1_CFS_QUOTA = Paths.get("/sys/fs/cgroup/cpu/cpu.cfs_quota_us");
+
+  private static final Path CGROUP_V2_CPU_MAX = Paths.get("/sys/fs/cgroup/cpu.max");
+
+  private static final String CGROUP_V2_UNLIMITED = "max";
+
+  /**
+   * Returns the number of processors that are available for the JVM. The value is the minimum of
+   * {@link Runtime#availableProcessors()} and the CPU quota of the cgroup (v2 or v1), rounded up.
+   *
+   * @return The number of available processors, at least one.
+   */
+  public static int availableProcessors() {
+    int processors = Runtime.getRuntime().availableProcessors();
+    int cgroupLimit = ContainerCpuLimit.readCgroupV2Limit();
+    if (cgroupLimit <= 0) {
+      cgroupLimit = ContainerCpuLimit.readCgroupV1Limit();
+    }
+    if (cgroupLimit > 0) {
+      processors = Math.min(processors, cgroupLimit);
+    }
+    return Math.max(1, processors);
+  }
+
+  private static int quotaToProcessors(final long quota, final long period) {
+    if (quota <= 0 || period <= 0) {
+      return -1;
+    }
+    return (int) ((quota + period - 1) / period);
+  }
+
+  private static int readCgroupV1Limit() {
+    String quota = ContainerCpuLimit.readFirstLine(CGROUP_V1_CFS_QUOTA);
+    String period = ContainerCpuLimit.readFirstLine(CGROUP_V1_CFS_PERIOD);
+    if (quota == null || period == null) {
+      return -1;
+    }
+    try {
+      return ContainerCpuLimit.quotaToProcessors(Long.parseLong(quota), Long.parseLong(period));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private static int readCgroupV2Limit() {
+    String cpuMax = ContainerCpuLimit.readFirstLine(CGROUP_V2_CPU_MAX);
+    if (cpuMax == null) {
+      return -1;
+    }
+    String[] parts = cpuMax.split("\\s+");
+    if (parts.length != 2 || CGROUP_V2_UNLIMITED.equals(parts[0])) {
+      return -1;
+    }
+    try {
+      return ContainerCpuLimit.quotaToProcessors(Long.parseLong(parts[0]),
+          Long.parseLong(parts[1]));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private static String readFirstLine(final Path path) {
+    if (!Files.isReadable(path)) {
+      return null;
+    }
+    try {
+      List<String> lines = Files.readAllLines(path, StandardCharsets.US_ASCII);
+      if (lines.isEmpty()) {
+        return null;
+      }
+      return lines.get(0).trim();
+    } catch (IOException | SecurityException e) {
+      return null;
+    }
+  }
+
+  private ContainerCpuLimit() {
+  }
+}
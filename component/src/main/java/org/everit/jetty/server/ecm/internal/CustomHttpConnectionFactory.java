@@ -15,58 +15,50 @@
  */
 package org.everit.jetty.server.ecm.internal;
 
-import java.util.ConcurrentModificationException;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.WeakHashMap;
-
 import org.eclipse.jetty.io.Connection;
 import org.eclipse.jetty.io.EndPoint;
 import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.HttpConfiguration;
 import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
 
 /**
  * A {@link HttpConnectionFactory} that provides connections in the way that remembers all
- * referenced {@link EndPoint}s so they can be closed in case of a dynamic update.
+ * referenced {@link EndPoint}s so they can be closed in case of a dynamic update. The provided
+ * connections can be drained gracefully from any thread.
  */
 public class CustomHttpConnectionFactory extends HttpConnectionFactory implements
     CloseableHttpConfigurationProvider {
 
-  private final WeakHashMap<EndPoint, Boolean> referencedEndpoints =
-      new WeakHashMap<>();
+  private final EndPointRegistry referencedEndPoints = new EndPointRegistry();
 
   public CustomHttpConnectionFactory(final HttpConfiguration config) {
     super(config);
   }
 
-  private synchronized Set<EndPoint> cloneReferencedEndPoints() {
-    Set<EndPoint> result = null;
-    while (result == null) {
-      try {
-        result = new HashSet<>(this.referencedEndpoints.keySet());
-      } catch (ConcurrentModificationException e) {
-        // TODO probably some warn logging would be nice
-      }
-    }
-    return result;
-  }
-
   /**
    * Closes all endpoints that are referenced from anywhere.
    */
   @Override
   public void closeReferencedEndpoints() {
-    Set<EndPoint> endPoints = cloneReferencedEndPoints();
-    for (EndPoint endPoint : endPoints) {
-      endPoint.close();
-    }
+    this.referencedEndPoints.closeAll();
+  }
+
+  @Override
+  public void closeReferencedEndpointsGracefully(final long drainTimeout) {
+    this.referencedEndPoints.drainAll(drainTimeout);
+  }
+
+  @ManagedAttribute("The number of open connections that the factory tracks")
+  public int getTrackedConnections() {
+    return this.referencedEndPoints.size();
   }
 
   @Override
-  public synchronized Connection newConnection(final Connector connector, final EndPoint endPoint) {
-    Connection result = super.newConnection(connector, endPoint);
-    this.referencedEndpoints.put(result.getEndPoint(), Boolean.TRUE);
+  public Connection newConnection(final Connector connector, final EndPoint endPoint) {
+    Connection result = configure(new DrainableHttpConnection(getHttpConfiguration(), connector,
+        endPoint, getHttpCompliance(), isRecordHttpComplianceViolations()), connector, endPoint);
+    this.referencedEndPoints.register(connector, result);
     return result;
   }
 
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm.internal;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.LowResourceMonitor;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+
+/**
+ * {@link LowResourceMonitor} that also measures how many times and for how long the server was in
+ * low resources mode.
+ */
+@ManagedObject("Monitor for low resource conditions with low resources mode statistics")
+public class CustomLowResourceMonitor extends LowResourceMonitor {
+
+  private long finishedLowResourcesTime;
+
+  private int lowResourcesCount;
+
+  private long lowResourcesStartedNanos;
+
+  public CustomLowResourceMonitor(final Server server) {
+    super(server);
+  }
+
+  @Override
+  protected synchronized void clearLowResources() {
+    super.clearLowResources();
+    if (this.lowResourcesStartedNanos != 0) {
+      this.finishedLowResourcesTime += System.nanoTime() - this.lowResourcesStartedNanos;
+      this.lowResourcesStartedNanos = 0;
+    }
+  }
+
+  @ManagedAttribute("The number of times the server entered low resources mode")
+  public synchronized int getLowResourcesCount() {
+    return this.lowResourcesCount;
+  }
+
+  /**
+   * Returns the time that the server spent in low resources mode, including the current period if
+   * the server is low on resources now.
+   *
+   * @return The total time in milliseconds.
+   */
+  @ManagedAttribute("The total time in milliseconds that the server spent in low resources mode")
+  public synchronized long getLowResourcesTotalTime() {
+    long result = this.finishedLowResourcesTime;
+    if (this.lowResourcesStartedNanos != 0) {
+      result += System.nanoTime() - this.lowResourcesStartedNanos;
+    }
+    return TimeUnit.NANOSECONDS.toMillis(result);
+  }
+
+  /**
+   * Returns the connectors of the server if no connectors are monitored explicitly. The connection
+   * count and the thread pool checks of {@link LowResourceMonitor} look only at these connectors,
+   * so without this they would never detect low resources.
+   */
+  @Override
+  public Collection<Connector> getMonitoredConnectors() {
+    return Arrays.asList(getMonitoredOrServerConnectors());
+  }
+
+  @Override
+  protected synchronized void setLowResources() {
+    super.setLowResources();
+    if (this.lowResourcesStartedNanos == 0) {
+      this.lowResourcesStartedNanos = System.nanoTime();
+      this.lowResourcesCount++;
+    }
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm.internal;
+
+import org.eclipse.jetty.io.Connection;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.ProxyConnectionFactory;
+import org.everit.jetty.server.ReferencedEndPointsCloseable;
+
+/**
+ * {@link ProxyConnectionFactory} that implements {@link ReferencedEndPointsCloseable}. Only the
+ * connections that are still reading the PROXY header are referenced by this factory, the
+ * connections of the next protocol are tracked by the factory of that protocol.
+ */
+public class CustomProxyConnectionFactory extends ProxyConnectionFactory implements
+    GracefullyCloseableEndPoints {
+
+  private final EndPointRegistry referencedEndPoints = new EndPointRegistry();
+
+  public CustomProxyConnectionFactory(final String nextProtocol) {
+    super(nextProtocol);
+  }
+
+  @Override
+  public void closeReferencedEndpoints() {
+    this.referencedEndPoints.closeAll();
+  }
+
+  @Override
+  public void closeReferencedEndpointsGracefully(final long drainTimeout) {
+    this.referencedEndPoints.drainAll(drainTimeout);
+  }
+
+  @Override
+  public Connection newConnection(final Connector connector, final EndPoint endPoint) {
+    Connection result = super.newConnection(connector, endPoint);
+    this.referencedEndPoints.register(connector, result);
+    return result;
+  }
+}
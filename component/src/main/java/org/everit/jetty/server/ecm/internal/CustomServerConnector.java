@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm.internal;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.Executor;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.IO;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.util.thread.Scheduler;
+
+/**
+ * {@link ServerConnector} that can open its listening socket with SO_REUSEPORT, so several
+ * connectors can listen on the same port and the kernel spreads the accepted connections among
+ * them. It also supports the TCP keep-alive and SO_LINGER options on the accepted sockets.
+ */
+public class CustomServerConnector extends ServerConnector {
+
+  private static final Logger LOG = Log.getLogger(CustomServerConnector.class);
+
+  private static final SocketOption<Boolean> SO_REUSEPORT = resolveReusePortOption();
+
+  @SuppressWarnings("unchecked")
+  private static SocketOption<Boolean> resolveReusePortOption() {
+    try {
+      // Available since Java 9
+      return (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT")
+          .get(null);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  private volatile boolean acceptedKeepAlive;
+
+  private volatile int acceptedSoLinger = -1;
+
+  private boolean reusePort;
+
+  public CustomServerConnector(final Server server, final Executor executor,
+      final Scheduler scheduler, final ByteBufferPool bufferPool, final int acceptors,
+      final int selectors) {
+    super(server, executor, scheduler, bufferPool, acceptors, selectors);
+  }
+
+  @Override
+  protected void configure(final Socket socket) {
+    super.configure(socket);
+    try {
+      socket.setKeepAlive(this.acceptedKeepAlive);
+      int soLinger = this.acceptedSoLinger;
+      if (soLinger >= 0) {
+        socket.setSoLinger(true, soLinger);
+      }
+    } catch (SocketException e) {
+      LOG.ignore(e);
+    }
+  }
+
+  public int getAcceptedSoLinger() {
+    return this.acceptedSoLinger;
+  }
+
+  public boolean isAcceptedKeepAlive() {
+    return this.acceptedKeepAlive;
+  }
+
+  public boolean isReusePort() {
+    return this.reusePort;
+  }
+
+  @Override
+  protected ServerSocketChannel openAcceptChannel() throws IOException {
+    if (!this.reusePort || isInheritChannel()) {
+      return super.openAcceptChannel();
+    }
+
+    InetSocketAddress bindAddress = getHost() == null ? new InetSocketAddress(getPort())
+        : new InetSocketAddress(getHost(), getPort());
+
+    ServerSocketChannel serverChannel = ServerSocketChannel.open();
+    try {
+      if (SO_REUSEPORT == null
+          || !serverChannel.supportedOptions().contains(SO_REUSEPORT)) {
+        throw new IOException("SO_REUSEPORT is not supported by the JVM or the platform");
+      }
+      serverChannel.setOption(SO_REUSEPORT, Boolean.TRUE);
+      serverChannel.socket().setReuseAddress(getReuseAddress());
+      serverChannel.socket().bind(bindAddress, getAcceptQueueSize());
+    } catch (IOException | RuntimeException e) {
+      IO.close(serverChannel);
+      throw new IOException("Failed to bind to " + bindAddress, e);
+    }
+    return serverChannel;
+  }
+
+  public void setAcceptedKeepAlive(final boolean acceptedKeepAlive) {
+    this.acceptedKeepAlive = acceptedKeepAlive;
+  }
+
+  /**
+   * Sets the SO_LINGER time of the accepted sockets. Only 0 is supported that resets the
+   * connections on close, as the behavior of a positive linger time on non-blocking sockets is
+   * platform dependent. The value is validated by the component that configures the connector.
+   *
+   * @param acceptedSoLinger
+   *          0 for an abortive close or a negative value to keep the default of the platform.
+   */
+  public void setAcceptedSoLinger(final int acceptedSoLinger) {
+    this.acceptedSoLinger = acceptedSoLinger;
+  }
+
+  /**
+   * Sets whether the listening socket is opened with SO_REUSEPORT. Must be called before the
+   * connector is opened.
+   *
+   * @param reusePort
+   *          <code>true</code> to allow multiple connectors on the same port.
+   */
+  public void setReusePort(final boolean reusePort) {
+    this.reusePort = reusePort;
+  }
+}
@@ -13,44 +13,324 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
+
 package org.everit.jetty.server.ecm.internal;
 
 import java.io.IOException;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
 
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.servlet.BaseHolder;
 import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.FilterMapping;
 import org.eclipse.jetty.servlet.ServletHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 import org.eclipse.jetty.servlet.ServletMapping;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+import org.everit.jetty.server.ecm.JettyServerException;
 
 /**
  * Customized implementation of {@link ServletHandler} to support dynamic updates of servlets and
  * filters.
+ *
+ * <p>
+ * Requests are dispatched by an immutable snapshot of the servlets, filters and their mappings.
+ * Every update builds a new snapshot and publishes it with one volatile write, so requests do not
+ * need any lock and in-flight requests finish on the snapshot they started with. Holders that are
+ * removed by an update are stopped only when the requests of the previous snapshot are finished.
+ *
+ * <p>
+ * A request is in flight until its dispatch returns or, if the request was put into asynchronous
+ * mode, until its asynchronous processing completes.
  */
 public class CustomServletHandler extends ServletHandler {
 
+  /**
+   * Keeps an asynchronous request in flight on a snapshot until the asynchronous processing
+   * completes or a later dispatch of the request starts a new asynchronous cycle. The later
+   * dispatch is tracked on its own, so the listener is not registered again.
+   */
+  private static class AsyncInFlightListener implements AsyncListener {
+
+    private final AtomicBoolean exited = new AtomicBoolean(false);
+
+    private final DispatcherSnapshot snapshot;
+
+    private final int stripe;
+
+    AsyncInFlightListener(final DispatcherSnapshot snapshot, final int stripe) {
+      this.snapshot = snapshot;
+      this.stripe = stripe;
+    }
+
+    private void exit() {
+      if (this.exited.compareAndSet(false, true)) {
+        this.snapshot.exit(this.stripe);
+      }
+    }
+
+    @Override
+    public void onComplete(final AsyncEvent event) throws IOException {
+      exit();
+    }
+
+    @Override
+    public void onError(final AsyncEvent event) throws IOException {
+      // The request is completed afterwards
+    }
+
+    @Override
+    public void onStartAsync(final AsyncEvent event) throws IOException {
+      exit();
+    }
+
+    @Override
+    public void onTimeout(final AsyncEvent event) throws IOException {
+      // The request is completed afterwards
+    }
+  }
+
+  /**
+   * Handler that dispatches the requests with the servlets, filters and mappings of one snapshot.
+   * The holders are shared with the outer handler and are not managed by the dispatcher, therefore
+   * a dispatcher is never stopped. When the snapshot of a dispatcher is retired and drained, the
+   * dispatcher is reused by a later snapshot instead of starting a new handler.
+   */
+  private class Dispatcher extends ServletHandler {
+
+    private boolean ignoreUpdateMapping = false;
+
+    Dispatcher() {
+      setEnsureDefaultServlet(false);
+      setFilterChainsCached(CustomServletHandler.this.isFilterChainsCached());
+      setMaxFilterChainsCacheSize(CustomServletHandler.this.getMaxFilterChainsCacheSize());
+      setStartWithUnavailable(CustomServletHandler.this.isStartWithUnavailable());
+      setServer(CustomServletHandler.this.getServer());
+      copyServletsAndFilters();
+    }
+
+    /**
+     * Takes over the servlets, filters and mappings of the outer handler. The mappings are
+     * computed only once instead of after every setter call.
+     */
+    final void copyServletsAndFilters() {
+      try {
+        this.ignoreUpdateMapping = true;
+        setServlets(CustomServletHandler.this.getServlets());
+        setServletMappings(CustomServletHandler.this.getServletMappings());
+        setFilters(CustomServletHandler.this.getFilters());
+        setFilterMappings(CustomServletHandler.this.getFilterMappings());
+      } finally {
+        this.ignoreUpdateMapping = false;
+      }
+      if (isStarted()) {
+        updateNameMappings();
+        updateMappings();
+      }
+    }
+
+    @Override
+    protected void initializeHolders(final BaseHolder<?>[] holders) {
+      // Holders are initialized by the outer handler and they must keep referencing that one
+    }
+
+    @Override
+    public void initialize() throws Exception {
+      // Holders are initialized by the outer handler
+    }
+
+    void linkToOuterScope() {
+      this._outerScope = CustomServletHandler.this._outerScope;
+      this._nextScope = null;
+    }
+
+    /**
+     * The lifecycle of the holders and mappings belongs to the outer handler, so they are not
+     * added as beans. Adding them one by one would also cost quadratic time as every added bean
+     * is looked up in the list of the beans.
+     */
+    @Override
+    public void updateBeans(final Object[] oldBeans, final Object[] newBeans) {
+      // Nothing to do
+    }
+
+    @Override
+    protected synchronized void updateMappings() {
+      if (!this.ignoreUpdateMapping) {
+        super.updateMappings();
+      }
+    }
+
+    @Override
+    protected synchronized void updateNameMappings() {
+      if (!this.ignoreUpdateMapping) {
+        super.updateNameMappings();
+      }
+    }
+  }
+
+  /**
+   * Snapshot of the servlets, filters and mappings that dispatches the requests with the
+   * {@link Dispatcher} it was published with and counts the requests that are in flight on it.
+   */
+  private static class DispatcherSnapshot {
+
+    final Dispatcher dispatcher;
+
+    private final AtomicLongArray inFlight =
+        new AtomicLongArray(IN_FLIGHT_STRIPES * IN_FLIGHT_STRIPE_PADDING);
+
+    private final AtomicBoolean released = new AtomicBoolean(false);
+
+    private volatile boolean retired = false;
+
+    private Collection<BaseHolder<?>> retiredHolders = Collections.emptyList();
+
+    DispatcherSnapshot(final Dispatcher dispatcher) {
+      this.dispatcher = dispatcher;
+    }
+
+    void enter(final int stripe) {
+      this.inFlight.incrementAndGet(stripe);
+    }
+
+    void exit(final int stripe) {
+      this.inFlight.decrementAndGet(stripe);
+      if (this.retired) {
+        tryRelease();
+      }
+    }
+
+    /**
+     * Whether the snapshot is retired and no request is in flight on it anymore, so its
+     * dispatcher can be reused.
+     */
+    boolean isReleased() {
+      return this.released.get();
+    }
+
+    void retire(final Collection<BaseHolder<?>> holdersToStop) {
+      this.retiredHolders = holdersToStop;
+      this.retired = true;
+      tryRelease();
+    }
+
+    private void tryRelease() {
+      for (int i = 0, n = this.inFlight.length(); i < n; i += IN_FLIGHT_STRIPE_PADDING) {
+        if (this.inFlight.get(i) != 0) {
+          return;
+        }
+      }
+      if (this.released.compareAndSet(false, true)) {
+        stopHolders(this.retiredHolders);
+      }
+    }
+  }
+
+  /**
+   * Number of longs between the in-flight counter stripes so the stripes do not share a cache
+   * line.
+   */
+  private static final int IN_FLIGHT_STRIPE_PADDING = 8;
+
+  /**
+   * Number of the in-flight counter stripes. A fixed power of two keeps the counters of a
+   * snapshot small independently of the number of processors.
+   */
+  private static final int IN_FLIGHT_STRIPES = 8;
+
+  private static final Logger LOG = Log.getLogger(CustomServletHandler.class);
+
+  /**
+   * Index of the counter stripe of the current thread. A request leaves the stripe it entered, so
+   * every stripe holds a non-negative value and a zero sum means that there is no request in
+   * flight.
+   */
+  private static int inFlightStripe() {
+    long threadId = Thread.currentThread().getId();
+    return ((int) threadId & (IN_FLIGHT_STRIPES - 1)) * IN_FLIGHT_STRIPE_PADDING;
+  }
+
+  private static Set<Object> newIdentitySet(final Object[] objects) {
+    Set<Object> result = Collections.newSetFromMap(new IdentityHashMap<>());
+    if (objects != null) {
+      result.addAll(Arrays.asList(objects));
+    }
+    return result;
+  }
+
+  private static void stopHolders(final Collection<BaseHolder<?>> holders) {
+    for (BaseHolder<?> holder : holders) {
+      try {
+        holder.stop();
+      } catch (Exception e) {
+        LOG.warn("Error during stopping removed holder " + holder, e);
+      }
+    }
+  }
+
+  private volatile DispatcherSnapshot dispatcherSnapshot;
+
   private boolean ignoreUpdateMapping = false;
 
-  private final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+  private DispatcherSnapshot retiredDispatcherSnapshot;
+
+  private final ThreadLocal<DispatcherSnapshot> scopedDispatcherSnapshot = new ThreadLocal<>();
+
+  /**
+   * Collects the holders that are in the first array but not in the second one by identity.
+   */
+  private Set<BaseHolder<?>> collectMissingHolders(final BaseHolder<?>[] holders,
+      final BaseHolder<?>[] otherHolders) {
+
+    Set<BaseHolder<?>> result = Collections.newSetFromMap(new IdentityHashMap<>());
+    if (holders != null) {
+      result.addAll(Arrays.asList(holders));
+    }
+    if (otherHolders != null) {
+      for (BaseHolder<?> otherHolder : otherHolders) {
+        result.remove(otherHolder);
+      }
+    }
+    return result;
+  }
 
   @Override
   public void doHandle(final String target, final Request baseRequest,
       final HttpServletRequest request,
       final HttpServletResponse response) throws IOException, ServletException {
-    ReadLock readLock = this.readWriteLock.readLock();
-    readLock.lock();
-    try {
+
+    DispatcherSnapshot snapshot = this.scopedDispatcherSnapshot.get();
+    if (snapshot != null) {
+      snapshot.dispatcher.doHandle(target, baseRequest, request, response);
+      return;
+    }
+
+    int stripe = inFlightStripe();
+    snapshot = enterDispatcherSnapshot(stripe);
+    if (snapshot == null) {
       super.doHandle(target, baseRequest, request, response);
+      return;
+    }
+    try {
+      snapshot.dispatcher.doHandle(target, baseRequest, request, response);
     } finally {
-      readLock.unlock();
+      exitDispatcherSnapshot(snapshot, stripe, baseRequest);
     }
   }
 
@@ -58,12 +338,145 @@ public class CustomServletHandler extends ServletHandler {
   public void doScope(final String target, final Request baseRequest,
       final HttpServletRequest request,
       final HttpServletResponse response) throws IOException, ServletException {
-    ReadLock readLock = this.readWriteLock.readLock();
-    readLock.lock();
-    try {
+
+    int stripe = inFlightStripe();
+    DispatcherSnapshot snapshot = enterDispatcherSnapshot(stripe);
+    if (snapshot == null) {
       super.doScope(target, baseRequest, request, response);
+      return;
+    }
+
+    DispatcherSnapshot previousSnapshot = this.scopedDispatcherSnapshot.get();
+    this.scopedDispatcherSnapshot.set(snapshot);
+    try {
+      snapshot.dispatcher.doScope(target, baseRequest, request, response);
     } finally {
-      readLock.unlock();
+      try {
+        if (previousSnapshot == null) {
+          this.scopedDispatcherSnapshot.remove();
+        } else {
+          this.scopedDispatcherSnapshot.set(previousSnapshot);
+        }
+      } finally {
+        exitDispatcherSnapshot(snapshot, stripe, baseRequest);
+      }
+    }
+  }
+
+  @Override
+  protected synchronized void doStart() throws Exception {
+    super.doStart();
+    publishDispatcherSnapshot(Collections.emptyList());
+  }
+
+  @Override
+  protected synchronized void doStop() throws Exception {
+    DispatcherSnapshot previousSnapshot = this.dispatcherSnapshot;
+    this.dispatcherSnapshot = null;
+    this.retiredDispatcherSnapshot = null;
+    if (previousSnapshot != null) {
+      previousSnapshot.retire(Collections.emptyList());
+    }
+    super.doStop();
+  }
+
+  /**
+   * Returns the currently published snapshot after marking that a request is in flight on it. The
+   * snapshot is read again after the mark, so a retired snapshot is never entered after it was
+   * found drained.
+   */
+  private DispatcherSnapshot enterDispatcherSnapshot(final int stripe) {
+    while (true) {
+      DispatcherSnapshot snapshot = this.dispatcherSnapshot;
+      if (snapshot == null) {
+        return null;
+      }
+      snapshot.enter(stripe);
+      if (snapshot == this.dispatcherSnapshot) {
+        return snapshot;
+      }
+      snapshot.exit(stripe);
+    }
+  }
+
+  /**
+   * Marks that the dispatch of a request is finished on the snapshot. If the request was put into
+   * asynchronous mode, it stays in flight until its asynchronous processing completes.
+   */
+  private void exitDispatcherSnapshot(final DispatcherSnapshot snapshot, final int stripe,
+      final Request baseRequest) {
+
+    if (baseRequest.isAsyncStarted()) {
+      baseRequest.getHttpChannelState().addListener(new AsyncInFlightListener(snapshot, stripe));
+    } else {
+      snapshot.exit(stripe);
+    }
+  }
+
+  private void publishDispatcherSnapshot(final Collection<BaseHolder<?>> removedHolders) {
+    DispatcherSnapshot drainedSnapshot = this.retiredDispatcherSnapshot;
+    Dispatcher dispatcher;
+    if (drainedSnapshot != null && drainedSnapshot.isReleased()) {
+      dispatcher = drainedSnapshot.dispatcher;
+      dispatcher.copyServletsAndFilters();
+    } else {
+      dispatcher = startDispatcher();
+    }
+
+    DispatcherSnapshot previousSnapshot = this.dispatcherSnapshot;
+    this.dispatcherSnapshot = new DispatcherSnapshot(dispatcher);
+    this.retiredDispatcherSnapshot = previousSnapshot;
+    if (previousSnapshot != null) {
+      previousSnapshot.retire(removedHolders);
+    } else {
+      stopHolders(removedHolders);
+    }
+  }
+
+  private Dispatcher startDispatcher() {
+    Dispatcher dispatcher = new Dispatcher();
+    Runnable start = () -> {
+      try {
+        dispatcher.start();
+      } catch (Exception e) {
+        throw new JettyServerException(e);
+      }
+    };
+
+    // The dispatcher must be started within the scope of the context to pick up the same context
+    ServletContext servletContext = getServletContext();
+    ContextHandler contextHandler = ContextHandler.getContextHandler(servletContext);
+    if (contextHandler != null && ContextHandler.getCurrentContext() != servletContext) {
+      contextHandler.handle(start);
+    } else {
+      start.run();
+    }
+    dispatcher.linkToOuterScope();
+    return dispatcher;
+  }
+
+  /**
+   * Does the same as the super implementation but with identity sets instead of nested loops, so
+   * replacing the arrays of thousands of holders and mappings costs linear time plus the time of
+   * adding and removing the changed beans.
+   */
+  @Override
+  public void updateBeans(final Object[] oldBeans, final Object[] newBeans) {
+    Set<Object> newBeanSet = newIdentitySet(newBeans);
+    if (oldBeans != null) {
+      for (Object oldBean : oldBeans) {
+        if (!newBeanSet.contains(oldBean)) {
+          removeBean(oldBean);
+        }
+      }
+    }
+    Set<Object> oldBeanSet = newIdentitySet(oldBeans);
+    if (newBeans != null) {
+      for (Object newBean : newBeans) {
+        if (!oldBeanSet.contains(newBean)) {
+          addBean(newBean);
+        }
+      }
     }
   }
 
@@ -82,40 +495,66 @@ public class CustomServletHandler extends ServletHandler {
   }
 
   /**
-   * Updates servlets and filters with their mappings atomically. No requests are processed during
-   * the update process so no request will fail due to inconsistent state.
+   * Updates servlets and filters with their mappings atomically. The requests that are in flight
+   * finish on the previous snapshot while new requests are dispatched by the new one, so no
+   * request will fail due to inconsistent state. Arrays that are the same instances as the current
+   * ones are treated as unchanged and only the newly added holders are managed by the handler.
    */
-  public void updateServletsAndFilters(final ServletHolder[] servletHolders,
+  public synchronized void updateServletsAndFilters(final ServletHolder[] servletHolders,
       final ServletMapping[] servletMappings, final FilterHolder[] filterHolders,
       final FilterMapping[] filterMappings) {
-    WriteLock writeLock = this.readWriteLock.writeLock();
-    writeLock.lock();
+
+    boolean servletsChanged = servletHolders != getServlets();
+    boolean servletMappingsChanged = servletMappings != getServletMappings();
+    boolean filtersChanged = filterHolders != getFilters();
+    boolean filterMappingsChanged = filterMappings != getFilterMappings();
+    if (!servletsChanged && !servletMappingsChanged && !filtersChanged
+        && !filterMappingsChanged) {
+      return;
+    }
+
+    boolean started = isStarted();
+    Set<BaseHolder<?>> removedHolders = Collections.emptySet();
+    Set<BaseHolder<?>> addedHolders = Collections.emptySet();
+    if (started) {
+      removedHolders = collectMissingHolders(getServlets(), servletHolders);
+      removedHolders.addAll(collectMissingHolders(getFilters(), filterHolders));
+      addedHolders = collectMissingHolders(servletHolders, getServlets());
+      addedHolders.addAll(collectMissingHolders(filterHolders, getFilters()));
+      // Removed holders are stopped when the requests of the previous snapshot are finished
+      for (BaseHolder<?> removedHolder : removedHolders) {
+        unmanage(removedHolder);
+      }
+    }
+
     try {
       this.ignoreUpdateMapping = true;
-      setServlets(servletHolders);
-      setServletMappings(servletMappings);
-      setFilters(filterHolders);
+      if (servletsChanged) {
+        setServlets(servletHolders);
+      }
+      if (servletMappingsChanged) {
+        setServletMappings(servletMappings);
+      }
+      if (filtersChanged) {
+        setFilters(filterHolders);
+      }
 
-      if (isStarted()) {
-        for (ServletHolder servletHolder : servletHolders) {
-          manage(servletHolder);
-        }
-        for (FilterHolder filterHolder : filterHolders) {
-          manage(filterHolder);
-        }
+      for (BaseHolder<?> addedHolder : addedHolders) {
+        manage(addedHolder);
       }
-      setFilterMappings(filterMappings);
-      this.ignoreUpdateMapping = false;
-      if (isStarted()) {
-        updateNameMappings();
-        updateMappings();
+      if (filterMappingsChanged) {
+        setFilterMappings(filterMappings);
       }
     } finally {
-      try {
-        this.ignoreUpdateMapping = false;
-      } finally {
-        writeLock.unlock();
+      this.ignoreUpdateMapping = false;
+    }
+
+    if (started) {
+      if (servletsChanged || filtersChanged) {
+        updateNameMappings();
       }
+      updateMappings();
+      publishDispatcherSnapshot(removedHolders);
     }
   }
 }
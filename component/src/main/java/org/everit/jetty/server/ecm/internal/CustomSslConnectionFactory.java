@@ -15,53 +15,475 @@
  */
 package org.everit.jetty.server.ecm.internal;
 
-import java.util.ConcurrentModificationException;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.WeakHashMap;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
 
 import org.eclipse.jetty.io.Connection;
 import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.io.ssl.SslConnection;
+import org.eclipse.jetty.io.ssl.SslHandshakeListener;
 import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.SslConnectionFactory;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
 import org.everit.jetty.server.ReferencedEndPointsCloseable;
 
 /**
- * {@link SslConnectionFactory} that implements {@link ReferencedEndPointsCloseable}.
+ * {@link SslConnectionFactory} that implements {@link ReferencedEndPointsCloseable}. The
+ * {@link SslContextFactory} is shared with other connection factories, therefore its lifecycle is
+ * not managed by this factory. The factory counts the resumed and the full TLS handshakes of its
+ * connections, the handshakes per SNI host name of the certificates and the distribution of the
+ * handshake times.
+ *
+ * <p>
+ * If handshake threads are configured, the handshakes run on a dedicated bounded thread pool, so
+ * under a reconnect storm the handshakes queue separately from the requests. When the queue of
+ * the pool is full, the handshake runs on the thread of the connector as usual.
  */
+@ManagedObject("SSL connection factory with TLS session resumption statistics")
 public class CustomSslConnectionFactory extends SslConnectionFactory implements
-    ReferencedEndPointsCloseable {
+    GracefullyCloseableEndPoints {
+
+  /**
+   * Counts the handshakes of one connection. A session that was created before the connection is
+   * a resumed one.
+   */
+  private class HandshakeCounter implements SslHandshakeListener {
+
+    private final long connectionCreatedNanos = System.nanoTime();
 
-  private final WeakHashMap<EndPoint, Boolean> referencedEndPoints = new WeakHashMap<>();
+    private final long connectionCreatedTimeStamp;
+
+    HandshakeCounter(final long connectionCreatedTimeStamp) {
+      this.connectionCreatedTimeStamp = connectionCreatedTimeStamp;
+    }
+
+    @Override
+    public void handshakeFailed(final Event event, final Throwable failure) {
+      CustomSslConnectionFactory.this.failedHandshakes.increment();
+    }
 
-  public CustomSslConnectionFactory(final SslContextFactory factory, final String nextProtocol) {
-    super(factory, nextProtocol);
+    @Override
+    public void handshakeSucceeded(final Event event) {
+      recordHandshakeTime(System.nanoTime() - this.connectionCreatedNanos);
+      SSLSession session = event.getSSLEngine().getSession();
+      if (session.getCreationTime() < this.connectionCreatedTimeStamp) {
+        CustomSslConnectionFactory.this.resumedHandshakes.increment();
+      } else {
+        CustomSslConnectionFactory.this.fullHandshakes.increment();
+      }
+      countSniHandshake(session);
+    }
   }
 
-  private synchronized Set<EndPoint> cloneReferencedEndPoints() {
-    Set<EndPoint> result = null;
-    while (result == null) {
+  /**
+   * {@link SslConnection} that runs the handshake on the handshake executor. When the network end
+   * point becomes fillable during the handshake, the handshake thread fills the decrypted end
+   * point with an empty buffer instead of notifying the next connection (e.g. HTTP), so the
+   * application data that arrives with the end of the handshake is buffered by the connection.
+   * The next connection is notified on the executor of the connector when the handshake is
+   * finished.
+   */
+  private class HandshakeOffloadingSslConnection extends SslConnection {
+
+    /**
+     * Fill interest callback of the next connection that progresses the handshake if it is
+     * notified on the handshake thread.
+     */
+    private class HandshakeProgressingCallback extends Callback.Nested {
+
+      HandshakeProgressingCallback(final Callback callback) {
+        super(callback);
+      }
+
+      @Override
+      public void succeeded() {
+        if (Thread.currentThread() == HandshakeOffloadingSslConnection.this.handshakeThread) {
+          progressHandshake(getCallback());
+        } else {
+          super.succeeded();
+        }
+      }
+    }
+
+    /**
+     * Decrypted end point that wraps the fill interest callbacks of the next connection until the
+     * handshake is finished.
+     */
+    private class HandshakeProgressingDecryptedEndPoint extends DecryptedEndPoint {
+
+      @Override
+      public void fillInterested(final Callback callback) {
+        super.fillInterested(wrapUntilHandshakeFinished(callback));
+      }
+
+      @Override
+      public boolean tryFillInterested(final Callback callback) {
+        return super.tryFillInterested(wrapUntilHandshakeFinished(callback));
+      }
+    }
+
+    private final Executor handshakeExecutor;
+
+    private volatile boolean handshakeFinished = false;
+
+    private volatile Thread handshakeThread;
+
+    HandshakeOffloadingSslConnection(final Connector connector, final EndPoint endPoint,
+        final SSLEngine engine, final Executor handshakeExecutor) {
+      super(connector.getByteBufferPool(), connector.getExecutor(), endPoint, engine,
+          isDirectBuffersForEncryption(), isDirectBuffersForDecryption());
+      this.handshakeExecutor = handshakeExecutor;
+      addHandshakeListener(new SslHandshakeListener() {
+        @Override
+        public void handshakeFailed(final Event event, final Throwable failure) {
+          HandshakeOffloadingSslConnection.this.handshakeFinished = true;
+        }
+
+        @Override
+        public void handshakeSucceeded(final Event event) {
+          HandshakeOffloadingSslConnection.this.handshakeFinished = true;
+        }
+      });
+    }
+
+    @Override
+    protected DecryptedEndPoint newDecryptedEndPoint() {
+      return new HandshakeProgressingDecryptedEndPoint();
+    }
+
+    @Override
+    public void onFillable() {
+      if (this.handshakeFinished) {
+        super.onFillable();
+        return;
+      }
       try {
-        result = new HashSet<>(this.referencedEndPoints.keySet());
-      } catch (ConcurrentModificationException e) {
-        // TODO probably some warn logging would be nice
+        this.handshakeExecutor.execute(this::onFillableOnHandshakeThread);
+      } catch (RejectedExecutionException e) {
+        CustomSslConnectionFactory.this.rejectedHandshakeOffloads.increment();
+        super.onFillable();
       }
     }
-    return result;
+
+    private void onFillableOnHandshakeThread() {
+      this.handshakeThread = Thread.currentThread();
+      try {
+        super.onFillable();
+      } finally {
+        this.handshakeThread = null;
+      }
+    }
+
+    private void progressHandshake(final Callback callback) {
+      try {
+        int filled = getDecryptedEndPoint().fill(BufferUtil.EMPTY_BUFFER);
+        if (!this.handshakeFinished && filled == 0) {
+          // The handshake waits for the peer
+          getDecryptedEndPoint().fillInterested(callback);
+          return;
+        }
+      } catch (IOException | RuntimeException e) {
+        // The failure is reported to the next connection when it fills the end point
+        LOG.debug(e);
+      }
+      getExecutor().execute(callback::succeeded);
+    }
+
+    private Callback wrapUntilHandshakeFinished(final Callback callback) {
+      if (this.handshakeFinished) {
+        return callback;
+      }
+      return new HandshakeProgressingCallback(callback);
+    }
+  }
+
+  /**
+   * The upper bounds of the handshake time histogram buckets in milliseconds. The last bucket
+   * counts the handshakes that took longer than the last bound.
+   */
+  private static final long[] HANDSHAKE_TIME_BUCKET_BOUNDS =
+      { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000 };
+
+  private static final int HANDSHAKE_THREAD_IDLE_TIMEOUT = 60000;
+
+  private static final Logger LOG = Log.getLogger(CustomSslConnectionFactory.class);
+
+  private final LongAdder failedHandshakes = new LongAdder();
+
+  private ThreadPoolExecutor handshakeExecutor;
+
+  private int handshakeQueueSize;
+
+  private int handshakeThreads;
+
+  private final LongAdder[] handshakeTimeBuckets =
+      new LongAdder[HANDSHAKE_TIME_BUCKET_BOUNDS.length + 1];
+
+  private final LongAdder handshakeTimeTotalNanos = new LongAdder();
+
+  private final LongAdder fullHandshakes = new LongAdder();
+
+  private final EndPointRegistry referencedEndPoints = new EndPointRegistry();
+
+  private final LongAdder rejectedHandshakeOffloads = new LongAdder();
+
+  private final LongAdder resumedHandshakes = new LongAdder();
+
+  private final SharedSslContextFactory sharedSslContextFactory;
+
+  private final Map<String, LongAdder> sniHandshakes = new ConcurrentHashMap<>();
+
+  private final LongAdder unmatchedSniHandshakes = new LongAdder();
+
+  /**
+   * Constructor.
+   *
+   * @param sharedSslContextFactory
+   *          The SslContextFactory that is shared with other connection factories.
+   * @param nextProtocol
+   *          The protocol of the connection factory that is used after the TLS handshake.
+   */
+  public CustomSslConnectionFactory(final SharedSslContextFactory sharedSslContextFactory,
+      final String nextProtocol) {
+    super(sharedSslContextFactory.getSslContextFactory(), nextProtocol);
+    this.sharedSslContextFactory = sharedSslContextFactory;
+    unmanage(sharedSslContextFactory.getSslContextFactory());
+    for (int i = 0; i < this.handshakeTimeBuckets.length; i++) {
+      this.handshakeTimeBuckets[i] = new LongAdder();
+    }
   }
 
   @Override
   public void closeReferencedEndpoints() {
-    Set<EndPoint> endPoints = cloneReferencedEndPoints();
-    for (EndPoint endPoint : endPoints) {
-      endPoint.close();
+    this.referencedEndPoints.closeAll();
+  }
+
+  @Override
+  public void closeReferencedEndpointsGracefully(final long drainTimeout) {
+    this.referencedEndPoints.drainAll(drainTimeout);
+  }
+
+  /**
+   * Counts the handshake by the host name index key of the certificate, so the number of counters
+   * is limited by the certificates even if clients send arbitrary host names.
+   */
+  private void countSniHandshake(final SSLSession session) {
+    SslContextFactory sslContextFactory = getSslContextFactory();
+    if (!(sslContextFactory instanceof SniSslContextFactory)) {
+      return;
+    }
+    String indexKey = ((SniSslContextFactory) sslContextFactory)
+        .findHostIndexKey(SniSslContextFactory.resolveSniHost(session));
+    if (indexKey == null) {
+      this.unmatchedSniHandshakes.increment();
+    } else {
+      this.sniHandshakes.computeIfAbsent(indexKey, key -> new LongAdder()).increment();
+    }
+  }
+
+  @Override
+  protected void doStart() throws Exception {
+    if (this.handshakeThreads > 0) {
+      // The default abort policy rejects the handshake silently when the queue is full
+      String threadNamePrefix = "ssl-handshake-" + Integer.toHexString(hashCode()) + "-";
+      AtomicInteger threadCount = new AtomicInteger();
+      this.handshakeExecutor = new ThreadPoolExecutor(this.handshakeThreads,
+          this.handshakeThreads, HANDSHAKE_THREAD_IDLE_TIMEOUT, TimeUnit.MILLISECONDS,
+          new ArrayBlockingQueue<>(this.handshakeQueueSize), (runnable) -> {
+            Thread thread = new Thread(runnable,
+                threadNamePrefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          });
+      this.handshakeExecutor.allowCoreThreadTimeOut(true);
+      addBean(this.handshakeExecutor);
+    }
+    this.sharedSslContextFactory.acquire();
+    try {
+      super.doStart();
+    } catch (Exception e) {
+      this.sharedSslContextFactory.release();
+      removeHandshakeExecutor();
+      throw e;
     }
   }
 
+  @Override
+  protected void doStop() throws Exception {
+    try {
+      super.doStop();
+    } finally {
+      this.sharedSslContextFactory.release();
+      removeHandshakeExecutor();
+    }
+  }
+
+  @ManagedAttribute("The number of failed TLS handshakes")
+  public long getFailedHandshakes() {
+    return this.failedHandshakes.sum();
+  }
+
+  @ManagedAttribute("The number of TLS handshakes that ran on the thread of the connector because "
+      + "the queue of the handshake threads was full")
+  public long getRejectedHandshakeOffloads() {
+    return this.rejectedHandshakeOffloads.sum();
+  }
+
+  /**
+   * Returns the distribution of the times from accepting the connection until the successful end
+   * of the handshake.
+   *
+   * @return The number of handshakes by the upper bounds of the buckets in milliseconds.
+   */
+  @ManagedAttribute("The distribution of successful TLS handshake times in milliseconds")
+  public Map<String, Long> getHandshakeTimeHistogram() {
+    Map<String, Long> result = new LinkedHashMap<>();
+    for (int i = 0; i < HANDSHAKE_TIME_BUCKET_BOUNDS.length; i++) {
+      result.put("<=" + HANDSHAKE_TIME_BUCKET_BOUNDS[i], this.handshakeTimeBuckets[i].sum());
+    }
+    result.put(">" + HANDSHAKE_TIME_BUCKET_BOUNDS[HANDSHAKE_TIME_BUCKET_BOUNDS.length - 1],
+        this.handshakeTimeBuckets[HANDSHAKE_TIME_BUCKET_BOUNDS.length].sum());
+    return result;
+  }
+
+  /**
+   * Returns the mean time of the successful handshakes.
+   *
+   * @return The mean time in milliseconds or zero if there was no successful handshake.
+   */
+  @ManagedAttribute("The mean time of successful TLS handshakes in milliseconds")
+  public double getHandshakeTimeMean() {
+    long count = this.fullHandshakes.sum() + this.resumedHandshakes.sum();
+    if (count == 0) {
+      return 0;
+    }
+    return (double) this.handshakeTimeTotalNanos.sum() / count / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  @ManagedAttribute("The number of TLS handshakes that created a new session (resumption misses)")
+  public long getFullHandshakes() {
+    return this.fullHandshakes.sum();
+  }
+
+  @ManagedAttribute("The number of TLS handshakes that resumed a session (resumption hits)")
+  public long getResumedHandshakes() {
+    return this.resumedHandshakes.sum();
+  }
+
+  /**
+   * Returns the number of successful handshakes per host name of the certificates.
+   *
+   * @return The counters by the exact or wildcard host names.
+   */
+  @ManagedAttribute("The number of TLS handshakes per certificate host name")
+  public Map<String, Long> getSniHandshakes() {
+    Map<String, Long> result = new TreeMap<>();
+    this.sniHandshakes.forEach((key, counter) -> result.put(key, counter.sum()));
+    return result;
+  }
+
+  @ManagedAttribute("The number of TLS handshakes without an SNI host name of any certificate")
+  public long getUnmatchedSniHandshakes() {
+    return this.unmatchedSniHandshakes.sum();
+  }
+
+  @Override
+  protected SslConnection newSslConnection(final Connector connector, final EndPoint endPoint,
+      final SSLEngine engine) {
+    ThreadPoolExecutor executor = this.handshakeExecutor;
+    if (executor == null) {
+      return super.newSslConnection(connector, endPoint, engine);
+    }
+    return new HandshakeOffloadingSslConnection(connector, endPoint, engine, executor);
+  }
+
   @Override
   public Connection newConnection(final Connector connector, final EndPoint endPoint) {
-    this.referencedEndPoints.put(endPoint, Boolean.TRUE);
-    return super.newConnection(connector, endPoint);
+    Connection result = super.newConnection(connector, endPoint);
+    if (result instanceof SslConnection) {
+      ((SslConnection) result)
+          .addHandshakeListener(new HandshakeCounter(result.getCreatedTimeStamp()));
+    }
+    this.referencedEndPoints.register(connector, result);
+    return result;
   }
+
+  private void recordHandshakeTime(final long nanos) {
+    this.handshakeTimeTotalNanos.add(nanos);
+    long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+    int bucket = 0;
+    while (bucket < HANDSHAKE_TIME_BUCKET_BOUNDS.length
+        && millis > HANDSHAKE_TIME_BUCKET_BOUNDS[bucket]) {
+      bucket++;
+    }
+    this.handshakeTimeBuckets[bucket].increment();
+  }
+
+  private void removeHandshakeExecutor() {
+    if (this.handshakeExecutor != null) {
+      removeBean(this.handshakeExecutor);
+      this.handshakeExecutor.shutdownNow();
+      this.handshakeExecutor = null;
+    }
+  }
+
+  /**
+   * Resets the handshake statistics.
+   */
+  @ManagedOperation(value = "Resets the handshake statistics", impact = "ACTION")
+  public void resetHandshakeStatistics() {
+    this.failedHandshakes.reset();
+    for (LongAdder handshakeTimeBucket : this.handshakeTimeBuckets) {
+      handshakeTimeBucket.reset();
+    }
+    this.handshakeTimeTotalNanos.reset();
+    this.rejectedHandshakeOffloads.reset();
+    this.fullHandshakes.reset();
+    this.resumedHandshakes.reset();
+    this.sniHandshakes.clear();
+    this.unmatchedSniHandshakes.reset();
+  }
+
+  /**
+   * Sets the capacity of the queue of the handshakes that wait for a handshake thread.
+   *
+   * @param handshakeQueueSize
+   *          The maximum number of waiting handshakes.
+   */
+  public void setHandshakeQueueSize(final int handshakeQueueSize) {
+    this.handshakeQueueSize = handshakeQueueSize;
+  }
+
+  /**
+   * Sets the number of dedicated threads that run the handshakes. Must be called before the
+   * factory is started.
+   *
+   * @param handshakeThreads
+   *          The maximum number of handshake threads or zero to run the handshakes on the threads
+   *          of the connector.
+   */
+  public void setHandshakeThreads(final int handshakeThreads) {
+    this.handshakeThreads = handshakeThreads;
+  }
+
 }
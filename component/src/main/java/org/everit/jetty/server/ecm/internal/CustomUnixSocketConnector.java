@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm.internal;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.unixsocket.UnixSocketConnector;
+import org.eclipse.jetty.util.thread.Scheduler;
+
+/**
+ * {@link UnixSocketConnector} that releases its socket path as soon as it is shut down, the way
+ * the network connectors release their port. A connector that replaces it can bind the same path
+ * while the connections of this connector are still draining.
+ */
+public class CustomUnixSocketConnector extends UnixSocketConnector {
+
+  public CustomUnixSocketConnector(final Server server, final Executor executor,
+      final Scheduler scheduler, final ByteBufferPool bufferPool, final int selectors) {
+    super(server, executor, scheduler, bufferPool, selectors);
+  }
+
+  /**
+   * Closes the listening socket and deletes the socket file only if the socket is still open.
+   * {@link UnixSocketConnector#close()} deletes the file of the path unconditionally, so closing
+   * the socket again when the connector is stopped would delete the socket file of the connector
+   * that took over the path in the meantime.
+   */
+  @Override
+  public void close() {
+    if (isOpen()) {
+      super.close();
+    }
+  }
+
+  @Override
+  public Future<Void> shutdown() {
+    // Stop the acceptors before the socket is closed, so they do not spin on the closed socket
+    setAccepting(false);
+    close();
+    return super.shutdown();
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm.internal;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.jetty.http.HttpCompliance;
+import org.eclipse.jetty.http.MetaData;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnection;
+import org.eclipse.jetty.util.Callback;
+
+/**
+ * {@link HttpConnection} that can be drained from any thread. The parser and the generator of the
+ * connection are only touched by the thread that handles the current exchange, other threads only
+ * change the atomic state of the connection:
+ * <ul>
+ * <li>An idle connection is closed immediately.</li>
+ * <li>A busy connection sends the next response with "Connection: close" and it is closed when
+ * the current exchange is completed.</li>
+ * </ul>
+ */
+class DrainableHttpConnection extends HttpConnection {
+
+  /**
+   * The states of the connection from the point of view of draining.
+   */
+  private enum State {
+    BUSY, CLOSE_AFTER_EXCHANGE, CLOSED, IDLE
+  }
+
+  private final AtomicReference<State> state = new AtomicReference<>(State.IDLE);
+
+  DrainableHttpConnection(final HttpConfiguration config, final Connector connector,
+      final EndPoint endPoint, final HttpCompliance compliance,
+      final boolean recordComplianceViolations) {
+    super(config, connector, endPoint, compliance, recordComplianceViolations);
+  }
+
+  /**
+   * Requests the connection to be closed as soon as it does not have an exchange in progress. Can
+   * be called from any thread.
+   */
+  public void drain() {
+    while (true) {
+      State current = this.state.get();
+      if (current == State.IDLE) {
+        if (this.state.compareAndSet(current, State.CLOSED)) {
+          getEndPoint().close();
+          return;
+        }
+      } else if (current == State.BUSY) {
+        if (this.state.compareAndSet(current, State.CLOSE_AFTER_EXCHANGE)) {
+          return;
+        }
+      } else {
+        return;
+      }
+    }
+  }
+
+  @Override
+  public void onCompleted() {
+    // A pipelined request that is already buffered keeps the connection busy
+    if (!isRequestBufferEmpty() || !this.state.compareAndSet(State.BUSY, State.IDLE)) {
+      if (this.state.compareAndSet(State.CLOSE_AFTER_EXCHANGE, State.CLOSED)) {
+        getEndPoint().close();
+      }
+    }
+    super.onCompleted();
+  }
+
+  @Override
+  public void onFillable() {
+    // Bytes arrived, so the connection is busy until the exchange is completed
+    this.state.compareAndSet(State.IDLE, State.BUSY);
+    super.onFillable();
+  }
+
+  @Override
+  public void send(final MetaData.Response info, final boolean head, final ByteBuffer content,
+      final boolean lastContent, final Callback callback) {
+    State current = this.state.get();
+    if (info != null && (current == State.CLOSE_AFTER_EXCHANGE || current == State.CLOSED)) {
+      // The response is not committed yet, so the client is told to open a new connection
+      getGenerator().setPersistent(false);
+    }
+    super.send(info, head, content, lastContent, callback);
+  }
+}
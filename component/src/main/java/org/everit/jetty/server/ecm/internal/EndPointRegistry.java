@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.http2.ErrorCode;
+import org.eclipse.jetty.http2.ISession;
+import org.eclipse.jetty.http2.server.HTTP2ServerConnection;
+import org.eclipse.jetty.io.Connection;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.io.ssl.SslConnection;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.thread.Scheduler;
+
+/**
+ * Lock-free registry of the {@link EndPoint}s and {@link Connection}s that were provided by a
+ * connection factory. Connections are removed from the registry as soon as they are closed, so
+ * the registry never holds more entries than the number of open connections.
+ *
+ * <p>
+ * Unlike {@link ConcurrentWeakIdentitySet}, the registry holds its entries strongly and relies on
+ * the close event of the connections. A weak set would keep the closed connections until the next
+ * garbage collection, so drains and snapshots would still visit them. The registry also remembers
+ * the connector of each connection, as draining needs its scheduler.
+ */
+public class EndPointRegistry {
+
+  /**
+   * Drains a snapshot of connections by polling them on the scheduler of their connector until
+   * all of them are closed or the deadline passes.
+   */
+  private static class Drain implements Runnable {
+
+    private static final long POLL_INTERVAL = 100;
+
+    private final long deadline;
+
+    private final Runnable onCompleted;
+
+    private final List<RegisteredConnection> remaining;
+
+    Drain(final Collection<RegisteredConnection> connections, final long drainTimeout,
+        final Runnable onCompleted) {
+      this.remaining = new ArrayList<>(connections);
+      this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainTimeout);
+      this.onCompleted = onCompleted;
+    }
+
+    private void complete() {
+      for (RegisteredConnection registeredConnection : this.remaining) {
+        registeredConnection.connection.getEndPoint().close();
+      }
+      this.remaining.clear();
+      if (this.onCompleted != null) {
+        this.onCompleted.run();
+      }
+    }
+
+    @Override
+    public void run() {
+      Iterator<RegisteredConnection> iterator = this.remaining.iterator();
+      while (iterator.hasNext()) {
+        if (EndPointRegistry.shutdownGracefully(iterator.next().connection)) {
+          iterator.remove();
+        }
+      }
+      if (this.remaining.isEmpty()) {
+        complete();
+        return;
+      }
+
+      long now = System.nanoTime();
+      Scheduler scheduler = this.remaining.get(0).connector.getScheduler();
+      if (now - this.deadline >= 0 || scheduler == null || !scheduler.isRunning()) {
+        complete();
+        return;
+      }
+      long delay = Math.min(TimeUnit.MILLISECONDS.toNanos(POLL_INTERVAL), this.deadline - now);
+      scheduler.schedule(this, delay, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * A registered connection with the connector that accepted it.
+   */
+  private static final class RegisteredConnection {
+
+    final Connection connection;
+
+    final Connector connector;
+
+    RegisteredConnection(final Connection connection, final Connector connector) {
+      this.connection = connection;
+      this.connector = connector;
+    }
+  }
+
+  /**
+   * Listener that removes the connection from the registry when it is closed.
+   */
+  private class RemoveOnCloseListener implements Connection.Listener {
+
+    @Override
+    public void onClosed(final Connection connection) {
+      EndPoint endPoint = connection.getEndPoint();
+      RegisteredConnection registeredConnection =
+          EndPointRegistry.this.connectionsByEndPoint.get(endPoint);
+      if (registeredConnection != null && registeredConnection.connection == connection) {
+        EndPointRegistry.this.connectionsByEndPoint.remove(endPoint, registeredConnection);
+      }
+    }
+
+    @Override
+    public void onOpened(final Connection connection) {
+      // Connections are registered when they are created
+    }
+  }
+
+  /**
+   * Drains all connections of a connector that already stopped accepting new connections. See
+   * {@link GracefullyCloseableEndPoints#closeReferencedEndpointsGracefully(long)}.
+   *
+   * @param connector
+   *          The connector whose connections are drained.
+   * @param drainTimeout
+   *          The maximum time in milliseconds to wait for the connections to finish.
+   * @param onCompleted
+   *          Called when all connections are closed.
+   */
+  public static void drainConnector(final Connector connector, final long drainTimeout,
+      final Runnable onCompleted) {
+
+    List<RegisteredConnection> connections = new ArrayList<>();
+    for (EndPoint endPoint : connector.getConnectedEndPoints()) {
+      Connection connection = endPoint.getConnection();
+      if (connection != null) {
+        connections.add(new RegisteredConnection(connection, connector));
+      }
+    }
+    new Drain(connections, drainTimeout, onCompleted).run();
+  }
+
+  /**
+   * Does one step of the graceful shutdown of a connection.
+   *
+   * @return <code>true</code> if the connection does not need to be polled anymore.
+   */
+  private static boolean shutdownGracefully(final Connection connection) {
+    EndPoint endPoint = connection.getEndPoint();
+    if (!endPoint.isOpen()) {
+      return true;
+    }
+
+    if (connection instanceof DrainableHttpConnection) {
+      // Closed by the connection itself when the current exchange is completed
+      ((DrainableHttpConnection) connection).drain();
+      return false;
+    }
+
+    if (connection instanceof HTTP2ServerConnection) {
+      ISession session = ((HTTP2ServerConnection) connection).getSession();
+      if (!session.isClosed()) {
+        // The client stops opening new streams, the session closes itself when the existing
+        // streams are completed
+        session.close(ErrorCode.NO_ERROR.code, "drain", Callback.NOOP);
+      }
+      return false;
+    }
+
+    if (connection instanceof SslConnection) {
+      Connection decryptedConnection =
+          ((SslConnection) connection).getDecryptedEndPoint().getConnection();
+      if (decryptedConnection != null && decryptedConnection != connection) {
+        return shutdownGracefully(decryptedConnection);
+      }
+    }
+
+    // Other connections are closed at the deadline
+    return false;
+  }
+
+  private final ConcurrentHashMap<EndPoint, RegisteredConnection> connectionsByEndPoint =
+      new ConcurrentHashMap<>();
+
+  private final Connection.Listener removeOnCloseListener = new RemoveOnCloseListener();
+
+  /**
+   * Closes all endpoints that are registered at the time of the call.
+   */
+  public void closeAll() {
+    for (EndPoint endPoint : this.connectionsByEndPoint.keySet()) {
+      endPoint.close();
+    }
+  }
+
+  /**
+   * Drains the connections that are registered at the time of the call. See
+   * {@link GracefullyCloseableEndPoints#closeReferencedEndpointsGracefully(long)}.
+   *
+   * @param drainTimeout
+   *          The maximum time in milliseconds to wait for the connections to finish.
+   */
+  public void drainAll(final long drainTimeout) {
+    Collection<RegisteredConnection> connections = this.connectionsByEndPoint.values();
+    if (!connections.isEmpty()) {
+      new Drain(connections, drainTimeout, null).run();
+    }
+  }
+
+  /**
+   * Returns an unmodifiable snapshot of the registered connections. The snapshot is copied from a
+   * weakly consistent iteration, so it may miss the connections that are registered or
+   * unregistered concurrently, and it does not follow later changes.
+   *
+   * @return The connections that were open when the snapshot was taken.
+   */
+  public Collection<Connection> getConnections() {
+    List<Connection> result = new ArrayList<>(this.connectionsByEndPoint.size());
+    for (RegisteredConnection registeredConnection : this.connectionsByEndPoint.values()) {
+      result.add(registeredConnection.connection);
+    }
+    return Collections.unmodifiableList(result);
+  }
+
+  /**
+   * Registers a newly created connection. The connection is removed automatically when it is
+   * closed.
+   *
+   * @param connector
+   *          The connector that accepted the connection.
+   * @param connection
+   *          The connection that was just created by the factory.
+   */
+  public void register(final Connector connector, final Connection connection) {
+    connection.addListener(this.removeOnCloseListener);
+    this.connectionsByEndPoint.put(connection.getEndPoint(),
+        new RegisteredConnection(connection, connector));
+  }
+
+  public int size() {
+    return this.connectionsByEndPoint.size();
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm.internal;
+
+import org.everit.jetty.server.ReferencedEndPointsCloseable;
+
+/**
+ * A {@link ReferencedEndPointsCloseable} that can also drain the referenced endpoints gracefully.
+ */
+public interface GracefullyCloseableEndPoints extends ReferencedEndPointsCloseable {
+
+  /**
+   * Lets the referenced connections finish their current exchanges and closes them afterwards.
+   * Idle HTTP/1 connections are closed immediately, busy ones are closed after the current
+   * response (sent with <code>Connection: close</code>), HTTP/2 sessions get a GOAWAY frame at
+   * once and their in-flight streams may finish until the drain timeout. Connections that are
+   * still open after the timeout are closed forcibly.
+   *
+   * @param drainTimeout
+   *          The maximum time in milliseconds to wait for the connections to finish.
+   */
+  void closeReferencedEndpointsGracefully(long drainTimeout);
+}
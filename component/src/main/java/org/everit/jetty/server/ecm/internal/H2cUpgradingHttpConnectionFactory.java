@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm.internal;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+
+/**
+ * HTTP/1.1 connection factory that also serves h2c on the same connector. Jetty switches an
+ * HTTP/1.1 connection to HTTP/2 if the request has an <code>Upgrade: h2c</code> header or the
+ * client sends the HTTP/2 connection preface with prior knowledge, as long as an h2c connection
+ * factory is available on the connector. That factory is provided as a companion.
+ */
+public class H2cUpgradingHttpConnectionFactory extends CustomHttpConnectionFactory implements
+    CompanionConnectionFactoryProvider {
+
+  private final ClosableH2CConnectionFactory h2cConnectionFactory;
+
+  /**
+   * Constructor.
+   *
+   * @param config
+   *          The configuration that is shared by the HTTP/1.1 and the h2c connections.
+   */
+  public H2cUpgradingHttpConnectionFactory(final HttpConfiguration config) {
+    super(config);
+    this.h2cConnectionFactory = new ClosableH2CConnectionFactory(config);
+  }
+
+  @Override
+  public Collection<ConnectionFactory> getCompanionConnectionFactories() {
+    return Collections.singletonList(this.h2cConnectionFactory);
+  }
+
+  public ClosableH2CConnectionFactory getH2cConnectionFactory() {
+    return this.h2cConnectionFactory;
+  }
+}
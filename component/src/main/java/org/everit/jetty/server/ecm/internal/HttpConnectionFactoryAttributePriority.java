@@ -50,6 +50,30 @@ public final class HttpConnectionFactoryAttributePriority {
 
   public static final int P15_H2C_SUPPORT = 15;
 
+  public static final int P16_ENDPOINT_DRAIN_TIMEOUT = 16;
+
+  public static final int P17_H2_SUPPORT = 17;
+
+  public static final int P18_MAX_CONCURRENT_STREAMS = 18;
+
+  public static final int P19_INITIAL_SESSION_RECV_WINDOW = 19;
+
+  public static final int P20_INITIAL_STREAM_RECV_WINDOW = 20;
+
+  public static final int P21_MAX_FRAME_SIZE = 21;
+
+  public static final int P22_MAX_DYNAMIC_TABLE_SIZE = 22;
+
+  public static final int P23_FLOW_CONTROL_STRATEGY = 23;
+
+  public static final int P24_H2C_UPGRADE = 24;
+
+  public static final int P25_MAX_REQUESTS_PER_CONNECTION = 25;
+
+  public static final int P26_MAX_CONNECTION_AGE = 26;
+
+  public static final int P27_CONNECTION_JITTER = 27;
+
   private HttpConnectionFactoryAttributePriority() {
   }
 }
@@ -17,16 +17,27 @@ package org.everit.jetty.server.ecm.internal;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.ConcurrentModificationException;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.WeakHashMap;
 
+import org.eclipse.jetty.http2.BufferingFlowControlStrategy;
+import org.eclipse.jetty.http2.FlowControlStrategy;
+import org.eclipse.jetty.http2.HTTP2Session;
+import org.eclipse.jetty.http2.ISession;
+import org.eclipse.jetty.http2.SimpleFlowControlStrategy;
+import org.eclipse.jetty.http2.frames.SettingsFrame;
+import org.eclipse.jetty.http2.frames.WindowUpdateFrame;
+import org.eclipse.jetty.http2.server.HTTP2ServerConnection;
+import org.eclipse.jetty.io.Connection;
 import org.eclipse.jetty.server.ConnectionFactory;
 import org.eclipse.jetty.server.HttpConfiguration;
 import org.eclipse.jetty.server.HttpConfiguration.Customizer;
 import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.util.Callback;
 import org.everit.jetty.server.ConnectionFactoryFactory;
 import org.everit.jetty.server.ecm.HttpConnectionFactoryFactoryConstants;
 import org.everit.osgi.ecm.annotation.Component;
@@ -36,8 +47,10 @@ import org.everit.osgi.ecm.annotation.ServiceRef;
 import org.everit.osgi.ecm.annotation.Update;
 import org.everit.osgi.ecm.annotation.attribute.BooleanAttribute;
 import org.everit.osgi.ecm.annotation.attribute.IntegerAttribute;
+import org.everit.osgi.ecm.annotation.attribute.LongAttribute;
 import org.everit.osgi.ecm.annotation.attribute.StringAttribute;
 import org.everit.osgi.ecm.annotation.attribute.StringAttributes;
+import org.everit.osgi.ecm.component.ConfigurationException;
 import org.everit.osgi.ecm.extender.ExtendComponent;
 import org.osgi.framework.Constants;
 
@@ -58,21 +71,47 @@ import org.osgi.framework.Constants;
 @Service
 public class HttpConnectionFactoryFactoryComponent implements ConnectionFactoryFactory {
 
-  private final WeakHashMap<CloseableHttpConfigurationProvider, Boolean> activeConnectionFactories =
-      new WeakHashMap<>();
+  private static final float BUFFERING_FLOW_CONTROL_RATIO = 0.5F;
+
+  private static final int MAX_CONNECTION_JITTER = 100;
+
+  private final ConcurrentWeakIdentitySet<CloseableHttpConfigurationProvider> activeConnectionFactories = // CS_DISABLE_LINE_LENGTH
+      new ConcurrentWeakIdentitySet<>();
 
   private boolean closeAllEndpointsAfterDynamicUpdate = false;
 
+  private final ConnectionLifetimeCustomizer connectionLifetimeCustomizer =
+      new ConnectionLifetimeCustomizer();
+
   private Customizer[] customizers;
 
   private boolean delayDispatchUntilContent = false;
 
+  private long endpointDrainTimeout;
+
+  private String flowControlStrategy =
+      HttpConnectionFactoryFactoryConstants.DEFAULT_FLOW_CONTROL_STRATEGY;
+
+  private boolean h2;
+
   private boolean h2c;
 
+  private boolean h2cUpgrade;
+
   private int headerCacheSize;
 
+  private int initialSessionRecvWindow;
+
+  private int initialStreamRecvWindow;
+
   private int inputBufferSize;
 
+  private int maxConcurrentStreams;
+
+  private int maxDynamicTableSize;
+
+  private int maxFrameSize;
+
   private Integer outputAggregationSize;
 
   private int outputBufferSize;
@@ -105,16 +144,8 @@ public class HttpConnectionFactoryFactoryComponent implements ConnectionFactoryF
 
   }
 
-  private synchronized Set<CloseableHttpConfigurationProvider> cloneReferencedConnectionFactories() {
-    Set<CloseableHttpConfigurationProvider> result = null;
-    while (result == null) {
-      try {
-        result = new HashSet<>(this.activeConnectionFactories.keySet());
-      } catch (ConcurrentModificationException e) {
-        // TODO probably some warn logging would be nice
-      }
-    }
-    return result;
+  private Set<CloseableHttpConfigurationProvider> cloneReferencedConnectionFactories() {
+    return this.activeConnectionFactories.snapshot();
   }
 
   @Override
@@ -122,12 +153,7 @@ public class HttpConnectionFactoryFactoryComponent implements ConnectionFactoryF
     HttpConfiguration httpConfiguration = new HttpConfiguration();
     httpConfiguration.setDelayDispatchUntilContent(this.delayDispatchUntilContent);
 
-    if (this.customizers != null) {
-      httpConfiguration.setCustomizers(Arrays.asList(this.customizers));
-    } else {
-      List<Customizer> defaultCustomizers = new ArrayList<>();
-      httpConfiguration.setCustomizers(defaultCustomizers);
-    }
+    httpConfiguration.setCustomizers(createCustomizerList(this.customizers));
 
     httpConfiguration.setHeaderCacheSize(this.headerCacheSize);
 
@@ -146,18 +172,114 @@ public class HttpConnectionFactoryFactoryComponent implements ConnectionFactoryF
     httpConfiguration.setSendXPoweredBy(this.sendXPoweredBy);
 
     CloseableHttpConfigurationProvider httpConnectionFactory = null;
-    if (this.h2c) {
+    if (this.h2) {
+      httpConnectionFactory = new ClosableH2ConnectionFactory(httpConfiguration);
+    } else if (this.h2c) {
       httpConnectionFactory = new ClosableH2CConnectionFactory(httpConfiguration);
+    } else if (this.h2cUpgrade) {
+      H2cUpgradingHttpConnectionFactory upgradingConnectionFactory =
+          new H2cUpgradingHttpConnectionFactory(httpConfiguration);
+      ClosableH2CConnectionFactory h2cConnectionFactory =
+          upgradingConnectionFactory.getH2cConnectionFactory();
+      h2cConnectionFactory.setInputBufferSize(this.inputBufferSize);
+      configureHttp2(h2cConnectionFactory);
+      h2cConnectionFactory.addBean(this.connectionLifetimeCustomizer);
+      this.activeConnectionFactories.add(h2cConnectionFactory);
+      httpConnectionFactory = upgradingConnectionFactory;
     } else {
       httpConnectionFactory = new CustomHttpConnectionFactory(httpConfiguration);
     }
 
     httpConnectionFactory.setInputBufferSize(this.inputBufferSize);
+    // Chooses the jitter of the connection lifetime when a connection is opened
+    httpConnectionFactory.addBean(this.connectionLifetimeCustomizer);
 
-    this.activeConnectionFactories.put(httpConnectionFactory, true);
+    if (httpConnectionFactory instanceof CloseableHttp2ConfigurationProvider) {
+      configureHttp2((CloseableHttp2ConfigurationProvider) httpConnectionFactory);
+    }
+
+    this.activeConnectionFactories.add(httpConnectionFactory);
     return httpConnectionFactory;
   }
 
+  /**
+   * Creates the list of customizers that is passed to the HttpConfiguration. The connection
+   * lifetime customizer is always the last, so it sees the effect of the other customizers.
+   */
+  private List<Customizer> createCustomizerList(final Customizer[] referencedCustomizers) {
+    List<Customizer> result = new ArrayList<>();
+    if (referencedCustomizers != null) {
+      result.addAll(Arrays.asList(referencedCustomizers));
+    }
+    result.add(this.connectionLifetimeCustomizer);
+    return result;
+  }
+
+  private void configureHttp2(final CloseableHttp2ConfigurationProvider http2ConnectionFactory) {
+    http2ConnectionFactory.setMaxConcurrentStreams(this.maxConcurrentStreams);
+    http2ConnectionFactory.setInitialSessionRecvWindow(this.initialSessionRecvWindow);
+    http2ConnectionFactory.setInitialStreamRecvWindow(this.initialStreamRecvWindow);
+    http2ConnectionFactory.setMaxFrameLength(this.maxFrameSize);
+    http2ConnectionFactory.setMaxDynamicTableSize(this.maxDynamicTableSize);
+    http2ConnectionFactory.setFlowControlStrategyFactory(
+        createFlowControlStrategyFactory(this.flowControlStrategy));
+  }
+
+  private FlowControlStrategy.Factory createFlowControlStrategyFactory(
+      final String strategy) {
+
+    if (HttpConnectionFactoryFactoryConstants.FLOW_CONTROL_STRATEGY_SIMPLE.equals(strategy)) {
+      return SimpleFlowControlStrategy::new;
+    }
+    return () -> new BufferingFlowControlStrategy(BUFFERING_FLOW_CONTROL_RATIO);
+  }
+
+  /**
+   * Sends the changed HTTP/2 settings to the peers of the open sessions. Enlarging the session
+   * receive window is announced with a WINDOW_UPDATE frame, as the initial session window cannot
+   * be changed via SETTINGS.
+   */
+  private void sendSettingsToOpenSessions(
+      final CloseableHttp2ConfigurationProvider http2ConnectionFactory,
+      final Map<Integer, Integer> settings, final int sessionRecvWindowDelta) {
+
+    for (Connection connection : http2ConnectionFactory.getReferencedConnections()) {
+      if (!(connection instanceof HTTP2ServerConnection)) {
+        continue;
+      }
+      ISession session = ((HTTP2ServerConnection) connection).getSession();
+      Integer maxStreams = settings.get(SettingsFrame.MAX_CONCURRENT_STREAMS);
+      if (maxStreams != null && session instanceof HTTP2Session) {
+        ((HTTP2Session) session).setMaxRemoteStreams(maxStreams);
+      }
+      if (!settings.isEmpty()) {
+        session.settings(new SettingsFrame(settings, false), Callback.NOOP);
+      }
+      if (sessionRecvWindowDelta > 0) {
+        session.updateRecvWindow(sessionRecvWindowDelta);
+        session.frames(null,
+            Collections.singletonList(new WindowUpdateFrame(0, sessionRecvWindowDelta)),
+            Callback.NOOP);
+      }
+    }
+  }
+
+  @IntegerAttribute(attributeId = HttpConnectionFactoryFactoryConstants.ATTR_CONNECTION_JITTER,
+      defaultValue = HttpConnectionFactoryFactoryConstants.DEFAULT_CONNECTION_JITTER,
+      dynamic = true, priority = HttpConnectionFactoryAttributePriority.P27_CONNECTION_JITTER,
+      label = "Connection limit jitter (%)",
+      description = "The max requests and the max age of each connection are lowered by a random "
+          + "amount up to this percentage, so the connections that were opened at the same time "
+          + "are not closed at the same time. Must be between 0 and 100.")
+  public void setConnectionJitter(final int connectionJitter) {
+    if (connectionJitter < 0 || connectionJitter > MAX_CONNECTION_JITTER) {
+      throw new ConfigurationException("The value of '"
+          + HttpConnectionFactoryFactoryConstants.ATTR_CONNECTION_JITTER + "' ("
+          + connectionJitter + ") must be between 0 and " + MAX_CONNECTION_JITTER);
+    }
+    this.connectionLifetimeCustomizer.setJitterPercent(connectionJitter);
+  }
+
   /**
    * Updates the customizers on the component and all connection factories dynamically.
    **/
@@ -171,7 +293,8 @@ public class HttpConnectionFactoryFactoryComponent implements ConnectionFactoryF
   public synchronized void setCustomizers(final Customizer[] customizers) {
     this.customizers = customizers;
     for (CloseableHttpConfigurationProvider httpConnectionFactory : cloneActiveHttpConnectionFactories()) {
-      httpConnectionFactory.getHttpConfiguration().setCustomizers(Arrays.asList(customizers));
+      httpConnectionFactory.getHttpConfiguration()
+          .setCustomizers(createCustomizerList(customizers));
     }
   }
 
@@ -193,6 +316,64 @@ public class HttpConnectionFactoryFactoryComponent implements ConnectionFactoryF
     this.closeAllEndpointsAfterDynamicUpdate = true;
   }
 
+  @LongAttribute(attributeId = HttpConnectionFactoryFactoryConstants.ATTR_ENDPOINT_DRAIN_TIMEOUT,
+      defaultValue = HttpConnectionFactoryFactoryConstants.DEFAULT_ENDPOINT_DRAIN_TIMEOUT,
+      dynamic = true, priority = HttpConnectionFactoryAttributePriority.P16_ENDPOINT_DRAIN_TIMEOUT,
+      label = "Endpoint drain timeout",
+      description = "The time in milliseconds that the open connections get to finish their "
+          + "current exchanges when they have to be closed due to a dynamic update. HTTP/1 "
+          + "connections are closed after the current response, HTTP/2 sessions get a GOAWAY "
+          + "frame. Connections that are still open after the timeout are closed forcibly. Zero "
+          + "means that the connections are closed immediately.")
+  public void setEndpointDrainTimeout(final long endpointDrainTimeout) {
+    this.endpointDrainTimeout = endpointDrainTimeout;
+  }
+
+  /**
+   * Sets the flow control strategy of the HTTP/2 connection factories. As the strategy of an open
+   * session cannot be replaced, the endpoints are closed after the dynamic update.
+   */
+  @StringAttribute(attributeId = HttpConnectionFactoryFactoryConstants.ATTR_FLOW_CONTROL_STRATEGY,
+      defaultValue = HttpConnectionFactoryFactoryConstants.DEFAULT_FLOW_CONTROL_STRATEGY,
+      dynamic = true, priority = HttpConnectionFactoryAttributePriority.P23_FLOW_CONTROL_STRATEGY,
+      label = "HTTP/2 flow control strategy",
+      description = "The strategy of sending WINDOW_UPDATE frames in HTTP/2 connections. "
+          + "\"buffering\" collects the consumed bytes until half of the window is consumed, so "
+          + "fewer frames are sent. \"simple\" sends a WINDOW_UPDATE frame for every consumed "
+          + "DATA frame.")
+  public synchronized void setFlowControlStrategy(final String flowControlStrategy) {
+    if (!HttpConnectionFactoryFactoryConstants.FLOW_CONTROL_STRATEGY_BUFFERING
+        .equals(flowControlStrategy)
+        && !HttpConnectionFactoryFactoryConstants.FLOW_CONTROL_STRATEGY_SIMPLE
+            .equals(flowControlStrategy)) {
+      throw new ConfigurationException("Unknown HTTP/2 flow control strategy: "
+          + flowControlStrategy);
+    }
+    if (flowControlStrategy.equals(this.flowControlStrategy)) {
+      return;
+    }
+    this.flowControlStrategy = flowControlStrategy;
+    for (CloseableHttpConfigurationProvider httpConnectionFactory : cloneActiveHttpConnectionFactories()) {
+      if (httpConnectionFactory instanceof CloseableHttp2ConfigurationProvider) {
+        ((CloseableHttp2ConfigurationProvider) httpConnectionFactory)
+            .setFlowControlStrategyFactory(createFlowControlStrategyFactory(flowControlStrategy));
+      }
+    }
+    this.closeAllEndpointsAfterDynamicUpdate = true;
+  }
+
+  @BooleanAttribute(attributeId = HttpConnectionFactoryFactoryConstants.ATTR_H2,
+      defaultValue = HttpConnectionFactoryFactoryConstants.DEFAULT_H2, dynamic = false,
+      priority = HttpConnectionFactoryAttributePriority.P17_H2_SUPPORT,
+      label = "HTTP/2 over TLS (h2)",
+      description = "If true, create HTTP/2 over TLS (h2) connections instead of HTTP1.1. The "
+          + "factory must follow an ALPN connection factory factory in the chain of the "
+          + "connector, and it is usually followed by an HTTP1.1 factory for the clients that do "
+          + "not negotiate h2. Takes precedence over h2c.")
+  public synchronized void setH2(final boolean h2) {
+    this.h2 = h2;
+  }
+
   @BooleanAttribute(attributeId = HttpConnectionFactoryFactoryConstants.ATTR_H2C,
       defaultValue = HttpConnectionFactoryFactoryConstants.DEFAULT_H2C, dynamic = false,
       priority = HttpConnectionFactoryAttributePriority.P15_H2C_SUPPORT,
@@ -202,6 +383,18 @@ public class HttpConnectionFactoryFactoryComponent implements ConnectionFactoryF
     this.h2c = h2c;
   }
 
+  @BooleanAttribute(attributeId = HttpConnectionFactoryFactoryConstants.ATTR_H2C_UPGRADE,
+      defaultValue = HttpConnectionFactoryFactoryConstants.DEFAULT_H2C_UPGRADE, dynamic = false,
+      priority = HttpConnectionFactoryAttributePriority.P24_H2C_UPGRADE,
+      label = "HTTP1.1 and h2c on the same connector",
+      description = "If true, create HTTP1.1 connections that switch to plain text HTTP/2 (h2c) "
+          + "when the client sends an \"Upgrade: h2c\" request or the HTTP/2 connection preface "
+          + "with prior knowledge. The h2c connection factory is added to the connector "
+          + "automatically. Ignored if h2 or h2c is true.")
+  public synchronized void setH2cUpgrade(final boolean h2cUpgrade) {
+    this.h2cUpgrade = h2cUpgrade;
+  }
+
   /**
    * Updates header cache size on component and all created connection factory.
    */
@@ -218,6 +411,31 @@ public class HttpConnectionFactoryFactoryComponent implements ConnectionFactoryF
     this.closeAllEndpointsAfterDynamicUpdate = true;
   }
 
+  @IntegerAttribute(
+      attributeId = HttpConnectionFactoryFactoryConstants.ATTR_INITIAL_SESSION_RECV_WINDOW,
+      defaultValue = HttpConnectionFactoryFactoryConstants.DEFAULT_INITIAL_SESSION_RECV_WINDOW,
+      dynamic = true,
+      priority = HttpConnectionFactoryAttributePriority.P19_INITIAL_SESSION_RECV_WINDOW,
+      label = "HTTP/2 initial session receive window",
+      description = "The size of the HTTP/2 flow control window in bytes that is shared by all "
+          + "streams of a connection. Large values allow high bandwidth downloads on links with "
+          + "large latency. Open sessions get a WINDOW_UPDATE frame if the value is increased.")
+  public void setInitialSessionRecvWindow(final int initialSessionRecvWindow) {
+    this.initialSessionRecvWindow = initialSessionRecvWindow;
+  }
+
+  @IntegerAttribute(
+      attributeId = HttpConnectionFactoryFactoryConstants.ATTR_INITIAL_STREAM_RECV_WINDOW,
+      defaultValue = HttpConnectionFactoryFactoryConstants.DEFAULT_INITIAL_STREAM_RECV_WINDOW,
+      dynamic = true,
+      priority = HttpConnectionFactoryAttributePriority.P20_INITIAL_STREAM_RECV_WINDOW,
+      label = "HTTP/2 initial stream receive window",
+      description = "The size of the HTTP/2 flow control window of a stream in bytes. Open "
+          + "sessions get the new value in a SETTINGS frame.")
+  public void setInitialStreamRecvWindow(final int initialStreamRecvWindow) {
+    this.initialStreamRecvWindow = initialStreamRecvWindow;
+  }
+
   /**
    * Sets input buffer size on component and calls
    * {@link HttpConnectionFactory#setInputBufferSize(int)} on every generated
@@ -236,6 +454,61 @@ public class HttpConnectionFactoryFactoryComponent implements ConnectionFactoryF
     this.closeAllEndpointsAfterDynamicUpdate = true;
   }
 
+  @LongAttribute(attributeId = HttpConnectionFactoryFactoryConstants.ATTR_MAX_CONNECTION_AGE,
+      defaultValue = HttpConnectionFactoryFactoryConstants.DEFAULT_MAX_CONNECTION_AGE,
+      dynamic = true, priority = HttpConnectionFactoryAttributePriority.P26_MAX_CONNECTION_AGE,
+      label = "Max connection age",
+      description = "The age in milliseconds after which a connection is closed gracefully when "
+          + "it serves its next request: HTTP1.1 connections with \"Connection: close\", HTTP/2 "
+          + "connections with a GOAWAY frame. This lets load balancers rebalance long-living "
+          + "connections. Zero means no limit.")
+  public void setMaxConnectionAge(final long maxConnectionAge) {
+    this.connectionLifetimeCustomizer.setMaxConnectionAge(maxConnectionAge);
+  }
+
+  @IntegerAttribute(attributeId = HttpConnectionFactoryFactoryConstants.ATTR_MAX_CONCURRENT_STREAMS,
+      defaultValue = HttpConnectionFactoryFactoryConstants.DEFAULT_MAX_CONCURRENT_STREAMS,
+      dynamic = true, priority = HttpConnectionFactoryAttributePriority.P18_MAX_CONCURRENT_STREAMS,
+      label = "HTTP/2 max concurrent streams",
+      description = "The maximum number of concurrent streams that a client may open on an "
+          + "HTTP/2 connection. Open sessions get the new value in a SETTINGS frame.")
+  public void setMaxConcurrentStreams(final int maxConcurrentStreams) {
+    this.maxConcurrentStreams = maxConcurrentStreams;
+  }
+
+  @IntegerAttribute(attributeId = HttpConnectionFactoryFactoryConstants.ATTR_MAX_DYNAMIC_TABLE_SIZE,
+      defaultValue = HttpConnectionFactoryFactoryConstants.DEFAULT_MAX_DYNAMIC_TABLE_SIZE,
+      dynamic = true, priority = HttpConnectionFactoryAttributePriority.P22_MAX_DYNAMIC_TABLE_SIZE,
+      label = "HTTP/2 HPACK table size",
+      description = "The maximum size of the HPACK dynamic table in bytes that is used to decode "
+          + "the request headers. Open HTTP/2 connections are closed if the value changes.")
+  public void setMaxDynamicTableSize(final int maxDynamicTableSize) {
+    this.maxDynamicTableSize = maxDynamicTableSize;
+  }
+
+  @IntegerAttribute(attributeId = HttpConnectionFactoryFactoryConstants.ATTR_MAX_FRAME_SIZE,
+      defaultValue = HttpConnectionFactoryFactoryConstants.DEFAULT_MAX_FRAME_SIZE,
+      dynamic = true, priority = HttpConnectionFactoryAttributePriority.P21_MAX_FRAME_SIZE,
+      label = "HTTP/2 max frame size",
+      description = "The maximum size of the HTTP/2 frames in bytes that the server accepts. Open "
+          + "HTTP/2 connections are closed if the value changes.")
+  public void setMaxFrameSize(final int maxFrameSize) {
+    this.maxFrameSize = maxFrameSize;
+  }
+
+  @IntegerAttribute(
+      attributeId = HttpConnectionFactoryFactoryConstants.ATTR_MAX_REQUESTS_PER_CONNECTION,
+      defaultValue = HttpConnectionFactoryFactoryConstants.DEFAULT_MAX_REQUESTS_PER_CONNECTION,
+      dynamic = true,
+      priority = HttpConnectionFactoryAttributePriority.P25_MAX_REQUESTS_PER_CONNECTION,
+      label = "Max requests per connection",
+      description = "The number of requests after which a connection is closed gracefully: "
+          + "HTTP1.1 connections with \"Connection: close\", HTTP/2 connections with a GOAWAY "
+          + "frame. Zero means no limit.")
+  public void setMaxRequestsPerConnection(final int maxRequestsPerConnection) {
+    this.connectionLifetimeCustomizer.setMaxRequests(maxRequestsPerConnection);
+  }
+
   @IntegerAttribute(
       attributeId = HttpConnectionFactoryFactoryConstants.ATTR_OUTPUT_AGGREGATION_SIZE,
       optional = true, dynamic = true,
@@ -395,11 +668,61 @@ public class HttpConnectionFactoryFactoryComponent implements ConnectionFactoryF
         httpConfiguration.setOutputAggregationSize(this.outputAggregationSize);
         closeAllEndpoints = true;
       }
-      if (closeAllEndpoints) {
-        connectionFactory.closeReferencedEndpoints();
+      boolean closeEndpoints = closeAllEndpoints;
+      if (connectionFactory instanceof CloseableHttp2ConfigurationProvider) {
+        closeEndpoints |= updateHttp2Settings(
+            (CloseableHttp2ConfigurationProvider) connectionFactory, closeEndpoints);
+      }
+      if (closeEndpoints) {
+        if (this.endpointDrainTimeout > 0) {
+          connectionFactory.closeReferencedEndpointsGracefully(this.endpointDrainTimeout);
+        } else {
+          connectionFactory.closeReferencedEndpoints();
+        }
       }
     }
 
     this.closeAllEndpointsAfterDynamicUpdate = false;
   }
+
+  /**
+   * Applies the HTTP/2 settings on a connection factory. The settings that can be changed on an
+   * open session are sent to the peers, unless the endpoints are closed anyway.
+   *
+   * @return <code>true</code> if the open endpoints must be closed so the new settings are used.
+   */
+  private boolean updateHttp2Settings(
+      final CloseableHttp2ConfigurationProvider http2ConnectionFactory,
+      final boolean closeEndpoints) {
+
+    boolean result = false;
+    if (http2ConnectionFactory.getMaxFrameLength() != this.maxFrameSize) {
+      http2ConnectionFactory.setMaxFrameLength(this.maxFrameSize);
+      result = true;
+    }
+    if (http2ConnectionFactory.getMaxDynamicTableSize() != this.maxDynamicTableSize) {
+      http2ConnectionFactory.setMaxDynamicTableSize(this.maxDynamicTableSize);
+      result = true;
+    }
+
+    Map<Integer, Integer> settings = new HashMap<>();
+    if (http2ConnectionFactory.getMaxConcurrentStreams() != this.maxConcurrentStreams) {
+      http2ConnectionFactory.setMaxConcurrentStreams(this.maxConcurrentStreams);
+      settings.put(SettingsFrame.MAX_CONCURRENT_STREAMS, this.maxConcurrentStreams);
+    }
+    if (http2ConnectionFactory.getInitialStreamRecvWindow() != this.initialStreamRecvWindow) {
+      http2ConnectionFactory.setInitialStreamRecvWindow(this.initialStreamRecvWindow);
+      settings.put(SettingsFrame.INITIAL_WINDOW_SIZE, this.initialStreamRecvWindow);
+    }
+    int sessionRecvWindowDelta =
+        this.initialSessionRecvWindow - http2ConnectionFactory.getInitialSessionRecvWindow();
+    if (sessionRecvWindowDelta != 0) {
+      http2ConnectionFactory.setInitialSessionRecvWindow(this.initialSessionRecvWindow);
+    }
+
+    if (!closeEndpoints && !result && (!settings.isEmpty() || sessionRecvWindowDelta > 0)) {
+      sendSettingsToOpenSessions(http2ConnectionFactory, settings, sessionRecvWindowDelta);
+    }
+    return result;
+  }
 }
@@ -15,23 +15,38 @@
  */
 package org.everit.jetty.server.ecm.internal;
 
+import java.io.IOException;
+import java.net.BindException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.function.IntFunction;
 
 import javax.annotation.Generated;
 
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.NetworkConnector;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
 import org.everit.jetty.server.NetworkConnectorFactory;
 import org.everit.jetty.server.ServletContextHandlerFactory;
+import org.everit.jetty.server.ecm.ByteBufferPoolFactory;
 import org.everit.jetty.server.ecm.JettyServerConstants;
 import org.everit.jetty.server.ecm.JettyServerException;
+import org.everit.jetty.server.ecm.LowResourceMonitorFactory;
+import org.everit.jetty.server.ecm.ThreadPoolFactory;
+import org.everit.jetty.server.ecm.UnixSocketConnectorFactory;
 import org.everit.osgi.ecm.annotation.Activate;
 import org.everit.osgi.ecm.annotation.Component;
 import org.everit.osgi.ecm.annotation.ConfigurationPolicy;
@@ -40,6 +55,9 @@ import org.everit.osgi.ecm.annotation.ManualService;
 import org.everit.osgi.ecm.annotation.ManualServices;
 import org.everit.osgi.ecm.annotation.ReferenceConfigurationType;
 import org.everit.osgi.ecm.annotation.ServiceRef;
+import org.everit.osgi.ecm.annotation.Update;
+import org.everit.osgi.ecm.annotation.attribute.BooleanAttribute;
+import org.everit.osgi.ecm.annotation.attribute.LongAttribute;
 import org.everit.osgi.ecm.annotation.attribute.StringAttribute;
 import org.everit.osgi.ecm.annotation.attribute.StringAttributes;
 import org.everit.osgi.ecm.component.ComponentContext;
@@ -77,14 +95,20 @@ public class JettyServerComponent {
 
     public final int port;
 
-    public final ServiceReference<NetworkConnectorFactory> serviceReference;
+    public final ServiceReference<?> serviceReference;
 
-    ConnectorFactoryKey(final ServiceHolder<NetworkConnectorFactory> serviceHolder,
-        final String host, final int port) {
+    public final String path;
+
+    public final int shards;
+
+    ConnectorFactoryKey(final ServiceHolder<?> serviceHolder,
+        final String host, final int port, final String path, final int shards) {
       this.serviceReference = serviceHolder.getReference();
       this.connectorId = serviceHolder.getReferenceId();
       this.host = host;
       this.port = port;
+      this.path = path;
+      this.shards = shards;
     }
 
     // CHECKSTYLE.OFF: NPathComplexity
@@ -116,6 +140,13 @@ public class JettyServerComponent {
       } else if (!this.host.equals(other.host)) {
         return false;
       }
+      if (this.path == null) {
+        if (other.path != null) {
+          return false;
+        }
+      } else if (!this.path.equals(other.path)) {
+        return false;
+      }
       if (this.port != other.port) {
         return false;
       }
@@ -126,6 +157,9 @@ public class JettyServerComponent {
       } else if (!this.serviceReference.equals(other.serviceReference)) {
         return false;
       }
+      if (this.shards != other.shards) {
+        return false;
+      }
       return true;
     }
     // CHECKSTYLE.ON: CyclomaticComplexity
@@ -138,9 +172,11 @@ public class JettyServerComponent {
       int result = 1;
       result = prime * result + (this.connectorId == null ? 0 : this.connectorId.hashCode());
       result = prime * result + (this.host == null ? 0 : this.host.hashCode());
+      result = prime * result + (this.path == null ? 0 : this.path.hashCode());
       result = prime * result + this.port;
       result = prime * result
           + (this.serviceReference == null ? 0 : this.serviceReference.hashCode());
+      result = prime * result + this.shards;
       return result;
     }
 
@@ -229,11 +265,40 @@ public class JettyServerComponent {
 
   public static final int P03_SERVLET_CONTEXT_HANDLER_FACTORIES = 3;
 
+  public static final int P04_THREAD_POOL_FACTORY = 4;
+
+  public static final int P05_BYTE_BUFFER_POOL_FACTORY = 5;
+
+  public static final int P06_UPDATE_QUIET_PERIOD = 6;
+
+  public static final int P07_UPDATE_MAX_DELAY = 7;
+
+  public static final int P08_CONNECTOR_MAKE_BEFORE_BREAK = 8;
+
+  public static final int P09_CONNECTOR_DRAIN_TIMEOUT = 9;
+
+  public static final int P10_LOW_RESOURCE_MONITOR_FACTORY = 10;
+
+  public static final int P11_UNIX_SOCKET_CONNECTOR_FACTORIES = 11;
+
+  private static final Logger LOG = Log.getLogger(JettyServerComponent.class);
+
+  private ByteBufferPoolFactory byteBufferPoolFactory;
+
+  private ComponentContext<JettyServerComponent> componentContext;
+
+  private long connectorDrainTimeout = JettyServerConstants.DEFAULT_CONNECTOR_DRAIN_TIMEOUT;
+
+  private boolean connectorMakeBeforeBreak =
+      JettyServerConstants.DEFAULT_CONNECTOR_MAKE_BEFORE_BREAK;
+
   private CustomContextHandlerCollection contextHandlerCollection;
 
+  private LowResourceMonitorFactory lowResourceMonitorFactory;
+
   private ServiceHolder<NetworkConnectorFactory>[] networkConnectorFactories;
 
-  private final HashMap<ConnectorFactoryKey, NetworkConnector> registeredConnectors =
+  private final HashMap<ConnectorFactoryKey, List<Connector>> registeredConnectors =
       new HashMap<>();
 
   private final HashMap<ServletContextFactoryKey, ContextWithPath> registeredServletContexts =
@@ -245,12 +310,67 @@ public class JettyServerComponent {
 
   private ServiceHolder<ServletContextHandlerFactory>[] servletContextHandlerFactories;
 
+  private ThreadPoolFactory threadPoolFactory;
+
+  private ServiceHolder<UnixSocketConnectorFactory>[] unixSocketConnectorFactories;
+
+  private final UpdateCoalescer updateCoalescer =
+      new UpdateCoalescer("JettyServer-context-update", this::applyServletContextUpdate,
+          this::failOnDelayedUpdate);
+
+  private long updateMaxDelay = JettyServerConstants.DEFAULT_UPDATE_MAX_DELAY;
+
+  private long updateQuietPeriod = JettyServerConstants.DEFAULT_UPDATE_QUIET_PERIOD;
+
+  private static boolean isBindFailure(final Throwable e) {
+    Throwable cause = e;
+    while (cause != null) {
+      if (cause instanceof BindException) {
+        return true;
+      }
+      cause = cause.getCause();
+    }
+    return false;
+  }
+
+  private static boolean isSameAddress(final ConnectorFactoryKey factoryParams,
+      final Connector oldConnector) {
+    if (factoryParams.port == 0 || !(oldConnector instanceof NetworkConnector)) {
+      return false;
+    }
+    NetworkConnector oldNetworkConnector = (NetworkConnector) oldConnector;
+    String oldHost = oldNetworkConnector.getHost();
+    boolean sameHost = oldHost == null || factoryParams.host == null
+        || oldHost.equals(factoryParams.host);
+    return oldNetworkConnector.getLocalPort() == factoryParams.port && sameHost;
+  }
+
   /**
    * Activate method of the component that sets up and starts a server.
    */
   @Activate
-  public void activate(final ComponentContext<JettyServerComponent> componentContext) {
-    this.server = new Server();
+  public void activate(final ComponentContext<JettyServerComponent> pComponentContext) {
+    validateUpdateTiming();
+    synchronized (this) {
+      this.componentContext = pComponentContext;
+    }
+    if (this.threadPoolFactory != null) {
+      this.server = new Server(this.threadPoolFactory.createThreadPool());
+    } else {
+      this.server = new Server();
+    }
+
+    if (this.byteBufferPoolFactory != null) {
+      // Connectors pick up the ByteBufferPool bean of the server
+      ByteBufferPool byteBufferPool = this.byteBufferPoolFactory.getByteBufferPool();
+      this.server.addBean(byteBufferPool);
+    }
+
+    if (this.lowResourceMonitorFactory != null) {
+      // Monitors all connectors of the server, including the ones added dynamically later
+      this.server.addBean(this.lowResourceMonitorFactory.createLowResourceMonitor(this.server));
+    }
+
     this.contextHandlerCollection = new CustomContextHandlerCollection();
 
     this.server.setHandler(this.contextHandlerCollection);
@@ -260,7 +380,7 @@ public class JettyServerComponent {
     updateServletContextHandlerFactoriesOnServer();
 
     Dictionary<String, Object> serviceProps = new Hashtable<>(
-        componentContext.getProperties());
+        pComponentContext.getProperties());
 
     try {
       this.server.start();
@@ -269,30 +389,61 @@ public class JettyServerComponent {
       return;
     }
     this.serviceRegistration =
-        componentContext.registerService(Server.class, this.server, serviceProps);
+        pComponentContext.registerService(Server.class, this.server, serviceProps);
   }
 
+  /**
+   * Adds and starts the new connectors. If a new connector cannot bind its port because a
+   * connector that is going to be deleted still listens on it, the old connector is stopped and
+   * removed first. Connectors that are going to be deleted and listen on the same Unix socket path
+   * as a new connector are always removed before the new connector is started.
+   */
   private void addNewConnectors(
-      final Map<ConnectorFactoryKey, NetworkConnectorFactory> newConnectors) {
-    Set<Entry<ConnectorFactoryKey, NetworkConnectorFactory>> entrySet = newConnectors.entrySet();
-    for (Entry<ConnectorFactoryKey, NetworkConnectorFactory> entry : entrySet) {
-      NetworkConnectorFactory factory = entry.getValue();
+      final Map<ConnectorFactoryKey, IntFunction<Connector>> newConnectors,
+      final Map<ConnectorFactoryKey, List<Connector>> connectorsToDelete) {
+    Set<Entry<ConnectorFactoryKey, IntFunction<Connector>>> entrySet = newConnectors.entrySet();
+    for (Entry<ConnectorFactoryKey, IntFunction<Connector>> entry : entrySet) {
+      IntFunction<Connector> connectorCreator = entry.getValue();
       ConnectorFactoryKey factoryParams = entry.getKey();
+      if (factoryParams.path != null) {
+        removeConnectorsOnSamePath(factoryParams.path, connectorsToDelete);
+      }
 
-      NetworkConnector connector = factory.createNetworkConnector(this.server, factoryParams.host,
-          factoryParams.port);
+      List<Connector> shardConnectors = new ArrayList<>(factoryParams.shards);
+      int port = factoryParams.port;
+      for (int i = 0; i < factoryParams.shards; i++) {
+        Connector connector = connectorCreator.apply(port);
+
+        if (factoryParams.shards > 1) {
+          if (!(connector instanceof CustomServerConnector)) {
+            removeShardConnectors(shardConnectors);
+            fail(new ConfigurationException("Connector shards need SO_REUSEPORT that is only "
+                + "supported by the connectors of ServerConnectorFactory, but the factory of "
+                + "reference '" + factoryParams.connectorId + "' created " + connector));
+            return;
+          }
+          ((CustomServerConnector) connector).setReusePort(true);
+        }
 
-      this.server.addConnector(connector);
-      if (this.server.isStarted() && !connector.isStarted()) {
+        this.server.addConnector(connector);
+        shardConnectors.add(connector);
         try {
-          connector.start();
-          this.server.manage(connector);
+          if (this.server.isStarted() && !connector.isStarted()) {
+            startConnector(connector, factoryParams, connectorsToDelete);
+          } else if (port == 0 && factoryParams.shards > 1) {
+            // The other shards must listen on the same random port
+            ((NetworkConnector) connector).open();
+          }
         } catch (Exception e) {
+          removeShardConnectors(shardConnectors);
           fail(e);
           return;
         }
+        if (port == 0 && factoryParams.shards > 1) {
+          port = ((NetworkConnector) connector).getLocalPort();
+        }
       }
-      this.registeredConnectors.put(factoryParams, connector);
+      this.registeredConnectors.put(factoryParams, shardConnectors);
     }
   }
 
@@ -301,6 +452,11 @@ public class JettyServerComponent {
    */
   @Deactivate
   public void deactivate() {
+    synchronized (this) {
+      this.updateCoalescer.close();
+      this.componentContext = null;
+    }
+
     if (this.serviceRegistration != null) {
       this.serviceRegistration.unregister();
     }
@@ -317,12 +473,15 @@ public class JettyServerComponent {
   }
 
   private void deleteConnectors(
-      final HashMap<ConnectorFactoryKey, NetworkConnector> connectorsToDelete) {
-    Set<Entry<ConnectorFactoryKey, NetworkConnector>> connectorToDeleteSet = connectorsToDelete
-        .entrySet();
-    for (Entry<ConnectorFactoryKey, NetworkConnector> connectorToDelete : connectorToDeleteSet) {
+      final Map<ConnectorFactoryKey, List<Connector>> connectorsToDelete) {
+    Set<Entry<ConnectorFactoryKey, List<Connector>>> connectorToDeleteSet =
+        connectorsToDelete.entrySet();
+    for (Entry<ConnectorFactoryKey, List<Connector>> connectorToDelete
+        : connectorToDeleteSet) {
       this.registeredConnectors.remove(connectorToDelete.getKey());
-      this.server.removeConnector(connectorToDelete.getValue());
+      for (Connector connector : connectorToDelete.getValue()) {
+        removeConnector(connector, this.connectorDrainTimeout);
+      }
     }
   }
 
@@ -339,6 +498,88 @@ public class JettyServerComponent {
     throw new JettyServerException(e);
   }
 
+  /**
+   * Fails the component if a delayed update of the servlet contexts failed on the thread of the
+   * coalescer, so the server does not keep running with a partially applied configuration.
+   */
+  private void failOnDelayedUpdate(final RuntimeException e) {
+    ComponentContext<JettyServerComponent> context;
+    synchronized (this) {
+      context = this.componentContext;
+    }
+    if (context != null) {
+      context.fail(e, false);
+    }
+  }
+
+  private boolean isAnyContextRemoved() {
+    Set<ServletContextFactoryKey> factoryKeys = new HashSet<>();
+    for (ServiceHolder<ServletContextHandlerFactory> holder
+        : this.servletContextHandlerFactories) {
+      factoryKeys.add(new ServletContextFactoryKey(holder));
+    }
+    return !factoryKeys.containsAll(this.registeredServletContexts.keySet());
+  }
+
+  /**
+   * Removes a connector from the server. The connector stops accepting new connections
+   * immediately, the open connections get the drain timeout to finish their exchanges and the
+   * connector is stopped afterwards.
+   */
+  private void removeConnector(final Connector connector, final long drainTimeout) {
+    // The connector is stopped by this component, not by the server when it is removed
+    this.server.unmanage(connector);
+    this.server.removeConnector(connector);
+    if (!connector.isStarted()) {
+      return;
+    }
+
+    if (drainTimeout <= 0) {
+      stopConnector(connector);
+      return;
+    }
+
+    connector.shutdown();
+    EndPointRegistry.drainConnector(connector, drainTimeout,
+        () -> stopConnectorAsync(connector));
+  }
+
+  /**
+   * Removes the connectors that are going to be deleted and listen on the specified Unix socket
+   * path. A socket path cannot be bound by two sockets and a bind failure on a path cannot be told
+   * apart from other I/O errors, so there is no make-before-break for paths. The shutdown of the
+   * removed connectors closes their socket, so their connections still get the drain timeout.
+   */
+  private void removeConnectorsOnSamePath(final String path,
+      final Map<ConnectorFactoryKey, List<Connector>> connectorsToDelete) {
+    Iterator<Entry<ConnectorFactoryKey, List<Connector>>> iterator =
+        connectorsToDelete.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Entry<ConnectorFactoryKey, List<Connector>> entry = iterator.next();
+      if (path.equals(entry.getKey().path)) {
+        iterator.remove();
+        this.registeredConnectors.remove(entry.getKey());
+        for (Connector connector : entry.getValue()) {
+          removeConnector(connector, this.connectorDrainTimeout);
+        }
+      }
+    }
+  }
+
+  /**
+   * Removes the shards of a connector that could not be added completely, so no shard stays on the
+   * server or keeps its port bound. Shards that were only opened are not started, so they are
+   * closed explicitly.
+   */
+  private void removeShardConnectors(final List<Connector> shardConnectors) {
+    for (Connector connector : shardConnectors) {
+      removeConnector(connector, 0);
+      if (connector instanceof NetworkConnector && ((NetworkConnector) connector).isOpen()) {
+        ((NetworkConnector) connector).close();
+      }
+    }
+  }
+
   private String resolveContextPath(final ServiceHolder<ServletContextHandlerFactory> holder) {
     Map<String, Object> attributes = holder.getAttributes();
     Object contextPath = attributes.get(JettyServerConstants.CONTEXT_CLAUSE_ATTR_CONTEXTPATH);
@@ -350,6 +591,28 @@ public class JettyServerComponent {
     return String.valueOf(contextPath);
   }
 
+  private int resolveShardsFromAttributes(final String referenceId,
+      final Map<String, Object> attributes) {
+
+    Object shardsValue = attributes.get(JettyServerConstants.CONNECTOR_REF_CLAUSE_ATTR_SHARDS);
+    if (shardsValue == null) {
+      return 1;
+    }
+
+    int shards;
+    try {
+      shards = Integer.parseInt(String.valueOf(shardsValue));
+    } catch (NumberFormatException e) {
+      throw new ConfigurationException("Invalid value for connector shards of reference: "
+          + referenceId, e);
+    }
+    if (shards < 1) {
+      throw new ConfigurationException("Connector shards must be at least 1 in reference: "
+          + referenceId);
+    }
+    return shards;
+  }
+
   private String resolveHostFromAttributes(final Map<String, Object> attributes) {
     Object hostValue = attributes.get(JettyServerConstants.CONNECTOR_REF_CLAUSE_ATTR_HOST);
     if (hostValue == null) {
@@ -358,6 +621,18 @@ public class JettyServerComponent {
     return String.valueOf(hostValue);
   }
 
+  private String resolvePathFromAttributes(
+      final ServiceHolder<UnixSocketConnectorFactory> holder) {
+
+    Object pathValue = holder.getAttributes()
+        .get(JettyServerConstants.CONNECTOR_REF_CLAUSE_ATTR_PATH);
+    if (pathValue == null) {
+      throw new ConfigurationException("Unix socket path must be specified in reference: "
+          + holder.getReferenceId());
+    }
+    return String.valueOf(pathValue);
+  }
+
   private int resolvePortFromAttributes(final String referenceId,
       final Map<String, Object> attributes) {
 
@@ -388,15 +663,65 @@ public class JettyServerComponent {
     }
   }
 
+  @ServiceRef(referenceId = JettyServerConstants.ATTR_BYTE_BUFFER_POOL_FACTORY, optional = true,
+      attributePriority = JettyServerComponent.P05_BYTE_BUFFER_POOL_FACTORY,
+      label = "ByteBufferPool factory (target)",
+      description = "OSGi service filter that selects the factory of the ByteBufferPool that is "
+          + "shared by all connectors of the server and of the other servers that reference the "
+          + "same factory. In case it is not defined, every connector uses its own default pool.")
+  public void setByteBufferPoolFactory(final ByteBufferPoolFactory byteBufferPoolFactory) {
+    this.byteBufferPoolFactory = byteBufferPoolFactory;
+  }
+
+  @LongAttribute(attributeId = JettyServerConstants.ATTR_CONNECTOR_DRAIN_TIMEOUT,
+      defaultValue = JettyServerConstants.DEFAULT_CONNECTOR_DRAIN_TIMEOUT, dynamic = true,
+      priority = JettyServerComponent.P09_CONNECTOR_DRAIN_TIMEOUT,
+      label = "Connector drain timeout",
+      description = "The time in milliseconds that the connections of a removed connector get to "
+          + "finish their current exchanges before the connector is stopped. The removed "
+          + "connector stops accepting new connections immediately. Zero means that the "
+          + "connector is stopped immediately.")
+  public void setConnectorDrainTimeout(final long connectorDrainTimeout) {
+    this.connectorDrainTimeout = connectorDrainTimeout;
+  }
+
+  @BooleanAttribute(attributeId = JettyServerConstants.ATTR_CONNECTOR_MAKE_BEFORE_BREAK,
+      defaultValue = JettyServerConstants.DEFAULT_CONNECTOR_MAKE_BEFORE_BREAK, dynamic = true,
+      priority = JettyServerComponent.P08_CONNECTOR_MAKE_BEFORE_BREAK,
+      label = "Connector make-before-break",
+      description = "If true, the new connectors are opened and started before the removed "
+          + "connectors are stopped when the connector clauses change, so moving a connector to "
+          + "another host or port does not refuse connections. If a new connector cannot bind "
+          + "because a removed connector listens on the same port, the removed connector is "
+          + "stopped first. Connectors on a Unix socket path that is reused by a new connector "
+          + "are always removed before the new connector is started.")
+  public void setConnectorMakeBeforeBreak(final boolean connectorMakeBeforeBreak) {
+    this.connectorMakeBeforeBreak = connectorMakeBeforeBreak;
+  }
+
+  @ServiceRef(referenceId = JettyServerConstants.ATTR_LOW_RESOURCE_MONITOR_FACTORY,
+      optional = true,
+      attributePriority = JettyServerComponent.P10_LOW_RESOURCE_MONITOR_FACTORY,
+      label = "LowResourceMonitor factory (target)",
+      description = "OSGi service filter that selects the factory of the monitor that shortens "
+          + "the idle timeout of the connections and optionally pauses accepting while the server "
+          + "is low on resources. In case it is not defined, the resources are not monitored.")
+  public void setLowResourceMonitorFactory(
+      final LowResourceMonitorFactory lowResourceMonitorFactory) {
+    this.lowResourceMonitorFactory = lowResourceMonitorFactory;
+  }
+
   @ServiceRef(referenceId = JettyServerConstants.ATTR_NETWORK_CONNECTOR_FACTORIES,
       configurationType = ReferenceConfigurationType.CLAUSE, optional = false, dynamic = true,
       attributePriority = JettyServerComponent.P02_NETWORK_CONNECTOR_FACTORIES,
       label = "NetworkConnector Factories (clause)",
       description = "Zero or more clauses to install Network Connectors based on their factory "
-          + "services. Supported attributes: host, port.")
+          + "services. Supported attributes: host, port, shards. With shards greater than one, "
+          + "that many connectors are bound to the same address with SO_REUSEPORT. Shards are "
+          + "only supported by the connectors of ServerConnectorFactory.")
   public void setNetworkConnectorFactories(
       final ServiceHolder<NetworkConnectorFactory>[] networkConnectorFactories) {
-    updateConnectorFactories(networkConnectorFactories);
+    updateConnectorFactories(networkConnectorFactories, this.unixSocketConnectorFactories);
   }
 
   @ServiceRef(referenceId = JettyServerConstants.ATTR_SERVLET_CONTEXT_HANDLER_FACTORIES,
@@ -410,9 +735,115 @@ public class JettyServerComponent {
     updateServletContextAndHandleFailure(servletContextHandlerFactories);
   }
 
+  @LongAttribute(attributeId = JettyServerConstants.ATTR_UPDATE_MAX_DELAY,
+      defaultValue = JettyServerConstants.DEFAULT_UPDATE_MAX_DELAY, dynamic = true,
+      priority = JettyServerComponent.P07_UPDATE_MAX_DELAY, label = "Update max. delay",
+      description = "The maximum time in milliseconds that a coalesced update of servlet "
+          + "contexts can be delayed during a continuous burst of changes.")
+  public void setUpdateMaxDelay(final long updateMaxDelay) {
+    this.updateMaxDelay = updateMaxDelay;
+    this.updateCoalescer.configure(this.updateQuietPeriod, updateMaxDelay);
+  }
+
+  @LongAttribute(attributeId = JettyServerConstants.ATTR_UPDATE_QUIET_PERIOD,
+      defaultValue = JettyServerConstants.DEFAULT_UPDATE_QUIET_PERIOD, dynamic = true,
+      priority = JettyServerComponent.P06_UPDATE_QUIET_PERIOD, label = "Update quiet period",
+      description = "If positive, the changes of ServletContextHandler factories are coalesced "
+          + "and applied together when no change arrived for this amount of milliseconds. "
+          + "Removed contexts are always applied immediately. Zero means that every change is "
+          + "applied immediately.")
+  public void setUpdateQuietPeriod(final long updateQuietPeriod) {
+    this.updateQuietPeriod = updateQuietPeriod;
+    this.updateCoalescer.configure(updateQuietPeriod, this.updateMaxDelay);
+  }
+
+  @ServiceRef(referenceId = JettyServerConstants.ATTR_THREAD_POOL_FACTORY, optional = true,
+      attributePriority = JettyServerComponent.P04_THREAD_POOL_FACTORY,
+      label = "ThreadPool factory (target)",
+      description = "OSGi service filter that selects the factory of the thread pool of the "
+          + "server. In case it is not defined, the default QueuedThreadPool of Jetty is used.")
+  public void setThreadPoolFactory(final ThreadPoolFactory threadPoolFactory) {
+    this.threadPoolFactory = threadPoolFactory;
+  }
+
+  @ServiceRef(referenceId = JettyServerConstants.ATTR_UNIX_SOCKET_CONNECTOR_FACTORIES,
+      configurationType = ReferenceConfigurationType.CLAUSE, optional = true, dynamic = true,
+      attributePriority = JettyServerComponent.P11_UNIX_SOCKET_CONNECTOR_FACTORIES,
+      label = "UnixSocketConnector Factories (clause)",
+      description = "Zero or more clauses to install connectors that listen on Unix domain "
+          + "sockets based on their factory services. Supported attributes: path (required), "
+          + "the file system path of the socket.")
+  public void setUnixSocketConnectorFactories(
+      final ServiceHolder<UnixSocketConnectorFactory>[] unixSocketConnectorFactories) {
+    updateConnectorFactories(this.networkConnectorFactories, unixSocketConnectorFactories);
+  }
+
+  private void startConnector(final Connector connector,
+      final ConnectorFactoryKey factoryParams,
+      final Map<ConnectorFactoryKey, List<Connector>> connectorsToDelete)
+      throws Exception {
+    try {
+      connector.start();
+    } catch (IOException e) {
+      if (!isBindFailure(e) || !stopConnectorsOnSamePort(factoryParams, connectorsToDelete)) {
+        throw e;
+      }
+      // Fall back to break-before-make for the port that is still used by the old connector
+      connector.start();
+    }
+    this.server.manage(connector);
+  }
+
+  private void stopConnector(final Connector connector) {
+    try {
+      connector.stop();
+    } catch (Exception e) {
+      LOG.warn("Error during stopping removed connector " + connector, e);
+    }
+  }
+
+  private void stopConnectorAsync(final Connector connector) {
+    // Not stopped on the scheduler thread of the connector as stopping shuts that down
+    try {
+      this.server.getThreadPool().execute(() -> stopConnector(connector));
+    } catch (RuntimeException e) {
+      stopConnector(connector);
+    }
+  }
+
+  private boolean stopConnectorsOnSamePort(final ConnectorFactoryKey factoryParams,
+      final Map<ConnectorFactoryKey, List<Connector>> connectorsToDelete) {
+    boolean result = false;
+    Iterator<Entry<ConnectorFactoryKey, List<Connector>>> iterator =
+        connectorsToDelete.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Entry<ConnectorFactoryKey, List<Connector>> entry = iterator.next();
+      List<Connector> oldConnectors = entry.getValue();
+      if (isSameAddress(factoryParams, oldConnectors.get(0))) {
+        iterator.remove();
+        this.registeredConnectors.remove(entry.getKey());
+        for (Connector connector : oldConnectors) {
+          removeConnector(connector, 0);
+        }
+        result = true;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Validates the dynamically changed timing of the coalesced servlet context updates.
+   */
+  @Update
+  public void update() {
+    validateUpdateTiming();
+  }
+
   private synchronized void updateConnectorFactories(
-      final ServiceHolder<NetworkConnectorFactory>[] pNetworkConnectorFactories) {
+      final ServiceHolder<NetworkConnectorFactory>[] pNetworkConnectorFactories,
+      final ServiceHolder<UnixSocketConnectorFactory>[] pUnixSocketConnectorFactories) {
     this.networkConnectorFactories = pNetworkConnectorFactories;
+    this.unixSocketConnectorFactories = pUnixSocketConnectorFactories;
     if (this.server != null) {
       updateConnectorFactoriesOnServer();
     }
@@ -420,38 +851,80 @@ public class JettyServerComponent {
 
   private void updateConnectorFactoriesOnServer() {
     @SuppressWarnings("unchecked")
-    HashMap<ConnectorFactoryKey, NetworkConnector> connectorsToDelete =
-        (HashMap<ConnectorFactoryKey, NetworkConnector>) this.registeredConnectors.clone();
-
-    Map<ConnectorFactoryKey, NetworkConnectorFactory> newConnectors = new HashMap<>();
+    HashMap<ConnectorFactoryKey, List<Connector>> connectorsToDelete =
+        (HashMap<ConnectorFactoryKey, List<Connector>>) this.registeredConnectors.clone();
+
+    Map<ConnectorFactoryKey, IntFunction<Connector>> newConnectors = new HashMap<>();
+
+    if (this.networkConnectorFactories != null) {
+      for (ServiceHolder<NetworkConnectorFactory> serviceHolder
+          : this.networkConnectorFactories) {
+        NetworkConnectorFactory connectorFactory = serviceHolder.getService();
+        Map<String, Object> attributes = serviceHolder.getAttributes();
+        String host = resolveHostFromAttributes(attributes);
+        int port = resolvePortFromAttributes(serviceHolder.getReferenceId(), attributes);
+        int shards = resolveShardsFromAttributes(serviceHolder.getReferenceId(), attributes);
+
+        ConnectorFactoryKey factoryKey =
+            new ConnectorFactoryKey(serviceHolder, host, port, null, shards);
+
+        if (connectorsToDelete.containsKey(factoryKey)) {
+          connectorsToDelete.remove(factoryKey);
+        } else {
+          newConnectors.put(factoryKey,
+              (shardPort) -> connectorFactory.createNetworkConnector(this.server, host, shardPort));
+        }
+      }
+    }
 
-    for (ServiceHolder<NetworkConnectorFactory> serviceHolder : this.networkConnectorFactories) {
-      NetworkConnectorFactory connectorFactory = serviceHolder.getService();
-      Map<String, Object> attributes = serviceHolder.getAttributes();
-      String host = resolveHostFromAttributes(attributes);
-      int port = resolvePortFromAttributes(serviceHolder.getReferenceId(), attributes);
+    if (this.unixSocketConnectorFactories != null) {
+      for (ServiceHolder<UnixSocketConnectorFactory> serviceHolder
+          : this.unixSocketConnectorFactories) {
+        UnixSocketConnectorFactory connectorFactory = serviceHolder.getService();
+        String path = resolvePathFromAttributes(serviceHolder);
 
-      ConnectorFactoryKey factoryKey = new ConnectorFactoryKey(serviceHolder, host, port);
+        ConnectorFactoryKey factoryKey = new ConnectorFactoryKey(serviceHolder, null, 0, path, 1);
 
-      if (connectorsToDelete.containsKey(factoryKey)) {
-        connectorsToDelete.remove(factoryKey);
-      } else {
-        newConnectors.put(factoryKey, connectorFactory);
+        if (connectorsToDelete.containsKey(factoryKey)) {
+          connectorsToDelete.remove(factoryKey);
+        } else {
+          newConnectors.put(factoryKey,
+              (port) -> connectorFactory.createUnixSocketConnector(this.server, path));
+        }
       }
-
     }
 
-    deleteConnectors(connectorsToDelete);
-
-    addNewConnectors(newConnectors);
+    if (this.connectorMakeBeforeBreak) {
+      addNewConnectors(newConnectors, connectorsToDelete);
+      deleteConnectors(connectorsToDelete);
+    } else {
+      deleteConnectors(connectorsToDelete);
+      addNewConnectors(newConnectors, Collections.emptyMap());
+    }
 
   }
 
   private void updateServletContextAndHandleFailure(
       final ServiceHolder<ServletContextHandlerFactory>[] pServletContextHandlerFactories) {
 
-    this.servletContextHandlerFactories = pServletContextHandlerFactories;
-    if (this.server != null) {
+    boolean contextRemoved;
+    synchronized (this) {
+      this.servletContextHandlerFactories = pServletContextHandlerFactories;
+      if (this.server == null) {
+        return;
+      }
+      contextRemoved = isAnyContextRemoved();
+    }
+    // A removed context is unregistered immediately, so its factory can be released
+    if (contextRemoved) {
+      this.updateCoalescer.applyNow();
+    } else {
+      this.updateCoalescer.requestUpdate();
+    }
+  }
+
+  private synchronized void applyServletContextUpdate() {
+    if (this.server != null && !this.server.isStopped()) {
       updateServletContextHandlerFactoriesOnServer();
     }
   }
@@ -498,4 +971,9 @@ public class JettyServerComponent {
     this.contextHandlerCollection.setMapContextsCallIgnored(false);
     setAndManageNewHandlers(newHandlers);
   }
+
+  private void validateUpdateTiming() {
+    UpdateCoalescer.validateTiming(JettyServerConstants.ATTR_UPDATE_QUIET_PERIOD,
+        this.updateQuietPeriod, JettyServerConstants.ATTR_UPDATE_MAX_DELAY, this.updateMaxDelay);
+  }
 }
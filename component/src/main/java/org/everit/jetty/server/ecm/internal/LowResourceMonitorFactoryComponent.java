@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm.internal;
+
+import org.eclipse.jetty.server.LowResourceMonitor;
+import org.eclipse.jetty.server.Server;
+import org.everit.jetty.server.ecm.LowResourceMonitorFactory;
+import org.everit.jetty.server.ecm.LowResourceMonitorFactoryConstants;
+import org.everit.osgi.ecm.annotation.Component;
+import org.everit.osgi.ecm.annotation.ConfigurationPolicy;
+import org.everit.osgi.ecm.annotation.Service;
+import org.everit.osgi.ecm.annotation.attribute.BooleanAttribute;
+import org.everit.osgi.ecm.annotation.attribute.IntegerAttribute;
+import org.everit.osgi.ecm.annotation.attribute.LongAttribute;
+import org.everit.osgi.ecm.annotation.attribute.StringAttribute;
+import org.everit.osgi.ecm.annotation.attribute.StringAttributes;
+import org.everit.osgi.ecm.extender.ExtendComponent;
+import org.osgi.framework.Constants;
+
+/**
+ * ECM based configurable component that registers one or more {@link LowResourceMonitorFactory}
+ * OSGi services. The created monitors switch the connectors of the server to a shorter idle
+ * timeout (and optionally stop accepting) while the server is low on resources.
+ */
+@ExtendComponent
+@Component(componentId = LowResourceMonitorFactoryConstants.SERVICE_FACTORY_PID,
+    configurationPolicy = ConfigurationPolicy.FACTORY,
+    label = "Everit Jetty LowResourceMonitor Factory",
+    description = "ECM based component that can register one or more LowResourceMonitorFactory "
+        + "instances. The monitor periodically checks the saturation of the thread pool, the "
+        + "number of connections and the heap usage of the server that references the factory. "
+        + "The number of and the total time spent in low resources mode are available as managed "
+        + "attributes of the monitor bean.")
+@StringAttributes({
+    @StringAttribute(attributeId = Constants.SERVICE_DESCRIPTION, optional = true,
+        priority = LowResourceMonitorFactoryAttributePriority.P01_SERVICE_DESCRIPTION,
+        label = "Service description",
+        description = "Optional description for LowResourceMonitorFactory service.") })
+@Service(LowResourceMonitorFactory.class)
+public class LowResourceMonitorFactoryComponent implements LowResourceMonitorFactory {
+
+  private boolean acceptingInLowResources;
+
+  private int lowResourcesIdleTimeout;
+
+  private int maxConnections;
+
+  private int maxLowResourcesTime;
+
+  private long maxMemory;
+
+  private boolean monitorThreads;
+
+  private int period;
+
+  @Override
+  @SuppressWarnings("deprecation")
+  public LowResourceMonitor createLowResourceMonitor(final Server server) {
+    CustomLowResourceMonitor lowResourceMonitor = new CustomLowResourceMonitor(server);
+    lowResourceMonitor.setPeriod(this.period);
+    lowResourceMonitor.setMonitorThreads(this.monitorThreads);
+    lowResourceMonitor.setMaxConnections(this.maxConnections);
+    lowResourceMonitor.setMaxMemory(this.maxMemory);
+    lowResourceMonitor.setLowResourcesIdleTimeout(this.lowResourcesIdleTimeout);
+    lowResourceMonitor.setMaxLowResourcesTime(this.maxLowResourcesTime);
+    lowResourceMonitor.setAcceptingInLowResources(this.acceptingInLowResources);
+    return lowResourceMonitor;
+  }
+
+  @BooleanAttribute(
+      attributeId = LowResourceMonitorFactoryConstants.ATTR_ACCEPTING_IN_LOW_RESOURCES,
+      defaultValue = LowResourceMonitorFactoryConstants.DEFAULT_ACCEPTING_IN_LOW_RESOURCES,
+      priority = LowResourceMonitorFactoryAttributePriority.P08_ACCEPTING_IN_LOW_RESOURCES,
+      label = "Accepting in low resources",
+      description = "If false, the connectors stop accepting new connections while the server is "
+          + "low on resources.")
+  public void setAcceptingInLowResources(final boolean acceptingInLowResources) {
+    this.acceptingInLowResources = acceptingInLowResources;
+  }
+
+  @IntegerAttribute(
+      attributeId = LowResourceMonitorFactoryConstants.ATTR_LOW_RESOURCES_IDLE_TIMEOUT,
+      defaultValue = LowResourceMonitorFactoryConstants.DEFAULT_LOW_RESOURCES_IDLE_TIMEOUT,
+      priority = LowResourceMonitorFactoryAttributePriority.P06_LOW_RESOURCES_IDLE_TIMEOUT,
+      label = "Low resources idle timeout",
+      description = "The idle timeout in milliseconds that is applied to the open connections "
+          + "while the server is low on resources. The configured idle timeout of the connectors "
+          + "is restored when the pressure clears.")
+  public void setLowResourcesIdleTimeout(final int lowResourcesIdleTimeout) {
+    this.lowResourcesIdleTimeout = lowResourcesIdleTimeout;
+  }
+
+  @IntegerAttribute(attributeId = LowResourceMonitorFactoryConstants.ATTR_MAX_CONNECTIONS,
+      defaultValue = LowResourceMonitorFactoryConstants.DEFAULT_MAX_CONNECTIONS,
+      priority = LowResourceMonitorFactoryAttributePriority.P04_MAX_CONNECTIONS,
+      label = "Max. connections",
+      description = "The number of connections of the server above which it is considered to be "
+          + "low on resources. Zero means that the number of connections is not monitored.")
+  public void setMaxConnections(final int maxConnections) {
+    this.maxConnections = maxConnections;
+  }
+
+  @IntegerAttribute(attributeId = LowResourceMonitorFactoryConstants.ATTR_MAX_LOW_RESOURCES_TIME,
+      defaultValue = LowResourceMonitorFactoryConstants.DEFAULT_MAX_LOW_RESOURCES_TIME,
+      priority = LowResourceMonitorFactoryAttributePriority.P07_MAX_LOW_RESOURCES_TIME,
+      label = "Max. low resources time",
+      description = "The time in milliseconds after which the connections that are idle for "
+          + "longer than the low resources idle timeout are closed, if the server is still low on "
+          + "resources. Zero means that connections are closed only by the idle timeout.")
+  public void setMaxLowResourcesTime(final int maxLowResourcesTime) {
+    this.maxLowResourcesTime = maxLowResourcesTime;
+  }
+
+  @LongAttribute(attributeId = LowResourceMonitorFactoryConstants.ATTR_MAX_MEMORY,
+      defaultValue = LowResourceMonitorFactoryConstants.DEFAULT_MAX_MEMORY,
+      priority = LowResourceMonitorFactoryAttributePriority.P05_MAX_MEMORY,
+      label = "Max. memory",
+      description = "The used heap memory in bytes above which the server is considered to be "
+          + "low on resources. Zero means that the heap usage is not monitored.")
+  public void setMaxMemory(final long maxMemory) {
+    this.maxMemory = maxMemory;
+  }
+
+  @BooleanAttribute(attributeId = LowResourceMonitorFactoryConstants.ATTR_MONITOR_THREADS,
+      defaultValue = LowResourceMonitorFactoryConstants.DEFAULT_MONITOR_THREADS,
+      priority = LowResourceMonitorFactoryAttributePriority.P03_MONITOR_THREADS,
+      label = "Monitor threads",
+      description = "If true, the server is considered to be low on resources when its thread "
+          + "pool is low on threads.")
+  public void setMonitorThreads(final boolean monitorThreads) {
+    this.monitorThreads = monitorThreads;
+  }
+
+  @IntegerAttribute(attributeId = LowResourceMonitorFactoryConstants.ATTR_PERIOD,
+      defaultValue = LowResourceMonitorFactoryConstants.DEFAULT_PERIOD,
+      priority = LowResourceMonitorFactoryAttributePriority.P02_PERIOD, label = "Period",
+      description = "The period in milliseconds between two checks of the resources.")
+  public void setPeriod(final int period) {
+    this.period = period;
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm.internal;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.eclipse.jetty.server.AbstractConnector;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.everit.jetty.server.ConnectionFactoryFactory;
+
+/**
+ * Tracks the connectors that a connector factory component created and applies the dynamic
+ * updates of the component on them. The connectors are held by weak references, so the ones that
+ * the server dropped are forgotten automatically.
+ *
+ * @param <C>
+ *          The type of the tracked connectors.
+ */
+final class ProvidedConnectors<C extends AbstractConnector> {
+
+  private boolean closeEndpointsAfterDynamicUpdate;
+
+  private final ConcurrentWeakIdentitySet<C> connectors = new ConcurrentWeakIdentitySet<>();
+
+  private boolean updateConnectionFactories;
+
+  /**
+   * Sets the connection factories of a newly created connector and starts tracking it.
+   */
+  public void add(final C connector, final ConnectionFactoryFactory[] connectionFactoryFactories) {
+    setConnectionFactories(connector, connectionFactoryFactories);
+    this.connectors.add(connector);
+  }
+
+  /**
+   * Applies the changes that were collected since the last update: the connectors get new
+   * connection factories if the referenced factory services changed and the endpoints of the
+   * previous connection factories are closed.
+   */
+  public synchronized void applyDynamicUpdate(
+      final ConnectionFactoryFactory[] connectionFactoryFactories, final long drainTimeout) {
+
+    if (this.closeEndpointsAfterDynamicUpdate) {
+      for (C connector : this.connectors.snapshot()) {
+        Collection<ConnectionFactory> previousConnectionFactories = new HashSet<>(
+            connector.getConnectionFactories());
+
+        if (this.updateConnectionFactories) {
+          setConnectionFactories(connector, connectionFactoryFactories);
+        }
+
+        ConnectionFactoryChain.closeEndpoints(previousConnectionFactories, drainTimeout);
+      }
+    }
+    reset();
+  }
+
+  /**
+   * Marks that the connection factories of the connectors must be replaced and the endpoints must
+   * be closed at the next update.
+   */
+  public synchronized void connectionFactoriesChanged() {
+    this.updateConnectionFactories = true;
+    this.closeEndpointsAfterDynamicUpdate = true;
+  }
+
+  /**
+   * Marks that the endpoints of the connectors must be closed at the next update.
+   */
+  public synchronized void endpointsChanged() {
+    this.closeEndpointsAfterDynamicUpdate = true;
+  }
+
+  /**
+   * Forgets the changes that were marked before.
+   */
+  public synchronized void reset() {
+    this.closeEndpointsAfterDynamicUpdate = false;
+    this.updateConnectionFactories = false;
+  }
+
+  private void setConnectionFactories(final C connector,
+      final ConnectionFactoryFactory[] connectionFactoryFactories) {
+    Collection<ConnectionFactory> connectionFactories =
+        ConnectionFactoryChain.createConnectionFactories(connectionFactoryFactories);
+    connector.setConnectionFactories(connectionFactories);
+    connector.setDefaultProtocol(connectionFactories.iterator().next().getProtocol());
+  }
+
+  /**
+   * Returns the connectors that are still alive. The returned set is a copy that is not affected
+   * by the later changes.
+   */
+  public Set<C> snapshot() {
+    return this.connectors.snapshot();
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm.internal;
+
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.ProxyConnectionFactory;
+import org.everit.jetty.server.ConnectionFactoryFactory;
+import org.everit.jetty.server.ecm.ProxyConnectionFactoryFactoryConstants;
+import org.everit.osgi.ecm.annotation.Component;
+import org.everit.osgi.ecm.annotation.ConfigurationPolicy;
+import org.everit.osgi.ecm.annotation.Service;
+import org.everit.osgi.ecm.annotation.attribute.IntegerAttribute;
+import org.everit.osgi.ecm.annotation.attribute.StringAttribute;
+import org.everit.osgi.ecm.annotation.attribute.StringAttributes;
+import org.everit.osgi.ecm.extender.ExtendComponent;
+import org.osgi.framework.Constants;
+
+/**
+ * Component that can create {@link ProxyConnectionFactory} instances. The created connection
+ * factory must be the first one in the connectionFactoryFactories chain of the connector. It reads
+ * the PROXY protocol (v1 or v2) header that a load balancer sends at the beginning of the
+ * connection, so the client and server addresses are resolved once per connection, also for TLS
+ * and HTTP/2 connections.
+ */
+@ExtendComponent
+@Component(componentId = ProxyConnectionFactoryFactoryConstants.SERVICE_FACTORY_PID,
+    configurationPolicy = ConfigurationPolicy.FACTORY,
+    label = "Everit Jetty ProxyConnectionFactory Factory",
+    description = "Component to create ProxyConnectionFactory instances that support the PROXY "
+        + "protocol v1 and v2.")
+@StringAttributes({
+    @StringAttribute(attributeId = Constants.SERVICE_DESCRIPTION, optional = true,
+        priority = ProxyConnectionFactoryFactoryAttributePriority.P01_SERVICE_DESCRIPTION,
+        label = "Service description",
+        description = "Optional description for the instantiated ProxyConnectionFactory "
+            + "Factory.") })
+@Service
+public class ProxyConnectionFactoryFactoryComponent implements ConnectionFactoryFactory {
+
+  private int maxProxyHeader = ProxyConnectionFactoryFactoryConstants.DEFAULT_MAX_PROXY_HEADER;
+
+  @Override
+  public ConnectionFactory createConnectionFactory(final String nextProtocol) {
+    ProxyConnectionFactory proxyConnectionFactory = new CustomProxyConnectionFactory(nextProtocol);
+    proxyConnectionFactory.setMaxProxyHeader(this.maxProxyHeader);
+    return proxyConnectionFactory;
+  }
+
+  @IntegerAttribute(attributeId = ProxyConnectionFactoryFactoryConstants.ATTR_MAX_PROXY_HEADER,
+      defaultValue = ProxyConnectionFactoryFactoryConstants.DEFAULT_MAX_PROXY_HEADER,
+      priority = ProxyConnectionFactoryFactoryAttributePriority.P02_MAX_PROXY_HEADER,
+      label = "Max PROXY header",
+      description = "The maximum size of the PROXY protocol header in bytes. Connections with a "
+          + "larger header are closed.")
+  public void setMaxProxyHeader(final int maxProxyHeader) {
+    this.maxProxyHeader = maxProxyHeader;
+  }
+}
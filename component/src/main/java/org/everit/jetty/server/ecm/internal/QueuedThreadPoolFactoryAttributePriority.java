@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm.internal;
+
+/**
+ * Constants of QueuedThreadPoolFactory attribute priority.
+ */
+public final class QueuedThreadPoolFactoryAttributePriority {
+
+  public static final int P01_SERVICE_DESCRIPTION = 1;
+
+  public static final int P02_MIN_THREADS = 2;
+
+  public static final int P03_MAX_THREADS = 3;
+
+  public static final int P04_IDLE_TIMEOUT = 4;
+
+  public static final int P05_RESERVED_THREADS = 5;
+
+  public static final int P06_MAX_QUEUE_CAPACITY = 6;
+
+  public static final int P07_THREAD_NAME_PREFIX = 7;
+
+  public static final int P08_DAEMON = 8;
+
+  public static final int P09_VIRTUAL_THREADS = 9;
+
+  public static final int P10_MAX_VIRTUAL_THREADS = 10;
+
+  private QueuedThreadPoolFactoryAttributePriority() {
+  }
+}
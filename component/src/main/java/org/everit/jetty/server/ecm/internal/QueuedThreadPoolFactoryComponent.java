@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm.internal;
+
+import java.util.concurrent.BlockingQueue;
+
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.everit.jetty.server.ecm.QueuedThreadPoolFactoryConstants;
+import org.everit.jetty.server.ecm.ThreadPoolFactory;
+import org.everit.osgi.ecm.annotation.Activate;
+import org.everit.osgi.ecm.annotation.Component;
+import org.everit.osgi.ecm.annotation.ConfigurationPolicy;
+import org.everit.osgi.ecm.annotation.Service;
+import org.everit.osgi.ecm.annotation.attribute.BooleanAttribute;
+import org.everit.osgi.ecm.annotation.attribute.IntegerAttribute;
+import org.everit.osgi.ecm.annotation.attribute.StringAttribute;
+import org.everit.osgi.ecm.annotation.attribute.StringAttributes;
+import org.everit.osgi.ecm.component.ConfigurationException;
+import org.everit.osgi.ecm.extender.ExtendComponent;
+import org.osgi.framework.Constants;
+
+/**
+ * ECM based configurable component that registers one or more {@link ThreadPoolFactory} OSGi
+ * services that create {@link QueuedThreadPool} instances. Optionally the blocking tasks of the
+ * created pools are executed on virtual threads (see {@link VirtualThreadDispatchingThreadPool}).
+ */
+@ExtendComponent
+@Component(componentId = QueuedThreadPoolFactoryConstants.SERVICE_FACTORY_PID,
+    configurationPolicy = ConfigurationPolicy.FACTORY,
+    label = "Everit Jetty QueuedThreadPool Factory",
+    description = "ECM based component that can register one or more ThreadPoolFactory "
+        + "instances that create QueuedThreadPools for Jetty servers.")
+@StringAttributes({
+    @StringAttribute(attributeId = Constants.SERVICE_DESCRIPTION, optional = true,
+        priority = QueuedThreadPoolFactoryAttributePriority.P01_SERVICE_DESCRIPTION,
+        label = "Service description",
+        description = "Optional description for ThreadPoolFactory service.") })
+@Service(ThreadPoolFactory.class)
+public class QueuedThreadPoolFactoryComponent implements ThreadPoolFactory {
+
+  private boolean daemon;
+
+  private int idleTimeout;
+
+  private Integer maxQueueCapacity;
+
+  private int maxThreads;
+
+  private int maxVirtualThreads;
+
+  private int minThreads;
+
+  private int reservedThreads;
+
+  private String threadNamePrefix;
+
+  private boolean virtualThreads;
+
+  /**
+   * Validates the configuration, so a misconfigured factory fails by itself instead of the
+   * servers that reference it.
+   */
+  @Activate
+  public void activate() {
+    if (this.minThreads > this.maxThreads) {
+      throw new ConfigurationException("The value of '"
+          + QueuedThreadPoolFactoryConstants.ATTR_MIN_THREADS + "' (" + this.minThreads
+          + ") must not be greater than the value of '"
+          + QueuedThreadPoolFactoryConstants.ATTR_MAX_THREADS + "' (" + this.maxThreads + ")");
+    }
+    if (this.maxVirtualThreads < 1) {
+      throw new ConfigurationException("The value of '"
+          + QueuedThreadPoolFactoryConstants.ATTR_MAX_VIRTUAL_THREADS + "' ("
+          + this.maxVirtualThreads + ") must be at least 1");
+    }
+  }
+
+  @Override
+  public ThreadPool createThreadPool() {
+    QueuedThreadPool threadPool;
+    if (this.virtualThreads) {
+      threadPool = new VirtualThreadDispatchingThreadPool(this.maxThreads, this.minThreads,
+          this.idleTimeout, createQueue(), this.maxVirtualThreads);
+    } else {
+      threadPool = new QueuedThreadPool(this.maxThreads, this.minThreads, this.idleTimeout,
+          createQueue());
+    }
+    // Ignored by the virtual thread dispatching pool if the JVM supports virtual threads
+    threadPool.setReservedThreads(this.reservedThreads);
+
+    threadPool.setDaemon(this.daemon);
+    if (this.threadNamePrefix != null) {
+      threadPool.setName(this.threadNamePrefix);
+    }
+    return threadPool;
+  }
+
+  private BlockingQueue<Runnable> createQueue() {
+    if (this.maxQueueCapacity == null || this.maxQueueCapacity <= 0) {
+      // QueuedThreadPool creates its default, practically unbounded queue
+      return null;
+    }
+    int capacity = this.maxQueueCapacity;
+    int initialCapacity = Math.min(Math.max(this.minThreads, 1), capacity);
+    return new BlockingArrayQueue<>(initialCapacity, initialCapacity, capacity);
+  }
+
+  @BooleanAttribute(attributeId = QueuedThreadPoolFactoryConstants.ATTR_DAEMON,
+      defaultValue = QueuedThreadPoolFactoryConstants.DEFAULT_DAEMON,
+      priority = QueuedThreadPoolFactoryAttributePriority.P08_DAEMON, label = "Daemon",
+      description = "Whether the threads of the pool should be daemon threads.")
+  public void setDaemon(final boolean daemon) {
+    this.daemon = daemon;
+  }
+
+  @IntegerAttribute(attributeId = QueuedThreadPoolFactoryConstants.ATTR_IDLE_TIMEOUT,
+      defaultValue = QueuedThreadPoolFactoryConstants.DEFAULT_IDLE_TIMEOUT,
+      priority = QueuedThreadPoolFactoryAttributePriority.P04_IDLE_TIMEOUT,
+      label = "Idle timeout",
+      description = "The maximum time in milliseconds a thread may be idle before it is stopped, "
+          + "as long as there are more threads than the minimum.")
+  public void setIdleTimeout(final int idleTimeout) {
+    this.idleTimeout = idleTimeout;
+  }
+
+  @IntegerAttribute(attributeId = QueuedThreadPoolFactoryConstants.ATTR_MAX_QUEUE_CAPACITY,
+      optional = true, priority = QueuedThreadPoolFactoryAttributePriority.P06_MAX_QUEUE_CAPACITY,
+      label = "Max. queue capacity",
+      description = "The maximum number of jobs that can wait for a free thread. If the queue is "
+          + "full, new jobs are rejected. In case this attribute is not specified or it is not a "
+          + "positive number, the default, practically unbounded queue of Jetty is used.")
+  public void setMaxQueueCapacity(final Integer maxQueueCapacity) {
+    this.maxQueueCapacity = maxQueueCapacity;
+  }
+
+  @IntegerAttribute(attributeId = QueuedThreadPoolFactoryConstants.ATTR_MAX_THREADS,
+      defaultValue = QueuedThreadPoolFactoryConstants.DEFAULT_MAX_THREADS,
+      priority = QueuedThreadPoolFactoryAttributePriority.P03_MAX_THREADS,
+      label = "Max. threads",
+      description = "The maximum number of threads in the pool.")
+  public void setMaxThreads(final int maxThreads) {
+    this.maxThreads = maxThreads;
+  }
+
+  @IntegerAttribute(attributeId = QueuedThreadPoolFactoryConstants.ATTR_MAX_VIRTUAL_THREADS,
+      defaultValue = QueuedThreadPoolFactoryConstants.DEFAULT_MAX_VIRTUAL_THREADS,
+      priority = QueuedThreadPoolFactoryAttributePriority.P10_MAX_VIRTUAL_THREADS,
+      label = "Max. virtual threads",
+      description = "The maximum number of tasks that run on virtual threads at the same time if "
+          + "virtual threads are enabled. Further tasks wait in the queue of the pool for a "
+          + "platform thread, so a request flood cannot create an unlimited number of threads.")
+  public void setMaxVirtualThreads(final int maxVirtualThreads) {
+    this.maxVirtualThreads = maxVirtualThreads;
+  }
+
+  @IntegerAttribute(attributeId = QueuedThreadPoolFactoryConstants.ATTR_MIN_THREADS,
+      defaultValue = QueuedThreadPoolFactoryConstants.DEFAULT_MIN_THREADS,
+      priority = QueuedThreadPoolFactoryAttributePriority.P02_MIN_THREADS,
+      label = "Min. threads",
+      description = "The minimum number of threads that are kept alive in the pool.")
+  public void setMinThreads(final int minThreads) {
+    this.minThreads = minThreads;
+  }
+
+  @IntegerAttribute(attributeId = QueuedThreadPoolFactoryConstants.ATTR_RESERVED_THREADS,
+      defaultValue = QueuedThreadPoolFactoryConstants.DEFAULT_RESERVED_THREADS,
+      priority = QueuedThreadPoolFactoryAttributePriority.P05_RESERVED_THREADS,
+      label = "Reserved threads",
+      description = "The number of threads that are reserved to execute non-blocking tasks "
+          + "(e.g. producing the next task of a selector) without queuing. -1 means a heuristic "
+          + "based on the number of available processors.")
+  public void setReservedThreads(final int reservedThreads) {
+    this.reservedThreads = reservedThreads;
+  }
+
+  @StringAttribute(attributeId = QueuedThreadPoolFactoryConstants.ATTR_THREAD_NAME_PREFIX,
+      optional = true, priority = QueuedThreadPoolFactoryAttributePriority.P07_THREAD_NAME_PREFIX,
+      label = "Thread name prefix",
+      description = "The prefix of the names of the threads in the pool. If not specified, Jetty "
+          + "generates one.")
+  public void setThreadNamePrefix(final String threadNamePrefix) {
+    this.threadNamePrefix = threadNamePrefix;
+  }
+
+  @BooleanAttribute(attributeId = QueuedThreadPoolFactoryConstants.ATTR_VIRTUAL_THREADS,
+      defaultValue = QueuedThreadPoolFactoryConstants.DEFAULT_VIRTUAL_THREADS,
+      priority = QueuedThreadPoolFactoryAttributePriority.P09_VIRTUAL_THREADS,
+      label = "Virtual threads",
+      description = "If true, request handling (HTTP/1 connections, HTTP/2 streams and async "
+          + "dispatches) is executed on virtual threads, while selectors and acceptors stay on "
+          + "the platform threads of the pool. Runnables passed to AsyncContext.start() keep "
+          + "running on platform threads. "
+          + "On JVMs without virtual thread support, every task is executed by the platform "
+          + "threads of the pool, otherwise reserved threads are not used in this mode.")
+  public void setVirtualThreads(final boolean virtualThreads) {
+    this.virtualThreads = virtualThreads;
+  }
+}
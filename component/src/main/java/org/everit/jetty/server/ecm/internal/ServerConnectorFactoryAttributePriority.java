@@ -36,6 +36,30 @@ public final class ServerConnectorFactoryAttributePriority {
 
   public static final int P09_ACCEPTOR_PRIORITY_DELTA = 8;
 
+  public static final int P10_ACCEPTORS = 10;
+
+  public static final int P11_SELECTORS = 11;
+
+  public static final int P12_ENDPOINT_DRAIN_TIMEOUT = 12;
+
+  public static final int P13_REUSE_PORT = 13;
+
+  public static final int P14_MAX_CONNECTIONS = 14;
+
+  public static final int P15_MAX_ACCEPT_RATE = 15;
+
+  public static final int P16_ACCEPT_RATE_PERIOD = 16;
+
+  public static final int P17_ACCEPTED_TCP_NO_DELAY = 17;
+
+  public static final int P18_ACCEPTED_RECEIVE_BUFFER_SIZE = 18;
+
+  public static final int P19_ACCEPTED_SEND_BUFFER_SIZE = 19;
+
+  public static final int P20_ACCEPTED_SO_LINGER = 20;
+
+  public static final int P21_ACCEPTED_KEEP_ALIVE = 21;
+
   private ServerConnectorFactoryAttributePriority() {
   }
 }
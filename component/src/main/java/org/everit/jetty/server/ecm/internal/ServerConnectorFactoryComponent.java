@@ -16,19 +16,17 @@
 package org.everit.jetty.server.ecm.internal;
 
 import java.util.Arrays;
-import java.util.Collection;
-import java.util.ConcurrentModificationException;
-import java.util.HashSet;
 import java.util.Set;
-import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
 
-import org.eclipse.jetty.server.ConnectionFactory;
-import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.server.AcceptRateLimit;
+import org.eclipse.jetty.server.ConnectionLimit;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.thread.ThreadPool;
 import org.everit.jetty.server.ConnectionFactoryFactory;
 import org.everit.jetty.server.NetworkConnectorFactory;
-import org.everit.jetty.server.ReferencedEndPointsCloseable;
 import org.everit.jetty.server.ecm.ServerConnectorFactoryConstants;
 import org.everit.osgi.ecm.annotation.Activate;
 import org.everit.osgi.ecm.annotation.Component;
@@ -41,6 +39,7 @@ import org.everit.osgi.ecm.annotation.attribute.IntegerAttribute;
 import org.everit.osgi.ecm.annotation.attribute.LongAttribute;
 import org.everit.osgi.ecm.annotation.attribute.StringAttribute;
 import org.everit.osgi.ecm.annotation.attribute.StringAttributes;
+import org.everit.osgi.ecm.component.ConfigurationException;
 import org.everit.osgi.ecm.extender.ExtendComponent;
 import org.osgi.framework.Constants;
 
@@ -60,96 +59,217 @@ import org.osgi.framework.Constants;
 @Service
 public class ServerConnectorFactoryComponent implements NetworkConnectorFactory {
 
-  /**
-   * Default implementation of ConnectionFactory for the simplest HTTP calls.
-   */
-  private static class DefaultConnectionFactoryFactory implements ConnectionFactoryFactory {
+  private boolean acceptedKeepAlive;
 
-    @Override
-    public ConnectionFactory createConnectionFactory(final String nextProtocol) {
-      return new CustomHttpConnectionFactory(new HttpConfiguration());
-    }
+  private int acceptedReceiveBufferSize;
 
-  }
+  private int acceptedSendBufferSize;
+
+  private int acceptedSoLinger;
+
+  private boolean acceptedTcpNoDelay;
 
   private int acceptorPriorityDelta;
 
+  private int acceptors = ServerConnectorFactoryConstants.DEFAULT_ACCEPTORS;
+
   private int acceptQueueSize;
 
-  private boolean closeEndpointsAfterDynamicUpdate;
+  private long acceptRatePeriod = ServerConnectorFactoryConstants.DEFAULT_ACCEPT_RATE_PERIOD;
 
   private ConnectionFactoryFactory[] connectionFactoryFactories;
 
+  private long endpointDrainTimeout;
+
   private long idleTimeout = ServerConnectorFactoryConstants.DEFAULT_IDLE_TIMEOUT;
 
   private boolean inheritChannel;
 
+  private int maxAcceptRate;
+
+  private int maxConnections;
+
   private String name;
 
-  private final WeakHashMap<ServerConnector, Boolean> providedConnectors =
-      new WeakHashMap<>();
+  private final ProvidedConnectors<CustomServerConnector> providedConnectors =
+      new ProvidedConnectors<>();
 
   private boolean reuseAddress;
 
-  private boolean updateConnectionFactories = false;
+  private boolean reusePort;
+
+  private int selectors = ServerConnectorFactoryConstants.DEFAULT_SELECTORS;
 
   @Activate
   public void activate() {
-    this.closeEndpointsAfterDynamicUpdate = false;
-    this.updateConnectionFactories = false;
+    this.providedConnectors.reset();
   }
 
-  private synchronized Set<ServerConnector> activeServerConnectors() {
-    Set<ServerConnector> result = null;
-    while (result == null) {
-      try {
-        result = new HashSet<>(this.providedConnectors.keySet());
-      } catch (ConcurrentModificationException e) {
-        // TODO probably some warn logging would be nice
-      }
-    }
-    return result;
+  private Set<CustomServerConnector> activeServerConnectors() {
+    return this.providedConnectors.snapshot();
   }
 
   @Override
   public ServerConnector createNetworkConnector(final Server server, final String host,
       final int port) {
 
-    ServerConnector result = new ServerConnector(server);
+    // Use the pool of the server if there is one so buffers are shared between connectors
+    ByteBufferPool byteBufferPool = server.getBean(ByteBufferPool.class);
+    int availableProcessors = ContainerCpuLimit.availableProcessors();
+    CustomServerConnector result = new CustomServerConnector(server, null, null, byteBufferPool,
+        resolveAcceptors(availableProcessors),
+        resolveSelectors(server.getThreadPool(), availableProcessors));
 
-    Collection<ConnectionFactory> connectionFactories = generateConnectionFactories();
-    result.setConnectionFactories(connectionFactories);
-    result.setDefaultProtocol(connectionFactories.iterator().next().getProtocol());
     result.setAcceptorPriorityDelta(this.acceptorPriorityDelta);
     result.setAcceptQueueSize(this.acceptQueueSize);
     result.setIdleTimeout(this.idleTimeout);
     result.setInheritChannel(this.inheritChannel);
     result.setName(this.name);
     result.setReuseAddress(this.reuseAddress);
+    result.setReusePort(this.reusePort);
+    result.setAcceptedTcpNoDelay(this.acceptedTcpNoDelay);
+    result.setAcceptedReceiveBufferSize(this.acceptedReceiveBufferSize);
+    result.setAcceptedSendBufferSize(this.acceptedSendBufferSize);
+    result.setAcceptedSoLinger(this.acceptedSoLinger);
+    result.setAcceptedKeepAlive(this.acceptedKeepAlive);
     result.setHost(host);
     result.setPort(port);
+
+    // The limits are beans of the connector, so they are started and stopped together with it
+    if (this.maxConnections > 0) {
+      result.addBean(new ConnectionLimit(this.maxConnections, result));
+    }
+    if (this.maxAcceptRate > 0) {
+      result.addBean(new AcceptRateLimit(this.maxAcceptRate, this.acceptRatePeriod,
+          TimeUnit.MILLISECONDS, result));
+    }
     putIntoProvidedConnectors(result);
     return result;
   }
 
-  private Collection<ConnectionFactory> generateConnectionFactories() {
-    int n = this.connectionFactoryFactories.length;
-    ConnectionFactory[] result = new ConnectionFactory[n];
-    String nextProtocol = null;
-    for (int i = n - 1; i >= 0; i--) {
-      ConnectionFactoryFactory connectionFactoryFactory = this.connectionFactoryFactories[i];
+  /**
+   * Resolves the number of acceptor threads. If not configured, the same heuristic is used as the
+   * one of Jetty, but based on the CPU quota of the container.
+   */
+  private int resolveAcceptors(final int availableProcessors) {
+    if (this.acceptors >= 0) {
+      return this.acceptors;
+    }
+    return Math.max(1, Math.min(4, availableProcessors / 8));
+  }
+
+  /**
+   * Resolves the number of selectors. If not configured, the same heuristic is used as the one of
+   * Jetty, but based on the CPU quota of the container.
+   */
+  private int resolveSelectors(final ThreadPool threadPool, final int availableProcessors) {
+    if (this.selectors > 0) {
+      return this.selectors;
+    }
+    int result = availableProcessors / 2;
+    if (threadPool instanceof ThreadPool.SizedThreadPool) {
+      int maxThreads = ((ThreadPool.SizedThreadPool) threadPool).getMaxThreads();
+      result = Math.min(result, maxThreads / 16);
+    }
+    return Math.max(1, result);
+  }
+
+  private synchronized void putIntoProvidedConnectors(final CustomServerConnector result) {
+    this.providedConnectors.add(result, this.connectionFactoryFactories);
+  }
+
+  /**
+   * Setter that also updates the property on the connector without restarting it. The new value
+   * is applied to the connections that are accepted after the update.
+   */
+  @BooleanAttribute(attributeId = ServerConnectorFactoryConstants.ATTR_ACCEPTED_KEEP_ALIVE,
+      defaultValue = ServerConnectorFactoryConstants.DEFAULT_ACCEPTED_KEEP_ALIVE, dynamic = true,
+      priority = ServerConnectorFactoryAttributePriority.P21_ACCEPTED_KEEP_ALIVE,
+      label = "Accepted socket keep-alive",
+      description = "Whether TCP keep-alive (SO_KEEPALIVE) is enabled on the accepted sockets, so "
+          + "dead peers are detected by the operating system.")
+  public synchronized void setAcceptedKeepAlive(final boolean acceptedKeepAlive) {
+    this.acceptedKeepAlive = acceptedKeepAlive;
+    for (CustomServerConnector serverConnector : activeServerConnectors()) {
+      serverConnector.setAcceptedKeepAlive(acceptedKeepAlive);
+    }
+  }
+
+  /**
+   * Setter that also updates the property on the connector without restarting it. The new value
+   * is applied to the connections that are accepted after the update.
+   */
+  @IntegerAttribute(
+      attributeId = ServerConnectorFactoryConstants.ATTR_ACCEPTED_RECEIVE_BUFFER_SIZE,
+      defaultValue = ServerConnectorFactoryConstants.DEFAULT_ACCEPTED_RECEIVE_BUFFER_SIZE,
+      dynamic = true,
+      priority = ServerConnectorFactoryAttributePriority.P18_ACCEPTED_RECEIVE_BUFFER_SIZE,
+      label = "Accepted socket receive buffer size",
+      description = "The SO_RCVBUF size of the accepted sockets in bytes. A negative value means "
+          + "the default of the operating system.")
+  public synchronized void setAcceptedReceiveBufferSize(final int acceptedReceiveBufferSize) {
+    this.acceptedReceiveBufferSize = acceptedReceiveBufferSize;
+    for (ServerConnector serverConnector : activeServerConnectors()) {
+      serverConnector.setAcceptedReceiveBufferSize(acceptedReceiveBufferSize);
+    }
+  }
 
-      ConnectionFactory connectionFactory = connectionFactoryFactory
-          .createConnectionFactory(nextProtocol);
+  /**
+   * Setter that also updates the property on the connector without restarting it. The new value
+   * is applied to the connections that are accepted after the update.
+   */
+  @IntegerAttribute(attributeId = ServerConnectorFactoryConstants.ATTR_ACCEPTED_SEND_BUFFER_SIZE,
+      defaultValue = ServerConnectorFactoryConstants.DEFAULT_ACCEPTED_SEND_BUFFER_SIZE,
+      dynamic = true,
+      priority = ServerConnectorFactoryAttributePriority.P19_ACCEPTED_SEND_BUFFER_SIZE,
+      label = "Accepted socket send buffer size",
+      description = "The SO_SNDBUF size of the accepted sockets in bytes. A negative value means "
+          + "the default of the operating system.")
+  public synchronized void setAcceptedSendBufferSize(final int acceptedSendBufferSize) {
+    this.acceptedSendBufferSize = acceptedSendBufferSize;
+    for (ServerConnector serverConnector : activeServerConnectors()) {
+      serverConnector.setAcceptedSendBufferSize(acceptedSendBufferSize);
+    }
+  }
 
-      result[i] = connectionFactory;
-      nextProtocol = connectionFactory.getProtocol();
+  /**
+   * Setter that also updates the property on the connector without restarting it. The new value
+   * is applied to the connections that are accepted after the update.
+   */
+  @IntegerAttribute(attributeId = ServerConnectorFactoryConstants.ATTR_ACCEPTED_SO_LINGER,
+      defaultValue = ServerConnectorFactoryConstants.DEFAULT_ACCEPTED_SO_LINGER, dynamic = true,
+      priority = ServerConnectorFactoryAttributePriority.P20_ACCEPTED_SO_LINGER,
+      label = "Accepted socket linger time",
+      description = "The SO_LINGER time of the accepted sockets in seconds. Only 0 is supported "
+          + "that closes the connections abortively with a reset, as a positive linger time on "
+          + "non-blocking sockets behaves differently on every platform. A negative value means "
+          + "the default of the operating system.")
+  public synchronized void setAcceptedSoLinger(final int acceptedSoLinger) {
+    if (acceptedSoLinger > 0) {
+      throw new ConfigurationException("The value of '"
+          + ServerConnectorFactoryConstants.ATTR_ACCEPTED_SO_LINGER + "' (" + acceptedSoLinger
+          + ") must be 0 or negative");
+    }
+    this.acceptedSoLinger = acceptedSoLinger;
+    for (CustomServerConnector serverConnector : activeServerConnectors()) {
+      serverConnector.setAcceptedSoLinger(acceptedSoLinger);
     }
-    return Arrays.asList(result);
   }
 
-  private synchronized void putIntoProvidedConnectors(final ServerConnector result) {
-    this.providedConnectors.put(result, Boolean.TRUE);
+  /**
+   * Setter that also updates the property on the connector without restarting it. The new value
+   * is applied to the connections that are accepted after the update.
+   */
+  @BooleanAttribute(attributeId = ServerConnectorFactoryConstants.ATTR_ACCEPTED_TCP_NO_DELAY,
+      defaultValue = ServerConnectorFactoryConstants.DEFAULT_ACCEPTED_TCP_NO_DELAY, dynamic = true,
+      priority = ServerConnectorFactoryAttributePriority.P17_ACCEPTED_TCP_NO_DELAY,
+      label = "Accepted socket TCP_NODELAY",
+      description = "Whether Nagle's algorithm is disabled (TCP_NODELAY) on the accepted sockets.")
+  public synchronized void setAcceptedTcpNoDelay(final boolean acceptedTcpNoDelay) {
+    this.acceptedTcpNoDelay = acceptedTcpNoDelay;
+    for (ServerConnector serverConnector : activeServerConnectors()) {
+      serverConnector.setAcceptedTcpNoDelay(acceptedTcpNoDelay);
+    }
   }
 
   /**
@@ -170,6 +290,25 @@ public class ServerConnectorFactoryComponent implements NetworkConnectorFactory
 
   }
 
+  @LongAttribute(attributeId = ServerConnectorFactoryConstants.ATTR_ACCEPT_RATE_PERIOD,
+      defaultValue = ServerConnectorFactoryConstants.DEFAULT_ACCEPT_RATE_PERIOD,
+      priority = ServerConnectorFactoryAttributePriority.P16_ACCEPT_RATE_PERIOD,
+      label = "Accept rate period",
+      description = "The period in milliseconds that the max accept rate applies to.")
+  public void setAcceptRatePeriod(final long acceptRatePeriod) {
+    this.acceptRatePeriod = acceptRatePeriod;
+  }
+
+  @IntegerAttribute(attributeId = ServerConnectorFactoryConstants.ATTR_ACCEPTORS,
+      defaultValue = ServerConnectorFactoryConstants.DEFAULT_ACCEPTORS,
+      priority = ServerConnectorFactoryAttributePriority.P10_ACCEPTORS, label = "Acceptors",
+      description = "The number of acceptor threads. 0 means that the selectors accept the new "
+          + "connections. A negative value means that the number is calculated from the available "
+          + "processors, taking the CPU quota of the container (cgroup) into account.")
+  public void setAcceptors(final int acceptors) {
+    this.acceptors = acceptors;
+  }
+
   /**
    * Setter that also updates the property on the connector without restarting it.
    */
@@ -195,15 +334,30 @@ public class ServerConnectorFactoryComponent implements NetworkConnectorFactory
   public synchronized void setConnectionFactoryFactories(
       final ConnectionFactoryFactory[] connectionFactoryFactories) {
 
-    if (connectionFactoryFactories == null || connectionFactoryFactories.length == 0) {
-      this.connectionFactoryFactories =
-          new ConnectionFactoryFactory[] { new DefaultConnectionFactoryFactory() };
-    } else {
-      this.connectionFactoryFactories = connectionFactoryFactories.clone();
+    ConnectionFactoryFactory[] resolvedConnectionFactoryFactories =
+        ConnectionFactoryChain.resolveConnectionFactoryFactories(connectionFactoryFactories);
+    if (Arrays.equals(resolvedConnectionFactoryFactories, this.connectionFactoryFactories)) {
+      // Only the service properties of the factories changed. The factories apply their dynamic
+      // changes on the connections by themselves, like the key store of an SSL factory.
+      return;
     }
+    this.connectionFactoryFactories = resolvedConnectionFactoryFactories;
 
-    this.updateConnectionFactories = true;
-    this.closeEndpointsAfterDynamicUpdate = true;
+    this.providedConnectors.connectionFactoriesChanged();
+  }
+
+  @LongAttribute(attributeId = ServerConnectorFactoryConstants.ATTR_ENDPOINT_DRAIN_TIMEOUT,
+      defaultValue = ServerConnectorFactoryConstants.DEFAULT_ENDPOINT_DRAIN_TIMEOUT,
+      dynamic = true,
+      priority = ServerConnectorFactoryAttributePriority.P12_ENDPOINT_DRAIN_TIMEOUT,
+      label = "Endpoint drain timeout",
+      description = "The time in milliseconds that the open connections get to finish their "
+          + "current exchanges when they have to be closed due to a dynamic update. HTTP/1 "
+          + "connections are closed after the current response, HTTP/2 sessions get a GOAWAY "
+          + "frame. Connections that are still open after the timeout are closed forcibly. Zero "
+          + "means that the connections are closed immediately.")
+  public void setEndpointDrainTimeout(final long endpointDrainTimeout) {
+    this.endpointDrainTimeout = endpointDrainTimeout;
   }
 
   /**
@@ -220,8 +374,7 @@ public class ServerConnectorFactoryComponent implements NetworkConnectorFactory
     for (ServerConnector serverConnector : activeServerConnectors()) {
       serverConnector.setIdleTimeout(idleTimeout);
     }
-    this.closeEndpointsAfterDynamicUpdate = true;
-
+    this.providedConnectors.endpointsChanged();
   }
 
   @BooleanAttribute(attributeId = ServerConnectorFactoryConstants.ATTR_INHERIT_CHANNEL,
@@ -238,6 +391,29 @@ public class ServerConnectorFactoryComponent implements NetworkConnectorFactory
     this.inheritChannel = inheritChannel;
   }
 
+  @IntegerAttribute(attributeId = ServerConnectorFactoryConstants.ATTR_MAX_ACCEPT_RATE,
+      defaultValue = ServerConnectorFactoryConstants.DEFAULT_MAX_ACCEPT_RATE,
+      priority = ServerConnectorFactoryAttributePriority.P15_MAX_ACCEPT_RATE,
+      label = "Max accept rate",
+      description = "The maximum number of connections that the connector accepts within the "
+          + "accept rate period. If the rate is exceeded, accepting is paused until the rate "
+          + "drops below the limit. Zero means no limit.")
+  public void setMaxAcceptRate(final int maxAcceptRate) {
+    this.maxAcceptRate = maxAcceptRate;
+  }
+
+  @IntegerAttribute(attributeId = ServerConnectorFactoryConstants.ATTR_MAX_CONNECTIONS,
+      defaultValue = ServerConnectorFactoryConstants.DEFAULT_MAX_CONNECTIONS,
+      priority = ServerConnectorFactoryAttributePriority.P14_MAX_CONNECTIONS,
+      label = "Max connections",
+      description = "The maximum number of open connections of the connector. When the limit is "
+          + "reached, the connector stops accepting until the number of connections drops below "
+          + "the limit. The current number of connections is available as the \"connections\" "
+          + "managed attribute of the ConnectionLimit bean of the connector. Zero means no limit.")
+  public void setMaxConnections(final int maxConnections) {
+    this.maxConnections = maxConnections;
+  }
+
   @StringAttribute(attributeId = ServerConnectorFactoryConstants.ATTR_NAME, optional = true,
       priority = ServerConnectorFactoryAttributePriority.P04_NAME, label = "Name",
       description = "Set a connector name. A context may be configured with virtual hosts in the "
@@ -254,33 +430,33 @@ public class ServerConnectorFactoryComponent implements NetworkConnectorFactory
     this.reuseAddress = reuseAddress;
   }
 
+  @BooleanAttribute(attributeId = ServerConnectorFactoryConstants.ATTR_REUSE_PORT,
+      defaultValue = ServerConnectorFactoryConstants.DEFAULT_REUSE_PORT,
+      priority = ServerConnectorFactoryAttributePriority.P13_REUSE_PORT, label = "Reuse port",
+      description = "Whether the server socket is opened with SO_REUSEPORT, so multiple "
+          + "connectors (e.g. shards) can listen on the same port and the kernel balances the "
+          + "accepted connections among them. Requires Java 9 or newer and a supporting "
+          + "platform, like Linux.")
+  public void setReusePort(final boolean reusePort) {
+    this.reusePort = reusePort;
+  }
+
+  @IntegerAttribute(attributeId = ServerConnectorFactoryConstants.ATTR_SELECTORS,
+      defaultValue = ServerConnectorFactoryConstants.DEFAULT_SELECTORS,
+      priority = ServerConnectorFactoryAttributePriority.P11_SELECTORS, label = "Selectors",
+      description = "The number of NIO selectors that manage the connections. A non-positive "
+          + "value means that the number is calculated from the available processors, taking the "
+          + "CPU quota of the container (cgroup) and the size of the thread pool into account.")
+  public void setSelectors(final int selectors) {
+    this.selectors = selectors;
+  }
+
   /**
    * Updates all connection factories if necessary and closes all endpoints if necessary.
    */
   @Update
-  public void update() {
-    if (this.closeEndpointsAfterDynamicUpdate) {
-      for (ServerConnector serverConnector : activeServerConnectors()) {
-        Collection<ConnectionFactory> previousConnectionFactories = new HashSet<>(
-            serverConnector.getConnectionFactories());
-
-        if (this.updateConnectionFactories) {
-          Collection<ConnectionFactory> connectionFactories = generateConnectionFactories();
-          serverConnector.setConnectionFactories(connectionFactories);
-          serverConnector.setDefaultProtocol(connectionFactories.iterator().next().getProtocol());
-        }
-
-        // Closing all endpoints
-        for (ConnectionFactory connectionFactory : previousConnectionFactories) {
-
-          if (connectionFactory instanceof ReferencedEndPointsCloseable) {
-            ((ReferencedEndPointsCloseable) connectionFactory).closeReferencedEndpoints();
-          }
-        }
-      }
-    }
-
-    this.closeEndpointsAfterDynamicUpdate = false;
-    this.updateConnectionFactories = false;
+  public synchronized void update() {
+    this.providedConnectors.applyDynamicUpdate(this.connectionFactoryFactories,
+        this.endpointDrainTimeout);
   }
 }
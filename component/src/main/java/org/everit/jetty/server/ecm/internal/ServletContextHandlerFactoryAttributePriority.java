@@ -52,6 +52,10 @@ public final class ServletContextHandlerFactoryAttributePriority {
 
   public static final int P16_MAX_FORM_KEYS = 16;
 
+  public static final int P17_UPDATE_QUIET_PERIOD = 17;
+
+  public static final int P18_UPDATE_MAX_DELAY = 18;
+
   private ServletContextHandlerFactoryAttributePriority() {
   }
 }
@@ -15,10 +15,7 @@
  */
 package org.everit.jetty.server.ecm.internal;
 
-import java.util.ConcurrentModificationException;
-import java.util.HashSet;
 import java.util.Set;
-import java.util.WeakHashMap;
 
 import javax.servlet.Filter;
 import javax.servlet.Servlet;
@@ -53,6 +50,7 @@ import org.everit.jetty.server.ecm.internal.servletcontext.ServletMappingManager
 import org.everit.osgi.ecm.annotation.Activate;
 import org.everit.osgi.ecm.annotation.Component;
 import org.everit.osgi.ecm.annotation.ConfigurationPolicy;
+import org.everit.osgi.ecm.annotation.Deactivate;
 import org.everit.osgi.ecm.annotation.ReferenceConfigurationType;
 import org.everit.osgi.ecm.annotation.Service;
 import org.everit.osgi.ecm.annotation.ServiceRef;
@@ -60,8 +58,10 @@ import org.everit.osgi.ecm.annotation.ThreeStateBoolean;
 import org.everit.osgi.ecm.annotation.Update;
 import org.everit.osgi.ecm.annotation.attribute.BooleanAttribute;
 import org.everit.osgi.ecm.annotation.attribute.IntegerAttribute;
+import org.everit.osgi.ecm.annotation.attribute.LongAttribute;
 import org.everit.osgi.ecm.annotation.attribute.StringAttribute;
 import org.everit.osgi.ecm.annotation.attribute.StringAttributes;
+import org.everit.osgi.ecm.component.ComponentContext;
 import org.everit.osgi.ecm.component.ServiceHolder;
 import org.everit.osgi.ecm.extender.ExtendComponent;
 import org.osgi.framework.Constants;
@@ -85,8 +85,10 @@ import org.osgi.framework.Constants;
 @Service(ServletContextHandlerFactory.class)
 public class ServletContextHandlerFactoryComponent implements ServletContextHandlerFactory {
 
-  private final WeakHashMap<ServletContextHandler, Boolean> activeServletContextHandlers =
-      new WeakHashMap<>();
+  private final ConcurrentWeakIdentitySet<ServletContextHandler> activeServletContextHandlers =
+      new ConcurrentWeakIdentitySet<>();
+
+  private ComponentContext<ServletContextHandlerFactoryComponent> componentContext;
 
   private ServletContextAttributeListener[] contextAttributeListeners;
 
@@ -128,12 +130,68 @@ public class ServletContextHandlerFactoryComponent implements ServletContextHand
 
   private boolean sessions = true;
 
+  private final UpdateCoalescer updateCoalescer =
+      new UpdateCoalescer("ServletContextHandlerFactory-update", this::applyDynamicUpdates,
+          this::failOnDelayedUpdate);
+
+  private long updateMaxDelay = ServletContextHandlerFactoryConstants.DEFAULT_UPDATE_MAX_DELAY;
+
+  private long updateQuietPeriod =
+      ServletContextHandlerFactoryConstants.DEFAULT_UPDATE_QUIET_PERIOD;
+
   private String[] virtualHosts;
 
+  /**
+   * Activates the component and initializes the keys of the dynamic references.
+   *
+   * @param pComponentContext
+   *          The context of the component that is failed if a delayed update fails.
+   */
   @Activate
-  public void activate() {
+  public void activate(
+      final ComponentContext<ServletContextHandlerFactoryComponent> pComponentContext) {
+    validateUpdateTiming();
+    synchronized (this) {
+      this.componentContext = pComponentContext;
+    }
+    this.servletHolderManager.updatePrviousKeys(this.servletKeys);
+    this.servletMappingManager.updatePrviousKeys(this.servletMappingKeys);
+    this.filterHolderManager.updatePrviousKeys(this.filterKeys);
+    this.filterMappingManager.updatePrviousKeys(this.filterMappingKeys);
+  }
+
+  /**
+   * Updates the dynamic references (filters and servlets with their mappings) on all of the created
+   * and still used (the instances are referenced) {@link ServletContextHandler} instances.
+   */
+  private synchronized void applyDynamicUpdates() {
+    boolean changed = this.servletHolderManager.isChanged(this.servletKeys)
+        || this.servletMappingManager.isChanged(this.servletMappingKeys)
+        || this.filterHolderManager.isChanged(this.filterKeys)
+        || this.filterMappingManager.isChanged(this.filterMappingKeys);
+
+    if (!changed) {
+      return;
+    }
+
+    Set<ServletContextHandler> servletContextHandlers = cloneActiveServletContextHandlerSet();
+    for (ServletContextHandler servletContextHandler : servletContextHandlers) {
+      ServletHandler servletHandler = servletContextHandler.getServletHandler();
+      if (servletHandler instanceof CustomServletHandler) {
+        updateServletHandlerWithDynamicSettings((CustomServletHandler) servletHandler);
+      }
+    }
     this.servletHolderManager.updatePrviousKeys(this.servletKeys);
+    this.servletMappingManager.updatePrviousKeys(this.servletMappingKeys);
     this.filterHolderManager.updatePrviousKeys(this.filterKeys);
+    this.filterMappingManager.updatePrviousKeys(this.filterMappingKeys);
+  }
+
+  private synchronized boolean isAnyElementRemoved() {
+    return this.servletHolderManager.isAnyRemoved(this.servletKeys)
+        || this.servletMappingManager.isAnyRemoved(this.servletMappingKeys)
+        || this.filterHolderManager.isAnyRemoved(this.filterKeys)
+        || this.filterMappingManager.isAnyRemoved(this.filterMappingKeys);
   }
 
   private void addListenersToHandler(final ServletContextHandler servletContextHandler) {
@@ -156,21 +214,15 @@ public class ServletContextHandlerFactoryComponent implements ServletContextHand
   }
 
   private Set<ServletContextHandler> cloneActiveServletContextHandlerSet() {
-    Set<ServletContextHandler> result = null;
-    while (result == null) {
-      Set<ServletContextHandler> keySet = this.activeServletContextHandlers.keySet();
-      try {
-        result = new HashSet<>(keySet);
-      } catch (ConcurrentModificationException e) {
-        // Do nothing
-      }
-    }
-    return result;
+    return this.activeServletContextHandlers.snapshot();
   }
 
   @Override
   public synchronized ServletContextHandler createHandler(final HandlerContainer parent,
       final String contextPath) {
+    // Element managers must be in sync with the keys before new elements are generated
+    this.updateCoalescer.flush();
+
     CustomServletHandler servletHandler = new CustomServletHandler();
 
     servletHandler.setEnsureDefaultServlet(false);
@@ -199,7 +251,7 @@ public class ServletContextHandlerFactoryComponent implements ServletContextHand
 
     addListenersToHandler(servletContextHandler);
 
-    this.activeServletContextHandlers.put(servletContextHandler, Boolean.TRUE);
+    this.activeServletContextHandlers.add(servletContextHandler);
 
     return servletContextHandler;
   }
@@ -303,6 +355,29 @@ public class ServletContextHandlerFactoryComponent implements ServletContextHand
     this.filterMappingKeys = resolveFilterMappingKeys(filters);
   }
 
+  /**
+   * Drops the pending coalesced update.
+   */
+  @Deactivate
+  public synchronized void deactivate() {
+    this.updateCoalescer.close();
+    this.componentContext = null;
+  }
+
+  /**
+   * Fails the component if a delayed update of the servlets and filters failed on the thread of
+   * the coalescer, so the contexts do not keep running with a partially applied configuration.
+   */
+  private void failOnDelayedUpdate(final RuntimeException e) {
+    ComponentContext<ServletContextHandlerFactoryComponent> context;
+    synchronized (this) {
+      context = this.componentContext;
+    }
+    if (context != null) {
+      context.fail(e, false);
+    }
+  }
+
   @IntegerAttribute(attributeId = ServletContextHandlerFactoryConstants.ATTR_MAX_FORM_CONTENT_SIZE,
       defaultValue = -1,
       priority = ServletContextHandlerFactoryAttributePriority.P15_MAX_FORM_CONTENT_SIZE,
@@ -395,7 +470,7 @@ public class ServletContextHandlerFactoryComponent implements ServletContextHand
           + "Possible attributes are: url-pattern, init-*. E.g.: myFilter;url-pattern=\"/a,/b/c\";"
           + "filter:=(service.pid=...). The OSGi service that implements the Servlet interface can "
           + "contain the \"async-supported\" service property.")
-  public void setServlets(final ServiceHolder<Servlet>[] servlets) {
+  public synchronized void setServlets(final ServiceHolder<Servlet>[] servlets) {
     this.servletKeys = resolveHolderKeys(servlets);
     this.servletMappingKeys = resolveServletMappingKeys(servlets);
   }
@@ -423,6 +498,31 @@ public class ServletContextHandlerFactoryComponent implements ServletContextHand
     this.sessions = sessions;
   }
 
+  @LongAttribute(attributeId = ServletContextHandlerFactoryConstants.ATTR_UPDATE_MAX_DELAY,
+      defaultValue = ServletContextHandlerFactoryConstants.DEFAULT_UPDATE_MAX_DELAY,
+      dynamic = true,
+      priority = ServletContextHandlerFactoryAttributePriority.P18_UPDATE_MAX_DELAY,
+      label = "Update max. delay",
+      description = "The maximum time in milliseconds that a coalesced update of servlets and "
+          + "filters can be delayed during a continuous burst of changes.")
+  public void setUpdateMaxDelay(final long updateMaxDelay) {
+    this.updateMaxDelay = updateMaxDelay;
+    this.updateCoalescer.configure(this.updateQuietPeriod, updateMaxDelay);
+  }
+
+  @LongAttribute(attributeId = ServletContextHandlerFactoryConstants.ATTR_UPDATE_QUIET_PERIOD,
+      defaultValue = ServletContextHandlerFactoryConstants.DEFAULT_UPDATE_QUIET_PERIOD,
+      dynamic = true,
+      priority = ServletContextHandlerFactoryAttributePriority.P17_UPDATE_QUIET_PERIOD,
+      label = "Update quiet period",
+      description = "If positive, the changes of servlets and filters are coalesced and applied "
+          + "together as one atomic update when no change arrived for this amount of "
+          + "milliseconds. Zero means that every change is applied immediately.")
+  public void setUpdateQuietPeriod(final long updateQuietPeriod) {
+    this.updateQuietPeriod = updateQuietPeriod;
+    this.updateCoalescer.configure(updateQuietPeriod, this.updateMaxDelay);
+  }
+
   @StringAttribute(attributeId = ServletContextHandlerFactoryConstants.ATTR_VIRTUAL_HOSTS,
       optional = true, multiple = ThreeStateBoolean.TRUE,
       priority = ServletContextHandlerFactoryAttributePriority.P02_VIRTUAL_HOSTS,
@@ -438,22 +538,18 @@ public class ServletContextHandlerFactoryComponent implements ServletContextHand
 
   /**
    * Updates the dynamic references (filters and servlets with their mappings) on all of the created
-   * and still used (the instances are referenced) {@link ServletContextHandler} instances.
+   * and still used (the instances are referenced) {@link ServletContextHandler} instances. In case
+   * update coalescing is enabled, the additions are applied when the burst of changes is over.
+   * Removals are applied immediately, so a removed servlet or filter does not get requests anymore.
    */
   @Update
-  public synchronized void update() {
-
-    Set<ServletContextHandler> servletContextHandlers = cloneActiveServletContextHandlerSet();
-    for (ServletContextHandler servletContextHandler : servletContextHandlers) {
-      ServletHandler servletHandler = servletContextHandler.getServletHandler();
-      if (servletHandler instanceof CustomServletHandler) {
-        updateServletHandlerWithDynamicSettings((CustomServletHandler) servletHandler);
-      }
+  public void update() {
+    validateUpdateTiming();
+    if (isAnyElementRemoved()) {
+      this.updateCoalescer.applyNow();
+    } else {
+      this.updateCoalescer.requestUpdate();
     }
-    this.servletHolderManager.updatePrviousKeys(this.servletKeys);
-    this.servletMappingManager.updatePrviousKeys(this.servletMappingKeys);
-    this.filterHolderManager.updatePrviousKeys(this.filterKeys);
-    this.filterMappingManager.updatePrviousKeys(this.filterMappingKeys);
   }
 
   private synchronized void updateMaxFormContentSize(final int pMaxFormContentSize) {
@@ -510,4 +606,10 @@ public class ServletContextHandlerFactoryComponent implements ServletContextHand
       servletContextHandler.setVirtualHosts(this.virtualHosts);
     }
   }
+
+  private void validateUpdateTiming() {
+    UpdateCoalescer.validateTiming(ServletContextHandlerFactoryConstants.ATTR_UPDATE_QUIET_PERIOD,
+        this.updateQuietPeriod, ServletContextHandlerFactoryConstants.ATTR_UPDATE_MAX_DELAY,
+        this.updateMaxDelay);
+  }
 }
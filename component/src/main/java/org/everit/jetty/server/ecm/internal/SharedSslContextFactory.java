@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm.internal;
+
+import java.util.function.Consumer;
+
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+
+/**
+ * {@link SslContextFactory} that is shared by the {@link CustomSslConnectionFactory} instances of
+ * the same configuration, so the key managers are initialized only once and the connectors share
+ * the same TLS session cache. The factory is started when it is acquired first and stopped when it
+ * is retired and the last connection factory that uses it is stopped.
+ */
+public class SharedSslContextFactory {
+
+  private static final Logger LOG = Log.getLogger(SharedSslContextFactory.class);
+
+  private int references = 0;
+
+  private boolean retired = false;
+
+  private final SslContextFactory sslContextFactory;
+
+  public SharedSslContextFactory(final SslContextFactory sslContextFactory) {
+    this.sslContextFactory = sslContextFactory;
+  }
+
+  /**
+   * Registers a user of the shared factory and starts the factory if it is not running.
+   *
+   * @throws Exception
+   *           if the factory cannot be started.
+   */
+  public synchronized void acquire() throws Exception {
+    if (!this.sslContextFactory.isRunning()) {
+      this.sslContextFactory.start();
+    }
+    this.references++;
+  }
+
+  public SslContextFactory getSslContextFactory() {
+    return this.sslContextFactory;
+  }
+
+  /**
+   * Unregisters a user of the shared factory.
+   */
+  public synchronized void release() {
+    this.references--;
+    stopIfUnused();
+  }
+
+  /**
+   * Reconfigures the factory in place. If the factory is running, its SSLContext is rebuilt, so new
+   * handshakes use the new key material while the established connections keep their sessions.
+   *
+   * @param configurer
+   *          The function that applies the new configuration on the factory.
+   * @throws Exception
+   *           if the SSLContext cannot be rebuilt.
+   */
+  public synchronized void reload(final Consumer<SslContextFactory> configurer) throws Exception {
+    if (this.sslContextFactory.isRunning()) {
+      this.sslContextFactory.reload(configurer);
+    } else {
+      configurer.accept(this.sslContextFactory);
+    }
+  }
+
+  /**
+   * Marks the factory as outdated. No new connection factory should use it and it is stopped as
+   * soon as there is no running connection factory that uses it.
+   */
+  public synchronized void retire() {
+    this.retired = true;
+    stopIfUnused();
+  }
+
+  private void stopIfUnused() {
+    if (!this.retired || this.references > 0) {
+      return;
+    }
+    try {
+      this.sslContextFactory.stop();
+    } catch (Exception e) {
+      LOG.warn("Error during stopping retired SslContextFactory", e);
+    }
+  }
+}
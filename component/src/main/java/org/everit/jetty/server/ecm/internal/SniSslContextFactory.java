@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm.internal;
+
+import java.net.Socket;
+import java.security.KeyStore;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.net.ssl.ExtendedSSLSession;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SNIServerName;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.X509ExtendedKeyManager;
+
+import org.eclipse.jetty.util.StringUtil;
+import org.eclipse.jetty.util.ssl.SniX509ExtendedKeyManager;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.ssl.X509;
+
+/**
+ * {@link SslContextFactory.Server} that selects the certificate of a TLS handshake by the SNI host
+ * name with the help of a host name index. The index of the exact and wildcard host names of the
+ * certificates is built when the key store is loaded, so the key manager does not need to scan
+ * all aliases of the key store during the handshakes. If SNI is required, the handshakes without
+ * a matching host name are rejected instead of falling back to the default certificate.
+ */
+public class SniSslContextFactory extends SslContextFactory.Server {
+
+  /**
+   * Key manager that looks up the alias of the SNI host name in the index and falls back to the
+   * wrapped key manager if there is no SNI host name or certificate for the host.
+   */
+  private class IndexedSniKeyManager extends SniX509ExtendedKeyManager {
+
+    private final X509ExtendedKeyManager delegate;
+
+    private final Map<String, Set<String>> serverAliasesByKeyType = new ConcurrentHashMap<>();
+
+    IndexedSniKeyManager(final X509ExtendedKeyManager delegate) {
+      super(delegate, SniSslContextFactory.this);
+      this.delegate = delegate;
+    }
+
+    @Override
+    public String chooseClientAlias(final String[] keyType, final Principal[] issuers,
+        final Socket socket) {
+      return this.delegate.chooseClientAlias(keyType, issuers, socket);
+    }
+
+    @Override
+    public String chooseEngineClientAlias(final String[] keyType, final Principal[] issuers,
+        final SSLEngine engine) {
+      return this.delegate.chooseEngineClientAlias(keyType, issuers, engine);
+    }
+
+    @Override
+    public String chooseEngineServerAlias(final String keyType, final Principal[] issuers,
+        final SSLEngine engine) {
+      String alias = selectAlias(keyType, issuers, engine.getHandshakeSession());
+      if (alias != null || isSniRequired()) {
+        return alias;
+      }
+      return this.delegate.chooseEngineServerAlias(keyType, issuers, engine);
+    }
+
+    @Override
+    public String chooseServerAlias(final String keyType, final Principal[] issuers,
+        final Socket socket) {
+      if (socket instanceof SSLSocket) {
+        String alias = selectAlias(keyType, issuers, ((SSLSocket) socket).getHandshakeSession());
+        if (alias != null || isSniRequired()) {
+          return alias;
+        }
+      }
+      return this.delegate.chooseServerAlias(keyType, issuers, socket);
+    }
+
+    @Override
+    public X509Certificate[] getCertificateChain(final String alias) {
+      return this.delegate.getCertificateChain(alias);
+    }
+
+    @Override
+    public String[] getClientAliases(final String keyType, final Principal[] issuers) {
+      return this.delegate.getClientAliases(keyType, issuers);
+    }
+
+    @Override
+    public PrivateKey getPrivateKey(final String alias) {
+      return this.delegate.getPrivateKey(alias);
+    }
+
+    @Override
+    public String[] getServerAliases(final String keyType, final Principal[] issuers) {
+      return this.delegate.getServerAliases(keyType, issuers);
+    }
+
+    /**
+     * Returns the aliases that can be used for the key type. The aliases are cached per key type
+     * as the server side of the handshake does not restrict the issuers.
+     */
+    private Set<String> resolveServerAliases(final String keyType, final Principal[] issuers) {
+      if (issuers != null && issuers.length > 0) {
+        return toSet(this.delegate.getServerAliases(keyType, issuers));
+      }
+      return this.serverAliasesByKeyType.computeIfAbsent(keyType,
+          type -> toSet(this.delegate.getServerAliases(type, null)));
+    }
+
+    private String selectAlias(final String keyType, final Principal[] issuers,
+        final SSLSession handshakeSession) {
+      String indexKey = findHostIndexKey(resolveSniHost(handshakeSession));
+      if (indexKey == null) {
+        return null;
+      }
+      Set<String> serverAliases = resolveServerAliases(keyType, issuers);
+      for (String alias : SniSslContextFactory.this.aliasesByIndexKey.get(indexKey)) {
+        if (serverAliases.contains(alias)) {
+          // The same session value as Jetty's SNI key manager sets, so the SNI host check of
+          // SecureRequestCustomizer works
+          handshakeSession.putValue(SNI_X509, getX509(alias));
+          return alias;
+        }
+      }
+      return null;
+    }
+
+    private Set<String> toSet(final String[] aliases) {
+      if (aliases == null) {
+        return Collections.emptySet();
+      }
+      return new HashSet<>(Arrays.asList(aliases));
+    }
+  }
+
+  private static final String WILDCARD_PREFIX = "*.";
+
+  /**
+   * Returns the host name that was requested by the client via SNI in lower case.
+   *
+   * @param session
+   *          The session of the handshake or the connection.
+   * @return The host name or <code>null</code> if the client did not send a host name.
+   */
+  public static String resolveSniHost(final SSLSession session) {
+    if (!(session instanceof ExtendedSSLSession)) {
+      return null;
+    }
+    for (SNIServerName serverName : ((ExtendedSSLSession) session).getRequestedServerNames()) {
+      if (serverName instanceof SNIHostName) {
+        return StringUtil.asciiToLowerCase(((SNIHostName) serverName).getAsciiName());
+      }
+    }
+    return null;
+  }
+
+  private volatile Map<String, List<String>> aliasesByIndexKey = Collections.emptyMap();
+
+  /**
+   * Returns the key of the host name index that matches the host name. The key is the host name
+   * itself if there is a certificate for that exact host or the wildcard name that matches the
+   * host name.
+   *
+   * @param host
+   *          The host name in lower case.
+   * @return The key of the index or <code>null</code> if there is no certificate for the host.
+   */
+  public String findHostIndexKey(final String host) {
+    if (host == null) {
+      return null;
+    }
+    Map<String, List<String>> index = this.aliasesByIndexKey;
+    if (index.containsKey(host)) {
+      return host;
+    }
+    int dotIndex = host.indexOf('.');
+    if (dotIndex < 0) {
+      return null;
+    }
+    String wildcard = WILDCARD_PREFIX + host.substring(dotIndex + 1);
+    if (index.containsKey(wildcard)) {
+      return wildcard;
+    }
+    return null;
+  }
+
+  /**
+   * Rebuilds the host name index from the certificates of the key store every time the key store
+   * is loaded, so the index always belongs to the served certificates, even if the key managers do
+   * not need SNI to select a certificate.
+   */
+  @Override
+  protected KeyManager[] getKeyManagers(final KeyStore keyStore) throws Exception {
+    Map<String, List<String>> index = new HashMap<>();
+    if (keyStore != null) {
+      for (String alias : getAliases()) {
+        X509 x509 = getX509(alias);
+        for (String host : x509.getHosts()) {
+          index.computeIfAbsent(host, key -> new ArrayList<>()).add(alias);
+        }
+        for (String domain : x509.getWilds()) {
+          index.computeIfAbsent(WILDCARD_PREFIX + domain, key -> new ArrayList<>()).add(alias);
+        }
+      }
+    }
+    this.aliasesByIndexKey = index;
+    return super.getKeyManagers(keyStore);
+  }
+
+  @Override
+  protected X509ExtendedKeyManager newSniX509ExtendedKeyManager(
+      final X509ExtendedKeyManager keyManager) {
+    return new IndexedSniKeyManager(keyManager);
+  }
+}
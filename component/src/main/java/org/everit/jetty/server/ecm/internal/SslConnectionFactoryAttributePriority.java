@@ -32,6 +32,28 @@ public final class SslConnectionFactoryAttributePriority {
 
   public static final int P06_INCLUDE_PROTOCOLS = 6;
 
+  public static final int P07_EXCLUDE_PROTOCOLS = 7;
+
+  public static final int P08_INCLUDE_CIPHER_SUITES = 8;
+
+  public static final int P09_EXCLUDE_CIPHER_SUITES = 9;
+
+  public static final int P10_USE_CIPHER_SUITES_ORDER = 10;
+
+  public static final int P11_SSL_SESSION_CACHE_SIZE = 11;
+
+  public static final int P12_SSL_SESSION_TIMEOUT = 12;
+
+  public static final int P13_RENEGOTIATION_ALLOWED = 13;
+
+  public static final int P14_RENEGOTIATION_LIMIT = 14;
+
+  public static final int P15_HANDSHAKE_THREADS = 15;
+
+  public static final int P16_HANDSHAKE_QUEUE_SIZE = 16;
+
+  public static final int P17_SNI_REQUIRED = 17;
+
   private SslConnectionFactoryAttributePriority() {
   }
 }
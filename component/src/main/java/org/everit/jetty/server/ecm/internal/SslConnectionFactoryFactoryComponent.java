@@ -18,25 +18,37 @@ package org.everit.jetty.server.ecm.internal;
 import java.net.URL;
 import java.security.KeyStore;
 
+import org.eclipse.jetty.http2.HTTP2Cipher;
 import org.eclipse.jetty.server.ConnectionFactory;
 import org.eclipse.jetty.server.SslConnectionFactory;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
 import org.everit.jetty.server.ConnectionFactoryFactory;
+import org.everit.jetty.server.ecm.JettyServerException;
 import org.everit.jetty.server.ecm.SslConnectionFactoryFactoryConstants;
 import org.everit.osgi.ecm.annotation.Activate;
 import org.everit.osgi.ecm.annotation.Component;
 import org.everit.osgi.ecm.annotation.ConfigurationPolicy;
+import org.everit.osgi.ecm.annotation.Deactivate;
 import org.everit.osgi.ecm.annotation.Service;
 import org.everit.osgi.ecm.annotation.ServiceRef;
+import org.everit.osgi.ecm.annotation.Update;
+import org.everit.osgi.ecm.annotation.attribute.BooleanAttribute;
+import org.everit.osgi.ecm.annotation.attribute.IntegerAttribute;
 import org.everit.osgi.ecm.annotation.attribute.PasswordAttribute;
 import org.everit.osgi.ecm.annotation.attribute.StringAttribute;
 import org.everit.osgi.ecm.annotation.attribute.StringAttributes;
+import org.everit.osgi.ecm.component.ConfigurationException;
 import org.everit.osgi.ecm.extender.ExtendComponent;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
 
 /**
- * Component that can create {@link SslConnectionFactory} instances.
+ * Component that can create {@link SslConnectionFactory} instances. The connection factories
+ * share one {@link SslContextFactory} per configuration, so connectors, their shards and the
+ * connectors that are rebuilt after a configuration change use the same key managers and TLS
+ * session cache. The shared factory is rebuilt only when the configuration of this component
+ * changes. The key store and its passwords are updated dynamically by reloading the key material
+ * of the shared factories, so established connections are not closed.
  */
 @ExtendComponent
 @Component(componentId = SslConnectionFactoryFactoryConstants.SERVICE_FACTORY_PID,
@@ -51,73 +63,214 @@ import org.osgi.framework.Constants;
 @Service
 public class SslConnectionFactoryFactoryComponent implements ConnectionFactoryFactory {
 
+  private static final String ALPN_PROTOCOL = "alpn";
+
+  private SharedSslContextFactory alpnSslContextFactory;
+
   private BundleContext bundleContext;
 
   private String certAlias;
 
+  private String[] excludeCipherSuites;
+
   private String[] excludeProtocols;
 
+  private int handshakeQueueSize;
+
+  private int handshakeThreads;
+
+  private String[] includeCipherSuites;
+
   private String[] includeProtocols;
 
   private String keyManagerPassword;
 
   private KeyStore keyStore;
 
+  private boolean keyMaterialChanged = false;
+
   private String keyStorePassword;
 
+  private boolean renegotiationAllowed;
+
+  private int renegotiationLimit;
+
+  private boolean sniRequired;
+
+  private SharedSslContextFactory sslContextFactory;
+
+  private int sslSessionCacheSize;
+
+  private int sslSessionTimeout;
+
+  private boolean useCipherSuitesOrder;
+
+  /**
+   * Validates the configuration, so a misconfigured factory fails by itself instead of the
+   * servers that reference it.
+   */
   @Activate
   public void activate(final BundleContext pBundleContext) {
+    validateHandshakeQueueSize();
     this.bundleContext = pBundleContext;
   }
 
-  @Override
-  public ConnectionFactory createConnectionFactory(final String nextProtocol) {
-
-    SslContextFactory.Server sslContextFactory = new SslContextFactory.Server();
-
+  private void configureKeyMaterial(final SslContextFactory sslContextFactory) {
     if (this.keyStore != null) {
+      sslContextFactory.setKeyStoreResource(null);
       sslContextFactory.setKeyStore(this.keyStore);
       sslContextFactory.setKeyStorePassword(this.keyStorePassword);
       sslContextFactory.setCertAlias(this.certAlias);
       sslContextFactory.setKeyManagerPassword(this.keyManagerPassword);
-
-      if (this.includeProtocols != null && this.includeProtocols.length > 0) {
-        sslContextFactory.setIncludeProtocols(this.includeProtocols);
-      }
-
-      if (this.excludeProtocols != null && this.excludeProtocols.length > 0) {
-        sslContextFactory.setExcludeProtocols(this.excludeProtocols);
-      }
-
-      // TODO we have much more settings
-
     } else {
       URL keyStoreUrl =
           this.bundleContext.getBundle().getResource("META-INF/development-keystore.jks");
+      sslContextFactory.setKeyStore(null);
       sslContextFactory.setKeyStorePath(keyStoreUrl.toExternalForm());
       sslContextFactory
           .setKeyStorePassword(SslConnectionFactoryFactoryConstants.DEFAULT_KEYSTORE_PASSWORD);
       sslContextFactory.setKeyStoreType("JKS");
+      sslContextFactory.setCertAlias(null);
+      sslContextFactory.setKeyManagerPassword(null);
+    }
+  }
+
+  @Override
+  public synchronized ConnectionFactory createConnectionFactory(final String nextProtocol) {
+    SharedSslContextFactory sharedSslContextFactory;
+    if (ALPN_PROTOCOL.equals(nextProtocol)) {
+      if (this.alpnSslContextFactory == null) {
+        this.alpnSslContextFactory = new SharedSslContextFactory(createSslContextFactory(true));
+      }
+      sharedSslContextFactory = this.alpnSslContextFactory;
+    } else {
+      if (this.sslContextFactory == null) {
+        this.sslContextFactory = new SharedSslContextFactory(createSslContextFactory(false));
+      }
+      sharedSslContextFactory = this.sslContextFactory;
     }
 
-    SslConnectionFactory sslConnectionFactory = new CustomSslConnectionFactory(sslContextFactory,
-        nextProtocol);
+    CustomSslConnectionFactory sslConnectionFactory =
+        new CustomSslConnectionFactory(sharedSslContextFactory, nextProtocol);
+    sslConnectionFactory.setHandshakeThreads(this.handshakeThreads);
+    sslConnectionFactory.setHandshakeQueueSize(this.handshakeQueueSize);
 
     return sslConnectionFactory;
   }
 
+  private SslContextFactory.Server createSslContextFactory(final boolean alpn) {
+    SslContextFactory.Server sslContextFactory = new SniSslContextFactory();
+
+    configureKeyMaterial(sslContextFactory);
+
+    if (this.includeProtocols != null && this.includeProtocols.length > 0) {
+      sslContextFactory.setIncludeProtocols(this.includeProtocols);
+    }
+
+    if (this.excludeProtocols != null && this.excludeProtocols.length > 0) {
+      sslContextFactory.setExcludeProtocols(this.excludeProtocols);
+    }
+
+    if (this.includeCipherSuites != null && this.includeCipherSuites.length > 0) {
+      sslContextFactory.setIncludeCipherSuites(this.includeCipherSuites);
+    }
+
+    if (this.excludeCipherSuites != null && this.excludeCipherSuites.length > 0) {
+      sslContextFactory.setExcludeCipherSuites(this.excludeCipherSuites);
+    }
+
+    sslContextFactory.setUseCipherSuitesOrder(this.useCipherSuitesOrder);
+    sslContextFactory.setSslSessionCacheSize(this.sslSessionCacheSize);
+    sslContextFactory.setSslSessionTimeout(this.sslSessionTimeout);
+    sslContextFactory.setRenegotiationAllowed(this.renegotiationAllowed);
+    sslContextFactory.setRenegotiationLimit(this.renegotiationLimit);
+    sslContextFactory.setSniRequired(this.sniRequired);
+
+    if (alpn) {
+      // HTTP/2 requires the ciphers of its specification to be preferred during the handshake
+      sslContextFactory.setCipherComparator(HTTP2Cipher.COMPARATOR);
+      sslContextFactory.setUseCipherSuitesOrder(true);
+    }
+    return sslContextFactory;
+  }
+
+  /**
+   * Retires the shared SslContextFactory instances. They are stopped when the connectors that use
+   * them are stopped.
+   */
+  @Deactivate
+  public synchronized void deactivate() {
+    if (this.sslContextFactory != null) {
+      this.sslContextFactory.retire();
+      this.sslContextFactory = null;
+    }
+    if (this.alpnSslContextFactory != null) {
+      this.alpnSslContextFactory.retire();
+      this.alpnSslContextFactory = null;
+    }
+  }
+
   @StringAttribute(attributeId = SslConnectionFactoryFactoryConstants.ATTR_CERT_ALIAS,
-      optional = true, priority = SslConnectionFactoryAttributePriority.P04_CERT_ALIAS,
+      optional = true, dynamic = true,
+      priority = SslConnectionFactoryAttributePriority.P04_CERT_ALIAS,
       label = "Certificate alias",
-      description = "Alias of SSL certificate for the connector.")
-  public void setCertAlias(final String certAlias) {
+      description = "Alias of SSL certificate for the connector. If not specified, the "
+          + "certificate is selected by the SNI host name that the client requests, based on the "
+          + "host names of the certificates in the key store.")
+  public synchronized void setCertAlias(final String certAlias) {
     this.certAlias = certAlias;
+    this.keyMaterialChanged = true;
   }
 
+  @StringAttribute(attributeId = SslConnectionFactoryFactoryConstants.ATTR_EXCLUDE_CIPHER_SUITES,
+      optional = true, priority = SslConnectionFactoryAttributePriority.P09_EXCLUDE_CIPHER_SUITES,
+      label = "Exclude cipher suites",
+      description = "The array of cipher suite names or regular expressions to exclude from "
+          + "SSLEngine.setEnabledCipherSuites(String [])")
+  public void setExcludeCipherSuites(final String[] excludeCipherSuites) {
+    this.excludeCipherSuites = excludeCipherSuites;
+  }
+
+  @StringAttribute(attributeId = SslConnectionFactoryFactoryConstants.ATTR_EXCLUDE_PROTOCOLS,
+      optional = true, priority = SslConnectionFactoryAttributePriority.P07_EXCLUDE_PROTOCOLS,
+      label = "Exclude protocols",
+      description = "The array of protocol names to exclude from "
+          + "SSLEngine.setEnabledProtocols(String [])")
   public void setExcludeProtocols(final String[] excludeProtocols) {
     this.excludeProtocols = excludeProtocols;
   }
 
+  @IntegerAttribute(attributeId = SslConnectionFactoryFactoryConstants.ATTR_HANDSHAKE_QUEUE_SIZE,
+      defaultValue = SslConnectionFactoryFactoryConstants.DEFAULT_HANDSHAKE_QUEUE_SIZE,
+      priority = SslConnectionFactoryAttributePriority.P16_HANDSHAKE_QUEUE_SIZE,
+      label = "Handshake queue size",
+      description = "The maximum number of TLS handshakes per connector that wait for a handshake "
+          + "thread. If the queue is full, the handshake runs on the thread of the connector. "
+          + "Must be positive.")
+  public void setHandshakeQueueSize(final int handshakeQueueSize) {
+    this.handshakeQueueSize = handshakeQueueSize;
+  }
+
+  @IntegerAttribute(attributeId = SslConnectionFactoryFactoryConstants.ATTR_HANDSHAKE_THREADS,
+      defaultValue = SslConnectionFactoryFactoryConstants.DEFAULT_HANDSHAKE_THREADS,
+      priority = SslConnectionFactoryAttributePriority.P15_HANDSHAKE_THREADS,
+      label = "Handshake threads",
+      description = "The maximum number of dedicated threads per connector that run the TLS "
+          + "handshakes, so handshakes queue separately from the requests. Zero means that the "
+          + "handshakes run on the threads of the connector.")
+  public void setHandshakeThreads(final int handshakeThreads) {
+    this.handshakeThreads = handshakeThreads;
+  }
+
+  @StringAttribute(attributeId = SslConnectionFactoryFactoryConstants.ATTR_INCLUDE_CIPHER_SUITES,
+      optional = true, priority = SslConnectionFactoryAttributePriority.P08_INCLUDE_CIPHER_SUITES,
+      label = "Include cipher suites",
+      description = "The array of cipher suite names or regular expressions to include in "
+          + "SSLEngine.setEnabledCipherSuites(String [])")
+  public void setIncludeCipherSuites(final String[] includeCipherSuites) {
+    this.includeCipherSuites = includeCipherSuites;
+  }
+
   @StringAttribute(attributeId = SslConnectionFactoryFactoryConstants.ATTR_INCLUDE_PROTOCOLS,
       optional = true, priority = SslConnectionFactoryAttributePriority.P06_INCLUDE_PROTOCOLS,
       label = "Include protocols",
@@ -128,29 +281,124 @@ public class SslConnectionFactoryFactoryComponent implements ConnectionFactoryFa
   }
 
   @PasswordAttribute(attributeId = SslConnectionFactoryFactoryConstants.ATTR_KEY_MANAGER_PASSWORD,
-      optional = true, priority = SslConnectionFactoryAttributePriority.P05_KEY_MANAGER_PASSWORD,
+      optional = true, dynamic = true,
+      priority = SslConnectionFactoryAttributePriority.P05_KEY_MANAGER_PASSWORD,
       label = "Key manager password",
       description = "The password (if any) for the specific key within the key store.")
-  public void setKeyManagerPassword(final String keyManagerPassword) {
+  public synchronized void setKeyManagerPassword(final String keyManagerPassword) {
     this.keyManagerPassword = keyManagerPassword;
+    this.keyMaterialChanged = true;
   }
 
   @ServiceRef(referenceId = SslConnectionFactoryFactoryConstants.ATTR_KEYSTORE,
-      optional = true, attributePriority = SslConnectionFactoryAttributePriority.P02_KEYSTORE,
+      optional = true, dynamic = true,
+      attributePriority = SslConnectionFactoryAttributePriority.P02_KEYSTORE,
       label = "KeyStore (target)",
       description = "Optional service filter expression of KeyStore OSGi service. If not specified,"
           + " the default developer certificate is used.")
-  public void setKeyStore(final KeyStore keyStore) {
+  public synchronized void setKeyStore(final KeyStore keyStore) {
     this.keyStore = keyStore;
+    this.keyMaterialChanged = true;
   }
 
   @PasswordAttribute(attributeId = SslConnectionFactoryFactoryConstants.ATTR_KEYSTORE_PASSWORD,
       defaultValue = SslConnectionFactoryFactoryConstants.DEFAULT_KEYSTORE_PASSWORD,
-      priority = SslConnectionFactoryAttributePriority.P03_KEYSTORE_PASSWORD,
+      dynamic = true, priority = SslConnectionFactoryAttributePriority.P03_KEYSTORE_PASSWORD,
       label = "KeyStore password",
       description = "The password for the key store.")
-  public void setKeyStorePassword(final String keyStorePassword) {
+  public synchronized void setKeyStorePassword(final String keyStorePassword) {
     this.keyStorePassword = keyStorePassword;
+    this.keyMaterialChanged = true;
+  }
+
+  @BooleanAttribute(attributeId = SslConnectionFactoryFactoryConstants.ATTR_RENEGOTIATION_ALLOWED,
+      defaultValue = SslConnectionFactoryFactoryConstants.DEFAULT_RENEGOTIATION_ALLOWED,
+      priority = SslConnectionFactoryAttributePriority.P13_RENEGOTIATION_ALLOWED,
+      label = "Renegotiation allowed",
+      description = "Whether TLS renegotiation is allowed on the connections.")
+  public void setRenegotiationAllowed(final boolean renegotiationAllowed) {
+    this.renegotiationAllowed = renegotiationAllowed;
+  }
+
+  @IntegerAttribute(attributeId = SslConnectionFactoryFactoryConstants.ATTR_RENEGOTIATION_LIMIT,
+      defaultValue = SslConnectionFactoryFactoryConstants.DEFAULT_RENEGOTIATION_LIMIT,
+      priority = SslConnectionFactoryAttributePriority.P14_RENEGOTIATION_LIMIT,
+      label = "Renegotiation limit",
+      description = "The number of renegotiations allowed on a connection. Zero disallows "
+          + "renegotiation and a negative value means unlimited renegotiations.")
+  public void setRenegotiationLimit(final int renegotiationLimit) {
+    this.renegotiationLimit = renegotiationLimit;
+  }
+
+  @BooleanAttribute(attributeId = SslConnectionFactoryFactoryConstants.ATTR_SNI_REQUIRED,
+      defaultValue = SslConnectionFactoryFactoryConstants.DEFAULT_SNI_REQUIRED,
+      priority = SslConnectionFactoryAttributePriority.P17_SNI_REQUIRED,
+      label = "SNI required",
+      description = "Whether the handshake is rejected if the client does not send an SNI host "
+          + "name or no certificate of the key store matches the requested host name. If false, "
+          + "the default certificate is used in these cases.")
+  public void setSniRequired(final boolean sniRequired) {
+    this.sniRequired = sniRequired;
   }
 
+  @IntegerAttribute(attributeId = SslConnectionFactoryFactoryConstants.ATTR_SSL_SESSION_CACHE_SIZE,
+      defaultValue = SslConnectionFactoryFactoryConstants.DEFAULT_SSL_SESSION_CACHE_SIZE,
+      priority = SslConnectionFactoryAttributePriority.P11_SSL_SESSION_CACHE_SIZE,
+      label = "SSL session cache size",
+      description = "The maximum number of TLS sessions kept for resumption. Zero means "
+          + "unlimited and a negative value means the default of the JVM.")
+  public void setSslSessionCacheSize(final int sslSessionCacheSize) {
+    this.sslSessionCacheSize = sslSessionCacheSize;
+  }
+
+  @IntegerAttribute(attributeId = SslConnectionFactoryFactoryConstants.ATTR_SSL_SESSION_TIMEOUT,
+      defaultValue = SslConnectionFactoryFactoryConstants.DEFAULT_SSL_SESSION_TIMEOUT,
+      priority = SslConnectionFactoryAttributePriority.P12_SSL_SESSION_TIMEOUT,
+      label = "SSL session timeout",
+      description = "The time in seconds while a TLS session can be resumed. Zero means no "
+          + "timeout and a negative value means the default of the JVM.")
+  public void setSslSessionTimeout(final int sslSessionTimeout) {
+    this.sslSessionTimeout = sslSessionTimeout;
+  }
+
+  @BooleanAttribute(attributeId = SslConnectionFactoryFactoryConstants.ATTR_USE_CIPHER_SUITES_ORDER,
+      defaultValue = SslConnectionFactoryFactoryConstants.DEFAULT_USE_CIPHER_SUITES_ORDER,
+      priority = SslConnectionFactoryAttributePriority.P10_USE_CIPHER_SUITES_ORDER,
+      label = "Use cipher suites order",
+      description = "Whether the cipher suite order of the server is preferred over the order of "
+          + "the client during the handshake. It is always true if the next protocol is ALPN.")
+  public void setUseCipherSuitesOrder(final boolean useCipherSuitesOrder) {
+    this.useCipherSuitesOrder = useCipherSuitesOrder;
+  }
+
+  /**
+   * Reloads the key material of the shared SslContextFactory instances if the key store or its
+   * passwords changed. New handshakes use the new certificate, established connections are left
+   * alone.
+   */
+  @Update
+  public synchronized void update() {
+    if (!this.keyMaterialChanged) {
+      return;
+    }
+    this.keyMaterialChanged = false;
+    try {
+      if (this.sslContextFactory != null) {
+        this.sslContextFactory.reload(this::configureKeyMaterial);
+      }
+      if (this.alpnSslContextFactory != null) {
+        this.alpnSslContextFactory.reload(this::configureKeyMaterial);
+      }
+    } catch (Exception e) {
+      throw new JettyServerException(e);
+    }
+  }
+
+  private void validateHandshakeQueueSize() {
+    if (this.handshakeQueueSize <= 0) {
+      throw new ConfigurationException("The value of '"
+          + SslConnectionFactoryFactoryConstants.ATTR_HANDSHAKE_QUEUE_SIZE + "' ("
+          + this.handshakeQueueSize + ") must be positive");
+    }
+  }
 }
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm.internal;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.unixsocket.UnixSocketConnector;
+import org.everit.jetty.server.ConnectionFactoryFactory;
+import org.everit.jetty.server.ecm.JettyServerConstants;
+import org.everit.jetty.server.ecm.UnixSocketConnectorFactory;
+import org.everit.jetty.server.ecm.UnixSocketConnectorFactoryConstants;
+import org.everit.osgi.ecm.annotation.Activate;
+import org.everit.osgi.ecm.annotation.Component;
+import org.everit.osgi.ecm.annotation.ConfigurationPolicy;
+import org.everit.osgi.ecm.annotation.Service;
+import org.everit.osgi.ecm.annotation.ServiceRef;
+import org.everit.osgi.ecm.annotation.Update;
+import org.everit.osgi.ecm.annotation.attribute.IntegerAttribute;
+import org.everit.osgi.ecm.annotation.attribute.LongAttribute;
+import org.everit.osgi.ecm.annotation.attribute.StringAttribute;
+import org.everit.osgi.ecm.annotation.attribute.StringAttributes;
+import org.everit.osgi.ecm.extender.ExtendComponent;
+import org.osgi.framework.Constants;
+
+/**
+ * ECM based configurable component that registers a {@link UnixSocketConnectorFactory}. The
+ * created connectors listen on the Unix domain socket that is specified by the
+ * {@link JettyServerConstants#CONNECTOR_REF_CLAUSE_ATTR_PATH} attribute of the
+ * {@link JettyServerConstants#ATTR_UNIX_SOCKET_CONNECTOR_FACTORIES} clause of the server.
+ * Same-host clients, like a sidecar proxy, can reach the server without the overhead of the TCP
+ * loopback stack.
+ */
+@ExtendComponent
+@Component(componentId = UnixSocketConnectorFactoryConstants.SERVICE_FACTORY_PID,
+    configurationPolicy = ConfigurationPolicy.FACTORY,
+    label = "Everit Jetty Unix Socket Connector Factory")
+@StringAttributes({
+    @StringAttribute(attributeId = Constants.SERVICE_DESCRIPTION, optional = true,
+        priority = UnixSocketConnectorFactoryAttributePriority.P01_SERVICE_DESCRIPTION,
+        label = "Service description",
+        description = "Optional description for Unix Socket Connector Factory instance.") })
+@Service(UnixSocketConnectorFactory.class)
+public class UnixSocketConnectorFactoryComponent implements UnixSocketConnectorFactory {
+
+  private int acceptQueueSize;
+
+  private ConnectionFactoryFactory[] connectionFactoryFactories;
+
+  private long endpointDrainTimeout;
+
+  private long idleTimeout = UnixSocketConnectorFactoryConstants.DEFAULT_IDLE_TIMEOUT;
+
+  private String name;
+
+  private final ProvidedConnectors<UnixSocketConnector> providedConnectors =
+      new ProvidedConnectors<>();
+
+  private int selectors = UnixSocketConnectorFactoryConstants.DEFAULT_SELECTORS;
+
+  @Activate
+  public void activate() {
+    this.providedConnectors.reset();
+  }
+
+  private Set<UnixSocketConnector> activeConnectors() {
+    return this.providedConnectors.snapshot();
+  }
+
+  @Override
+  public UnixSocketConnector createUnixSocketConnector(final Server server, final String path) {
+    ByteBufferPool byteBufferPool = server.getBean(ByteBufferPool.class);
+    UnixSocketConnector result = new CustomUnixSocketConnector(server, null, null,
+        byteBufferPool, resolveSelectors());
+    result.setAcceptQueueSize(this.acceptQueueSize);
+    result.setIdleTimeout(this.idleTimeout);
+    result.setName(this.name);
+    result.setUnixSocket(path);
+    putIntoProvidedConnectors(result);
+    return result;
+  }
+
+  private synchronized void putIntoProvidedConnectors(final UnixSocketConnector result) {
+    this.providedConnectors.add(result, this.connectionFactoryFactories);
+  }
+
+  private int resolveSelectors() {
+    if (this.selectors > 0) {
+      return this.selectors;
+    }
+    return Math.max(1, ContainerCpuLimit.availableProcessors() / 2);
+  }
+
+  @IntegerAttribute(attributeId = UnixSocketConnectorFactoryConstants.ATTR_ACCEPT_QUEUE_SIZE,
+      defaultValue = 0,
+      priority = UnixSocketConnectorFactoryAttributePriority.P05_ACCEPT_QUEUE_SIZE,
+      label = "Accept queue size",
+      description = "The accept queue size (also known as accept backlog).")
+  public void setAcceptQueueSize(final int acceptQueueSize) {
+    this.acceptQueueSize = acceptQueueSize;
+  }
+
+  /**
+   * Setter that also updates the property on the connector without restarting it.
+   */
+  @ServiceRef(
+      referenceId = UnixSocketConnectorFactoryConstants.ATTR_CONNECTION_FACTORY_FACTORIES,
+      dynamic = true, optional = true,
+      attributePriority = UnixSocketConnectorFactoryAttributePriority
+          .P02_CONNECTION_FACTORY_FACTORIES,
+      label = "ConnectionFactory factories (target)",
+      description = "OSGi filter expressions that point to OSGi services that implement the "
+          + "ConnectionFactoryFactory interface. In case no service reference is specified, a "
+          + "standard HttpConnectionFactory is used.")
+  public synchronized void setConnectionFactoryFactories(
+      final ConnectionFactoryFactory[] connectionFactoryFactories) {
+
+    ConnectionFactoryFactory[] resolvedConnectionFactoryFactories =
+        ConnectionFactoryChain.resolveConnectionFactoryFactories(connectionFactoryFactories);
+    if (Arrays.equals(resolvedConnectionFactoryFactories, this.connectionFactoryFactories)) {
+      // Only the service properties of the factories changed. The factories apply their dynamic
+      // changes on the connections by themselves, like the key store of an SSL factory.
+      return;
+    }
+    this.connectionFactoryFactories = resolvedConnectionFactoryFactories;
+
+    this.providedConnectors.connectionFactoriesChanged();
+  }
+
+  @LongAttribute(attributeId = UnixSocketConnectorFactoryConstants.ATTR_ENDPOINT_DRAIN_TIMEOUT,
+      defaultValue = UnixSocketConnectorFactoryConstants.DEFAULT_ENDPOINT_DRAIN_TIMEOUT,
+      dynamic = true,
+      priority = UnixSocketConnectorFactoryAttributePriority.P07_ENDPOINT_DRAIN_TIMEOUT,
+      label = "Endpoint drain timeout",
+      description = "The time in milliseconds that the open connections get to finish their "
+          + "current exchanges when they have to be closed due to a dynamic update. Zero means "
+          + "that the connections are closed immediately.")
+  public void setEndpointDrainTimeout(final long endpointDrainTimeout) {
+    this.endpointDrainTimeout = endpointDrainTimeout;
+  }
+
+  /**
+   * Setter that also updates the property on the connector without restarting it.
+   */
+  @LongAttribute(attributeId = UnixSocketConnectorFactoryConstants.ATTR_IDLE_TIMEOUT,
+      defaultValue = UnixSocketConnectorFactoryConstants.DEFAULT_IDLE_TIMEOUT, dynamic = true,
+      priority = UnixSocketConnectorFactoryAttributePriority.P03_IDLE_TIMEOUT,
+      label = "Idle timeout",
+      description = "Sets the maximum Idle time for a connection. This value is interpreted as "
+          + "the maximum time between some progress being made on the connection. So if a single "
+          + "byte is read or written, then the timeout is reset.")
+  public synchronized void setIdleTimeout(final long idleTimeout) {
+    this.idleTimeout = idleTimeout;
+    for (UnixSocketConnector connector : activeConnectors()) {
+      connector.setIdleTimeout(idleTimeout);
+    }
+    this.providedConnectors.endpointsChanged();
+  }
+
+  @StringAttribute(attributeId = UnixSocketConnectorFactoryConstants.ATTR_NAME, optional = true,
+      priority = UnixSocketConnectorFactoryAttributePriority.P04_NAME, label = "Name",
+      description = "Set a connector name. A context may be configured with virtual hosts in the "
+          + "form \"@contextname\" and will only serve requests from the named connector.")
+  public void setName(final String name) {
+    this.name = name;
+  }
+
+  @IntegerAttribute(attributeId = UnixSocketConnectorFactoryConstants.ATTR_SELECTORS,
+      defaultValue = UnixSocketConnectorFactoryConstants.DEFAULT_SELECTORS,
+      priority = UnixSocketConnectorFactoryAttributePriority.P06_SELECTORS, label = "Selectors",
+      description = "The number of selectors that manage the connections. A non-positive value "
+          + "means that the number is calculated from the available processors, taking the CPU "
+          + "quota of the container (cgroup) into account.")
+  public void setSelectors(final int selectors) {
+    this.selectors = selectors;
+  }
+
+  /**
+   * Updates all connection factories if necessary and closes all endpoints if necessary.
+   */
+  @Update
+  public synchronized void update() {
+    this.providedConnectors.applyDynamicUpdate(this.connectionFactoryFactories,
+        this.endpointDrainTimeout);
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm.internal;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.everit.osgi.ecm.component.ConfigurationException;
+
+/**
+ * Coalesces bursts of update requests into one execution of an update action. The action runs
+ * when no new request arrived during the quiet period, but at most after the maximum delay that is
+ * counted from the first request of the burst. If the quiet period is not positive, every request
+ * runs the action immediately on the calling thread. If a delayed update fails, the failure is
+ * passed to the failure handler, as there is no caller to throw it to.
+ */
+public class UpdateCoalescer {
+
+  /**
+   * Checks the timing attributes of a component that configures a coalescer. The attributes are
+   * dynamic and their setters are called one by one, so the owner component validates them in its
+   * activate and update methods, when all of them are set.
+   *
+   * @throws ConfigurationException
+   *           if the max. delay is not positive or it is shorter than the quiet period.
+   */
+  public static void validateTiming(final String quietPeriodAttribute, final long quietPeriod,
+      final String maxDelayAttribute, final long maxDelay) {
+    if (maxDelay <= 0) {
+      throw new ConfigurationException("The value of '" + maxDelayAttribute + "' (" + maxDelay
+          + ") must be positive");
+    }
+    if (maxDelay < quietPeriod) {
+      throw new ConfigurationException("The value of '" + maxDelayAttribute + "' (" + maxDelay
+          + ") must not be less than the value of '" + quietPeriodAttribute + "' ("
+          + quietPeriod + ")");
+    }
+  }
+
+  private final Consumer<RuntimeException> failureHandler;
+
+  private final String name;
+
+  private long maxDelay;
+
+  private long pendingSince;
+
+  private ScheduledFuture<?> pendingUpdate;
+
+  private long quietPeriod;
+
+  private ScheduledExecutorService scheduler;
+
+  private final Runnable updateAction;
+
+  /**
+   * Constructor.
+   *
+   * @param name
+   *          The name of the thread that runs the delayed updates.
+   * @param updateAction
+   *          The action that applies the update.
+   * @param failureHandler
+   *          Handles the failures of the delayed updates, normally by failing the owner component.
+   */
+  public UpdateCoalescer(final String name, final Runnable updateAction,
+      final Consumer<RuntimeException> failureHandler) {
+    this.name = name;
+    this.updateAction = updateAction;
+    this.failureHandler = failureHandler;
+  }
+
+  /**
+   * Drops the pending update and applies the update on the calling thread immediately.
+   */
+  public void applyNow() {
+    synchronized (this) {
+      cancelPendingUpdate();
+    }
+    this.updateAction.run();
+  }
+
+  /**
+   * Drops the pending update and stops the thread of the coalescer.
+   */
+  public synchronized void close() {
+    cancelPendingUpdate();
+    if (this.scheduler != null) {
+      this.scheduler.shutdownNow();
+      this.scheduler = null;
+    }
+  }
+
+  private void cancelPendingUpdate() {
+    if (this.pendingUpdate != null) {
+      this.pendingUpdate.cancel(false);
+      this.pendingUpdate = null;
+    }
+  }
+
+  /**
+   * Sets the timing of the coalescing. If the quiet period is not positive, a pending update is
+   * applied immediately.
+   *
+   * @param pQuietPeriod
+   *          The time in milliseconds without new requests after that the update is applied.
+   * @param pMaxDelay
+   *          The maximum time in milliseconds that an update can be delayed.
+   */
+  public void configure(final long pQuietPeriod, final long pMaxDelay) {
+    synchronized (this) {
+      this.quietPeriod = pQuietPeriod;
+      this.maxDelay = pMaxDelay;
+    }
+    if (pQuietPeriod <= 0) {
+      flush();
+    }
+  }
+
+  /**
+   * Applies the pending update on the calling thread if there is one.
+   */
+  public void flush() {
+    synchronized (this) {
+      if (this.pendingUpdate == null) {
+        return;
+      }
+      cancelPendingUpdate();
+    }
+    this.updateAction.run();
+  }
+
+  private ScheduledExecutorService getScheduler() {
+    if (this.scheduler == null) {
+      ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, (runnable) -> {
+        Thread thread = new Thread(runnable, this.name);
+        thread.setDaemon(true);
+        return thread;
+      });
+      executor.setRemoveOnCancelPolicy(true);
+      this.scheduler = executor;
+    }
+    return this.scheduler;
+  }
+
+  /**
+   * Requests an update. The update action is either executed immediately or scheduled based on the
+   * quiet period and maximum delay.
+   */
+  public void requestUpdate() {
+    synchronized (this) {
+      if (this.quietPeriod > 0) {
+        long now = System.nanoTime();
+        if (this.pendingUpdate == null) {
+          this.pendingSince = now;
+        } else {
+          this.pendingUpdate.cancel(false);
+        }
+        long remainingMaxDelay =
+            this.pendingSince + TimeUnit.MILLISECONDS.toNanos(this.maxDelay) - now;
+        long delay = Math.max(0,
+            Math.min(TimeUnit.MILLISECONDS.toNanos(this.quietPeriod), remainingMaxDelay));
+
+        this.pendingUpdate =
+            getScheduler().schedule(this::runScheduledUpdate, delay, TimeUnit.NANOSECONDS);
+        return;
+      }
+    }
+    this.updateAction.run();
+  }
+
+  private void runScheduledUpdate() {
+    try {
+      flush();
+    } catch (RuntimeException e) {
+      this.failureHandler.accept(e);
+    }
+  }
+}
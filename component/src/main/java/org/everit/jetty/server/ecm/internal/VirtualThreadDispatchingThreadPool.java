@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm.internal;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.server.HttpChannel;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.util.thread.Invocable;
+import org.eclipse.jetty.util.thread.Invocable.InvocationType;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+/**
+ * {@link QueuedThreadPool} that executes the blocking tasks of connections (e.g. request handling)
+ * on virtual threads, while the infrastructure tasks (selectors, acceptors) keep running on the
+ * platform threads of the pool. In case the JVM does not support virtual threads, the pool works
+ * as a simple {@link QueuedThreadPool}.
+ *
+ * <p>
+ * A job is executed on a virtual thread if it is an {@link HttpChannel} or if it implements
+ * {@link Invocable} and declares itself as {@link InvocationType#BLOCKING}. The first case covers
+ * the HTTP/2 streams and the async dispatches of servlet requests, as both are executed by
+ * dispatching the channel itself; the second one covers the connection read callbacks of HTTP/1.
+ * Selector, acceptor and reserved thread jobs are simple {@link Runnable}s, so they stay on
+ * platform threads. Other simple {@link Runnable}s, like the ones passed to
+ * <code>AsyncContext.start(Runnable)</code>, cannot be recognized as blocking and are executed on
+ * platform threads, too. To have every blocking task go through {@link #execute(Runnable)}, the
+ * pool does not reserve threads if the JVM supports virtual threads.
+ *
+ * <p>
+ * The number of jobs that run on virtual threads at the same time is limited. When the limit is
+ * reached, jobs are queued for the platform threads of the pool, so the queue of the pool applies
+ * back-pressure.
+ */
+public class VirtualThreadDispatchingThreadPool extends QueuedThreadPool {
+
+  private static final Logger LOG = Log.getLogger(VirtualThreadDispatchingThreadPool.class);
+
+  private static final boolean VIRTUAL_THREADS_SUPPORTED = isVirtualThreadsSupported();
+
+  private static boolean isVirtualThreadsSupported() {
+    try {
+      Thread.class.getMethod("ofVirtual").invoke(null);
+      Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+      return true;
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // Virtual threads are not available (or not enabled) on this JVM
+      return false;
+    }
+  }
+
+  private static ExecutorService newVirtualThreadExecutor(final String namePrefix) {
+    if (!VIRTUAL_THREADS_SUPPORTED) {
+      LOG.warn("Virtual threads are not supported by the JVM, blocking tasks of thread pool "
+          + namePrefix + " are executed on platform threads");
+      return null;
+    }
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      builder = builderClass.getMethod("name", String.class, long.class)
+          .invoke(builder, namePrefix + "-virtual-", 0L);
+      ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory")
+          .invoke(builder);
+      Method newThreadPerTaskExecutor =
+          Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+      return (ExecutorService) newThreadPerTaskExecutor.invoke(null, threadFactory);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      LOG.warn("Could not create virtual thread executor, blocking tasks of thread pool "
+          + namePrefix + " are executed on platform threads", e);
+      return null;
+    }
+  }
+
+  private final Semaphore virtualThreadPermits;
+
+  private volatile ExecutorService virtualThreadExecutor;
+
+  /**
+   * Constructor.
+   *
+   * @param maxVirtualThreads
+   *          The maximum number of jobs that run on virtual threads at the same time. Must be at
+   *          least 1.
+   * @see QueuedThreadPool#QueuedThreadPool(int, int, int, BlockingQueue)
+   */
+  public VirtualThreadDispatchingThreadPool(final int maxThreads, final int minThreads,
+      final int idleTimeout, final BlockingQueue<Runnable> queue, final int maxVirtualThreads) {
+    super(maxThreads, minThreads, idleTimeout, queue);
+    if (maxVirtualThreads < 1) {
+      throw new IllegalArgumentException(
+          "Max. virtual threads must be at least 1: " + maxVirtualThreads);
+    }
+    this.virtualThreadPermits = new Semaphore(maxVirtualThreads);
+  }
+
+  @Override
+  protected void doStart() throws Exception {
+    this.virtualThreadExecutor = newVirtualThreadExecutor(getName());
+    super.doStart();
+  }
+
+  @Override
+  protected void doStop() throws Exception {
+    try {
+      super.doStop();
+    } finally {
+      ExecutorService executor = this.virtualThreadExecutor;
+      this.virtualThreadExecutor = null;
+      if (executor != null) {
+        executor.shutdown();
+        // Let the jobs on virtual threads finish the same way the platform threads do
+        if (!executor.awaitTermination(getStopTimeout(), TimeUnit.MILLISECONDS)) {
+          executor.shutdownNow();
+        }
+      }
+    }
+  }
+
+  @Override
+  public void execute(final Runnable job) {
+    ExecutorService executor = this.virtualThreadExecutor;
+    if (executor == null || !isBlocking(job) || !this.virtualThreadPermits.tryAcquire()) {
+      super.execute(job);
+      return;
+    }
+    try {
+      executor.execute(() -> {
+        try {
+          job.run();
+        } finally {
+          this.virtualThreadPermits.release();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      this.virtualThreadPermits.release();
+      super.execute(job);
+    }
+  }
+
+  private boolean isBlocking(final Runnable job) {
+    if (job instanceof HttpChannel) {
+      return true;
+    }
+    return job instanceof Invocable
+        && Invocable.getInvocationType(job) == InvocationType.BLOCKING;
+  }
+
+  /**
+   * Whether the blocking tasks are executed on virtual threads. This is false if the pool is not
+   * started or the JVM does not support virtual threads.
+   */
+  public boolean isVirtualThreadsUsed() {
+    return this.virtualThreadExecutor != null;
+  }
+
+  /**
+   * Reserved threads are not supported if the JVM supports virtual threads, as they would run
+   * blocking tasks on platform threads. Otherwise the pool works as a {@link QueuedThreadPool} and
+   * the reserved threads are used.
+   */
+  @Override
+  public void setReservedThreads(final int reservedThreads) {
+    super.setReservedThreads(VIRTUAL_THREADS_SUPPORTED ? 0 : reservedThreads);
+  }
+}
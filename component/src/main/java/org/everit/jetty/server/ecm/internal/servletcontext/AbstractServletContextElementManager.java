@@ -15,9 +15,12 @@
  */
 package org.everit.jetty.server.ecm.internal.servletcontext;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Abstract manager class for ServletContext component.
@@ -29,6 +32,8 @@ import java.util.Map;
  */
 public abstract class AbstractServletContextElementManager<KEY, ELEMENT> {
 
+  private KEY[] previousKeys;
+
   private Map<KEY, Integer> previousKeysWithPosition = Collections.emptyMap();
 
   protected abstract ELEMENT createNewElement(KEY newKey);
@@ -37,7 +42,9 @@ public abstract class AbstractServletContextElementManager<KEY, ELEMENT> {
 
   /**
    * Generates a new Array for the new keys in the way that if there are keys from the old array,
-   * those elements are re-used.
+   * those elements are re-used. If the keys did not change since the previous update, the
+   * previous element array instance is returned, so callers can skip the unchanged elements by an
+   * identity check.
    *
    * @param newKeys
    *          The new key array.
@@ -48,6 +55,11 @@ public abstract class AbstractServletContextElementManager<KEY, ELEMENT> {
   public ELEMENT[] generateUpgradedElementArray(final KEY[] newKeys,
       final ELEMENT[] previousElements) {
 
+    if (!isChanged(newKeys) && previousElements != null
+        && previousElements.length == newKeys.length) {
+      return previousElements;
+    }
+
     ELEMENT[] result = createNewElementArray(newKeys.length);
 
     for (int i = 0; i < newKeys.length; i++) {
@@ -68,6 +80,42 @@ public abstract class AbstractServletContextElementManager<KEY, ELEMENT> {
     return result;
   }
 
+  /**
+   * Checks whether the keys are different from the ones that were passed to the previous
+   * {@link #updatePrviousKeys(Object[])} call.
+   *
+   * @param newKeys
+   *          The new key array.
+   * @return <code>true</code> if the keys or their order changed.
+   */
+  public boolean isChanged(final KEY[] newKeys) {
+    return !Arrays.equals(this.previousKeys, newKeys);
+  }
+
+  /**
+   * Checks whether any of the keys that were passed to the previous
+   * {@link #updatePrviousKeys(Object[])} call is missing from the new keys.
+   *
+   * @param newKeys
+   *          The new key array.
+   * @return <code>true</code> if at least one element would be removed by the new keys.
+   */
+  public boolean isAnyRemoved(final KEY[] newKeys) {
+    if (this.previousKeys == null || this.previousKeys.length == 0 || !isChanged(newKeys)) {
+      return false;
+    }
+    if (newKeys == null) {
+      return true;
+    }
+    Set<KEY> newKeySet = new HashSet<>(Arrays.asList(newKeys));
+    for (KEY previousKey : this.previousKeys) {
+      if (!newKeySet.contains(previousKey)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   /**
    * Updates the previous key array in the manager.
    *
@@ -76,10 +124,14 @@ public abstract class AbstractServletContextElementManager<KEY, ELEMENT> {
    *          next time they will be previous).
    */
   public void updatePrviousKeys(final KEY[] keys) {
+    if (!isChanged(keys)) {
+      return;
+    }
     Map<KEY, Integer> updated = new HashMap<>(keys.length);
     for (int i = 0; i < keys.length; i++) {
       updated.put(keys[i], i);
     }
+    this.previousKeys = keys;
     this.previousKeysWithPosition = updated;
   }
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm.tests;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that keeps the request in flight until it is released.
+ */
+class BlockingServlet extends HttpServlet {
+
+  private static final long serialVersionUID = 1L;
+
+  private final CountDownLatch destroyed = new CountDownLatch(1);
+
+  private final CountDownLatch entered = new CountDownLatch(1);
+
+  private final CountDownLatch released = new CountDownLatch(1);
+
+  /**
+   * Waits until the servlet is destroyed.
+   *
+   * @return <code>true</code> if the servlet was destroyed within the request timeout.
+   */
+  boolean awaitDestroyed() throws InterruptedException {
+    return this.destroyed.await(JettyTestSupport.REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Waits until a request enters the servlet.
+   *
+   * @return <code>true</code> if a request entered within the request timeout.
+   */
+  boolean awaitEntered() throws InterruptedException {
+    return this.entered.await(JettyTestSupport.REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+  }
+
+  @Override
+  public void destroy() {
+    this.destroyed.countDown();
+  }
+
+  @Override
+  protected void doGet(final HttpServletRequest req, final HttpServletResponse resp)
+      throws ServletException, IOException {
+    this.entered.countDown();
+    try {
+      if (!this.released.await(JettyTestSupport.REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        throw new ServletException("Blocking servlet was not released");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ServletException(e);
+    }
+    resp.getWriter().write("blocking");
+  }
+
+  boolean isDestroyed() {
+    return this.destroyed.getCount() == 0;
+  }
+
+  /**
+   * Lets the blocked requests finish.
+   */
+  void release() {
+    this.released.countDown();
+  }
+}
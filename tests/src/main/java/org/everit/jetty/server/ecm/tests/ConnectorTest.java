@@ -0,0 +1,983 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm.tests;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketOption;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.net.URL;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.Servlet;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.http.HostPortHttpField;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpHeaderValue;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpScheme;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.http.MetaData;
+import org.eclipse.jetty.http2.ErrorCode;
+import org.eclipse.jetty.http2.HTTP2Session;
+import org.eclipse.jetty.http2.api.Session;
+import org.eclipse.jetty.http2.api.Stream;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.frames.GoAwayFrame;
+import org.eclipse.jetty.http2.frames.HeadersFrame;
+import org.eclipse.jetty.io.ChannelEndPoint;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.ConnectionLimit;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.NetworkConnector;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.unixsocket.UnixSocketConnector;
+import org.eclipse.jetty.unixsocket.client.HttpClientTransportOverUnixSockets;
+import org.eclipse.jetty.util.FuturePromise;
+import org.everit.jetty.server.NetworkConnectorFactory;
+import org.everit.jetty.server.ServletContextHandlerFactory;
+import org.everit.jetty.server.ecm.JettyServerConstants;
+import org.everit.jetty.server.ecm.ServerConnectorFactoryConstants;
+import org.everit.osgi.dev.testrunner.EOSGiTestClass;
+import org.everit.osgi.dev.testrunner.TestRunnerConstants;
+import org.everit.osgi.ecm.annotation.Activate;
+import org.everit.osgi.ecm.annotation.Component;
+import org.everit.osgi.ecm.annotation.ConfigurationPolicy;
+import org.everit.osgi.ecm.annotation.Service;
+import org.everit.osgi.ecm.annotation.ServiceRef;
+import org.everit.osgi.ecm.annotation.attribute.StringAttribute;
+import org.everit.osgi.ecm.annotation.attribute.StringAttributes;
+import org.everit.osgi.ecm.extender.ExtendComponent;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.cm.Configuration;
+import org.osgi.service.cm.ConfigurationAdmin;
+
+/**
+ * Tests the network and Unix socket connectors of the servers and the way they are replaced and
+ * drained.
+ */
+@ExtendComponent
+@Component(configurationPolicy = ConfigurationPolicy.IGNORE)
+@StringAttributes({
+    @StringAttribute(attributeId = TestRunnerConstants.SERVICE_PROPERTY_TEST_ID,
+        defaultValue = "ConnectorTest"),
+    @StringAttribute(attributeId = TestRunnerConstants.SERVICE_PROPERTY_TESTRUNNER_ENGINE,
+        defaultValue = "junit4") })
+@EOSGiTestClass
+@Service
+public class ConnectorTest {
+
+  private static final int ACCEPTED_RECEIVE_BUFFER_SIZE = 16384;
+
+  private static final int CONFIGURED_ACCEPTORS = 2;
+
+  private static final int CONFIGURED_SELECTORS = 3;
+
+  private static final int CONNECTION_LIMIT = 2;
+
+  private static final long DRAIN_IDLE_TIMEOUT_MILLIS = 30000;
+
+  private static final long DRAIN_TIMEOUT_MILLIS = 2000;
+
+  private static final String IN_FLIGHT_SERVLET_PROPERTY = "jettyInFlightServlet";
+
+  private static final int MAKE_BEFORE_BREAK_PORT = 38448;
+
+  private static final int PENDING_CONNECTION_TIMEOUT_MILLIS = 500;
+
+  private static final String PLAIN_SERVER_CONNECTOR_FACTORY_PID =
+      "org.everit.jetty.server.ecm.ServerConnectorFactory.e2098b67-3cc0-47ec-a549-f48e14a54664";
+
+  private static final String PROXIED_CLIENT_ADDRESS = "192.0.2.1";
+
+  private static final int PROXIED_CLIENT_PORT = 56324;
+
+  private static final String PROXY_CONNECTOR_NAME = "proxy";
+
+  private static final int REGISTRY_CONNECTIONS = 4;
+
+  private static final int REQUEST_LIMIT = 2;
+
+  private static final String REQUEST_LIMIT_CONNECTOR_NAME = "requestlimit";
+
+  private static final String REQUEST_LIMIT_SERVER_CONNECTOR_FACTORY_PID =
+      "org.everit.jetty.server.ecm.ServerConnectorFactory.807be2f2-6fa1-4805-aecc-14a1a77eee8f";
+
+  private static final String SHARD_CONNECTOR_FACTORY_PROPERTY = "jettyShardConnectorFactory";
+
+  private static final String UNIX_SOCKET_CONNECTOR_NAME = "unixsocket";
+
+  private static final String UNIX_SOCKET_REPLACEMENT_CONNECTOR_FACTORY_PID =
+      "org.everit.jetty.server.ecm.UnixSocketConnectorFactory.14dd361d-c6d9-498e-a661-dd293f0dffab";
+
+  private static final String UNIX_SOCKET_REPLACEMENT_CONNECTOR_NAME = "unixsocketreplacement";
+
+  /**
+   * Changes the idle timeout of a connector factory that was created by
+   * {@link #createDrainServerConnectorConfiguration()}. The connectors of the factory are updated
+   * dynamically, so their open connections are drained.
+   */
+  private static void changeDrainConnectorIdleTimeout(final Configuration configuration)
+      throws IOException {
+    Dictionary<String, Object> properties = configuration.getProperties();
+    long idleTimeout = (Long) properties.get(ServerConnectorFactoryConstants.ATTR_IDLE_TIMEOUT);
+    properties.put(ServerConnectorFactoryConstants.ATTR_IDLE_TIMEOUT, idleTimeout + 1);
+    configuration.update(properties);
+  }
+
+  private static String createMakeBeforeBreakConnectorClause(
+      final String serverConnectorFactoryPid, final int shards) {
+    return "makebeforebreak;" + JettyServerConstants.CONNECTOR_REF_CLAUSE_ATTR_PORT + "="
+        + MAKE_BEFORE_BREAK_PORT + ";" + JettyServerConstants.CONNECTOR_REF_CLAUSE_ATTR_SHARDS
+        + "=" + shards + ";filter:=" + JettyTestSupport.pidFilter(serverConnectorFactoryPid);
+  }
+
+  private static ContentResponse getEchoRemoteOverUnixSocket(final String path)
+      throws Exception {
+    HttpClient httpClient = new HttpClient(new HttpClientTransportOverUnixSockets(path), null);
+    httpClient.start();
+    try {
+      return httpClient.newRequest("http://localhost/sample/echoremote")
+          .timeout(JettyTestSupport.REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+          .send();
+    } finally {
+      httpClient.stop();
+    }
+  }
+
+  private static int getTrackedConnections(final ConnectionFactory connectionFactory) {
+    try {
+      return (Integer) JettyTestSupport.getManagedAttribute(connectionFactory,
+          "getTrackedConnections");
+    } catch (ReflectiveOperationException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static JSONObject readJSONResponse(final HttpURLConnection urlConnection)
+      throws IOException {
+    return new JSONObject(JettyTestSupport.readResponseFromUrlConnection(urlConnection));
+  }
+
+  private ConfigurationAdmin configurationAdmin;
+
+  private Server server;
+
+  private JettyTestSupport support;
+
+  @Activate
+  public void activate(final BundleContext bundleContext) {
+    this.support = new JettyTestSupport(bundleContext, this.configurationAdmin);
+  }
+
+  /**
+   * Creates a plain text connector factory that serves HTTP/1.1 and h2c with prior knowledge and
+   * waits {@link #DRAIN_TIMEOUT_MILLIS} for the open connections when its connectors are updated.
+   */
+  private Configuration createDrainServerConnectorConfiguration() throws IOException {
+    Dictionary<String, Object> properties = new Hashtable<>();
+    properties.put(ServerConnectorFactoryConstants.ATTR_ENDPOINT_DRAIN_TIMEOUT,
+        DRAIN_TIMEOUT_MILLIS);
+    properties.put(ServerConnectorFactoryConstants.ATTR_IDLE_TIMEOUT, DRAIN_IDLE_TIMEOUT_MILLIS);
+    return this.support.createServerConnectorConfiguration(properties,
+        JettyTestSupport.HTTP_CONNECTION_FACTORY_PID, JettyTestSupport.H2C_CONNECTION_FACTORY_PID);
+  }
+
+  private List<NetworkConnector> findStartedNetworkConnectors(final int port) {
+    List<NetworkConnector> result = new ArrayList<>();
+    for (Connector connector : this.server.getConnectors()) {
+      if ((connector instanceof NetworkConnector) && connector.isStarted()
+          && ((NetworkConnector) connector).getLocalPort() == port) {
+        result.add((NetworkConnector) connector);
+      }
+    }
+    return result;
+  }
+
+  private UnixSocketConnector findUnixSocketConnector(final String name) {
+    UnixSocketConnector result = findUnixSocketConnectorIfExists(name);
+    if (result == null) {
+      throw new AssertionError("No Unix socket connector found with name " + name);
+    }
+    return result;
+  }
+
+  private UnixSocketConnector findUnixSocketConnectorIfExists(final String name) {
+    for (Connector connector : this.server.getConnectors()) {
+      if ((connector instanceof UnixSocketConnector) && name.equals(connector.getName())) {
+        return (UnixSocketConnector) connector;
+      }
+    }
+    return null;
+  }
+
+  @ServiceRef(defaultValue = "")
+  public void setConfigurationAdmin(final ConfigurationAdmin configurationAdmin) {
+    this.configurationAdmin = configurationAdmin;
+  }
+
+  // Tests start further JettyServer components, so the filter must select the configured one
+  @ServiceRef(defaultValue = "(" + Constants.SERVICE_PID + "=" + JettyTestSupport.JETTY_SERVER_PID
+      + ")")
+  public void setServer(final Server server) {
+    this.server = server;
+  }
+
+  /**
+   * Starts the server with a connector of the drain connector factory and the servlet context
+   * that serves the blocking servlet of a test.
+   */
+  private ServletContextHandler startDrainServer(final Server drainServer,
+      final Configuration connectorConfiguration, final Configuration contextConfiguration)
+      throws Exception {
+    NetworkConnectorFactory networkConnectorFactory =
+        this.support.awaitService(NetworkConnectorFactory.class, connectorConfiguration.getPid());
+    drainServer.addConnector(networkConnectorFactory.createNetworkConnector(drainServer, null, 0));
+    ServletContextHandler servletContextHandler = this.support
+        .awaitService(ServletContextHandlerFactory.class, contextConfiguration.getPid())
+        .createHandler(drainServer, "/drain");
+    drainServer.start();
+    return servletContextHandler;
+  }
+
+  /**
+   * Opens a connection to a connector with non-default socket options and checks them on the
+   * channel that the connector accepted. The reuse options belong to the listening socket, so they
+   * are checked on the channel that accepts the connections.
+   */
+  @Test
+  public void testAcceptedSocketOptions() throws Exception {
+    Dictionary<String, Object> properties = new Hashtable<>();
+    properties.put(ServerConnectorFactoryConstants.ATTR_ACCEPTED_KEEP_ALIVE, true);
+    properties.put(ServerConnectorFactoryConstants.ATTR_ACCEPTED_RECEIVE_BUFFER_SIZE,
+        ACCEPTED_RECEIVE_BUFFER_SIZE);
+    properties.put(ServerConnectorFactoryConstants.ATTR_ACCEPTED_SO_LINGER, 0);
+    properties.put(ServerConnectorFactoryConstants.ATTR_ACCEPTED_TCP_NO_DELAY, true);
+    properties.put(ServerConnectorFactoryConstants.ATTR_REUSE_ADDRESS, true);
+    properties.put(ServerConnectorFactoryConstants.ATTR_REUSE_PORT, true);
+    Configuration connectorConfiguration = this.support.createServerConnectorConfiguration(
+        properties, JettyTestSupport.HTTP_CONNECTION_FACTORY_PID);
+    Server optionServer = new Server();
+    try {
+      ServerConnector connector =
+          (ServerConnector) this.support.startTextServer(optionServer, connectorConfiguration);
+      try (Socket socket = new Socket(InetAddress.getLocalHost(), connector.getLocalPort());
+          SocketChannel probeChannel = SocketChannel.open()) {
+        JettyTestSupport.await("the connection is accepted",
+            () -> !connector.getConnectedEndPoints().isEmpty(),
+            JettyTestSupport.deadlineMillis());
+        SocketChannel acceptedChannel =
+            ((ChannelEndPoint) connector.getConnectedEndPoints().iterator().next()).getChannel();
+
+        Assert.assertEquals(Boolean.TRUE,
+            acceptedChannel.getOption(StandardSocketOptions.SO_KEEPALIVE));
+        Assert.assertEquals(Integer.valueOf(0),
+            acceptedChannel.getOption(StandardSocketOptions.SO_LINGER));
+        Assert.assertEquals(Boolean.TRUE,
+            acceptedChannel.getOption(StandardSocketOptions.TCP_NODELAY));
+        // The platform may round the size, so it is compared to a socket with the same setting
+        probeChannel.setOption(StandardSocketOptions.SO_RCVBUF, ACCEPTED_RECEIVE_BUFFER_SIZE);
+        Assert.assertEquals(probeChannel.getOption(StandardSocketOptions.SO_RCVBUF),
+            acceptedChannel.getOption(StandardSocketOptions.SO_RCVBUF));
+
+        ServerSocketChannel acceptChannel = (ServerSocketChannel) connector.getTransport();
+        Assert.assertEquals(Boolean.TRUE,
+            acceptChannel.getOption(StandardSocketOptions.SO_REUSEADDR));
+        // StandardSocketOptions.SO_REUSEPORT is only available since Java 9
+        boolean reusePortChecked = false;
+        for (SocketOption<?> option : acceptChannel.supportedOptions()) {
+          if ("SO_REUSEPORT".equals(option.name())) {
+            Assert.assertEquals(Boolean.TRUE, acceptChannel.getOption(option));
+            reusePortChecked = true;
+          }
+        }
+        Assert.assertTrue("SO_REUSEPORT is not supported", reusePortChecked);
+      }
+    } finally {
+      optionServer.stop();
+      connectorConfiguration.delete();
+    }
+  }
+
+  /**
+   * Opens connections to a connector, sends a request on each and closes them. The connection
+   * factory must stop tracking the connections as soon as they are closed, without waiting for
+   * the garbage collector.
+   */
+  @Test
+  public void testClosedConnectionsAreRemovedFromRegistry() throws Exception {
+    Configuration connectorConfiguration = this.support.createServerConnectorConfiguration(
+        new Hashtable<>(), JettyTestSupport.HTTP_CONNECTION_FACTORY_PID);
+    Server registryServer = new Server();
+    List<Socket> sockets = new ArrayList<>();
+    try {
+      NetworkConnector connector =
+          this.support.startTextServer(registryServer, connectorConfiguration);
+      ConnectionFactory httpConnectionFactory = connector.getDefaultConnectionFactory();
+      InetAddress localHost = InetAddress.getLocalHost();
+      for (int i = 0; i < REGISTRY_CONNECTIONS; i++) {
+        Socket socket = new Socket(localHost, connector.getLocalPort());
+        sockets.add(socket);
+        socket.setSoTimeout(
+            (int) TimeUnit.SECONDS.toMillis(JettyTestSupport.REQUEST_TIMEOUT_SECONDS));
+        Assert.assertEquals("text", JettyTestSupport.requestText(socket, null));
+      }
+      Assert.assertEquals(REGISTRY_CONNECTIONS, getTrackedConnections(httpConnectionFactory));
+
+      for (Socket socket : sockets) {
+        socket.close();
+      }
+      JettyTestSupport.await("the closed connections are removed",
+          () -> getTrackedConnections(httpConnectionFactory) == 0,
+          JettyTestSupport.deadlineMillis());
+    } finally {
+      for (Socket socket : sockets) {
+        socket.close();
+      }
+      registryServer.stop();
+      connectorConfiguration.delete();
+    }
+  }
+
+  /**
+   * Checks that the connector uses the configured acceptor and selector counts instead of the
+   * heuristic of Jetty, and that it serves parallel connections with them.
+   */
+  @Test
+  public void testConfiguredAcceptorsAndSelectors() throws Exception {
+    ServerConnector connector = (ServerConnector) JettyTestSupport
+        .findNetworkConnector(this.server, REQUEST_LIMIT_CONNECTOR_NAME);
+    Assert.assertEquals(CONFIGURED_ACCEPTORS, connector.getAcceptors());
+    Assert.assertEquals(CONFIGURED_SELECTORS, connector.getSelectorManager().getSelectorCount());
+
+    InetAddress localHost = InetAddress.getLocalHost();
+    String url = "http://" + localHost.getHostName() + ":" + connector.getLocalPort()
+        + "/sample/echoremote";
+    HttpClient httpClient = new HttpClient();
+    // More connections than selectors, so every selector gets some
+    httpClient.setMaxConnectionsPerDestination(CONFIGURED_SELECTORS * 2);
+    httpClient.start();
+    try {
+      List<CompletableFuture<Integer>> statusFutures = new ArrayList<>();
+      for (int i = 0; i < CONFIGURED_SELECTORS * 2; i++) {
+        CompletableFuture<Integer> statusFuture = new CompletableFuture<>();
+        httpClient.newRequest(url).send((result) -> {
+          if (result.isSucceeded()) {
+            statusFuture.complete(result.getResponse().getStatus());
+          } else {
+            statusFuture.completeExceptionally(result.getFailure());
+          }
+        });
+        statusFutures.add(statusFuture);
+      }
+      for (CompletableFuture<Integer> statusFuture : statusFutures) {
+        Assert.assertEquals(200, statusFuture
+            .get(JettyTestSupport.REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS).intValue());
+      }
+    } finally {
+      httpClient.stop();
+    }
+  }
+
+  /**
+   * Replaces a connector with one that cannot listen on the same port while the old one is still
+   * open. The old connector must be stopped before the new one is started again, so the port is
+   * served by the new connector.
+   */
+  @Test
+  public void testConnectorRebindFallsBackToBreakBeforeMakeWhenPortIsBusy() throws Exception {
+    Configuration serverConfiguration =
+        this.configurationAdmin.getConfiguration(JettyTestSupport.JETTY_SERVER_PID, null);
+    Dictionary<String, Object> properties = serverConfiguration.getProperties();
+    String clauseKey = JettyServerConstants.ATTR_NETWORK_CONNECTOR_FACTORIES + ".clause";
+    String[] originalClauses = (String[]) properties.get(clauseKey);
+    String[] clauses = Arrays.copyOf(originalClauses, originalClauses.length + 1);
+    try {
+      clauses[originalClauses.length] =
+          createMakeBeforeBreakConnectorClause(PLAIN_SERVER_CONNECTOR_FACTORY_PID, 1);
+      properties.put(clauseKey, clauses);
+      serverConfiguration.update(properties);
+
+      long deadlineMillis = JettyTestSupport.deadlineMillis();
+      JettyTestSupport.await("the connector is started",
+          () -> findStartedNetworkConnectors(MAKE_BEFORE_BREAK_PORT).size() == 1, deadlineMillis);
+      @SuppressWarnings("resource")
+      NetworkConnector oldConnector = findStartedNetworkConnectors(MAKE_BEFORE_BREAK_PORT).get(0);
+
+      clauses[originalClauses.length] =
+          createMakeBeforeBreakConnectorClause(REQUEST_LIMIT_SERVER_CONNECTOR_FACTORY_PID, 1);
+      properties.put(clauseKey, clauses);
+      serverConfiguration.update(properties);
+
+      JettyTestSupport.await("the replacement connector is started", () -> {
+        List<NetworkConnector> connectors = findStartedNetworkConnectors(MAKE_BEFORE_BREAK_PORT);
+        return connectors.size() == 1
+            && REQUEST_LIMIT_CONNECTOR_NAME.equals(connectors.get(0).getName());
+      }, deadlineMillis);
+      Assert.assertTrue(oldConnector.isStopped());
+
+      HttpURLConnection urlConnection = JettyTestSupport.openConnection(new URL("http://"
+          + InetAddress.getLocalHost().getHostName() + ":" + MAKE_BEFORE_BREAK_PORT
+          + "/sample/echoremote"));
+      Assert.assertEquals(200, urlConnection.getResponseCode());
+    } finally {
+      properties.put(clauseKey, originalClauses);
+      serverConfiguration.update(properties);
+      JettyTestSupport.await("the connector is removed",
+          () -> findStartedNetworkConnectors(MAKE_BEFORE_BREAK_PORT).isEmpty(),
+          JettyTestSupport.deadlineMillis());
+    }
+  }
+
+  /**
+   * Replaces the shards of a connector while a client keeps connecting to their port. The new
+   * shards must listen next to the old ones before those are stopped, so no connection is refused.
+   */
+  @Test
+  public void testConnectorReplacedOnSamePortWithoutUnbinding() throws Exception {
+    Configuration serverConfiguration =
+        this.configurationAdmin.getConfiguration(JettyTestSupport.JETTY_SERVER_PID, null);
+    Dictionary<String, Object> properties = serverConfiguration.getProperties();
+    String clauseKey = JettyServerConstants.ATTR_NETWORK_CONNECTOR_FACTORIES + ".clause";
+    String[] originalClauses = (String[]) properties.get(clauseKey);
+    String[] clauses = Arrays.copyOf(originalClauses, originalClauses.length + 1);
+    InetAddress localHost = InetAddress.getLocalHost();
+    AtomicBoolean probing = new AtomicBoolean(true);
+    AtomicInteger acceptedConnections = new AtomicInteger();
+    ExecutorService executorService = Executors.newSingleThreadExecutor();
+    try {
+      clauses[originalClauses.length] =
+          createMakeBeforeBreakConnectorClause(PLAIN_SERVER_CONNECTOR_FACTORY_PID, 2);
+      properties.put(clauseKey, clauses);
+      serverConfiguration.update(properties);
+
+      long deadlineMillis = JettyTestSupport.deadlineMillis();
+      JettyTestSupport.await("the old shards are started",
+          () -> findStartedNetworkConnectors(MAKE_BEFORE_BREAK_PORT).size() == 2, deadlineMillis);
+      List<NetworkConnector> oldConnectors = findStartedNetworkConnectors(MAKE_BEFORE_BREAK_PORT);
+
+      Future<List<IOException>> refusedConnections = executorService.submit(() -> {
+        List<IOException> result = new ArrayList<>();
+        while (probing.get()) {
+          try (Socket socket = new Socket(localHost, MAKE_BEFORE_BREAK_PORT)) {
+            acceptedConnections.incrementAndGet();
+          } catch (IOException e) {
+            result.add(e);
+          }
+        }
+        return result;
+      });
+      JettyTestSupport.await("the client connects to the old shards",
+          () -> acceptedConnections.get() > 0, deadlineMillis);
+
+      clauses[originalClauses.length] =
+          createMakeBeforeBreakConnectorClause(PLAIN_SERVER_CONNECTOR_FACTORY_PID, 3);
+      properties.put(clauseKey, clauses);
+      serverConfiguration.update(properties);
+
+      JettyTestSupport.await("the new shards are started",
+          () -> findStartedNetworkConnectors(MAKE_BEFORE_BREAK_PORT).size() == 3, deadlineMillis);
+      for (NetworkConnector oldConnector : oldConnectors) {
+        JettyTestSupport.await("the old shard is stopped", oldConnector::isStopped,
+            deadlineMillis);
+      }
+      int acceptedByOldConnectors = acceptedConnections.get();
+      JettyTestSupport.await("the client connects to the new shards",
+          () -> acceptedConnections.get() > acceptedByOldConnectors, deadlineMillis);
+
+      probing.set(false);
+      List<IOException> refused =
+          refusedConnections.get(JettyTestSupport.REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      Assert.assertTrue("Refused connections: " + refused, refused.isEmpty());
+
+      HttpURLConnection urlConnection = JettyTestSupport.openConnection(new URL("http://"
+          + localHost.getHostName() + ":" + MAKE_BEFORE_BREAK_PORT + "/sample/echoremote"));
+      Assert.assertEquals(200, urlConnection.getResponseCode());
+    } finally {
+      probing.set(false);
+      executorService.shutdownNow();
+      properties.put(clauseKey, originalClauses);
+      serverConfiguration.update(properties);
+      JettyTestSupport.await("the connector is removed",
+          () -> findStartedNetworkConnectors(MAKE_BEFORE_BREAK_PORT).isEmpty(),
+          JettyTestSupport.deadlineMillis());
+    }
+  }
+
+  /**
+   * Drains the connections of a connector while it serves an exchange. The idle connection must
+   * be closed at once, while the busy one must finish its exchange with a
+   * {@code Connection: close} response header before it is closed.
+   */
+  @Test
+  public void testDrainClosesHttp11ConnectionAfterInFlightExchange() throws Exception {
+    Configuration connectorConfiguration = createDrainServerConnectorConfiguration();
+    Configuration contextConfiguration = this.support.createServletContextConfiguration(
+        new Hashtable<>(), JettyTestSupport.servletClause("blocking", "/blocking",
+            IN_FLIGHT_SERVLET_PROPERTY, "blocking"));
+    BlockingServlet blockingServlet = new BlockingServlet();
+    ServiceRegistration<Servlet> servletRegistration = null;
+    Server drainServer = new Server();
+    try {
+      ServletContextHandler servletContextHandler =
+          startDrainServer(drainServer, connectorConfiguration, contextConfiguration);
+      long deadlineMillis = JettyTestSupport.deadlineMillis();
+      servletRegistration = this.support.registerService(Servlet.class, blockingServlet,
+          IN_FLIGHT_SERVLET_PROPERTY, "blocking");
+      JettyTestSupport.await("the blocking servlet is mapped",
+          JettyTestSupport.servletMapped(servletContextHandler, "/blocking"), deadlineMillis);
+
+      InetAddress localHost = InetAddress.getLocalHost();
+      @SuppressWarnings("resource")
+      NetworkConnector connector = (NetworkConnector) drainServer.getConnectors()[0];
+      try (Socket socket = new Socket(localHost, connector.getLocalPort());
+          Socket idleSocket = new Socket(localHost, connector.getLocalPort())) {
+        socket.setSoTimeout(
+            (int) TimeUnit.SECONDS.toMillis(JettyTestSupport.REQUEST_TIMEOUT_SECONDS));
+        OutputStream out = socket.getOutputStream();
+        out.write(("GET /drain/blocking HTTP/1.1\r\nHost: " + localHost.getHostName()
+            + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        Assert.assertTrue(blockingServlet.awaitEntered());
+        JettyTestSupport.await("both connections are accepted",
+            () -> connector.getConnectedEndPoints().size() == 2, deadlineMillis);
+
+        changeDrainConnectorIdleTimeout(connectorConfiguration);
+        JettyTestSupport.await("the idle connection is closed",
+            () -> connector.getConnectedEndPoints().size() == 1, deadlineMillis);
+        blockingServlet.release();
+
+        BufferedReader reader = new BufferedReader(
+            new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+        Assert.assertEquals("HTTP/1.1 200 OK", reader.readLine());
+        boolean connectionClose = false;
+        String line = reader.readLine();
+        while (!line.isEmpty()) {
+          connectionClose |= (HttpHeader.CONNECTION.asString() + ": "
+              + HttpHeaderValue.CLOSE.asString()).equalsIgnoreCase(line);
+          line = reader.readLine();
+        }
+        Assert.assertTrue("Connection: close response header", connectionClose);
+        Assert.assertEquals("blocking", reader.readLine());
+        Assert.assertNull(reader.readLine());
+      }
+    } finally {
+      blockingServlet.release();
+      drainServer.stop();
+      if (servletRegistration != null) {
+        servletRegistration.unregister();
+      }
+      contextConfiguration.delete();
+      connectorConfiguration.delete();
+    }
+  }
+
+  /**
+   * Drains the connections of a connector while an h2 stream is in progress. The session must get
+   * a GOAWAY at once, and it must be closed when the drain timeout expires, as the stream never
+   * finishes.
+   */
+  @Test
+  public void testDrainSendsGoAwayBeforeClosingHttp2Session() throws Exception {
+    Configuration connectorConfiguration = createDrainServerConnectorConfiguration();
+    Configuration contextConfiguration = this.support.createServletContextConfiguration(
+        new Hashtable<>(), JettyTestSupport.servletClause("blocking", "/blocking",
+            IN_FLIGHT_SERVLET_PROPERTY, "blocking"));
+    BlockingServlet blockingServlet = new BlockingServlet();
+    ServiceRegistration<Servlet> servletRegistration = null;
+    Server drainServer = new Server();
+    HTTP2Client http2Client = new HTTP2Client();
+    try {
+      ServletContextHandler servletContextHandler =
+          startDrainServer(drainServer, connectorConfiguration, contextConfiguration);
+      long deadlineMillis = JettyTestSupport.deadlineMillis();
+      servletRegistration = this.support.registerService(Servlet.class, blockingServlet,
+          IN_FLIGHT_SERVLET_PROPERTY, "blocking");
+      JettyTestSupport.await("the blocking servlet is mapped",
+          JettyTestSupport.servletMapped(servletContextHandler, "/blocking"), deadlineMillis);
+
+      InetAddress localHost = InetAddress.getLocalHost();
+      @SuppressWarnings("resource")
+      NetworkConnector connector = (NetworkConnector) drainServer.getConnectors()[0];
+      http2Client.start();
+      CompletableFuture<GoAwayFrame> goAwayFuture = new CompletableFuture<>();
+      FuturePromise<Session> sessionPromise = new FuturePromise<>();
+      http2Client.connect(new InetSocketAddress(localHost, connector.getLocalPort()),
+          new Session.Listener.Adapter() {
+            @Override
+            public void onGoAway(final Session session, final GoAwayFrame frame) {
+              goAwayFuture.complete(frame);
+            }
+          }, sessionPromise);
+      Session session =
+          sessionPromise.get(JettyTestSupport.REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      EndPoint endPoint = ((HTTP2Session) session).getEndPoint();
+
+      CompletableFuture<Integer> statusFuture = new CompletableFuture<>();
+      MetaData.Request request = new MetaData.Request(HttpMethod.GET.asString(),
+          HttpScheme.HTTP, new HostPortHttpField(localHost.getHostName(),
+              connector.getLocalPort()),
+          "/drain/blocking", HttpVersion.HTTP_2, new HttpFields());
+      session.newStream(new HeadersFrame(request, null, true), new FuturePromise<>(),
+          new Stream.Listener.Adapter() {
+            @Override
+            public void onHeaders(final Stream stream, final HeadersFrame frame) {
+              MetaData metaData = frame.getMetaData();
+              if (metaData instanceof MetaData.Response) {
+                statusFuture.complete(((MetaData.Response) metaData).getStatus());
+              }
+            }
+          });
+      Assert.assertTrue(blockingServlet.awaitEntered());
+
+      long drainStartNanos = System.nanoTime();
+      changeDrainConnectorIdleTimeout(connectorConfiguration);
+      GoAwayFrame goAwayFrame =
+          goAwayFuture.get(JettyTestSupport.REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      Assert.assertEquals(ErrorCode.NO_ERROR.code, goAwayFrame.getError());
+      Assert.assertTrue(endPoint.isOpen());
+
+      JettyTestSupport.await("the session is closed at the drain timeout",
+          () -> !endPoint.isOpen(), deadlineMillis + DRAIN_TIMEOUT_MILLIS);
+      Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - drainStartNanos)
+          >= DRAIN_TIMEOUT_MILLIS);
+      Assert.assertFalse(statusFuture.isDone());
+    } finally {
+      blockingServlet.release();
+      http2Client.stop();
+      drainServer.stop();
+      if (servletRegistration != null) {
+        servletRegistration.unregister();
+      }
+      contextConfiguration.delete();
+      connectorConfiguration.delete();
+    }
+  }
+
+  @Test
+  public void testForwardRequestCustomizer() {
+    try {
+      int port = JettyTestSupport.findPlainHttpPort(this.server);
+      InetAddress localHost = InetAddress.getLocalHost();
+      URL url =
+          new URL("http://" + localHost.getHostName() + ":" + port + "/sample/echoremote");
+      HttpURLConnection urlConnection = JettyTestSupport.openConnection(url);
+      JSONObject jsonObject = readJSONResponse(urlConnection);
+      Assert.assertEquals(localHost.getHostName(), jsonObject.getString("serverName"));
+      Assert.assertEquals(String.valueOf(port), jsonObject.get("serverPort").toString());
+
+      final String testClientName = "11.11" + ".11.11";
+      final String testServerName = "mytest.com";
+      final int testServerPort = 888;
+
+      urlConnection = JettyTestSupport.openConnection(url);
+      urlConnection.setRequestProperty(HttpHeader.X_FORWARDED_FOR.asString(), testClientName);
+
+      urlConnection.setRequestProperty(HttpHeader.X_FORWARDED_HOST.asString(),
+          testServerName + ":" + testServerPort);
+      urlConnection.setRequestProperty(HttpHeader.X_FORWARDED_PROTO.asString(), "https");
+
+      jsonObject = readJSONResponse(urlConnection);
+      Assert.assertEquals(testClientName, jsonObject.getString("remoteAddr"));
+      Assert.assertEquals(testServerName, jsonObject.getString("serverName"));
+      Assert.assertEquals(String.valueOf(testServerPort), jsonObject.get("serverPort").toString());
+      Assert.assertEquals(true, Boolean.valueOf(jsonObject.get("secure").toString()));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+  }
+
+  /**
+   * Opens as many connections as the connection limit of a connector allows. The next connection
+   * must not be served until one of the open connections is closed.
+   */
+  @Test
+  public void testMaxConnectionsPausesAccepting() throws Exception {
+    Dictionary<String, Object> properties = new Hashtable<>();
+    properties.put(ServerConnectorFactoryConstants.ATTR_MAX_CONNECTIONS, CONNECTION_LIMIT);
+    // With acceptor threads, a thread that already waits in accept() would take one more
+    properties.put(ServerConnectorFactoryConstants.ATTR_ACCEPTORS, 0);
+    Configuration connectorConfiguration = this.support.createServerConnectorConfiguration(
+        properties, JettyTestSupport.HTTP_CONNECTION_FACTORY_PID);
+    Server limitServer = new Server();
+    List<Socket> sockets = new ArrayList<>();
+    try {
+      ServerConnector connector =
+          (ServerConnector) this.support.startTextServer(limitServer, connectorConfiguration);
+      InetAddress localHost = InetAddress.getLocalHost();
+      int requestTimeoutMillis =
+          (int) TimeUnit.SECONDS.toMillis(JettyTestSupport.REQUEST_TIMEOUT_SECONDS);
+      for (int i = 0; i < CONNECTION_LIMIT; i++) {
+        Socket socket = new Socket(localHost, connector.getLocalPort());
+        sockets.add(socket);
+        socket.setSoTimeout(requestTimeoutMillis);
+        Assert.assertEquals("text", JettyTestSupport.requestText(socket, null));
+      }
+      Assert.assertEquals(CONNECTION_LIMIT,
+          connector.getBean(ConnectionLimit.class).getConnections());
+
+      // The operating system completes the TCP handshake, but the connector does not accept
+      try (Socket pendingSocket = new Socket(localHost, connector.getLocalPort())) {
+        pendingSocket.setSoTimeout(PENDING_CONNECTION_TIMEOUT_MILLIS);
+        JettyTestSupport.writeTextRequest(pendingSocket, null);
+        try {
+          String content = JettyTestSupport.readResponseContent(pendingSocket);
+          Assert.fail("Connection above the limit was served: " + content);
+        } catch (SocketTimeoutException e) {
+          // Expected as the connection is not accepted
+        }
+
+        sockets.remove(0).close();
+        pendingSocket.setSoTimeout(requestTimeoutMillis);
+        Assert.assertEquals("text", JettyTestSupport.readResponseContent(pendingSocket));
+      }
+    } finally {
+      for (Socket socket : sockets) {
+        socket.close();
+      }
+      limitServer.stop();
+      connectorConfiguration.delete();
+    }
+  }
+
+  /**
+   * Sends requests on one HTTP/1.1 connection of a connector that has a request limit and checks
+   * that the response of the last allowed request closes the connection.
+   */
+  @Test
+  public void testMaxRequestsPerConnectionClosesHttp11Connection() throws Exception {
+    InetAddress localHost = InetAddress.getLocalHost();
+    @SuppressWarnings("resource")
+    NetworkConnector connector =
+        JettyTestSupport.findNetworkConnector(this.server, REQUEST_LIMIT_CONNECTOR_NAME);
+    String url = "http://" + localHost.getHostName() + ":" + connector.getLocalPort()
+        + "/sample/echoremote";
+
+    HttpClient httpClient = new HttpClient();
+    httpClient.setMaxConnectionsPerDestination(1);
+    httpClient.start();
+    try {
+      for (int i = 1; i <= REQUEST_LIMIT; i++) {
+        ContentResponse contentResponse = httpClient.GET(url);
+        Assert.assertEquals(200, contentResponse.getStatus());
+        boolean closed = contentResponse.getHeaders().contains(HttpHeader.CONNECTION,
+            HttpHeaderValue.CLOSE.asString());
+        Assert.assertEquals("Connection: close in response " + i, i == REQUEST_LIMIT, closed);
+      }
+    } finally {
+      httpClient.stop();
+    }
+  }
+
+  /**
+   * Sends a PROXY protocol v1 header before the HTTP request, the way a load balancer does, and
+   * checks that the request sees the client address from the header.
+   */
+  @Test
+  public void testProxyProtocol() throws IOException {
+    InetAddress localHost = InetAddress.getLocalHost();
+    @SuppressWarnings("resource")
+    NetworkConnector connector =
+        JettyTestSupport.findNetworkConnector(this.server, PROXY_CONNECTOR_NAME);
+    try (Socket socket = new Socket(localHost, connector.getLocalPort())) {
+      socket.setSoTimeout(
+          (int) TimeUnit.SECONDS.toMillis(JettyTestSupport.REQUEST_TIMEOUT_SECONDS));
+      OutputStream outputStream = socket.getOutputStream();
+      String request = "PROXY TCP4 " + PROXIED_CLIENT_ADDRESS + " " + localHost.getHostAddress()
+          + " " + PROXIED_CLIENT_PORT + " " + connector.getLocalPort() + "\r\n"
+          + "GET /sample/echoremote HTTP/1.0\r\n"
+          + "Host: " + localHost.getHostName() + "\r\n"
+          + "\r\n";
+      outputStream.write(request.getBytes(StandardCharsets.US_ASCII));
+      outputStream.flush();
+
+      BufferedReader reader = new BufferedReader(
+          new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+      String statusLine = reader.readLine();
+      Assert.assertNotNull(statusLine);
+      Assert.assertTrue(statusLine, statusLine.contains(" 200 "));
+
+      String line = reader.readLine();
+      while (line != null && !line.isEmpty()) {
+        line = reader.readLine();
+      }
+      StringBuilder sb = new StringBuilder();
+      line = reader.readLine();
+      while (line != null) {
+        sb.append(line);
+        line = reader.readLine();
+      }
+
+      JSONObject jsonObject = new JSONObject(sb.toString());
+      Assert.assertEquals(PROXIED_CLIENT_ADDRESS, jsonObject.getString("remoteAddr"));
+      Assert.assertEquals(String.valueOf(PROXIED_CLIENT_PORT),
+          jsonObject.get("remotePort").toString());
+    }
+  }
+
+  /**
+   * Configures two shards on a connector factory that creates a plain {@link ServerConnector} for
+   * the second shard, so the shards cannot share their port. The server must fail without leaving
+   * the already opened first shard on the server or bound to its port.
+   */
+  @Test
+  public void testShardsOfFailedConnectorAreRemoved() throws Exception {
+    NetworkConnectorFactory plainConnectorFactory = this.support
+        .awaitService(NetworkConnectorFactory.class, PLAIN_SERVER_CONNECTOR_FACTORY_PID);
+    List<NetworkConnector> createdConnectors = new CopyOnWriteArrayList<>();
+    NetworkConnectorFactory shardConnectorFactory = new NetworkConnectorFactory() {
+
+      @Override
+      public NetworkConnector createNetworkConnector(final Server connectorServer,
+          final String host, final int port) {
+        NetworkConnector connector;
+        if (createdConnectors.isEmpty()) {
+          connector = plainConnectorFactory.createNetworkConnector(connectorServer, host, port);
+        } else {
+          connector = new ServerConnector(connectorServer);
+        }
+        createdConnectors.add(connector);
+        return connector;
+      }
+    };
+    ServiceRegistration<NetworkConnectorFactory> connectorFactoryRegistration =
+        this.support.registerService(NetworkConnectorFactory.class, shardConnectorFactory,
+            SHARD_CONNECTOR_FACTORY_PROPERTY, true);
+    Configuration serverConfiguration = null;
+    try {
+      Dictionary<String, Object> properties = new Hashtable<>();
+      properties.put(JettyServerConstants.ATTR_NETWORK_CONNECTOR_FACTORIES + ".clause",
+          new String[] { "shards;" + JettyServerConstants.CONNECTOR_REF_CLAUSE_ATTR_SHARDS
+              + "=2;filter:=(" + SHARD_CONNECTOR_FACTORY_PROPERTY + "=true)" });
+      serverConfiguration =
+          this.support.createConfiguration(JettyServerConstants.SERVICE_FACTORY_PID, properties);
+
+      long deadlineMillis = JettyTestSupport.deadlineMillis();
+      JettyTestSupport.await("both shards are created", () -> createdConnectors.size() >= 2,
+          deadlineMillis);
+      for (NetworkConnector connector : createdConnectors) {
+        JettyTestSupport.await("the shard is removed", () -> !connector.isOpen()
+            && !Arrays.asList(connector.getServer().getConnectors()).contains(connector),
+            deadlineMillis);
+      }
+    } finally {
+      if (serverConfiguration != null) {
+        serverConfiguration.delete();
+      }
+      connectorFactoryRegistration.unregister();
+    }
+  }
+
+  @Test
+  public void testUnixSocketConnector() throws Exception {
+    UnixSocketConnector connector = findUnixSocketConnector(UNIX_SOCKET_CONNECTOR_NAME);
+    HttpClient httpClient =
+        new HttpClient(new HttpClientTransportOverUnixSockets(connector.getUnixSocket()), null);
+    httpClient.start();
+    try {
+      ContentResponse contentResponse = httpClient.GET("http://localhost/sample/echoremote");
+
+      Assert.assertEquals(200, contentResponse.getStatus());
+      JSONObject jsonObject = new JSONObject(contentResponse.getContentAsString());
+      Assert.assertEquals("localhost", jsonObject.getString("serverName"));
+      Assert.assertEquals(false, Boolean.valueOf(jsonObject.get("secure").toString()));
+    } finally {
+      httpClient.stop();
+    }
+  }
+
+  /**
+   * Replaces the Unix socket connector with a connector of another factory on the same path while
+   * make-before-break and draining are enabled on the server. The new connector must be able to
+   * bind the path and the socket file must survive the stopping of the old connector.
+   */
+  @Test
+  public void testUnixSocketConnectorReplacedOnSamePath() throws Exception {
+    UnixSocketConnector oldConnector = findUnixSocketConnector(UNIX_SOCKET_CONNECTOR_NAME);
+    String path = oldConnector.getUnixSocket();
+
+    Configuration serverConfiguration =
+        this.configurationAdmin.getConfiguration(JettyTestSupport.JETTY_SERVER_PID, null);
+    Dictionary<String, Object> properties = serverConfiguration.getProperties();
+    String clauseKey = JettyServerConstants.ATTR_UNIX_SOCKET_CONNECTOR_FACTORIES + ".clause";
+    Object originalClauses = properties.get(clauseKey);
+    try {
+      properties.put(clauseKey, new String[] {
+          "unixsocket;" + JettyServerConstants.CONNECTOR_REF_CLAUSE_ATTR_PATH + "=" + path
+              + ";filter:="
+              + JettyTestSupport.pidFilter(UNIX_SOCKET_REPLACEMENT_CONNECTOR_FACTORY_PID) });
+      serverConfiguration.update(properties);
+
+      long deadlineMillis = JettyTestSupport.deadlineMillis();
+      JettyTestSupport.await("the replacement Unix socket connector is started", () -> {
+        UnixSocketConnector connector =
+            findUnixSocketConnectorIfExists(UNIX_SOCKET_REPLACEMENT_CONNECTOR_NAME);
+        return connector != null && connector.isStarted();
+      }, deadlineMillis);
+      Assert.assertEquals(path,
+          findUnixSocketConnector(UNIX_SOCKET_REPLACEMENT_CONNECTOR_NAME).getUnixSocket());
+      Assert.assertEquals(200, getEchoRemoteOverUnixSocket(path).getStatus());
+
+      JettyTestSupport.await("the old Unix socket connector is stopped", oldConnector::isStopped,
+          deadlineMillis);
+      Assert.assertTrue(new File(path).exists());
+      Assert.assertEquals(200, getEchoRemoteOverUnixSocket(path).getStatus());
+    } finally {
+      properties.put(clauseKey, originalClauses);
+      serverConfiguration.update(properties);
+      JettyTestSupport.await("the original Unix socket connector is started again", () -> {
+        UnixSocketConnector connector = findUnixSocketConnectorIfExists(UNIX_SOCKET_CONNECTOR_NAME);
+        return connector != null && connector.isStarted();
+      }, JettyTestSupport.deadlineMillis());
+    }
+  }
+}
@@ -0,0 +1,439 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.http.HostPortHttpField;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpScheme;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.http.MetaData;
+import org.eclipse.jetty.http2.ErrorCode;
+import org.eclipse.jetty.http2.Flags;
+import org.eclipse.jetty.http2.HTTP2Session;
+import org.eclipse.jetty.http2.api.Session;
+import org.eclipse.jetty.http2.api.Stream;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.client.http.HttpClientTransportOverHTTP2;
+import org.eclipse.jetty.http2.frames.DataFrame;
+import org.eclipse.jetty.http2.frames.FrameType;
+import org.eclipse.jetty.http2.frames.GoAwayFrame;
+import org.eclipse.jetty.http2.frames.HeadersFrame;
+import org.eclipse.jetty.http2.frames.SettingsFrame;
+import org.eclipse.jetty.server.NetworkConnector;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.FuturePromise;
+import org.everit.jetty.server.ecm.HttpConnectionFactoryFactoryConstants;
+import org.everit.osgi.dev.testrunner.EOSGiTestClass;
+import org.everit.osgi.dev.testrunner.TestRunnerConstants;
+import org.everit.osgi.ecm.annotation.Activate;
+import org.everit.osgi.ecm.annotation.Component;
+import org.everit.osgi.ecm.annotation.ConfigurationPolicy;
+import org.everit.osgi.ecm.annotation.Service;
+import org.everit.osgi.ecm.annotation.ServiceRef;
+import org.everit.osgi.ecm.annotation.attribute.StringAttribute;
+import org.everit.osgi.ecm.annotation.attribute.StringAttributes;
+import org.everit.osgi.ecm.extender.ExtendComponent;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.service.cm.Configuration;
+import org.osgi.service.cm.ConfigurationAdmin;
+
+/**
+ * Tests HTTP/2 over TLS and plain text connections.
+ */
+@ExtendComponent
+@Component(configurationPolicy = ConfigurationPolicy.IGNORE)
+@StringAttributes({
+    @StringAttribute(attributeId = TestRunnerConstants.SERVICE_PROPERTY_TEST_ID,
+        defaultValue = "Http2Test"),
+    @StringAttribute(attributeId = TestRunnerConstants.SERVICE_PROPERTY_TESTRUNNER_ENGINE,
+        defaultValue = "junit4") })
+@EOSGiTestClass
+@Service
+public class Http2Test {
+
+  private static final int FRAME_HEADER_LENGTH = 9;
+
+  private static final String H2_TLS_CONNECTOR_NAME = "h2tls";
+
+  /**
+   * The connection preface of the client and an empty SETTINGS frame.
+   */
+  private static final byte[] H2C_CLIENT_PREFACE;
+
+  /**
+   * The base64url encoded payload of a SETTINGS frame with SETTINGS_MAX_CONCURRENT_STREAMS=100 and
+   * SETTINGS_INITIAL_WINDOW_SIZE=65535.
+   */
+  private static final String H2C_UPGRADE_SETTINGS = "AAMAAABkAAQAAP__";
+
+  private static final int H2C_UPGRADE_STREAM_ID = 1;
+
+  private static final int REQUEST_LIMIT = 2;
+
+  private static final String REQUEST_LIMIT_CONNECTOR_NAME = "requestlimit";
+
+  private static final int UPDATED_INITIAL_SESSION_RECV_WINDOW = 2 * 1024 * 1024;
+
+  private static final int UPDATED_INITIAL_STREAM_RECV_WINDOW = 1024 * 1024;
+
+  private static final int UPDATED_MAX_CONCURRENT_STREAMS = 64;
+
+  static {
+    byte[] preface = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    H2C_CLIENT_PREFACE = new byte[preface.length + FRAME_HEADER_LENGTH];
+    System.arraycopy(preface, 0, H2C_CLIENT_PREFACE, 0, preface.length);
+    H2C_CLIENT_PREFACE[preface.length + 3] = (byte) FrameType.SETTINGS.getType();
+  }
+
+  /**
+   * Reads HTTP/2 frames until the end of the stream and returns the content of its DATA frames.
+   * Frames of other streams and the connection are skipped.
+   */
+  private static String readHttp2StreamContent(final DataInputStream inputStream,
+      final int streamId) throws IOException {
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    boolean headersReceived = false;
+    boolean endStream = false;
+    while (!endStream) {
+      int length = (inputStream.readUnsignedByte() << 16) | inputStream.readUnsignedShort();
+      int type = inputStream.readUnsignedByte();
+      int flags = inputStream.readUnsignedByte();
+      int frameStreamId = inputStream.readInt() & Integer.MAX_VALUE;
+      byte[] payload = new byte[length];
+      inputStream.readFully(payload);
+      if (frameStreamId != streamId) {
+        continue;
+      }
+      if (type == FrameType.HEADERS.getType()) {
+        headersReceived = true;
+      } else if (type == FrameType.DATA.getType()) {
+        content.write(payload);
+      }
+      endStream = (flags & Flags.END_STREAM) != 0;
+    }
+    Assert.assertTrue("No HEADERS frame on stream " + streamId, headersReceived);
+    return new String(content.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private static void writeH2cUpgradeRequest(final Socket socket) throws IOException {
+    OutputStream outputStream = socket.getOutputStream();
+    outputStream.write(("GET " + JettyTestSupport.TEXT_SERVER_PATH + " HTTP/1.1\r\n"
+        + "Host: localhost\r\n"
+        + "Connection: Upgrade, HTTP2-Settings\r\n"
+        + "Upgrade: h2c\r\n"
+        + "HTTP2-Settings: " + H2C_UPGRADE_SETTINGS + "\r\n"
+        + "\r\n").getBytes(StandardCharsets.US_ASCII));
+    outputStream.flush();
+  }
+
+  private ConfigurationAdmin configurationAdmin;
+
+  private Server server;
+
+  private JettyTestSupport support;
+
+  @Activate
+  public void activate(final BundleContext bundleContext) {
+    this.support = new JettyTestSupport(bundleContext, this.configurationAdmin);
+  }
+
+  @ServiceRef(defaultValue = "")
+  public void setConfigurationAdmin(final ConfigurationAdmin configurationAdmin) {
+    this.configurationAdmin = configurationAdmin;
+  }
+
+  // Tests start further JettyServer components, so the filter must select the configured one
+  @ServiceRef(defaultValue = "(" + Constants.SERVICE_PID + "=" + JettyTestSupport.JETTY_SERVER_PID
+      + ")")
+  public void setServer(final Server server) {
+    this.server = server;
+  }
+
+  private Configuration createH2cUpgradeHttpConfiguration(final boolean h2cUpgrade)
+      throws IOException {
+    Dictionary<String, Object> httpProperties = new Hashtable<>();
+    httpProperties.put(HttpConnectionFactoryFactoryConstants.ATTR_H2C_UPGRADE, h2cUpgrade);
+    return this.support.createConfiguration(
+        HttpConnectionFactoryFactoryConstants.SERVICE_FACTORY_PID, httpProperties);
+  }
+
+  /**
+   * Sends an HTTP/1.1 request with an <code>Upgrade: h2c</code> header. The connection must be
+   * switched to HTTP/2 with a 101 response, and the response of the request must arrive on the
+   * first HTTP/2 stream.
+   */
+  @Test
+  public void testH2cUpgrade() throws Exception {
+    Configuration httpConfiguration = createH2cUpgradeHttpConfiguration(true);
+    Configuration connectorConfiguration = this.support.createServerConnectorConfiguration(
+        new Hashtable<>(), httpConfiguration.getPid());
+    Server h2cServer = new Server();
+    try {
+      NetworkConnector connector = this.support.startTextServer(h2cServer, connectorConfiguration);
+      try (Socket socket = new Socket(InetAddress.getLocalHost(), connector.getLocalPort())) {
+        socket.setSoTimeout(
+            (int) TimeUnit.SECONDS.toMillis(JettyTestSupport.REQUEST_TIMEOUT_SECONDS));
+        writeH2cUpgradeRequest(socket);
+
+        DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+        String statusLine = JettyTestSupport.readHttpLine(inputStream);
+        Assert.assertTrue(statusLine, statusLine.contains(" 101 "));
+        String line = JettyTestSupport.readHttpLine(inputStream);
+        while (!line.isEmpty()) {
+          line = JettyTestSupport.readHttpLine(inputStream);
+        }
+
+        socket.getOutputStream().write(H2C_CLIENT_PREFACE);
+        socket.getOutputStream().flush();
+        Assert.assertEquals("text", readHttp2StreamContent(inputStream, H2C_UPGRADE_STREAM_ID));
+      }
+    } finally {
+      h2cServer.stop();
+      connectorConfiguration.delete();
+      httpConfiguration.delete();
+    }
+  }
+
+  /**
+   * Sends an HTTP/1.1 request with an <code>Upgrade: h2c</code> header to a connector that does
+   * not allow the upgrade. The request must be served over HTTP/1.1.
+   */
+  @Test
+  public void testH2cUpgradeRefusedWhenDisabled() throws Exception {
+    Configuration httpConfiguration = createH2cUpgradeHttpConfiguration(false);
+    Configuration connectorConfiguration = this.support.createServerConnectorConfiguration(
+        new Hashtable<>(), httpConfiguration.getPid());
+    Server h2cServer = new Server();
+    try {
+      NetworkConnector connector = this.support.startTextServer(h2cServer, connectorConfiguration);
+      try (Socket socket = new Socket(InetAddress.getLocalHost(), connector.getLocalPort())) {
+        socket.setSoTimeout(
+            (int) TimeUnit.SECONDS.toMillis(JettyTestSupport.REQUEST_TIMEOUT_SECONDS));
+        writeH2cUpgradeRequest(socket);
+        Assert.assertEquals("text", JettyTestSupport.readResponseContent(socket));
+      }
+    } finally {
+      h2cServer.stop();
+      connectorConfiguration.delete();
+      httpConfiguration.delete();
+    }
+  }
+
+  @Test
+  public void testHttp2OverTlsWithAlpn() throws Exception {
+    HttpClient httpClient = new HttpClient(new HttpClientTransportOverHTTP2(new HTTP2Client()),
+        JettyTestSupport.createTrustAllSslContextFactory());
+    httpClient.start();
+    try {
+      ContentResponse contentResponse = httpClient
+          .GET(JettyTestSupport.getHttpsEchoRemoteUrl(this.server, H2_TLS_CONNECTOR_NAME));
+
+      Assert.assertEquals(HttpVersion.HTTP_2, contentResponse.getVersion());
+      JSONObject jsonObject = new JSONObject(contentResponse.getContentAsString());
+      Assert.assertEquals(true, Boolean.valueOf(jsonObject.get("secure").toString()));
+    } finally {
+      httpClient.stop();
+    }
+  }
+
+  /**
+   * A client that does not offer any protocol via ALPN gets the default protocol of the ALPN
+   * connection factory.
+   */
+  @Test
+  public void testHttp2OverTlsWithAlpnFallsBackToHttp11() throws Exception {
+    HttpClient httpClient = JettyTestSupport.createTrustAllHttpsClient();
+    try {
+      ContentResponse contentResponse = httpClient
+          .GET(JettyTestSupport.getHttpsEchoRemoteUrl(this.server, H2_TLS_CONNECTOR_NAME));
+
+      Assert.assertEquals(HttpVersion.HTTP_1_1, contentResponse.getVersion());
+      Assert.assertEquals(200, contentResponse.getStatus());
+    } finally {
+      httpClient.stop();
+    }
+  }
+
+  /**
+   * Changes the HTTP/2 settings of a connection factory while an h2c session is open. The session
+   * must get the new settings and the increase of the session receive window without being
+   * closed.
+   */
+  @Test
+  public void testHttp2SettingsUpdateReachesOpenSession() throws Exception {
+    Dictionary<String, Object> http2Properties = new Hashtable<>();
+    http2Properties.put(HttpConnectionFactoryFactoryConstants.ATTR_H2C, true);
+    Configuration http2Configuration = this.support.createConfiguration(
+        HttpConnectionFactoryFactoryConstants.SERVICE_FACTORY_PID, http2Properties);
+    Configuration connectorConfiguration = this.support.createServerConnectorConfiguration(
+        new Hashtable<>(), JettyTestSupport.HTTP_CONNECTION_FACTORY_PID,
+        http2Configuration.getPid());
+    Server http2Server = new Server();
+    HTTP2Client http2Client = new HTTP2Client();
+    try {
+      NetworkConnector connector =
+          this.support.startTextServer(http2Server, connectorConfiguration);
+      http2Client.start();
+      BlockingQueue<SettingsFrame> settingsFrames = new LinkedBlockingQueue<>();
+      FuturePromise<Session> sessionPromise = new FuturePromise<>();
+      http2Client.connect(
+          new InetSocketAddress(InetAddress.getLocalHost(), connector.getLocalPort()),
+          new Session.Listener.Adapter() {
+            @Override
+            public void onSettings(final Session session, final SettingsFrame frame) {
+              settingsFrames.add(frame);
+            }
+          }, sessionPromise);
+      HTTP2Session session = (HTTP2Session) sessionPromise
+          .get(JettyTestSupport.REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      Assert.assertNotNull("Preface SETTINGS frame",
+          settingsFrames.poll(JettyTestSupport.REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+      long deadlineMillis = JettyTestSupport.deadlineMillis();
+      JettyTestSupport.await("the session receive window of the preface is received",
+          () -> session.getSendWindow()
+              == HttpConnectionFactoryFactoryConstants.DEFAULT_INITIAL_SESSION_RECV_WINDOW,
+          deadlineMillis);
+
+      Dictionary<String, Object> properties = http2Configuration.getProperties();
+      properties.put(HttpConnectionFactoryFactoryConstants.ATTR_MAX_CONCURRENT_STREAMS,
+          UPDATED_MAX_CONCURRENT_STREAMS);
+      properties.put(HttpConnectionFactoryFactoryConstants.ATTR_INITIAL_STREAM_RECV_WINDOW,
+          UPDATED_INITIAL_STREAM_RECV_WINDOW);
+      properties.put(HttpConnectionFactoryFactoryConstants.ATTR_INITIAL_SESSION_RECV_WINDOW,
+          UPDATED_INITIAL_SESSION_RECV_WINDOW);
+      http2Configuration.update(properties);
+
+      SettingsFrame settingsFrame =
+          settingsFrames.poll(JettyTestSupport.REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      Assert.assertNotNull("SETTINGS frame of the update", settingsFrame);
+      Assert.assertEquals(Integer.valueOf(UPDATED_MAX_CONCURRENT_STREAMS),
+          settingsFrame.getSettings().get(SettingsFrame.MAX_CONCURRENT_STREAMS));
+      Assert.assertEquals(Integer.valueOf(UPDATED_INITIAL_STREAM_RECV_WINDOW),
+          settingsFrame.getSettings().get(SettingsFrame.INITIAL_WINDOW_SIZE));
+      JettyTestSupport.await("the WINDOW_UPDATE frame of the update is received",
+          () -> session.getSendWindow() == UPDATED_INITIAL_SESSION_RECV_WINDOW, deadlineMillis);
+      Assert.assertFalse(session.isClosed());
+    } finally {
+      http2Client.stop();
+      http2Server.stop();
+      connectorConfiguration.delete();
+      http2Configuration.delete();
+    }
+  }
+
+  /**
+   * Sends requests on one HTTP/2 session of a connector that has a request limit and checks that
+   * the server sends a GOAWAY frame after the last allowed request.
+   */
+  @Test
+  public void testMaxRequestsPerConnectionSendsGoAway() throws Exception {
+    InetAddress localHost = InetAddress.getLocalHost();
+    @SuppressWarnings("resource")
+    NetworkConnector connector =
+        JettyTestSupport.findNetworkConnector(this.server, REQUEST_LIMIT_CONNECTOR_NAME);
+
+    HTTP2Client http2Client = new HTTP2Client();
+    http2Client.start();
+    try {
+      CompletableFuture<GoAwayFrame> goAwayFuture = new CompletableFuture<>();
+      FuturePromise<Session> sessionPromise = new FuturePromise<>();
+      http2Client.connect(new InetSocketAddress(localHost, connector.getLocalPort()),
+          new Session.Listener.Adapter() {
+            @Override
+            public void onGoAway(final Session session, final GoAwayFrame frame) {
+              goAwayFuture.complete(frame);
+            }
+          }, sessionPromise);
+      Session session =
+          sessionPromise.get(JettyTestSupport.REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+      for (int i = 1; i <= REQUEST_LIMIT; i++) {
+        Assert.assertFalse("GOAWAY before request " + i, goAwayFuture.isDone());
+        CompletableFuture<Integer> statusFuture = new CompletableFuture<>();
+        MetaData.Request request = new MetaData.Request(HttpMethod.GET.asString(),
+            HttpScheme.HTTP, new HostPortHttpField(localHost.getHostName(),
+                connector.getLocalPort()),
+            "/sample/echoremote", HttpVersion.HTTP_2, new HttpFields());
+        session.newStream(new HeadersFrame(request, null, true), new FuturePromise<>(),
+            new Stream.Listener.Adapter() {
+              @Override
+              public void onData(final Stream stream, final DataFrame frame,
+                  final Callback callback) {
+                callback.succeeded();
+              }
+
+              @Override
+              public void onHeaders(final Stream stream, final HeadersFrame frame) {
+                MetaData metaData = frame.getMetaData();
+                if (metaData instanceof MetaData.Response) {
+                  statusFuture.complete(((MetaData.Response) metaData).getStatus());
+                }
+              }
+            });
+        Assert.assertEquals(200, statusFuture
+            .get(JettyTestSupport.REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS).intValue());
+      }
+
+      GoAwayFrame goAwayFrame =
+          goAwayFuture.get(JettyTestSupport.REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      Assert.assertEquals(ErrorCode.NO_ERROR.code, goAwayFrame.getError());
+    } finally {
+      http2Client.stop();
+    }
+  }
+
+  @Test
+  public void testPlainTextHttp2Support() throws Exception {
+    int port = JettyTestSupport.findPlainHttpPort(this.server);
+    InetAddress localHost = InetAddress.getLocalHost();
+    HttpClient httpClient = new HttpClient(new HttpClientTransportOverHTTP2(new HTTP2Client()));
+    httpClient.start();
+
+    ContentResponse contentResponse =
+        httpClient
+            .GET("http://" + localHost.getHostName() + ":" + port + "/sample/echoremote");
+
+    JSONObject jsonObject = new JSONObject(contentResponse.getContentAsString());
+
+    httpClient.stop();
+
+    Assert.assertEquals(localHost.getHostName(), jsonObject.getString("serverName"));
+    Assert.assertEquals(String.valueOf(port), jsonObject.get("serverPort").toString());
+  }
+}
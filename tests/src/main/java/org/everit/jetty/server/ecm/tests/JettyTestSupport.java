@@ -0,0 +1,373 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm.tests;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.NetworkConnector;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.everit.jetty.server.NetworkConnectorFactory;
+import org.everit.jetty.server.ecm.JettyServerConstants;
+import org.everit.jetty.server.ecm.ServerConnectorFactoryConstants;
+import org.everit.jetty.server.ecm.ServletContextHandlerFactoryConstants;
+import org.junit.Assert;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.cm.Configuration;
+import org.osgi.service.cm.ConfigurationAdmin;
+import org.osgi.util.tracker.ServiceTracker;
+
+/**
+ * Helpers that are shared by the test components. The instance methods create the
+ * configurations and services of a test via the context of the test bundle.
+ */
+final class JettyTestSupport {
+
+  static final long AWAIT_POLL_INTERVAL_MILLIS = 10;
+
+  static final String H2C_CONNECTION_FACTORY_PID =
+      "org.everit.jetty.server.ecm.HttpConnectionFactoryFactory."
+          + "09fb62a2-4ae0-49ef-935c-eb8acc9a9318";
+
+  static final String HTTP_CONNECTION_FACTORY_PID =
+      "org.everit.jetty.server.ecm.HttpConnectionFactoryFactory."
+          + "86515ed1-2b01-479e-943d-afd5d7f53e7d";
+
+  static final String JETTY_SERVER_PID =
+      "org.everit.jetty.server.ecm.JettyServer.55cc38a0-d1ca-4554-b698-bbd147d6ef3f";
+
+  static final int REQUEST_TIMEOUT_SECONDS = 10;
+
+  static final long SERVICE_TIMEOUT_MILLIS = 30000;
+
+  static final String TEXT_SERVER_PATH = "/text/content";
+
+  /**
+   * Waits until the condition is fulfilled and fails the test if the deadline passes first.
+   */
+  static void await(final String description, final BooleanSupplier condition,
+      final long deadlineMillis) throws InterruptedException {
+    while (!condition.getAsBoolean()) {
+      if (System.currentTimeMillis() > deadlineMillis) {
+        Assert.fail("Timeout while waiting until " + description);
+      }
+      Thread.sleep(AWAIT_POLL_INTERVAL_MILLIS);
+    }
+  }
+
+  static HttpClient createTrustAllHttpsClient() throws Exception {
+    HttpClient httpClient = new HttpClient(createTrustAllSslContextFactory());
+    httpClient.start();
+    return httpClient;
+  }
+
+  static SslContextFactory.Client createTrustAllSslContextFactory() {
+    SslContextFactory.Client sslContextFactory = new SslContextFactory.Client(true);
+    sslContextFactory.setEndpointIdentificationAlgorithm(null);
+    return sslContextFactory;
+  }
+
+  /**
+   * Returns the deadline of an operation that should finish within
+   * {@link #REQUEST_TIMEOUT_SECONDS}.
+   */
+  static long deadlineMillis() {
+    return System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(REQUEST_TIMEOUT_SECONDS);
+  }
+
+  static NetworkConnector findNetworkConnector(final Server server, final String name) {
+    for (Connector connector : server.getConnectors()) {
+      if ((connector instanceof NetworkConnector) && name.equals(connector.getName())) {
+        return (NetworkConnector) connector;
+      }
+    }
+    throw new AssertionError("No network connector found with name " + name);
+  }
+
+  /**
+   * Returns the port of the first plain HTTP connector of the server that is not dedicated to a
+   * test by its name.
+   */
+  static int findPlainHttpPort(final Server server) {
+    for (Connector connector : server.getConnectors()) {
+      // Unix socket connectors do not have a port
+      if (connector instanceof NetworkConnector) {
+        @SuppressWarnings("resource")
+        NetworkConnector networkConnector = (NetworkConnector) connector;
+        List<String> protocols = networkConnector.getProtocols();
+        // Named connectors are configured for dedicated tests
+        if (networkConnector.getName() == null && !protocols.contains("ssl")
+            && !protocols.contains("proxy")) {
+          return networkConnector.getLocalPort();
+        }
+      }
+    }
+    throw new AssertionError("No simple http network connector found");
+  }
+
+  static String getHttpsEchoRemoteUrl(final Server server, final String connectorName)
+      throws IOException {
+    @SuppressWarnings("resource")
+    NetworkConnector connector = findNetworkConnector(server, connectorName);
+    return "https://" + InetAddress.getLocalHost().getHostName() + ":" + connector.getLocalPort()
+        + "/sample/echoremote";
+  }
+
+  /**
+   * Reads a managed attribute of a Jetty bean by its getter. The connection factories of the
+   * components are internal classes, so their statistics are read the way JMX reads them.
+   */
+  static Object getManagedAttribute(final Object bean, final String getterName)
+      throws ReflectiveOperationException {
+    return bean.getClass().getMethod(getterName).invoke(bean);
+  }
+
+  static HttpURLConnection openConnection(final URL url) throws IOException {
+    URLConnection urlConnection = url.openConnection();
+    if (!(urlConnection instanceof HttpURLConnection)) {
+      throw new RuntimeException("urlConnection should be instasnce of HttpUrlConnection");
+    }
+    return (HttpURLConnection) urlConnection;
+  }
+
+  static String pidFilter(final String pid) {
+    return "(" + Constants.SERVICE_PID + "=" + pid + ")";
+  }
+
+  static String readHttpLine(final InputStream inputStream) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    int b = inputStream.read();
+    while (b != '\n') {
+      if (b < 0) {
+        throw new EOFException("Connection closed while reading the response");
+      }
+      if (b != '\r') {
+        sb.append((char) b);
+      }
+      b = inputStream.read();
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Reads a response with a <code>Content-Length</code> header from the connection without
+   * reading ahead, so the connection can be used for further requests.
+   *
+   * @return The content of the response.
+   */
+  static String readResponseContent(final Socket socket) throws IOException {
+    DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+    String statusLine = readHttpLine(inputStream);
+    Assert.assertTrue(statusLine, statusLine.contains(" 200 "));
+    String contentLengthPrefix = HttpHeader.CONTENT_LENGTH.asString() + ":";
+    int contentLength = 0;
+    String line = readHttpLine(inputStream);
+    while (!line.isEmpty()) {
+      if (line.regionMatches(true, 0, contentLengthPrefix, 0, contentLengthPrefix.length())) {
+        contentLength = Integer.parseInt(line.substring(contentLengthPrefix.length()).trim());
+      }
+      line = readHttpLine(inputStream);
+    }
+    byte[] content = new byte[contentLength];
+    inputStream.readFully(content);
+    return new String(content, StandardCharsets.UTF_8);
+  }
+
+  static String readResponseFromUrlConnection(final HttpURLConnection urlConnection)
+      throws IOException {
+    urlConnection.connect();
+    InputStream inputStream = urlConnection.getInputStream();
+    StringBuilder sb = new StringBuilder();
+    try (BufferedReader reader =
+        new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+
+      boolean first = true;
+      String line = reader.readLine();
+      while (line != null) {
+        if (!first) {
+          sb.append("\n");
+        }
+        sb.append(line);
+        line = reader.readLine();
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Sends a request to the servlet of {@link #startTextServer(Server, Configuration)} and returns
+   * the content of the response.
+   *
+   * @param host
+   *          The value of the <code>Host</code> header or <code>null</code> to use
+   *          <code>localhost</code>.
+   */
+  static String requestText(final Socket socket, final String host) throws IOException {
+    writeTextRequest(socket, host);
+    return readResponseContent(socket);
+  }
+
+  /**
+   * Creates a servlet clause of a servlet context that maps the servlet services with the
+   * property to the URL pattern.
+   */
+  static String servletClause(final String name, final String urlPattern,
+      final String serviceProperty, final Object value) {
+    return name + ";"
+        + ServletContextHandlerFactoryConstants.CommonConstants.CLAUSE_ATTR_URL_PATTERN + "="
+        + urlPattern + ";filter:=(" + serviceProperty + "=" + value + ")";
+  }
+
+  static BooleanSupplier servletMapped(final ServletContextHandler servletContextHandler,
+      final String pathSpec) {
+    return () -> servletContextHandler.getServletHandler().getServletMapping(pathSpec) != null;
+  }
+
+  static void writeTextRequest(final Socket socket, final String host) throws IOException {
+    OutputStream outputStream = socket.getOutputStream();
+    outputStream.write(("GET " + TEXT_SERVER_PATH + " HTTP/1.1\r\nHost: "
+        + ((host == null) ? "localhost" : host) + "\r\n\r\n")
+            .getBytes(StandardCharsets.US_ASCII));
+    outputStream.flush();
+  }
+
+  private final BundleContext bundleContext;
+
+  private final ConfigurationAdmin configurationAdmin;
+
+  JettyTestSupport(final BundleContext bundleContext,
+      final ConfigurationAdmin configurationAdmin) {
+    this.bundleContext = bundleContext;
+    this.configurationAdmin = configurationAdmin;
+  }
+
+  <S> S awaitService(final Class<S> serviceClass, final String pid) throws Exception {
+    ServiceTracker<S, S> serviceTracker =
+        new ServiceTracker<>(this.bundleContext, this.bundleContext.createFilter("(&("
+            + Constants.OBJECTCLASS + "=" + serviceClass.getName() + ")" + pidFilter(pid) + ")"),
+            null);
+    serviceTracker.open();
+    try {
+      S service = serviceTracker.waitForService(SERVICE_TIMEOUT_MILLIS);
+      Assert.assertNotNull(service);
+      return service;
+    } finally {
+      serviceTracker.close();
+    }
+  }
+
+  /**
+   * Creates a factory configuration of a component with the properties.
+   */
+  Configuration createConfiguration(final String factoryPid,
+      final Dictionary<String, Object> properties) throws IOException {
+    Configuration configuration =
+        this.configurationAdmin.createFactoryConfiguration(factoryPid, null);
+    configuration.update(properties);
+    return configuration;
+  }
+
+  /**
+   * Creates a JettyServer component that has one network connector of the connector factory.
+   */
+  Configuration createJettyServerConfiguration(final Dictionary<String, Object> properties,
+      final Configuration connectorConfiguration) throws IOException {
+    properties.put(JettyServerConstants.ATTR_NETWORK_CONNECTOR_FACTORIES + ".clause",
+        new String[] { "test;filter:=" + pidFilter(connectorConfiguration.getPid()) });
+    return createConfiguration(JettyServerConstants.SERVICE_FACTORY_PID, properties);
+  }
+
+  /**
+   * Creates a ServerConnectorFactory component with the connection factory factories in the
+   * order of the pids.
+   */
+  Configuration createServerConnectorConfiguration(final Dictionary<String, Object> properties,
+      final String... connectionFactoryFactoryPids) throws IOException {
+    String[] connectionFactoryFactoryFilters = new String[connectionFactoryFactoryPids.length];
+    for (int i = 0; i < connectionFactoryFactoryPids.length; i++) {
+      connectionFactoryFactoryFilters[i] = pidFilter(connectionFactoryFactoryPids[i]);
+    }
+    properties.put(ServerConnectorFactoryConstants.ATTR_CONNECTION_FACTORY_FACTORIES + ".target",
+        connectionFactoryFactoryFilters);
+    return createConfiguration(ServerConnectorFactoryConstants.SERVICE_FACTORY_PID, properties);
+  }
+
+  /**
+   * Creates a ServletContextHandlerFactory component without sessions.
+   */
+  Configuration createServletContextConfiguration(final Dictionary<String, Object> properties,
+      final String... servletClauses) throws IOException {
+    properties.put(ServletContextHandlerFactoryConstants.ATTR_SERVLETS + ".clause",
+        servletClauses);
+    properties.put(ServletContextHandlerFactoryConstants.ATTR_SESSIONS, false);
+    return createConfiguration(ServletContextHandlerFactoryConstants.SERVICE_FACTORY_PID,
+        properties);
+  }
+
+  /**
+   * Registers a service with one service property, so it can be selected by the filters of the
+   * test configurations.
+   */
+  <S> ServiceRegistration<S> registerService(final Class<S> serviceClass, final S service,
+      final String serviceProperty, final Object value) {
+    Dictionary<String, Object> properties = new Hashtable<>();
+    properties.put(serviceProperty, value);
+    return this.bundleContext.registerService(serviceClass, service, properties);
+  }
+
+  /**
+   * Starts the server with a connector of the factory and a servlet that responds with
+   * <code>text</code> at {@link #TEXT_SERVER_PATH}.
+   *
+   * @return The started connector.
+   */
+  NetworkConnector startTextServer(final Server textServer,
+      final Configuration connectorConfiguration) throws Exception {
+    NetworkConnectorFactory networkConnectorFactory =
+        awaitService(NetworkConnectorFactory.class, connectorConfiguration.getPid());
+    NetworkConnector connector =
+        networkConnectorFactory.createNetworkConnector(textServer, null, 0);
+    textServer.addConnector(connector);
+    ServletContextHandler servletContextHandler = new ServletContextHandler(textServer, "/text");
+    servletContextHandler.addServlet(new ServletHolder(new TextServlet("text")), "/content");
+    textServer.start();
+    return connector;
+  }
+}
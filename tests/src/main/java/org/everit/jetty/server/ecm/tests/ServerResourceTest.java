@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm.tests;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.Servlet;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.LowResourceMonitor;
+import org.eclipse.jetty.server.NetworkConnector;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.everit.jetty.server.ecm.ArrayByteBufferPoolFactoryConstants;
+import org.everit.jetty.server.ecm.JettyServerConstants;
+import org.everit.jetty.server.ecm.LowResourceMonitorFactoryConstants;
+import org.everit.jetty.server.ecm.QueuedThreadPoolFactoryConstants;
+import org.everit.osgi.dev.testrunner.EOSGiTestClass;
+import org.everit.osgi.dev.testrunner.TestRunnerConstants;
+import org.everit.osgi.ecm.annotation.Activate;
+import org.everit.osgi.ecm.annotation.Component;
+import org.everit.osgi.ecm.annotation.ConfigurationPolicy;
+import org.everit.osgi.ecm.annotation.Service;
+import org.everit.osgi.ecm.annotation.ServiceRef;
+import org.everit.osgi.ecm.annotation.attribute.StringAttribute;
+import org.everit.osgi.ecm.annotation.attribute.StringAttributes;
+import org.everit.osgi.ecm.extender.ExtendComponent;
+import org.junit.Assert;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.cm.Configuration;
+import org.osgi.service.cm.ConfigurationAdmin;
+
+/**
+ * Tests the thread pool, the buffer pool and the low resource monitor that servers get from
+ * their factories.
+ */
+@ExtendComponent
+@Component(configurationPolicy = ConfigurationPolicy.IGNORE)
+@StringAttributes({
+    @StringAttribute(attributeId = TestRunnerConstants.SERVICE_PROPERTY_TEST_ID,
+        defaultValue = "ServerResourceTest"),
+    @StringAttribute(attributeId = TestRunnerConstants.SERVICE_PROPERTY_TESTRUNNER_ENGINE,
+        defaultValue = "junit4") })
+@EOSGiTestClass
+@Service
+public class ServerResourceTest {
+
+  private static final int CONFIGURED_MAX_THREADS = 50;
+
+  private static final int CONFIGURED_MIN_THREADS = 5;
+
+  private static final int LOW_RESOURCES_IDLE_TIMEOUT_MILLIS = 10000;
+
+  private static final int LOW_RESOURCES_MAX_CONNECTIONS = 2;
+
+  private static final int LOW_RESOURCES_PERIOD_MILLIS = 100;
+
+  private static final String TEXT_SERVLET_PROPERTY = "jettyTextServlet";
+
+  private static boolean connectedEndPointsHaveIdleTimeout(final Connector connector,
+      final int connectionCount, final long idleTimeout) {
+    Collection<EndPoint> endPoints = connector.getConnectedEndPoints();
+    return endPoints.size() == connectionCount
+        && endPoints.stream().allMatch((endPoint) -> endPoint.getIdleTimeout() == idleTimeout);
+  }
+
+  private ConfigurationAdmin configurationAdmin;
+
+  private JettyTestSupport support;
+
+  @Activate
+  public void activate(final BundleContext bundleContext) {
+    this.support = new JettyTestSupport(bundleContext, this.configurationAdmin);
+  }
+
+  /**
+   * Creates a server with a connector of the plain HTTP connection factory that references the
+   * component of the resource configuration.
+   */
+  private Configuration createResourceServerConfiguration(final String referenceAttribute,
+      final Configuration resourceConfiguration, final Configuration connectorConfiguration)
+      throws IOException {
+    Dictionary<String, Object> properties = new Hashtable<>();
+    properties.put(referenceAttribute + ".target",
+        JettyTestSupport.pidFilter(resourceConfiguration.getPid()));
+    return this.support.createJettyServerConfiguration(properties, connectorConfiguration);
+  }
+
+  @ServiceRef(defaultValue = "")
+  public void setConfigurationAdmin(final ConfigurationAdmin configurationAdmin) {
+    this.configurationAdmin = configurationAdmin;
+  }
+
+  /**
+   * Starts two servers that reference the same buffer pool factory. The connectors of both servers
+   * must use the one pool of the factory.
+   */
+  @Test
+  public void testByteBufferPoolIsSharedByServers() throws Exception {
+    Configuration byteBufferPoolConfiguration = this.support.createConfiguration(
+        ArrayByteBufferPoolFactoryConstants.SERVICE_FACTORY_PID, new Hashtable<>());
+    Configuration connectorConfiguration = this.support.createServerConnectorConfiguration(
+        new Hashtable<>(), JettyTestSupport.HTTP_CONNECTION_FACTORY_PID);
+    List<Configuration> serverConfigurations = new ArrayList<>();
+    try {
+      for (int i = 0; i < 2; i++) {
+        serverConfigurations.add(createResourceServerConfiguration(
+            JettyServerConstants.ATTR_BYTE_BUFFER_POOL_FACTORY, byteBufferPoolConfiguration,
+            connectorConfiguration));
+      }
+
+      ByteBufferPool byteBufferPool = null;
+      for (Configuration serverConfiguration : serverConfigurations) {
+        Server sharingServer =
+            this.support.awaitService(Server.class, serverConfiguration.getPid());
+        if (byteBufferPool == null) {
+          byteBufferPool = sharingServer.getBean(ByteBufferPool.class);
+          Assert.assertNotNull(byteBufferPool);
+        }
+        Assert.assertSame(byteBufferPool, sharingServer.getBean(ByteBufferPool.class));
+        Assert.assertSame(byteBufferPool, sharingServer.getConnectors()[0].getByteBufferPool());
+      }
+    } finally {
+      for (Configuration serverConfiguration : serverConfigurations) {
+        serverConfiguration.delete();
+      }
+      connectorConfiguration.delete();
+      byteBufferPoolConfiguration.delete();
+    }
+  }
+
+  /**
+   * Starts a server that references a low resource monitor factory and opens more connections
+   * than the monitor allows. The open connections get the low resources idle timeout until the
+   * number of connections drops back to the threshold.
+   */
+  @Test
+  @SuppressWarnings("deprecation")
+  public void testLowResourceMonitorShortensIdleTimeout() throws Exception {
+    Dictionary<String, Object> monitorProperties = new Hashtable<>();
+    monitorProperties.put(LowResourceMonitorFactoryConstants.ATTR_PERIOD,
+        LOW_RESOURCES_PERIOD_MILLIS);
+    monitorProperties.put(LowResourceMonitorFactoryConstants.ATTR_MAX_CONNECTIONS,
+        LOW_RESOURCES_MAX_CONNECTIONS);
+    monitorProperties.put(LowResourceMonitorFactoryConstants.ATTR_LOW_RESOURCES_IDLE_TIMEOUT,
+        LOW_RESOURCES_IDLE_TIMEOUT_MILLIS);
+    Configuration monitorConfiguration = this.support.createConfiguration(
+        LowResourceMonitorFactoryConstants.SERVICE_FACTORY_PID, monitorProperties);
+    Configuration connectorConfiguration = this.support.createServerConnectorConfiguration(
+        new Hashtable<>(), JettyTestSupport.HTTP_CONNECTION_FACTORY_PID);
+    Configuration serverConfiguration = createResourceServerConfiguration(
+        JettyServerConstants.ATTR_LOW_RESOURCE_MONITOR_FACTORY, monitorConfiguration,
+        connectorConfiguration);
+    List<Socket> sockets = new ArrayList<>();
+    try {
+      Server lowResourceServer =
+          this.support.awaitService(Server.class, serverConfiguration.getPid());
+      LowResourceMonitor lowResourceMonitor = lowResourceServer.getBean(LowResourceMonitor.class);
+      Assert.assertNotNull(lowResourceMonitor);
+      Assert.assertEquals(LOW_RESOURCES_PERIOD_MILLIS, lowResourceMonitor.getPeriod());
+      Assert.assertEquals(LOW_RESOURCES_MAX_CONNECTIONS, lowResourceMonitor.getMaxConnections());
+      Assert.assertEquals(LOW_RESOURCES_IDLE_TIMEOUT_MILLIS,
+          lowResourceMonitor.getLowResourcesIdleTimeout());
+
+      NetworkConnector connector = (NetworkConnector) lowResourceServer.getConnectors()[0];
+      InetAddress localHost = InetAddress.getLocalHost();
+      for (int i = 0; i <= LOW_RESOURCES_MAX_CONNECTIONS; i++) {
+        sockets.add(new Socket(localHost, connector.getLocalPort()));
+      }
+      long deadlineMillis = JettyTestSupport.deadlineMillis();
+      JettyTestSupport.await("the connections get the low resources idle timeout",
+          () -> connectedEndPointsHaveIdleTimeout(connector, LOW_RESOURCES_MAX_CONNECTIONS + 1,
+              LOW_RESOURCES_IDLE_TIMEOUT_MILLIS),
+          deadlineMillis);
+      Assert.assertTrue(lowResourceMonitor.isLowOnResources());
+      Assert.assertEquals(1,
+          JettyTestSupport.getManagedAttribute(lowResourceMonitor, "getLowResourcesCount"));
+
+      sockets.remove(0).close();
+      JettyTestSupport.await("the connections get back the idle timeout of the connector",
+          () -> connectedEndPointsHaveIdleTimeout(connector, LOW_RESOURCES_MAX_CONNECTIONS,
+              connector.getIdleTimeout()),
+          deadlineMillis);
+      Assert.assertFalse(lowResourceMonitor.isLowOnResources());
+    } finally {
+      for (Socket socket : sockets) {
+        socket.close();
+      }
+      serverConfiguration.delete();
+      connectorConfiguration.delete();
+      monitorConfiguration.delete();
+    }
+  }
+
+  /**
+   * Starts a server that references a thread pool factory. The thread pool of the server must get
+   * the configured limits.
+   */
+  @Test
+  public void testThreadPoolFactoryAppliesThreadLimits() throws Exception {
+    Dictionary<String, Object> threadPoolProperties = new Hashtable<>();
+    threadPoolProperties.put(QueuedThreadPoolFactoryConstants.ATTR_MIN_THREADS,
+        CONFIGURED_MIN_THREADS);
+    threadPoolProperties.put(QueuedThreadPoolFactoryConstants.ATTR_MAX_THREADS,
+        CONFIGURED_MAX_THREADS);
+    Configuration threadPoolConfiguration = this.support.createConfiguration(
+        QueuedThreadPoolFactoryConstants.SERVICE_FACTORY_PID, threadPoolProperties);
+    Configuration connectorConfiguration = this.support.createServerConnectorConfiguration(
+        new Hashtable<>(), JettyTestSupport.HTTP_CONNECTION_FACTORY_PID);
+    Configuration serverConfiguration = createResourceServerConfiguration(
+        JettyServerConstants.ATTR_THREAD_POOL_FACTORY, threadPoolConfiguration,
+        connectorConfiguration);
+    try {
+      Server threadPoolServer =
+          this.support.awaitService(Server.class, serverConfiguration.getPid());
+      QueuedThreadPool threadPool = (QueuedThreadPool) threadPoolServer.getThreadPool();
+      Assert.assertEquals(CONFIGURED_MIN_THREADS, threadPool.getMinThreads());
+      Assert.assertEquals(CONFIGURED_MAX_THREADS, threadPool.getMaxThreads());
+      Assert.assertTrue(threadPool.getThreads() >= CONFIGURED_MIN_THREADS);
+    } finally {
+      serverConfiguration.delete();
+      connectorConfiguration.delete();
+      threadPoolConfiguration.delete();
+    }
+  }
+
+  /**
+   * Starts a server whose thread pool factory dispatches the requests to virtual threads and sends
+   * a request to it. On JVMs without virtual threads, the request is served by platform threads.
+   */
+  @Test
+  public void testVirtualThreadPoolServesRequests() throws Exception {
+    ServiceRegistration<Servlet> servletRegistration = this.support.registerService(
+        Servlet.class, new TextServlet("text"), TEXT_SERVLET_PROPERTY, "virtual");
+    Configuration contextConfiguration = this.support.createServletContextConfiguration(
+        new Hashtable<>(),
+        JettyTestSupport.servletClause("text", "/content", TEXT_SERVLET_PROPERTY, "virtual"));
+    Dictionary<String, Object> threadPoolProperties = new Hashtable<>();
+    threadPoolProperties.put(QueuedThreadPoolFactoryConstants.ATTR_VIRTUAL_THREADS, true);
+    Configuration threadPoolConfiguration = this.support.createConfiguration(
+        QueuedThreadPoolFactoryConstants.SERVICE_FACTORY_PID, threadPoolProperties);
+    Configuration connectorConfiguration = this.support.createServerConnectorConfiguration(
+        new Hashtable<>(), JettyTestSupport.HTTP_CONNECTION_FACTORY_PID);
+    Dictionary<String, Object> properties = new Hashtable<>();
+    properties.put(JettyServerConstants.ATTR_THREAD_POOL_FACTORY + ".target",
+        JettyTestSupport.pidFilter(threadPoolConfiguration.getPid()));
+    properties.put(JettyServerConstants.ATTR_SERVLET_CONTEXT_HANDLER_FACTORIES + ".clause",
+        new String[] { "text;" + JettyServerConstants.CONTEXT_CLAUSE_ATTR_CONTEXTPATH
+            + "=/text;filter:=" + JettyTestSupport.pidFilter(contextConfiguration.getPid()) });
+    Configuration serverConfiguration =
+        this.support.createJettyServerConfiguration(properties, connectorConfiguration);
+    try {
+      Server virtualThreadServer =
+          this.support.awaitService(Server.class, serverConfiguration.getPid());
+      @SuppressWarnings("resource")
+      NetworkConnector connector = (NetworkConnector) virtualThreadServer.getConnectors()[0];
+      try (Socket socket = new Socket(InetAddress.getLocalHost(), connector.getLocalPort())) {
+        socket.setSoTimeout((int) TimeUnit.SECONDS.toMillis(
+            JettyTestSupport.REQUEST_TIMEOUT_SECONDS));
+        Assert.assertEquals("text", JettyTestSupport.requestText(socket, null));
+      }
+    } finally {
+      serverConfiguration.delete();
+      connectorConfiguration.delete();
+      threadPoolConfiguration.delete();
+      contextConfiguration.delete();
+      servletRegistration.unregister();
+    }
+  }
+}
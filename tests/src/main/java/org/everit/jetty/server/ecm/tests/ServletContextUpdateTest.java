@@ -0,0 +1,440 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm.tests;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.Servlet;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.server.NetworkConnector;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.FilterMapping;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.everit.jetty.server.ServletContextHandlerFactory;
+import org.everit.jetty.server.ecm.ServletContextHandlerFactoryConstants;
+import org.everit.osgi.dev.testrunner.EOSGiTestClass;
+import org.everit.osgi.dev.testrunner.TestRunnerConstants;
+import org.everit.osgi.ecm.annotation.Activate;
+import org.everit.osgi.ecm.annotation.Component;
+import org.everit.osgi.ecm.annotation.ConfigurationPolicy;
+import org.everit.osgi.ecm.annotation.Service;
+import org.everit.osgi.ecm.annotation.ServiceRef;
+import org.everit.osgi.ecm.annotation.attribute.StringAttribute;
+import org.everit.osgi.ecm.annotation.attribute.StringAttributes;
+import org.everit.osgi.ecm.extender.ExtendComponent;
+import org.junit.Assert;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.cm.Configuration;
+import org.osgi.service.cm.ConfigurationAdmin;
+
+/**
+ * Tests how the servlet contexts apply the changes of their servlets and filters.
+ */
+@ExtendComponent
+@Component(configurationPolicy = ConfigurationPolicy.IGNORE)
+@StringAttributes({
+    @StringAttribute(attributeId = TestRunnerConstants.SERVICE_PROPERTY_TEST_ID,
+        defaultValue = "ServletContextUpdateTest"),
+    @StringAttribute(attributeId = TestRunnerConstants.SERVICE_PROPERTY_TESTRUNNER_ENGINE,
+        defaultValue = "junit4") })
+@EOSGiTestClass
+@Service
+public class ServletContextUpdateTest {
+
+  /**
+   * Filter that passes the requests to the next element of the chain.
+   */
+  private static class ForwardingFilter implements Filter {
+
+    @Override
+    public void destroy() {
+      // Nothing to release
+    }
+
+    @Override
+    public void doFilter(final ServletRequest request, final ServletResponse response,
+        final FilterChain chain) throws IOException, ServletException {
+      chain.doFilter(request, response);
+    }
+
+    @Override
+    public void init(final FilterConfig filterConfig) throws ServletException {
+      // Nothing to initialize
+    }
+  }
+
+  /**
+   * Servlet that counts how many times it was initialized and destroyed.
+   */
+  private static class InitCountingServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    private final AtomicInteger destroyCount = new AtomicInteger();
+
+    private final AtomicInteger initCount = new AtomicInteger();
+
+    @Override
+    public void destroy() {
+      this.destroyCount.incrementAndGet();
+      super.destroy();
+    }
+
+    @Override
+    protected void doGet(final HttpServletRequest req, final HttpServletResponse resp)
+        throws ServletException, IOException {
+      resp.getWriter().write(String.valueOf(this.initCount.get()));
+    }
+
+    @Override
+    public void init() throws ServletException {
+      this.initCount.incrementAndGet();
+    }
+  }
+
+  private static final long BURST_UPDATE_QUIET_PERIOD_MILLIS = 2000;
+
+  private static final int COALESCED_ELEMENT_COUNT = 30;
+
+  private static final String COALESCED_FILTER_PROPERTY = "jettyCoalescedFilter";
+
+  private static final String COALESCED_SERVLET_PROPERTY = "jettyCoalescedServlet";
+
+  private static final long CONTINUOUS_CHANGE_INTERVAL_MILLIS = 100;
+
+  private static final long CONTINUOUS_UPDATE_MAX_DELAY_MILLIS = 1500;
+
+  private static final long CONTINUOUS_UPDATE_QUIET_PERIOD_MILLIS = 500;
+
+  private static final String IN_FLIGHT_SERVLET_PROPERTY = "jettyInFlightServlet";
+
+  private static final int REGISTRATION_SERVLET_COUNT = 50;
+
+  private static final String REGISTRATION_SERVLET_PROPERTY = "jettyRegistrationServlet";
+
+  private static int countFilterMappings(final ServletHandler servletHandler) {
+    FilterMapping[] filterMappings = servletHandler.getFilterMappings();
+    return (filterMappings == null) ? 0 : filterMappings.length;
+  }
+
+  private ConfigurationAdmin configurationAdmin;
+
+  private JettyTestSupport support;
+
+  @Activate
+  public void activate(final BundleContext bundleContext) {
+    this.support = new JettyTestSupport(bundleContext, this.configurationAdmin);
+  }
+
+  /**
+   * Creates a servlet context that coalesces the updates of {@link #COALESCED_ELEMENT_COUNT}
+   * servlets and filters that can be registered by {@link #registerCoalescedServlet(int)} and
+   * {@link #registerCoalescedFilter(int)}.
+   */
+  private Configuration createCoalescingServletContextConfiguration(final long updateQuietPeriod,
+      final long updateMaxDelay) throws IOException {
+    String[] servletClauses = new String[COALESCED_ELEMENT_COUNT];
+    String[] filterClauses = new String[COALESCED_ELEMENT_COUNT];
+    for (int i = 0; i < COALESCED_ELEMENT_COUNT; i++) {
+      servletClauses[i] = JettyTestSupport.servletClause("coalescedServlet" + i, "/" + i,
+          COALESCED_SERVLET_PROPERTY, i);
+      filterClauses[i] = "coalescedFilter" + i + ";"
+          + ServletContextHandlerFactoryConstants.FILTER_CLAUSE_ATTR_URL_PATTERN + "=/*"
+          + ";filter:=(" + COALESCED_FILTER_PROPERTY + "=" + i + ")";
+    }
+    Dictionary<String, Object> properties = new Hashtable<>();
+    properties.put(ServletContextHandlerFactoryConstants.ATTR_FILTERS + ".clause",
+        filterClauses);
+    properties.put(ServletContextHandlerFactoryConstants.ATTR_UPDATE_QUIET_PERIOD,
+        updateQuietPeriod);
+    properties.put(ServletContextHandlerFactoryConstants.ATTR_UPDATE_MAX_DELAY, updateMaxDelay);
+    return this.support.createServletContextConfiguration(properties, servletClauses);
+  }
+
+  private ServiceRegistration<Filter> registerCoalescedFilter(final int index) {
+    return this.support.registerService(Filter.class, new ForwardingFilter(),
+        COALESCED_FILTER_PROPERTY, index);
+  }
+
+  private ServiceRegistration<Servlet> registerCoalescedServlet(final int index) {
+    return this.support.registerService(Servlet.class, new TextServlet(String.valueOf(index)),
+        COALESCED_SERVLET_PROPERTY, index);
+  }
+
+  @ServiceRef(defaultValue = "")
+  public void setConfigurationAdmin(final ConfigurationAdmin configurationAdmin) {
+    this.configurationAdmin = configurationAdmin;
+  }
+
+  /**
+   * Registers servlets one by one to a started servlet context, the way whiteboard servlets are
+   * registered at startup, and checks that every registration keeps the holders of the already
+   * registered servlets instead of re-creating or restarting them.
+   */
+  @Test
+  public void testServletRegistrationReusesUnchangedHolders() throws Exception {
+    String[] servletClauses = new String[REGISTRATION_SERVLET_COUNT];
+    for (int i = 0; i < REGISTRATION_SERVLET_COUNT; i++) {
+      servletClauses[i] = JettyTestSupport.servletClause("registration" + i, "/" + i,
+          REGISTRATION_SERVLET_PROPERTY, i);
+    }
+    Configuration configuration =
+        this.support.createServletContextConfiguration(new Hashtable<>(), servletClauses);
+    List<ServiceRegistration<Servlet>> serviceRegistrations = new ArrayList<>();
+    Server registrationServer = new Server(0);
+    HttpClient httpClient = new HttpClient();
+    try {
+      ServletContextHandler servletContextHandler = this.support
+          .awaitService(ServletContextHandlerFactory.class, configuration.getPid())
+          .createHandler(registrationServer, "/registration");
+      registrationServer.start();
+      httpClient.start();
+      ServletHandler servletHandler = servletContextHandler.getServletHandler();
+
+      @SuppressWarnings("resource")
+      NetworkConnector connector = (NetworkConnector) registrationServer.getConnectors()[0];
+      String baseUrl = "http://localhost:" + connector.getLocalPort() + "/registration";
+      long deadlineMillis = System.currentTimeMillis() + JettyTestSupport.SERVICE_TIMEOUT_MILLIS;
+
+      InitCountingServlet firstServlet = new InitCountingServlet();
+      List<ServletHolder> servletHolders = new ArrayList<>();
+      for (int i = 0; i < REGISTRATION_SERVLET_COUNT; i++) {
+        Servlet servlet = (i == 0) ? firstServlet : new InitCountingServlet();
+        serviceRegistrations.add(this.support.registerService(Servlet.class, servlet,
+            REGISTRATION_SERVLET_PROPERTY, i));
+        JettyTestSupport.await("servlet " + i + " is mapped",
+            JettyTestSupport.servletMapped(servletContextHandler, "/" + i), deadlineMillis);
+        servletHolders.add(
+            servletHandler.getServlet(servletHandler.getServletMapping("/" + i).getServletName()));
+
+        if (i == 0) {
+          Assert.assertEquals("1", httpClient.GET(baseUrl + "/0").getContentAsString());
+        }
+        for (int j = 0; j <= i; j++) {
+          ServletHolder servletHolder = servletHolders.get(j);
+          Assert.assertSame(servletHolder, servletHandler
+              .getServlet(servletHandler.getServletMapping("/" + j).getServletName()));
+          Assert.assertTrue(servletHolder.isStarted());
+        }
+      }
+
+      Assert.assertEquals("1", httpClient.GET(baseUrl + "/0").getContentAsString());
+      Assert.assertEquals(1, firstServlet.initCount.get());
+      Assert.assertEquals(0, firstServlet.destroyCount.get());
+    } finally {
+      // Dropping the configuration first, so the servlets are not removed one by one
+      configuration.delete();
+      httpClient.stop();
+      registrationServer.stop();
+      for (ServiceRegistration<Servlet> serviceRegistration : serviceRegistrations) {
+        serviceRegistration.unregister();
+      }
+    }
+  }
+
+  /**
+   * Removes the servlet of an in-flight request and adds another one. The in-flight request must
+   * finish on the servlet it started with, while the new requests must see the change at once.
+   * The removed servlet must be destroyed only after the in-flight request finished.
+   */
+  @Test
+  public void testServletUpdateDuringInFlightRequest() throws Exception {
+    Configuration configuration = this.support.createServletContextConfiguration(
+        new Hashtable<>(),
+        JettyTestSupport.servletClause("blocking", "/blocking", IN_FLIGHT_SERVLET_PROPERTY,
+            "blocking"),
+        JettyTestSupport.servletClause("added", "/added", IN_FLIGHT_SERVLET_PROPERTY, "added"));
+    BlockingServlet blockingServlet = new BlockingServlet();
+    List<ServiceRegistration<Servlet>> serviceRegistrations = new ArrayList<>();
+    Server inFlightServer = new Server(0);
+    HttpClient httpClient = new HttpClient();
+    ExecutorService executorService = Executors.newSingleThreadExecutor();
+    try {
+      ServletContextHandler servletContextHandler = this.support
+          .awaitService(ServletContextHandlerFactory.class, configuration.getPid())
+          .createHandler(inFlightServer, "/inflight");
+      inFlightServer.start();
+      httpClient.start();
+
+      long deadlineMillis = JettyTestSupport.deadlineMillis();
+      ServiceRegistration<Servlet> blockingServletRegistration = this.support.registerService(
+          Servlet.class, blockingServlet, IN_FLIGHT_SERVLET_PROPERTY, "blocking");
+      serviceRegistrations.add(blockingServletRegistration);
+      JettyTestSupport.await("the blocking servlet is mapped",
+          JettyTestSupport.servletMapped(servletContextHandler, "/blocking"), deadlineMillis);
+
+      @SuppressWarnings("resource")
+      NetworkConnector connector = (NetworkConnector) inFlightServer.getConnectors()[0];
+      String baseUrl = "http://localhost:" + connector.getLocalPort() + "/inflight";
+      Future<ContentResponse> inFlightResponse =
+          executorService.submit(() -> httpClient.GET(baseUrl + "/blocking"));
+      Assert.assertTrue(blockingServlet.awaitEntered());
+
+      blockingServletRegistration.unregister();
+      serviceRegistrations.remove(blockingServletRegistration);
+      serviceRegistrations.add(this.support.registerService(Servlet.class,
+          new TextServlet("added"), IN_FLIGHT_SERVLET_PROPERTY, "added"));
+      BooleanSupplier blockingServletMapped =
+          JettyTestSupport.servletMapped(servletContextHandler, "/blocking");
+      JettyTestSupport.await("the blocking servlet is unmapped",
+          () -> !blockingServletMapped.getAsBoolean(), deadlineMillis);
+      JettyTestSupport.await("the added servlet is mapped",
+          JettyTestSupport.servletMapped(servletContextHandler, "/added"), deadlineMillis);
+
+      Assert.assertEquals(404, httpClient.GET(baseUrl + "/blocking").getStatus());
+      Assert.assertEquals("added", httpClient.GET(baseUrl + "/added").getContentAsString());
+      Assert.assertFalse(blockingServlet.isDestroyed());
+
+      blockingServlet.release();
+      ContentResponse contentResponse =
+          inFlightResponse.get(JettyTestSupport.REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      Assert.assertEquals(200, contentResponse.getStatus());
+      Assert.assertEquals("blocking", contentResponse.getContentAsString());
+      Assert.assertTrue(blockingServlet.awaitDestroyed());
+    } finally {
+      blockingServlet.release();
+      executorService.shutdownNow();
+      httpClient.stop();
+      configuration.delete();
+      inFlightServer.stop();
+      for (ServiceRegistration<Servlet> serviceRegistration : serviceRegistrations) {
+        serviceRegistration.unregister();
+      }
+    }
+  }
+
+  /**
+   * Registers servlets and filters in a burst to a servlet context that coalesces the updates.
+   * Nothing must be applied during the burst, then all of the servlets and filters must be applied
+   * together by one rebuild, and no further rebuild must follow.
+   */
+  @Test
+  public void testUpdateCoalescerAppliesBurstInOneRebuild() throws Exception {
+    Configuration configuration = createCoalescingServletContextConfiguration(
+        BURST_UPDATE_QUIET_PERIOD_MILLIS, JettyTestSupport.SERVICE_TIMEOUT_MILLIS);
+    List<ServiceRegistration<?>> serviceRegistrations = new ArrayList<>();
+    Server coalescingServer = new Server(0);
+    try {
+      ServletHandler servletHandler = this.support
+          .awaitService(ServletContextHandlerFactory.class, configuration.getPid())
+          .createHandler(coalescingServer, "/coalescing").getServletHandler();
+      coalescingServer.start();
+
+      long burstStartNanos = System.nanoTime();
+      for (int i = 0; i < COALESCED_ELEMENT_COUNT; i++) {
+        serviceRegistrations.add(registerCoalescedServlet(i));
+        serviceRegistrations.add(registerCoalescedFilter(i));
+      }
+      Assert.assertTrue("The burst took longer than the quiet period",
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - burstStartNanos)
+              < BURST_UPDATE_QUIET_PERIOD_MILLIS);
+
+      // The handler applies an update under its own lock, so the state is read under the same
+      // lock to see either none or all of an update
+      synchronized (servletHandler) {
+        Assert.assertNull(servletHandler.getServletMapping("/0"));
+        Assert.assertEquals(0, countFilterMappings(servletHandler));
+      }
+
+      JettyTestSupport.await("the coalesced update is applied", () -> {
+        synchronized (servletHandler) {
+          return servletHandler.getServletMapping("/0") != null
+              || countFilterMappings(servletHandler) > 0;
+        }
+      }, System.currentTimeMillis() + JettyTestSupport.SERVICE_TIMEOUT_MILLIS);
+      ServletHolder[] servletHolders;
+      synchronized (servletHandler) {
+        for (int i = 0; i < COALESCED_ELEMENT_COUNT; i++) {
+          Assert.assertNotNull("Servlet mapping /" + i, servletHandler.getServletMapping("/" + i));
+        }
+        Assert.assertEquals(COALESCED_ELEMENT_COUNT, countFilterMappings(servletHandler));
+        servletHolders = servletHandler.getServlets();
+      }
+
+      Thread.sleep(BURST_UPDATE_QUIET_PERIOD_MILLIS);
+      Assert.assertSame(servletHolders, servletHandler.getServlets());
+    } finally {
+      // Dropping the configuration first, so the elements are not removed one by one
+      configuration.delete();
+      coalescingServer.stop();
+      for (ServiceRegistration<?> serviceRegistration : serviceRegistrations) {
+        serviceRegistration.unregister();
+      }
+    }
+  }
+
+  /**
+   * Keeps registering servlets to a servlet context that coalesces the updates, more often than
+   * its quiet period. The update must be applied by the max delay while the changes keep arriving.
+   */
+  @Test
+  public void testUpdateCoalescerAppliesContinuousChangesByMaxDelay() throws Exception {
+    Configuration configuration = createCoalescingServletContextConfiguration(
+        CONTINUOUS_UPDATE_QUIET_PERIOD_MILLIS, CONTINUOUS_UPDATE_MAX_DELAY_MILLIS);
+    List<ServiceRegistration<?>> serviceRegistrations = new ArrayList<>();
+    Server coalescingServer = new Server(0);
+    try {
+      ServletContextHandler servletContextHandler = this.support
+          .awaitService(ServletContextHandlerFactory.class, configuration.getPid())
+          .createHandler(coalescingServer, "/coalescing");
+      coalescingServer.start();
+
+      BooleanSupplier firstServletMapped =
+          JettyTestSupport.servletMapped(servletContextHandler, "/0");
+      long firstChangeNanos = System.nanoTime();
+      while (!firstServletMapped.getAsBoolean()) {
+        Assert.assertTrue("The update was not applied while the changes kept arriving",
+            serviceRegistrations.size() < COALESCED_ELEMENT_COUNT);
+        serviceRegistrations.add(registerCoalescedServlet(serviceRegistrations.size()));
+        Thread.sleep(CONTINUOUS_CHANGE_INTERVAL_MILLIS);
+      }
+
+      Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - firstChangeNanos)
+          >= CONTINUOUS_UPDATE_MAX_DELAY_MILLIS);
+    } finally {
+      configuration.delete();
+      coalescingServer.stop();
+      for (ServiceRegistration<?> serviceRegistration : serviceRegistrations) {
+        serviceRegistration.unregister();
+      }
+    }
+  }
+}
@@ -0,0 +1,545 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.ecm.tests;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.NetworkConnector;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.SslConnectionFactory;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.everit.jetty.server.ConnectionFactoryFactory;
+import org.everit.jetty.server.ecm.SslConnectionFactoryFactoryConstants;
+import org.everit.osgi.dev.testrunner.EOSGiTestClass;
+import org.everit.osgi.dev.testrunner.TestRunnerConstants;
+import org.everit.osgi.ecm.annotation.Activate;
+import org.everit.osgi.ecm.annotation.Component;
+import org.everit.osgi.ecm.annotation.ConfigurationPolicy;
+import org.everit.osgi.ecm.annotation.Service;
+import org.everit.osgi.ecm.annotation.ServiceRef;
+import org.everit.osgi.ecm.annotation.attribute.StringAttribute;
+import org.everit.osgi.ecm.annotation.attribute.StringAttributes;
+import org.everit.osgi.ecm.extender.ExtendComponent;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.cm.Configuration;
+import org.osgi.service.cm.ConfigurationAdmin;
+
+/**
+ * Tests the SSL connection factories: certificate selection, key store changes and handshake
+ * offloading.
+ */
+@ExtendComponent
+@Component(configurationPolicy = ConfigurationPolicy.IGNORE)
+@StringAttributes({
+    @StringAttribute(attributeId = TestRunnerConstants.SERVICE_PROPERTY_TEST_ID,
+        defaultValue = "TlsTest"),
+    @StringAttribute(attributeId = TestRunnerConstants.SERVICE_PROPERTY_TESTRUNNER_ENGINE,
+        defaultValue = "junit4") })
+@EOSGiTestClass
+@Service
+public class TlsTest {
+
+  private static final int CONCURRENT_HANDSHAKES = 8;
+
+  private static final String FIRST_RELOAD_KEY_STORE = "reload-first-keystore";
+
+  private static final String HANDSHAKE_OFFLOAD_CONNECTOR_NAME = "handshakeoffload";
+
+  private static final String KEY_STORE_PROPERTY = "jettyTestKeyStore";
+
+  private static final String SECOND_RELOAD_KEY_STORE = "reload-second-keystore";
+
+  private static final String SNI_EXACT_HOST = "exact.sni.test";
+
+  private static final String SNI_KEY_STORE = "sni-keystore";
+
+  private static final String SNI_UNKNOWN_HOST = "unknown.sni.test";
+
+  private static final String SNI_WILDCARD_DOMAIN = "wild.sni.test";
+
+  private static final int STALLED_HANDSHAKES = 4;
+
+  private static final int UPDATED_SSL_SESSION_TIMEOUT = 600;
+
+  private static SSLContext createTrustAllSslContext() throws GeneralSecurityException {
+    SSLContext sslContext = SSLContext.getInstance("TLS");
+    sslContext.init(null, SslContextFactory.TRUST_ALL_CERTS, null);
+    return sslContext;
+  }
+
+  /**
+   * Opens a TLS connection and finishes its handshake.
+   *
+   * @param sniHost
+   *          The host name that is sent via SNI or <code>null</code> if no host name should be
+   *          sent.
+   */
+  private static SSLSocket openTlsConnection(final SSLContext sslContext, final int port,
+      final String sniHost) throws IOException {
+    // The client side session cache is keyed by the host name, so sessions can be resumed
+    SSLSocket socket = (SSLSocket) sslContext.getSocketFactory()
+        .createSocket(InetAddress.getLocalHost().getHostName(), port);
+    try {
+      socket.setSoTimeout(
+          (int) TimeUnit.SECONDS.toMillis(JettyTestSupport.REQUEST_TIMEOUT_SECONDS));
+      SSLParameters sslParameters = socket.getSSLParameters();
+      sslParameters.setServerNames((sniHost == null) ? Collections.emptyList()
+          : Collections.singletonList(new SNIHostName(sniHost)));
+      socket.setSSLParameters(sslParameters);
+      socket.startHandshake();
+      return socket;
+    } catch (IOException | RuntimeException e) {
+      socket.close();
+      throw e;
+    }
+  }
+
+  private static String peerSubject(final SSLSocket socket) throws IOException {
+    X509Certificate certificate =
+        (X509Certificate) socket.getSession().getPeerCertificates()[0];
+    return certificate.getSubjectX500Principal().getName();
+  }
+
+  /**
+   * Opens a TLS connection with a new client session cache and returns the subject of the
+   * certificate of the server after a request was served on the connection.
+   */
+  private static String requestPeerSubject(final int port, final String sniHost)
+      throws IOException, GeneralSecurityException {
+    try (SSLSocket socket = openTlsConnection(createTrustAllSslContext(), port, sniHost)) {
+      Assert.assertEquals("text", JettyTestSupport.requestText(socket, sniHost));
+      return peerSubject(socket);
+    }
+  }
+
+  /**
+   * Returns the number of the handshakes that are measured by the handshake time histogram of
+   * the SSL connection factory of the connector.
+   */
+  private static long sumHandshakeTimeHistogram(final NetworkConnector connector)
+      throws ReflectiveOperationException {
+    @SuppressWarnings("unchecked")
+    Map<String, Long> histogram = (Map<String, Long>) JettyTestSupport.getManagedAttribute(
+        connector.getConnectionFactory(SslConnectionFactory.class), "getHandshakeTimeHistogram");
+    long result = 0;
+    for (Long count : histogram.values()) {
+      result += count;
+    }
+    return result;
+  }
+
+  private ConfigurationAdmin configurationAdmin;
+
+  private Server server;
+
+  private JettyTestSupport support;
+
+  @Activate
+  public void activate(final BundleContext bundleContext) {
+    this.support = new JettyTestSupport(bundleContext, this.configurationAdmin);
+  }
+
+  /**
+   * Creates an SSL connection factory that uses the key store registered by
+   * {@link #registerKeyStore(String)} with the name or the developer certificate if the name is
+   * <code>null</code>.
+   */
+  private Configuration createSslConnectionFactoryConfiguration(final String keyStoreName,
+      final boolean sniRequired) throws IOException {
+    Dictionary<String, Object> properties = new Hashtable<>();
+    if (keyStoreName != null) {
+      properties.put(SslConnectionFactoryFactoryConstants.ATTR_KEYSTORE + ".target",
+          "(" + KEY_STORE_PROPERTY + "=" + keyStoreName + ")");
+    }
+    properties.put(SslConnectionFactoryFactoryConstants.ATTR_SNI_REQUIRED, sniRequired);
+    return this.support.createConfiguration(
+        SslConnectionFactoryFactoryConstants.SERVICE_FACTORY_PID, properties);
+  }
+
+  private Configuration createTlsServerConnectorConfiguration(
+      final Configuration sslConnectionFactoryConfiguration) throws IOException {
+    return this.support.createServerConnectorConfiguration(new Hashtable<>(),
+        sslConnectionFactoryConfiguration.getPid(), JettyTestSupport.HTTP_CONNECTION_FACTORY_PID);
+  }
+
+  /**
+   * Creates an SSL connection factory with the currently registered factory of the configuration
+   * and returns its {@link SslContextFactory}.
+   */
+  private SslContextFactory getSslContextFactory(final Configuration sslConfiguration)
+      throws Exception {
+    ConnectionFactoryFactory connectionFactoryFactory = this.support
+        .awaitService(ConnectionFactoryFactory.class, sslConfiguration.getPid());
+    SslConnectionFactory sslConnectionFactory = (SslConnectionFactory) connectionFactoryFactory
+        .createConnectionFactory(HttpVersion.HTTP_1_1.asString());
+    return sslConnectionFactory.getSslContextFactory();
+  }
+
+  /**
+   * Registers the PKCS12 key store of the test bundle with the name as an OSGi service, so it can
+   * be referenced by {@link #createSslConnectionFactoryConfiguration(String, boolean)}.
+   */
+  private ServiceRegistration<KeyStore> registerKeyStore(final String name)
+      throws IOException, GeneralSecurityException {
+    KeyStore keyStore = KeyStore.getInstance("PKCS12");
+    try (InputStream inputStream =
+        TlsTest.class.getResourceAsStream("/META-INF/" + name + ".p12")) {
+      keyStore.load(inputStream,
+          SslConnectionFactoryFactoryConstants.DEFAULT_KEYSTORE_PASSWORD.toCharArray());
+    }
+    return this.support.registerService(KeyStore.class, keyStore, KEY_STORE_PROPERTY, name);
+  }
+
+  @ServiceRef(defaultValue = "")
+  public void setConfigurationAdmin(final ConfigurationAdmin configurationAdmin) {
+    this.configurationAdmin = configurationAdmin;
+  }
+
+  // Tests start further JettyServer components, so the filter must select the configured one
+  @ServiceRef(defaultValue = "(" + Constants.SERVICE_PID + "=" + JettyTestSupport.JETTY_SERVER_PID
+      + ")")
+  public void setServer(final Server server) {
+    this.server = server;
+  }
+
+  /**
+   * Switches the SSL connection factory of a connector to another key store. The new handshakes
+   * must get the certificate of the new key store, while an established connection must keep
+   * serving requests.
+   */
+  @Test
+  public void testChangedKeyStoreKeepsEstablishedConnections() throws Exception {
+    ServiceRegistration<KeyStore> firstKeyStoreRegistration =
+        registerKeyStore(FIRST_RELOAD_KEY_STORE);
+    ServiceRegistration<KeyStore> secondKeyStoreRegistration =
+        registerKeyStore(SECOND_RELOAD_KEY_STORE);
+    Configuration sslConfiguration =
+        createSslConnectionFactoryConfiguration(FIRST_RELOAD_KEY_STORE, false);
+    Configuration connectorConfiguration = createTlsServerConnectorConfiguration(sslConfiguration);
+    Server tlsServer = new Server();
+    try {
+      int tlsPort = this.support.startTextServer(tlsServer, connectorConfiguration).getLocalPort();
+      try (SSLSocket establishedSocket =
+          openTlsConnection(createTrustAllSslContext(), tlsPort, null)) {
+        Assert.assertEquals("CN=first.reload.test", peerSubject(establishedSocket));
+        Assert.assertEquals("text", JettyTestSupport.requestText(establishedSocket, null));
+
+        Dictionary<String, Object> properties = sslConfiguration.getProperties();
+        properties.put(SslConnectionFactoryFactoryConstants.ATTR_KEYSTORE + ".target",
+            "(" + KEY_STORE_PROPERTY + "=" + SECOND_RELOAD_KEY_STORE + ")");
+        sslConfiguration.update(properties);
+
+        JettyTestSupport.await("new handshakes get the certificate of the new key store", () -> {
+          try {
+            return "CN=second.reload.test".equals(requestPeerSubject(tlsPort, null));
+          } catch (IOException | GeneralSecurityException e) {
+            throw new AssertionError(e);
+          }
+        }, JettyTestSupport.deadlineMillis());
+        Assert.assertEquals("text", JettyTestSupport.requestText(establishedSocket, null));
+      }
+    } finally {
+      tlsServer.stop();
+      connectorConfiguration.delete();
+      sslConfiguration.delete();
+      secondKeyStoreRegistration.unregister();
+      firstKeyStoreRegistration.unregister();
+    }
+  }
+
+  /**
+   * Sends parallel requests that need their own handshakes to a connector that offloads the
+   * handshakes. The handshakes must be run and measured by the SSL connection factory.
+   */
+  @Test
+  public void testHandshakeOffloadConcurrentHandshakes() throws Exception {
+    @SuppressWarnings("resource")
+    NetworkConnector connector =
+        JettyTestSupport.findNetworkConnector(this.server, HANDSHAKE_OFFLOAD_CONNECTOR_NAME);
+    ThreadPoolExecutor handshakeExecutor =
+        connector.getConnectionFactory(SslConnectionFactory.class)
+            .getBean(ThreadPoolExecutor.class);
+    Assert.assertNotNull(handshakeExecutor);
+    Assert.assertFalse(handshakeExecutor.isShutdown());
+    long completedHandshakeTasks = handshakeExecutor.getCompletedTaskCount();
+    long measuredHandshakes = sumHandshakeTimeHistogram(connector);
+
+    String url =
+        JettyTestSupport.getHttpsEchoRemoteUrl(this.server, HANDSHAKE_OFFLOAD_CONNECTOR_NAME);
+    ExecutorService executorService = Executors.newFixedThreadPool(CONCURRENT_HANDSHAKES);
+    try {
+      List<Future<ContentResponse>> futures = new ArrayList<>();
+      for (int i = 0; i < CONCURRENT_HANDSHAKES; i++) {
+        futures.add(executorService.submit(() -> {
+          // Every request has its own client so every request needs its own handshake
+          HttpClient httpClient = JettyTestSupport.createTrustAllHttpsClient();
+          try {
+            return httpClient.GET(url);
+          } finally {
+            httpClient.stop();
+          }
+        }));
+      }
+      for (Future<ContentResponse> future : futures) {
+        ContentResponse contentResponse =
+            future.get(JettyTestSupport.REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        Assert.assertEquals(200, contentResponse.getStatus());
+        JSONObject jsonObject = new JSONObject(contentResponse.getContentAsString());
+        Assert.assertEquals(true, Boolean.valueOf(jsonObject.get("secure").toString()));
+      }
+    } finally {
+      executorService.shutdownNow();
+    }
+
+    // The executor counts a task as completed only after it returned, which may happen after the
+    // response is received
+    JettyTestSupport.await("the handshakes are run on the handshake executor",
+        () -> handshakeExecutor.getCompletedTaskCount() > completedHandshakeTasks,
+        JettyTestSupport.deadlineMillis());
+    Assert.assertTrue(
+        sumHandshakeTimeHistogram(connector) - measuredHandshakes >= CONCURRENT_HANDSHAKES);
+  }
+
+  /**
+   * Keeps more peers in the middle of their handshakes than the connector has handshake threads.
+   * A further client must still be served.
+   */
+  @Test
+  public void testHandshakeOffloadStalledPeersDoNotBlockHandshakeThreads() throws Exception {
+    InetAddress localHost = InetAddress.getLocalHost();
+    @SuppressWarnings("resource")
+    NetworkConnector connector =
+        JettyTestSupport.findNetworkConnector(this.server, HANDSHAKE_OFFLOAD_CONNECTOR_NAME);
+
+    // More stalled peers than handshake threads. Each sends the beginning of a TLS record and
+    // waits, so a handshake thread that blocked on the peer would never be released.
+    List<Socket> stalledSockets = new ArrayList<>();
+    try {
+      for (int i = 0; i < STALLED_HANDSHAKES; i++) {
+        Socket socket = new Socket(localHost, connector.getLocalPort());
+        stalledSockets.add(socket);
+        OutputStream outputStream = socket.getOutputStream();
+        outputStream.write(new byte[] { 0x16, 0x03, 0x01 });
+        outputStream.flush();
+      }
+
+      HttpClient httpClient = JettyTestSupport.createTrustAllHttpsClient();
+      try {
+        ContentResponse contentResponse = httpClient
+            .newRequest(JettyTestSupport.getHttpsEchoRemoteUrl(this.server,
+                HANDSHAKE_OFFLOAD_CONNECTOR_NAME))
+            .timeout(JettyTestSupport.REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            .send();
+        Assert.assertEquals(200, contentResponse.getStatus());
+      } finally {
+        httpClient.stop();
+      }
+    } finally {
+      for (Socket socket : stalledSockets) {
+        socket.close();
+      }
+    }
+  }
+
+  /**
+   * Opens two connections with the same client session cache. The first connection must do a full
+   * handshake, while the second one must resume its session.
+   */
+  @Test
+  public void testResumedHandshakesAreCounted() throws Exception {
+    Configuration sslConfiguration = createSslConnectionFactoryConfiguration(null, false);
+    Configuration connectorConfiguration = createTlsServerConnectorConfiguration(sslConfiguration);
+    Server tlsServer = new Server();
+    try {
+      NetworkConnector connector = this.support.startTextServer(tlsServer, connectorConfiguration);
+      SSLContext sslContext = createTrustAllSslContext();
+      for (int i = 0; i < 2; i++) {
+        // The session creation time that tells resumed sessions apart has millisecond precision
+        Thread.sleep(2);
+        try (SSLSocket socket = openTlsConnection(sslContext, connector.getLocalPort(), null)) {
+          // TLS 1.3 sends the session ticket after the handshake, so a request is served first
+          Assert.assertEquals("text", JettyTestSupport.requestText(socket, null));
+        }
+      }
+
+      ConnectionFactory sslConnectionFactory =
+          connector.getConnectionFactory(SslConnectionFactory.class);
+      Assert.assertEquals(1L,
+          JettyTestSupport.getManagedAttribute(sslConnectionFactory, "getFullHandshakes"));
+      Assert.assertEquals(1L,
+          JettyTestSupport.getManagedAttribute(sslConnectionFactory, "getResumedHandshakes"));
+    } finally {
+      tlsServer.stop();
+      connectorConfiguration.delete();
+      sslConfiguration.delete();
+    }
+  }
+
+  /**
+   * Requires SNI on a connector. The handshakes with the host name of a certificate must succeed,
+   * while the handshakes without a host name or with an unknown one must be rejected.
+   */
+  @Test
+  public void testSniRequiredRejectsUnmatchedHandshakes() throws Exception {
+    ServiceRegistration<KeyStore> keyStoreRegistration = registerKeyStore(SNI_KEY_STORE);
+    Configuration sslConfiguration = createSslConnectionFactoryConfiguration(SNI_KEY_STORE, true);
+    Configuration connectorConfiguration = createTlsServerConnectorConfiguration(sslConfiguration);
+    Server tlsServer = new Server();
+    try {
+      int tlsPort = this.support.startTextServer(tlsServer, connectorConfiguration).getLocalPort();
+      Assert.assertEquals("CN=" + SNI_EXACT_HOST, requestPeerSubject(tlsPort, SNI_EXACT_HOST));
+
+      for (String sniHost : new String[] { null, SNI_UNKNOWN_HOST }) {
+        try (SSLSocket socket = openTlsConnection(createTrustAllSslContext(), tlsPort, sniHost)) {
+          Assert.fail("Handshake succeeded with the SNI host name " + sniHost + " and the "
+              + "certificate " + peerSubject(socket));
+        } catch (SSLException e) {
+          // Expected as there is no certificate for the host name
+        }
+      }
+    } finally {
+      tlsServer.stop();
+      connectorConfiguration.delete();
+      sslConfiguration.delete();
+      keyStoreRegistration.unregister();
+    }
+  }
+
+  /**
+   * Serves a key store with an exact and a wildcard certificate. The handshakes must get the
+   * certificate of their SNI host name, while a host name without a certificate must get the
+   * default one and it must be counted as unmatched.
+   */
+  @Test
+  public void testSniSelectsCertificateByHostName() throws Exception {
+    ServiceRegistration<KeyStore> keyStoreRegistration = registerKeyStore(SNI_KEY_STORE);
+    Configuration sslConfiguration =
+        createSslConnectionFactoryConfiguration(SNI_KEY_STORE, false);
+    Configuration connectorConfiguration = createTlsServerConnectorConfiguration(sslConfiguration);
+    Server tlsServer = new Server();
+    try {
+      NetworkConnector connector = this.support.startTextServer(tlsServer, connectorConfiguration);
+      int tlsPort = connector.getLocalPort();
+      String exactSubject = "CN=" + SNI_EXACT_HOST;
+      String wildcardSubject = "CN=*." + SNI_WILDCARD_DOMAIN;
+      Assert.assertEquals(exactSubject, requestPeerSubject(tlsPort, SNI_EXACT_HOST));
+      Assert.assertEquals(wildcardSubject,
+          requestPeerSubject(tlsPort, "any." + SNI_WILDCARD_DOMAIN));
+      String defaultSubject = requestPeerSubject(tlsPort, SNI_UNKNOWN_HOST);
+      Assert.assertTrue(defaultSubject,
+          Arrays.asList(exactSubject, wildcardSubject).contains(defaultSubject));
+
+      Map<String, Long> expectedSniHandshakes = new TreeMap<>();
+      expectedSniHandshakes.put(SNI_EXACT_HOST, 1L);
+      expectedSniHandshakes.put("*." + SNI_WILDCARD_DOMAIN, 1L);
+      ConnectionFactory sslConnectionFactory =
+          connector.getConnectionFactory(SslConnectionFactory.class);
+      Assert.assertEquals(expectedSniHandshakes,
+          JettyTestSupport.getManagedAttribute(sslConnectionFactory, "getSniHandshakes"));
+      Assert.assertEquals(1L, JettyTestSupport.getManagedAttribute(sslConnectionFactory,
+          "getUnmatchedSniHandshakes"));
+    } finally {
+      tlsServer.stop();
+      connectorConfiguration.delete();
+      sslConfiguration.delete();
+      keyStoreRegistration.unregister();
+    }
+  }
+
+  /**
+   * Changes an attribute of the SSL configuration that is not applied in place. The connection
+   * factories that are created afterwards must get a new {@link SslContextFactory} with the new
+   * configuration.
+   */
+  @Test
+  public void testSslConfigurationChangeReplacesSslContextFactory() throws Exception {
+    Configuration sslConfiguration = createSslConnectionFactoryConfiguration(null, false);
+    try {
+      SslContextFactory sslContextFactory = getSslContextFactory(sslConfiguration);
+      Assert.assertTrue(sslContextFactory.getSslSessionTimeout() != UPDATED_SSL_SESSION_TIMEOUT);
+
+      Dictionary<String, Object> properties = sslConfiguration.getProperties();
+      properties.put(SslConnectionFactoryFactoryConstants.ATTR_SSL_SESSION_TIMEOUT,
+          UPDATED_SSL_SESSION_TIMEOUT);
+      sslConfiguration.update(properties);
+
+      // The factory is replaced when the component is restarted with the new configuration
+      long deadlineMillis = JettyTestSupport.deadlineMillis();
+      SslContextFactory updatedSslContextFactory = getSslContextFactory(sslConfiguration);
+      while (updatedSslContextFactory.getSslSessionTimeout() != UPDATED_SSL_SESSION_TIMEOUT) {
+        Assert.assertTrue("The SslContextFactory is not replaced in time",
+            System.currentTimeMillis() < deadlineMillis);
+        Thread.sleep(JettyTestSupport.AWAIT_POLL_INTERVAL_MILLIS);
+        updatedSslContextFactory = getSslContextFactory(sslConfiguration);
+      }
+      Assert.assertNotSame(sslContextFactory, updatedSslContextFactory);
+      Assert.assertSame(updatedSslContextFactory, getSslContextFactory(sslConfiguration));
+    } finally {
+      sslConfiguration.delete();
+    }
+  }
+
+  /**
+   * Creates two SSL connection factories with the same configuration. They must share one
+   * {@link SslContextFactory}, so the key material is loaded once and the TLS session cache is
+   * shared.
+   */
+  @Test
+  public void testSslConnectionFactoriesShareSslContextFactory() throws Exception {
+    Configuration sslConfiguration = createSslConnectionFactoryConfiguration(null, false);
+    try {
+      Assert.assertSame(getSslContextFactory(sslConfiguration),
+          getSslContextFactory(sslConfiguration));
+    } finally {
+      sslConfiguration.delete();
+    }
+  }
+}